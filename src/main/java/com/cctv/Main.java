@@ -1,7 +1,9 @@
 package com.cctv;
 
+import com.cctv.discovery.PatternCache;
 import com.cctv.ui.WizardFrame;
 import com.cctv.util.Logger;
+import com.cctv.util.Scheduler;
 import javax.swing.*;
 
 public class Main {
@@ -15,7 +17,8 @@ public class Main {
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             Logger.info("Shutting down CCTV Discovery Tool...");
-            com.cctv.discovery.RtspUrlGuesser.shutdown();
+            Scheduler.shutdown();
+            PatternCache.save();
         }));
 
         SwingUtilities.invokeLater(() -> {
@@ -30,7 +33,8 @@ public class Main {
             frame.addWindowListener(new java.awt.event.WindowAdapter() {
                 @Override
                 public void windowClosing(java.awt.event.WindowEvent e) {
-                    com.cctv.discovery.RtspUrlGuesser.shutdown();
+                    Scheduler.shutdown();
+                    PatternCache.save();
                     System.exit(0);
                 }
             });
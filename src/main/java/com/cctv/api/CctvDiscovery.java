@@ -14,7 +14,8 @@ public class CctvDiscovery {
     private boolean rtspGuessingEnabled = true;
     private boolean nvrDetectionEnabled = true;
     private int threadCount = Runtime.getRuntime().availableProcessors();
-    private int timeoutSeconds = 30;
+    // 0: no deadline unless timeout() is called
+    private int timeoutSeconds = 0;
     private Consumer<DiscoveryProgress> progressCallback;
     
     private CctvDiscovery() {}
@@ -128,6 +129,7 @@ public class CctvDiscovery {
     public boolean isRtspGuessingEnabled() { return rtspGuessingEnabled; }
     public boolean isNvrDetectionEnabled() { return nvrDetectionEnabled; }
     public int getThreadCount() { return threadCount; }
+    /** Deadline of the run in seconds; 0 when none was set */
     public int getTimeoutSeconds() { return timeoutSeconds; }
     public Consumer<DiscoveryProgress> getProgressCallback() { return progressCallback; }
 }
\ No newline at end of file
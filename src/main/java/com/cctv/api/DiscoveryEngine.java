@@ -3,7 +3,11 @@ package com.cctv.api;
 import com.cctv.discovery.*;
 import com.cctv.model.Camera;
 import com.cctv.model.StreamInfo;
-import com.cctv.network.IpRangeValidator;
+import com.cctv.network.AsyncHttpEngine;
+import com.cctv.network.DeviceHttpClient;
+import com.cctv.network.IpRange;
+import com.cctv.onvif.OnvifSession;
+import com.cctv.util.ExecutionBudget;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
@@ -21,63 +25,59 @@ public class DiscoveryEngine {
         List<Camera> allCameras = new ArrayList<>();
         List<DiscoveryError> errors = new ArrayList<>();
 
+        // This run's budget: thread count split across the I/O lanes, timeout (if set) as the run's deadline
+        ExecutionBudget budget = ExecutionBudget.start(config.getThreadCount(), config.getTimeoutSeconds());
         try {
-            // Generate IP range
-            String ipRangeStr = config.getIpRange();
-            List<String> ipRange;
-
-            if (ipRangeStr.contains("-")) {
-                String[] parts = ipRangeStr.split("-", 2);
-                ipRange = IpRangeValidator.generateRange(parts[0].trim(), parts[1].trim());
-            } else {
-                // Single IP
-                ipRange = new ArrayList<>();
-                ipRange.add(ipRangeStr.trim());
-            }
+            // Parse IP range (single IP, start-end, CIDR or a comma-separated mix)
+            IpRange ipRange = IpRange.parse(config.getIpRange());
+            int ipCount = (int) Math.min(Integer.MAX_VALUE, ipRange.size());
+
+            // Cameras flow through identify/auth/streams/probe as soon as they are found
+            DiscoveryPipeline pipeline = new DiscoveryPipeline(config.getCredentials(),
+                    config.isNvrDetectionEnabled(), new ProgressListener() {
+                        @Override
+                        public void onProgress(String camera, int current, int total, String status) {
+                            reportProgress(status, current, total, camera);
+                        }
+
+                        @Override
+                        public void onComplete() {
+                        }
+
+                        @Override
+                        public void onCancelled() {
+                        }
+                    });
 
             reportProgress("ONVIF Discovery", 0, 1, "Starting ONVIF discovery");
 
             // ONVIF Discovery
             if (config.isOnvifEnabled()) {
                 List<Camera> onvifCameras = OnvifDiscovery.discover();
-                allCameras.addAll(onvifCameras);
+                for (Camera camera : onvifCameras) {
+                    // Cameras the scan will reach wait for their open ports before entering the pipeline
+                    if (config.isPortScanEnabled() && ipRange.contains(camera.getIpAddress())) {
+                        pipeline.hold(camera);
+                    } else {
+                        pipeline.submit(camera);
+                    }
+                }
                 reportProgress("ONVIF Discovery", 1, 1, "Found " + onvifCameras.size() + " ONVIF devices");
             }
 
             // Port Scanning
             if (config.isPortScanEnabled()) {
-                reportProgress("Port Scanning", 0, ipRange.size(), "Starting port scan");
-                List<Camera> scannedCameras = PortScanner.scan(ipRange);
-
-                // Early MAC Address Detection
-                for (Camera cam : scannedCameras) {
-                    if (cam.getMacAddress() == null) {
-                        String mac = ManufacturerDetector.getMacAddressFromArp(cam.getIpAddress());
-                        if (mac != null) {
-                            cam.setMacAddress(mac);
-                            // Optional: Try to detect manufacturer early if possible
-                            // But ManufacturerDetector.detect() does full logic. We just want MAC for now.
-                        }
-                    }
-                }
-
-                // Merge camera data instead of simple add
-                mergeCameras(allCameras, scannedCameras);
-
-                reportProgress("Port Scanning", ipRange.size(), ipRange.size(), "Port scan completed");
+                reportProgress("Port Scanning", 0, ipCount, "Starting port scan");
+                NioPortScanner.scan(ipRange, null, pipeline::submit);
+                pipeline.releaseHeld();
+                reportProgress("Port Scanning", ipCount, ipCount, "Port scan completed");
             }
 
-            // Assign credentials and probe
-            if (!allCameras.isEmpty()) {
-                reportProgress("Authentication", 0, allCameras.size(), "Testing credentials");
+            allCameras.addAll(pipeline.finish());
 
-                // Pass all credentials to DeviceProber for rotation
-                DeviceProber.probeAll(allCameras, config.getCredentials());
-
-                // NVR Detection
-                if (config.isNvrDetectionEnabled()) {
-                    detectNvrChannels(allCameras);
-                }
+            if (budget.isExpired()) {
+                errors.add(new DiscoveryError("", "Discovery timeout reached",
+                        "Stopped after " + config.getTimeoutSeconds() + "s; results are partial"));
             }
 
             // Convert results
@@ -103,43 +103,15 @@ public class DiscoveryEngine {
             errors.add(new DiscoveryError("", "Discovery failed", e.getMessage()));
             return new DiscoveryResult(discoveryTime, new ArrayList<>(), errors,
                     System.currentTimeMillis() - startTime);
-        }
-    }
-
-    /**
-     * Merge camera data from different discovery methods.
-     */
-    private void mergeCameras(List<Camera> allCameras, List<Camera> newCameras) {
-        for (Camera newCam : newCameras) {
-            Camera existing = findCameraByIp(allCameras, newCam.getIpAddress());
-
-            if (existing != null) {
-                // Merge data - keep ONVIF data, add port scan data
-                if (existing.getManufacturer() == null && newCam.getManufacturer() != null) {
-                    existing.setManufacturer(newCam.getManufacturer());
-                }
-                if (existing.getModel() == null && newCam.getModel() != null) {
-                    existing.setModel(newCam.getModel());
-                }
-                if (existing.getOpenRtspPorts().isEmpty() && !newCam.getOpenRtspPorts().isEmpty()) {
-                    existing.setOpenRtspPorts(newCam.getOpenRtspPorts());
-                }
-            } else {
-                allCameras.add(newCam);
-            }
-        }
-    }
-
-    /**
-     * Find camera by IP address.
-     */
-    private Camera findCameraByIp(List<Camera> cameras, String ipAddress) {
-        for (Camera camera : cameras) {
-            if (camera.getIpAddress().equals(ipAddress)) {
-                return camera;
+        } finally {
+            // This run's sessions; pools and challenges only when no other run still uses them
+            OnvifSession.reset();
+            if (ExecutionBudget.end()) {
+                DeviceHttpClient.reset();
+                AsyncHttpEngine.reset();
             }
+            PatternCache.save();
         }
-        return null;
     }
 
     private void assignCredentials(List<Camera> cameras) {
@@ -152,28 +124,6 @@ public class DiscoveryEngine {
         }
     }
 
-    /**
-     * Detect NVR channels and keep parent NVR device.
-     */
-    private void detectNvrChannels(List<Camera> cameras) {
-        List<Camera> nvrChannels = new ArrayList<>();
-
-        for (Camera camera : cameras) {
-            if (camera.getMainStream() == null) {
-                List<Camera> channels = NvrDetector.detectAndExtractChannels(camera);
-                if (!channels.isEmpty()) {
-                    // Mark parent as NVR and keep it
-                    camera.setIsNvr(true);
-                    camera.setChannelCount(channels.size());
-                    nvrChannels.addAll(channels);
-                }
-            }
-        }
-
-        // Add channels without removing parent
-        cameras.addAll(nvrChannels);
-    }
-
     /**
      * Build detailed error context.
      */
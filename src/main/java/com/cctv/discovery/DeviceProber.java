@@ -3,18 +3,18 @@ package com.cctv.discovery;
 import com.cctv.api.Credential;
 import com.cctv.discovery.NvrDetector;
 import com.cctv.model.Camera;
+import com.cctv.network.AsyncHttpEngine;
+import com.cctv.network.DeviceHttpClient;
 import com.cctv.onvif.OnvifClient;
+import com.cctv.onvif.OnvifSession;
 import com.cctv.probe.StreamProbe;
 import com.cctv.util.Logger;
+import com.cctv.util.Scheduler;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
 
 public class DeviceProber {
-    // Dynamic thread pool size based on CPU cores
-    private static final int THREAD_POOL_SIZE = Math.max(4,
-            Math.min(Runtime.getRuntime().availableProcessors() * 2, 20));
-
     private static volatile boolean cancelled = false;
 
     /**
@@ -30,18 +30,18 @@ public class DeviceProber {
      */
     public static void probeAll(List<Camera> cameras, List<Credential> credentials, ProgressListener listener) {
         cancelled = false; // Reset cancellation flag
-        Logger.info("Starting device probing for " + cameras.size() + " cameras with " + THREAD_POOL_SIZE + " threads");
+        OnvifSession.reset();
+        Logger.info("Starting device probing for " + cameras.size() + " cameras on "
+                + Scheduler.Lane.DEVICE.getThreads() + " device threads");
         Logger.info("Will try " + credentials.size() + " credential(s) per camera");
 
-        ExecutorService executor = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
-
         // Use ConcurrentHashMap to track cameras to add/remove
         ConcurrentHashMap<Camera, List<Camera>> cameraReplacements = new ConcurrentHashMap<>();
         List<Future<?>> futures = new ArrayList<>();
         final java.util.concurrent.atomic.AtomicInteger completed = new java.util.concurrent.atomic.AtomicInteger(0);
 
         for (Camera camera : cameras) {
-            Future<?> future = executor.submit(() -> {
+            Future<?> future = Scheduler.submit(Scheduler.Lane.DEVICE, () -> {
                 try {
                     // Check for cancellation
                     if (cancelled) {
@@ -89,8 +89,6 @@ public class DeviceProber {
             futures.add(future);
         }
 
-        executor.shutdown();
-
         // Wait for all tasks to complete or cancellation
         for (Future<?> future : futures) {
             try {
@@ -121,6 +119,10 @@ public class DeviceProber {
         }
 
         Logger.info("Device probing completed. Total cameras: " + cameras.size());
+        OnvifSession.reset();
+        DeviceHttpClient.reset();
+        AsyncHttpEngine.reset();
+        PatternCache.save();
 
         // Notify completion or cancellation
         if (listener != null) {
@@ -185,28 +187,7 @@ public class DeviceProber {
                 Logger.info("Attempting ONVIF authentication...");
                 if (OnvifClient.authenticate(camera)) {
                     Logger.info("ONVIF auth succeeded with credential #" + (i + 1));
-                    List<Camera> channelCameras = OnvifClient.fetchStreamUrlsMultiChannel(camera);
-
-                    if (channelCameras.size() > 1) {
-                        Logger.info("Found " + channelCameras.size() + " channels");
-                        onvifSuccess = true;
-                    } else if (channelCameras.size() == 1) {
-                        // Single channel, probe streams
-                        Camera singleCamera = channelCameras.get(0);
-                        if (singleCamera.getMainStream() != null) {
-                            Logger.info("Probing main stream for " + singleCamera.getIpAddress());
-                            StreamProbe.probe(singleCamera.getMainStream());
-                            onvifSuccess = true;
-                        }
-                        if (singleCamera.getSubStream() != null) {
-                            Logger.info("Probing sub stream for " + singleCamera.getIpAddress());
-                            StreamProbe.probe(singleCamera.getSubStream());
-                        }
-                        // Update original camera with single channel data
-                        camera.setCameraName(singleCamera.getCameraName());
-                        camera.setMainStream(singleCamera.getMainStream());
-                        camera.setSubStream(singleCamera.getSubStream());
-                    }
+                    onvifSuccess = !fetchOnvifStreams(camera, true).isEmpty();
 
                     if (onvifSuccess) {
                         Logger.info("SUCCESS: Credential #" + (i + 1) + " worked via ONVIF");
@@ -246,4 +227,135 @@ public class DeviceProber {
         }
         return false;
     }
+
+    /**
+     * Fetch stream URLs over ONVIF after a successful login. Returns the channel
+     * cameras of a multi-channel device, the camera itself when its single channel
+     * has a main stream, or an empty list when no stream URL came back.
+     */
+    private static List<Camera> fetchOnvifStreams(Camera camera, boolean probeStreams) {
+        List<Camera> channelCameras = OnvifClient.fetchStreamUrlsMultiChannel(camera);
+
+        if (channelCameras.size() > 1) {
+            Logger.info("Found " + channelCameras.size() + " channels");
+            return channelCameras;
+        }
+        if (channelCameras.size() == 1) {
+            Camera singleCamera = channelCameras.get(0);
+            if (probeStreams) {
+                if (singleCamera.getMainStream() != null) {
+                    Logger.info("Probing main stream for " + singleCamera.getIpAddress());
+                    StreamProbe.probe(singleCamera.getMainStream());
+                }
+                if (singleCamera.getSubStream() != null) {
+                    Logger.info("Probing sub stream for " + singleCamera.getIpAddress());
+                    StreamProbe.probe(singleCamera.getSubStream());
+                }
+            }
+            // Update original camera with single channel data
+            camera.setCameraName(singleCamera.getCameraName());
+            camera.setMainStream(singleCamera.getMainStream());
+            camera.setSubStream(singleCamera.getSubStream());
+            if (camera.getMainStream() != null) {
+                List<Camera> result = new ArrayList<>();
+                result.add(camera);
+                return result;
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Pipeline stage: find a credential that passes ONVIF authentication.
+     * The working credential is left on the camera. Returns false for cameras
+     * without an ONVIF service or when every credential is rejected.
+     */
+    static boolean authenticateOnvif(Camera camera, List<Credential> credentials) {
+        if (camera.getOnvifServiceUrl() == null || credentials == null) {
+            return false;
+        }
+        for (int i = 0; i < credentials.size(); i++) {
+            Credential cred = credentials.get(i);
+            if (!isUsable(cred)) {
+                continue;
+            }
+            camera.setUsername(cred.getUsername());
+            camera.setPassword(cred.getPassword());
+            if (OnvifClient.authenticate(camera)) {
+                Logger.info("ONVIF auth succeeded for " + camera.getIpAddress() + " with credential #" + (i + 1));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pipeline stage: discover stream URLs. ONVIF-authenticated cameras ask the
+     * device for its profiles first. When that finds nothing, or the camera has no
+     * ONVIF login, RTSP URL guessing rotates through the credentials, the ONVIF one
+     * first. Streams are not probed when {@code probeStreams} is false.
+     *
+     * @return the camera itself or its channel expansions; empty if no stream was found
+     */
+    static List<Camera> discoverStreams(Camera camera, List<Credential> credentials, boolean onvifAuthenticated,
+            boolean probeStreams) {
+        if (credentials == null || credentials.isEmpty()) {
+            camera.setErrorMessage("No credentials provided");
+            return new ArrayList<>();
+        }
+
+        List<Credential> rotation = new ArrayList<>(credentials);
+        if (onvifAuthenticated) {
+            List<Camera> found = fetchOnvifStreams(camera, probeStreams);
+            if (!found.isEmpty()) {
+                return found;
+            }
+            // The ONVIF login only proves access to the media service, not to RTSP
+            for (int i = 0; i < rotation.size(); i++) {
+                Credential cred = rotation.get(i);
+                if (cred.getUsername() != null && cred.getUsername().equals(camera.getUsername())
+                        && cred.getPassword() != null && cred.getPassword().equals(camera.getPassword())) {
+                    rotation.add(0, rotation.remove(i));
+                    break;
+                }
+            }
+        }
+
+        for (Credential cred : rotation) {
+            if (cancelled) {
+                break;
+            }
+            if (!isUsable(cred)) {
+                continue;
+            }
+            camera.setUsername(cred.getUsername());
+            camera.setPassword(cred.getPassword());
+            camera.setAuthFailed(false);
+            if (tryRtsp(camera, probeStreams)) {
+                List<Camera> result = new ArrayList<>();
+                result.add(camera);
+                return result;
+            }
+        }
+
+        if (!camera.isAuthFailed()) {
+            camera.setErrorMessage("All " + credentials.size() + " credential(s) failed");
+        }
+        return new ArrayList<>();
+    }
+
+    private static boolean tryRtsp(Camera camera, boolean probeStreams) {
+        if (RtspDiscoveryEngine.discoverStreams(camera, probeStreams)) {
+            // Ensure manufacturer is detected after successful RTSP discovery
+            if (camera.getManufacturer() == null) {
+                camera.setManufacturer(ManufacturerDetector.detect(camera));
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isUsable(Credential cred) {
+        return cred.getUsername() != null && !cred.getUsername().trim().isEmpty() && cred.getPassword() != null;
+    }
 }
@@ -0,0 +1,320 @@
+package com.cctv.discovery;
+
+import com.cctv.api.Credential;
+import com.cctv.model.Camera;
+import com.cctv.probe.StreamProbe;
+import com.cctv.util.ExecutionBudget;
+import com.cctv.util.Logger;
+import com.cctv.util.Scheduler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streaming discovery pipeline: identify -> authenticate -> stream discovery -> stream probe.
+ * Each camera is walked through the stages by one task on the shared
+ * {@link Scheduler} DEVICE lane, so a camera found in the first second of a scan
+ * is authenticated while the rest of the range is still being scanned. Every
+ * stage has its own concurrency limit, and at most {@link #MAX_IN_FLIGHT}
+ * cameras are admitted at once; a full pipeline blocks {@link #submit(Camera)},
+ * which pushes back all the way to the scanner.
+ *
+ * Stage limits are capped by the current {@link ExecutionBudget}; once its
+ * deadline passes, cameras skip the remaining stages and are returned as they are.
+ *
+ * Usage: {@link #hold(Camera)} for ONVIF discoveries the port scan will also
+ * cover, {@link #submit(Camera)} from the port scan sink and for everything else,
+ * then {@link #finish()} to drain and collect results.
+ */
+public class DiscoveryPipeline {
+    private static final int MAX_IN_FLIGHT = 64;
+    private static final int IDENTIFY_WORKERS = 4;
+    private static final int AUTH_WORKERS = 8;
+    private static final int STREAM_WORKERS = 8;
+    private static final int PROBE_WORKERS = 4;
+
+    private final List<Credential> credentials;
+    private final boolean nvrDetectionEnabled;
+    private final ProgressListener listener;
+
+    private final ConcurrentHashMap<String, Camera> seen = new ConcurrentHashMap<>();
+    // ONVIF cameras waiting for their port scan result, by IP
+    private final ConcurrentHashMap<String, Camera> held = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Camera, Boolean> onvifAuthenticated = new ConcurrentHashMap<>();
+    private final List<Camera> results = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger finished = new AtomicInteger();
+    private final List<Stage> stages = new ArrayList<>();
+    private final Semaphore admission = new Semaphore(MAX_IN_FLIGHT);
+    // One count per task in flight, plus one held by the producer until finish()
+    private final AtomicInteger inFlight = new AtomicInteger(1);
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile boolean cancelled = false;
+
+    public DiscoveryPipeline(List<Credential> credentials, boolean nvrDetectionEnabled, ProgressListener listener) {
+        this.credentials = credentials;
+        this.nvrDetectionEnabled = nvrDetectionEnabled;
+        this.listener = listener;
+
+        ExecutionBudget budget = ExecutionBudget.current();
+        stages.add(new Stage("Identifying", budget.limit(IDENTIFY_WORKERS), this::identify));
+        stages.add(new Stage("Authenticating", budget.limit(AUTH_WORKERS), this::authenticate));
+        stages.add(new Stage("Discovering streams", budget.limit(STREAM_WORKERS), this::discoverStreams));
+        stages.add(new Stage("Probing streams", budget.limit(PROBE_WORKERS), this::probeStreams));
+    }
+
+    /**
+     * Feeds a discovered camera into the pipeline, blocking while the pipeline
+     * is full. A camera {@link #hold held} for the same IP is admitted in its
+     * place with this camera's scan data merged in; any other repeat of an IP
+     * already in the pipeline is dropped, since cameras are never changed from
+     * outside once admitted.
+     */
+    public void submit(Camera camera) {
+        Camera existing = seen.putIfAbsent(camera.getIpAddress(), camera);
+        if (existing != null) {
+            Camera waiting = held.remove(camera.getIpAddress());
+            if (waiting == null) {
+                Logger.info("Ignoring repeated " + camera.getIpAddress() + "; already in the pipeline");
+                return;
+            }
+            merge(waiting, camera);
+            camera = waiting;
+        }
+        admit(camera);
+    }
+
+    /**
+     * Keeps a camera found by ONVIF discovery out of the pipeline until the port
+     * scan reports the same IP to {@link #submit(Camera)}, or until
+     * {@link #releaseHeld()}, so it is admitted once and with its open RTSP ports.
+     */
+    public void hold(Camera camera) {
+        held.putIfAbsent(camera.getIpAddress(), camera);
+        if (seen.putIfAbsent(camera.getIpAddress(), camera) != null) {
+            held.remove(camera.getIpAddress(), camera);
+        }
+    }
+
+    /**
+     * Admits every camera still held; called once the port scan is over, as no
+     * scan data will come for them.
+     */
+    public void releaseHeld() {
+        for (String ip : new ArrayList<>(held.keySet())) {
+            Camera camera = held.remove(ip);
+            if (camera != null) {
+                admit(camera);
+            }
+        }
+    }
+
+    private void admit(Camera camera) {
+        try {
+            admission.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            results.add(camera);
+            return;
+        }
+        dispatch(camera, 0, true);
+    }
+
+    /**
+     * Signals that no more cameras will be submitted, waits for every stage to
+     * drain and returns all cameras, including NVR channel expansions.
+     */
+    public List<Camera> finish() {
+        releaseHeld();
+        release();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+        }
+        Logger.info("Discovery pipeline completed with " + results.size() + " cameras");
+        if (listener != null) {
+            if (cancelled) {
+                listener.onCancelled();
+            } else {
+                listener.onComplete();
+            }
+        }
+        synchronized (results) {
+            return new ArrayList<>(results);
+        }
+    }
+
+    /**
+     * Stops doing work; cameras already admitted pass through untouched.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void dispatch(Camera camera, int stageIndex, boolean admitted) {
+        inFlight.incrementAndGet();
+        Scheduler.execute(Scheduler.Lane.DEVICE, () -> {
+            try {
+                run(camera, stageIndex);
+            } finally {
+                if (admitted) {
+                    admission.release();
+                }
+                release();
+            }
+        });
+    }
+
+    /**
+     * Walks one camera through the remaining stages on the current thread. Extra
+     * cameras produced by a stage (NVR channels) continue as separate tasks.
+     */
+    private void run(Camera camera, int stageIndex) {
+        Camera current = camera;
+        for (int i = stageIndex; i < stages.size(); i++) {
+            List<Camera> out = stages.get(i).process(current);
+            for (int k = 1; k < out.size(); k++) {
+                dispatch(out.get(k), i + 1, false);
+            }
+            current = out.get(0);
+        }
+        emit(current);
+    }
+
+    private void release() {
+        if (inFlight.decrementAndGet() == 0) {
+            done.countDown();
+        }
+    }
+
+    private List<Camera> identify(Camera camera) {
+        PortScanner.identify(camera);
+        return Collections.singletonList(camera);
+    }
+
+    private List<Camera> authenticate(Camera camera) {
+        if (DeviceProber.authenticateOnvif(camera, credentials)) {
+            onvifAuthenticated.put(camera, Boolean.TRUE);
+        }
+        return Collections.singletonList(camera);
+    }
+
+    private List<Camera> discoverStreams(Camera camera) {
+        boolean onvif = onvifAuthenticated.remove(camera) != null;
+        List<Camera> found = DeviceProber.discoverStreams(camera, credentials, onvif, false);
+
+        if (found.size() == 1 && found.get(0) == camera && camera.getMainStream() != null) {
+            // Single stream found; check whether this is really an NVR/DVR
+            List<Camera> channels = NvrDetector.detectAndExtractChannels(camera);
+            if (!channels.isEmpty()) {
+                Logger.info("Found " + channels.size() + " channels in NVR/DVR " + camera.getIpAddress());
+                return channels;
+            }
+        } else if (found.isEmpty() && nvrDetectionEnabled) {
+            // No streams on the device itself; keep it as the NVR parent if channels turn up
+            List<Camera> channels = NvrDetector.detectAndExtractChannels(camera);
+            if (!channels.isEmpty()) {
+                camera.setIsNvr(true);
+                camera.setChannelCount(channels.size());
+                List<Camera> result = new ArrayList<>();
+                result.add(camera);
+                result.addAll(channels);
+                return result;
+            }
+        }
+        return found.isEmpty() ? Collections.singletonList(camera) : found;
+    }
+
+    private List<Camera> probeStreams(Camera camera) {
+        if (StreamProbe.needsProbe(camera.getMainStream())) {
+            StreamProbe.probe(camera.getMainStream());
+        }
+        if (StreamProbe.needsProbe(camera.getSubStream())) {
+            StreamProbe.probe(camera.getSubStream());
+        }
+        return Collections.singletonList(camera);
+    }
+
+    /**
+     * Adds port scan data to a held camera; it is not in the pipeline yet, so
+     * no stage can be reading it.
+     */
+    private void merge(Camera existing, Camera newCam) {
+        // Keep ONVIF data, add port scan data
+        if (existing.getManufacturer() == null && newCam.getManufacturer() != null) {
+            existing.setManufacturer(newCam.getManufacturer());
+        }
+        if (existing.getModel() == null && newCam.getModel() != null) {
+            existing.setModel(newCam.getModel());
+        }
+        if (existing.getOpenRtspPorts().isEmpty() && !newCam.getOpenRtspPorts().isEmpty()) {
+            existing.setOpenRtspPorts(newCam.getOpenRtspPorts());
+        }
+    }
+
+    private void emit(Camera camera) {
+        results.add(camera);
+        int count = finished.incrementAndGet();
+        if (listener != null) {
+            listener.onProgress(camera.getIpAddress(), count, Math.max(count, seen.size()), "Completed");
+        }
+    }
+
+    private interface StageWork {
+        List<Camera> process(Camera camera) throws Exception;
+    }
+
+    private final class Stage {
+        final String name;
+        final StageWork work;
+        // Caps how many cameras are in this stage at once
+        final Semaphore permits;
+
+        Stage(String name, int workers, StageWork work) {
+            this.name = name;
+            this.work = work;
+            this.permits = new Semaphore(workers);
+        }
+
+        /**
+         * @return at least one camera; the input itself when cancelled, out of time or on error
+         */
+        List<Camera> process(Camera camera) {
+            if (cancelled) {
+                return Collections.singletonList(camera);
+            }
+            if (ExecutionBudget.current().isExpired()) {
+                if (camera.getMainStream() == null && camera.getErrorMessage() == null) {
+                    camera.setErrorMessage("Discovery timeout reached before " + name.toLowerCase());
+                }
+                return Collections.singletonList(camera);
+            }
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                return Collections.singletonList(camera);
+            }
+            try {
+                if (listener != null) {
+                    listener.onProgress(camera.getIpAddress(), finished.get(), seen.size(), name);
+                }
+                List<Camera> out = work.process(camera);
+                return out.isEmpty() ? Collections.singletonList(camera) : out;
+            } catch (Exception e) {
+                Logger.error(name + " failed for " + camera.getIpAddress(), e);
+                camera.setErrorMessage(e.getMessage());
+                return Collections.singletonList(camera);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+}
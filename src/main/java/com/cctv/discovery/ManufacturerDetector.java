@@ -1,13 +1,19 @@
 package com.cctv.discovery;
 
 import com.cctv.model.Camera;
+import com.cctv.network.ArpTable;
+import com.cctv.network.DeviceHttpClient;
+import com.cctv.network.OuiRegistry;
 import com.cctv.util.Logger;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Detects camera manufacturer to optimize RTSP pattern testing.
@@ -15,7 +21,7 @@ import java.util.Map;
  */
 public class ManufacturerDetector {
 
-    // MAC Address OUI (Organizationally Unique Identifier) to Manufacturer mapping
+    // Built-in OUI seed, used when the IEEE registry files are not installed
     private static final Map<String, String> MAC_OUI_MAP = new HashMap<String, String>() {
         {
             // Hikvision
@@ -61,6 +67,23 @@ public class ManufacturerDetector {
         }
     };
 
+    // IEEE registry exports, looked up in the working directory, dist/ and ~/.cctv-discovery
+    private static final String[] OUI_FILES = { "oui.csv", "mam.csv", "oui36.csv" };
+
+    // Registered organisation name keyword -> manufacturer key used by PatternManager
+    private static final String[][] VENDOR_KEYWORDS = {
+            { "hikvision", "Hikvision" }, { "ezviz", "Hikvision" }, { "prama", "Prama" },
+            { "dahua", "Dahua" }, { "cp plus", "CP Plus" }, { "aditya infotech", "CP Plus" },
+            { "amcrest", "Amcrest" }, { "uniview", "UNV" }, { "tiandy", "Tiandy" }, { "tvt digital", "TVT" },
+            { "axis communications", "Axis" }, { "tp-link", "TP-Link" }, { "foscam", "Foscam" },
+            { "reolink", "Reolink" }, { "ubiquiti", "Ubiquiti" }, { "d-link", "D-Link" },
+            { "vivotek", "Vivotek" }, { "panasonic", "Panasonic" }, { "bosch security", "Bosch" },
+            { "pelco", "Pelco" }
+    };
+
+    private static final OuiRegistry OUI_REGISTRY = loadOuiRegistry();
+    private static final Map<String, String> VENDOR_MANUFACTURERS = new ConcurrentHashMap<>();
+
     /**
      * Detect camera manufacturer using multiple methods.
      * Priority: ONVIF > MAC Address > HTTP Headers
@@ -77,7 +100,7 @@ public class ManufacturerDetector {
 
         // Method 2: Check MAC address OUI (Hardware ID is more reliable than HTTP
         // headers)
-        manufacturer = detectFromMacAddress(camera.getIpAddress());
+        manufacturer = detectFromMacAddress(camera);
         if (manufacturer != null) {
             Logger.info("Manufacturer detected from MAC address: " + manufacturer);
             return manufacturer;
@@ -98,14 +121,17 @@ public class ManufacturerDetector {
     /**
      * Detect manufacturer from MAC address OUI.
      */
-    private static String detectFromMacAddress(String ipAddress) {
-        String mac = getMacAddressFromArp(ipAddress);
+    private static String detectFromMacAddress(Camera camera) {
+        String mac = camera.getMacAddress() != null ? camera.getMacAddress()
+                : getMacAddressFromArp(camera.getIpAddress());
         if (mac != null) {
             String manufacturer = getManufacturerFromMac(mac);
             if (manufacturer != null) {
                 return manufacturer;
             } else {
-                Logger.info("MAC OUI " + mac.substring(0, 8) + " not in database (MAC: " + mac + ")");
+                String vendor = getVendorFromMac(mac);
+                Logger.info("MAC OUI " + mac.substring(0, 8) + (vendor != null ? " belongs to " + vendor
+                        + ", not a known camera brand" : " not in registry") + " (MAC: " + mac + ")");
             }
         }
         return null;
@@ -114,47 +140,69 @@ public class ManufacturerDetector {
     /**
      * Get Manufacturer name from MAC Address string.
      * Public method for use by RtspUrlGuesser pattern selection.
+     * Returns a PatternManager manufacturer key, or null if the vendor is not a known camera brand.
      */
     public static String getManufacturerFromMac(String macAddress) {
-        if (macAddress == null || macAddress.length() < 8)
+        String vendor = OUI_REGISTRY.lookup(macAddress);
+        if (vendor == null) {
             return null;
-        String oui = macAddress.substring(0, 8).toUpperCase();
-        return MAC_OUI_MAP.get(oui);
+        }
+        String manufacturer = VENDOR_MANUFACTURERS.computeIfAbsent(vendor, v -> {
+            String lower = v.toLowerCase(Locale.ROOT);
+            for (String[] keyword : VENDOR_KEYWORDS) {
+                // Seed entries already carry the manufacturer key
+                if (v.equals(keyword[1]) || lower.contains(keyword[0])) {
+                    return keyword[1];
+                }
+            }
+            return "";
+        });
+        return manufacturer.isEmpty() ? null : manufacturer;
     }
 
     /**
-     * Get MAC address from ARP table (Windows).
-     * Exposed for early detection.
-     * Returns the RAW MAC Address string (e.g. "EC:C8:9C:12:34:56").
+     * Registered organisation name for a MAC address (MA-L, MA-M or MA-S block), or null.
      */
-    public static String getMacAddressFromArp(String ipAddress) {
-        try {
-            Logger.info("Running ARP lookup for " + ipAddress);
-            Process process = Runtime.getRuntime().exec("arp -a " + ipAddress);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
-
-            while ((line = reader.readLine()) != null) {
-                if (line.contains(ipAddress)) {
-                    // Parse MAC address from ARP output
-                    String[] parts = line.trim().split("\\s+");
-                    for (String part : parts) {
-                        if (part.matches("([0-9A-Fa-f]{2}[:-]){5}([0-9A-Fa-f]{2})")) {
-                            String mac = part.replace("-", ":").toUpperCase();
-                            Logger.info("Found MAC from ARP: " + mac);
-                            return mac;
-                        }
+    public static String getVendorFromMac(String macAddress) {
+        return OUI_REGISTRY.lookup(macAddress);
+    }
+
+    private static OuiRegistry loadOuiRegistry() {
+        OuiRegistry.Builder builder = OuiRegistry.builder();
+        for (Map.Entry<String, String> entry : MAC_OUI_MAP.entrySet()) {
+            builder.add(entry.getKey(), entry.getValue());
+        }
+        List<Path> dirs = Arrays.asList(Paths.get(""), Paths.get("dist"),
+                Paths.get(System.getProperty("user.home"), ".cctv-discovery"));
+        for (String name : OUI_FILES) {
+            for (Path dir : dirs) {
+                Path file = dir.resolve(name);
+                if (Files.isReadable(file)) {
+                    try {
+                        builder.addCsv(file);
+                    } catch (Exception e) {
+                        Logger.error("Error loading OUI registry " + file, e);
                     }
+                    break;
                 }
             }
-
-            reader.close();
-            process.waitFor();
-        } catch (Exception e) {
-            Logger.error("ARP lookup failed for " + ipAddress, e);
         }
+        OuiRegistry registry = builder.build();
+        Logger.info("OUI registry ready with " + registry.size() + " assignments");
+        return registry;
+    }
 
-        return null;
+    /**
+     * Get MAC address from the ARP table snapshot (see {@link ArpTable}).
+     * Exposed for early detection.
+     * Returns the RAW MAC Address string (e.g. "EC:C8:9C:12:34:56").
+     */
+    public static String getMacAddressFromArp(String ipAddress) {
+        String mac = ArpTable.lookup(ipAddress);
+        if (mac != null) {
+            Logger.info("Found MAC from ARP: " + mac);
+        }
+        return mac;
     }
 
     /**
@@ -165,17 +213,11 @@ public class ManufacturerDetector {
 
         for (String port : ports) {
             try {
-                URL url = new URL("http://" + ipAddress + ":" + port);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("HEAD");
-                conn.setConnectTimeout(2000);
-                conn.setReadTimeout(2000);
-                conn.connect();
-
-                String server = conn.getHeaderField("Server");
-                String wwwAuth = conn.getHeaderField("WWW-Authenticate");
+                // Pooled, so a later ONVIF or CGI request to this port reuses the connection
+                DeviceHttpClient.Response response = DeviceHttpClient.head("http://" + ipAddress + ":" + port, 2000);
 
-                conn.disconnect();
+                String server = response.header("Server");
+                String wwwAuth = response.challenge;
 
                 // Check Server header
                 if (server != null) {
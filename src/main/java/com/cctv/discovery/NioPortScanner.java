@@ -0,0 +1,483 @@
+package com.cctv.discovery;
+
+import com.cctv.model.Camera;
+import com.cctv.network.IpRange;
+import com.cctv.util.ExecutionBudget;
+import com.cctv.util.Logger;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.function.Consumer;
+
+/**
+ * Port scan engine built on non-blocking SocketChannels and a single Selector.
+ * Keeps thousands of connects in flight, each with its own deadline on a hashed
+ * timer wheel, instead of one blocked thread per connect.
+ * Returns the same cameras and ProgressListener callbacks as {@link PortScanner}.
+ *
+ * Each host's ports are probed concurrently in two waves. The liveness ports go
+ * first; a connect or a refusal (RST) proves the host is up and releases the rest
+ * of its port list. If every liveness connect times out the host is treated as
+ * dead and its remaining ports are never tried, so a dead host costs one timeout.
+ *
+ * Addresses are pulled lazily from an {@link IpRange} as ints; a String is only
+ * built for hosts that turn into a Camera or a progress update.
+ *
+ * When the {@link ExecutionBudget} deadline passes, no new hosts are started;
+ * hosts already in flight finish and the scan returns what it has.
+ */
+public class NioPortScanner {
+    private static final int MAX_IN_FLIGHT = 2048;
+    private static final int TICK_MS = 10;
+    private static final int WHEEL_SLOTS = 256;
+
+    // Ports nearly every camera, NVR or DVR listens on (RTSP, HTTP, Hikvision/Dahua SDK)
+    static final int[] LIVENESS_PORTS = { 554, 80, 8000, 37777 };
+
+    public static List<Camera> scan(IpRange range, ProgressListener listener) {
+        return scan(range.addresses(), range.size(), PortScanner.PORTS, LIVENESS_PORTS, PortScanner.TIMEOUT_MS,
+                listener, null);
+    }
+
+    public static List<Camera> scan(IpRange range) {
+        return scan(range, null);
+    }
+
+    /**
+     * Streams each camera to {@code sink} the moment its host finishes, so later
+     * stages can start on it while the rest of the range is still being scanned.
+     * Cameras handed to the sink are not yet identified (no ARP/MAC lookup), which
+     * keeps slow work off the selector thread. The sink may block for backpressure.
+     */
+    public static List<Camera> scan(IpRange range, ProgressListener listener, Consumer<Camera> sink) {
+        return scan(range.addresses(), range.size(), PortScanner.PORTS, LIVENESS_PORTS, PortScanner.TIMEOUT_MS,
+                listener, sink);
+    }
+
+    /**
+     * Scan without the dead-host short-circuit: every port of every host is tried.
+     */
+    public static List<Camera> scanAllPorts(IpRange range, ProgressListener listener) {
+        return scan(range.addresses(), range.size(), PortScanner.PORTS, null, PortScanner.TIMEOUT_MS, listener,
+                null);
+    }
+
+    // Legacy entry points for callers that still hold a List<String>
+    public static List<Camera> scan(List<String> ipAddresses, ProgressListener listener) {
+        return scan(ipAddresses, PortScanner.PORTS, LIVENESS_PORTS, PortScanner.TIMEOUT_MS, listener);
+    }
+
+    public static List<Camera> scan(List<String> ipAddresses) {
+        return scan(ipAddresses, null);
+    }
+
+    static List<Camera> scan(List<String> ipAddresses, int[] ports, int[] livenessPorts, int timeoutMs,
+            ProgressListener listener) {
+        Iterator<String> it = ipAddresses.iterator();
+        PrimitiveIterator.OfInt addresses = new PrimitiveIterator.OfInt() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public int nextInt() {
+                return IpRange.toInt(it.next());
+            }
+        };
+        return scan(addresses, ipAddresses.size(), ports, livenessPorts, timeoutMs, listener, null);
+    }
+
+    /**
+     * @param livenessPorts ports probed first to decide whether a host is alive,
+     *                      or null to probe all ports in a single wave
+     */
+    static List<Camera> scan(PrimitiveIterator.OfInt addresses, long hostCount, int[] ports, int[] livenessPorts,
+            int timeoutMs, ProgressListener listener, Consumer<Camera> sink) {
+        if (hostCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Range too large to scan: " + hostCount + " addresses");
+        }
+        Logger.info("Starting NIO port scan for " + hostCount + " IPs with up to " + MAX_IN_FLIGHT
+                + " connects in flight" + (livenessPorts != null ? ", dead-host short-circuit on" : ""));
+        List<Camera> cameras = new ArrayList<>();
+        boolean cancelled = false;
+
+        if (hostCount > 0) {
+            try (Selector selector = Selector.open()) {
+                ScanLoop loop = new ScanLoop(selector, addresses, (int) hostCount, ports, livenessPorts, timeoutMs,
+                        cameras, listener, sink);
+                cancelled = !loop.run();
+            } catch (IOException e) {
+                Logger.error("NIO port scan failed", e);
+            }
+        }
+
+        if (listener != null) {
+            if (cancelled) {
+                listener.onCancelled();
+            } else {
+                listener.onComplete();
+            }
+        }
+
+        Logger.info("NIO port scan completed. Found " + cameras.size() + " cameras");
+        return cameras;
+    }
+
+    private static final class HostState {
+        final int address;
+        final boolean[] open;
+        int pending;
+        int firstWaveLaunched;
+        int secondWaveLaunched;
+        boolean alive;
+
+        HostState(int address, int portCount) {
+            this.address = address;
+            this.open = new boolean[portCount];
+        }
+    }
+
+    private static final class Attempt {
+        final HostState host;
+        final int portIndex;
+        final SocketChannel channel;
+        int rounds;
+        boolean done;
+
+        Attempt(HostState host, int portIndex, SocketChannel channel) {
+            this.host = host;
+            this.portIndex = portIndex;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Hashed timer wheel: O(1) scheduling, and each tick only visits one slot.
+     * Completed attempts are dropped lazily when their slot comes round.
+     */
+    private static final class TimerWheel {
+        private final List<List<Attempt>> slots = new ArrayList<>(WHEEL_SLOTS);
+        private long currentTick;
+
+        TimerWheel() {
+            for (int i = 0; i < WHEEL_SLOTS; i++) {
+                slots.add(new ArrayList<>());
+            }
+        }
+
+        void schedule(Attempt attempt, long deadlineMs) {
+            long targetTick = Math.max(currentTick + 1, (deadlineMs + TICK_MS - 1) / TICK_MS);
+            long delta = targetTick - currentTick;
+            attempt.rounds = (int) ((delta - 1) / WHEEL_SLOTS);
+            slots.get((int) (targetTick % WHEEL_SLOTS)).add(attempt);
+        }
+
+        void advance(long nowMs, List<Attempt> expired) {
+            long nowTick = nowMs / TICK_MS;
+            while (currentTick < nowTick) {
+                currentTick++;
+                Iterator<Attempt> it = slots.get((int) (currentTick % WHEEL_SLOTS)).iterator();
+                while (it.hasNext()) {
+                    Attempt attempt = it.next();
+                    if (attempt.done) {
+                        it.remove();
+                    } else if (attempt.rounds > 0) {
+                        attempt.rounds--;
+                    } else {
+                        it.remove();
+                        expired.add(attempt);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class ScanLoop {
+        private final Selector selector;
+        private final PrimitiveIterator.OfInt addresses;
+        private final int hostCount;
+        private final int progressStep;
+        private final int[] ports;
+        private final int[] firstWave;
+        private final int[] secondWave;
+        private final int timeoutMs;
+        private final List<Camera> cameras;
+        private final ProgressListener listener;
+        private final Consumer<Camera> sink;
+        private final TimerWheel wheel = new TimerWheel();
+        private final ArrayDeque<HostState> aliveHosts = new ArrayDeque<>();
+        private final long startNanos = System.nanoTime();
+
+        private HostState currentHost;
+        private int inFlight;
+        private int startedHosts;
+        private int completedHosts;
+        private boolean outOfTime;
+
+        ScanLoop(Selector selector, PrimitiveIterator.OfInt addresses, int hostCount, int[] ports,
+                int[] livenessPorts, int timeoutMs, List<Camera> cameras, ProgressListener listener,
+                Consumer<Camera> sink) {
+            this.selector = selector;
+            this.addresses = addresses;
+            this.hostCount = hostCount;
+            // Report every host on small ranges, roughly every 0.1% on large ones
+            this.progressStep = Math.max(1, hostCount / 1000);
+            this.ports = ports;
+            this.timeoutMs = timeoutMs;
+            this.cameras = cameras;
+            this.listener = listener;
+            this.sink = sink;
+
+            // Split port indexes into the liveness wave and the follow-up wave
+            List<Integer> first = new ArrayList<>();
+            List<Integer> second = new ArrayList<>();
+            for (int i = 0; i < ports.length; i++) {
+                if (livenessPorts == null || contains(livenessPorts, ports[i])) {
+                    first.add(i);
+                } else {
+                    second.add(i);
+                }
+            }
+            if (first.isEmpty()) {
+                first = second;
+                second = new ArrayList<>();
+            }
+            this.firstWave = toArray(first);
+            this.secondWave = toArray(second);
+        }
+
+        /**
+         * Runs the scan to completion. Returns false if the thread was interrupted.
+         */
+        boolean run() throws IOException {
+            List<Attempt> expired = new ArrayList<>();
+            try {
+                while (completedHosts < hostCount && !(outOfTime && completedHosts == startedHosts)) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        Logger.warn("NIO port scan interrupted");
+                        return false;
+                    }
+
+                    launchPending();
+                    selector.select(TICK_MS);
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        finishConnect((Attempt) key.attachment());
+                    }
+
+                    wheel.advance(elapsedMs(), expired);
+                    for (Attempt attempt : expired) {
+                        complete(attempt, false, false);
+                    }
+                    expired.clear();
+                }
+                return true;
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly((SocketChannel) key.channel());
+                }
+            }
+        }
+
+        private void launchPending() {
+            // Hosts already proven alive finish their port list before new hosts start
+            while (inFlight < MAX_IN_FLIGHT && !aliveHosts.isEmpty()) {
+                HostState host = aliveHosts.peek();
+                if (!startConnect(host, secondWave[host.secondWaveLaunched])) {
+                    // Out of sockets; retry once in-flight connects have drained
+                    return;
+                }
+                if (++host.secondWaveLaunched == secondWave.length) {
+                    aliveHosts.poll();
+                    checkHostDone(host);
+                }
+            }
+
+            while (inFlight < MAX_IN_FLIGHT && (currentHost != null || addresses.hasNext())) {
+                if (currentHost == null) {
+                    if (ExecutionBudget.current().isExpired()) {
+                        if (!outOfTime) {
+                            outOfTime = true;
+                            Logger.warn("NIO port scan stopped at the discovery deadline after " + startedHosts
+                                    + " of " + hostCount + " hosts");
+                        }
+                        return;
+                    }
+                    currentHost = new HostState(addresses.nextInt(), ports.length);
+                    startedHosts++;
+                }
+
+                HostState host = currentHost;
+                if (!startConnect(host, firstWave[host.firstWaveLaunched])) {
+                    return;
+                }
+
+                if (++host.firstWaveLaunched == firstWave.length) {
+                    currentHost = null;
+                    // All of the first wave may have completed synchronously
+                    checkHostDone(host);
+                }
+            }
+        }
+
+        private boolean startConnect(HostState host, int portIndex) {
+            SocketChannel channel;
+            try {
+                channel = SocketChannel.open();
+            } catch (IOException e) {
+                if (inFlight > 0) {
+                    return false;
+                }
+                Logger.error("Cannot open socket for " + IpRange.toIp(host.address) + ":" + ports[portIndex], e);
+                inFlight++;
+                host.pending++;
+                complete(new Attempt(host, portIndex, null), false, false);
+                return true;
+            }
+
+            Attempt attempt = new Attempt(host, portIndex, channel);
+            inFlight++;
+            host.pending++;
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+                InetAddress address = InetAddress.getByAddress(IpRange.toBytes(host.address));
+                if (channel.connect(new InetSocketAddress(address, ports[portIndex]))) {
+                    complete(attempt, true, false);
+                } else {
+                    channel.register(selector, SelectionKey.OP_CONNECT, attempt);
+                    wheel.schedule(attempt, elapsedMs() + timeoutMs);
+                }
+            } catch (Exception e) {
+                complete(attempt, false, isRefused(e));
+            }
+            return true;
+        }
+
+        private void finishConnect(Attempt attempt) {
+            if (attempt.done) {
+                return;
+            }
+            boolean open = false;
+            boolean refused = false;
+            try {
+                open = attempt.channel.finishConnect();
+            } catch (IOException e) {
+                refused = isRefused(e);
+            }
+            complete(attempt, open, refused);
+        }
+
+        /**
+         * Records one connect outcome. A refusal means a RST came back, which is
+         * as good as an open port for proving the host is alive.
+         */
+        private void complete(Attempt attempt, boolean open, boolean refused) {
+            attempt.done = true;
+            inFlight--;
+            closeQuietly(attempt.channel);
+
+            HostState host = attempt.host;
+            host.open[attempt.portIndex] = open;
+            host.pending--;
+            if ((open || refused) && !host.alive) {
+                host.alive = true;
+                if (secondWave.length > 0) {
+                    aliveHosts.add(host);
+                }
+            }
+            checkHostDone(host);
+        }
+
+        private void checkHostDone(HostState host) {
+            boolean firstWaveDone = host.firstWaveLaunched == firstWave.length;
+            boolean secondWaveDone = !host.alive || host.secondWaveLaunched == secondWave.length;
+            if (host.pending == 0 && firstWaveDone && secondWaveDone) {
+                finishHost(host);
+            }
+        }
+
+        private void finishHost(HostState host) {
+            String ip = null;
+            try {
+                List<Integer> openPorts = new ArrayList<>();
+                for (int i = 0; i < ports.length; i++) {
+                    if (host.open[i]) {
+                        openPorts.add(ports[i]);
+                    }
+                }
+                if (!openPorts.isEmpty()) {
+                    ip = IpRange.toIp(host.address);
+                    if (sink != null) {
+                        Camera camera = PortScanner.createCamera(ip, openPorts);
+                        cameras.add(camera);
+                        sink.accept(camera);
+                    } else {
+                        cameras.add(PortScanner.buildCamera(ip, openPorts));
+                    }
+                }
+            } catch (Exception e) {
+                Logger.error("Error scanning " + IpRange.toIp(host.address), e);
+            } finally {
+                completedHosts++;
+                if (listener != null && (ip != null || completedHosts % progressStep == 0
+                        || completedHosts == hostCount)) {
+                    if (ip == null) {
+                        ip = IpRange.toIp(host.address);
+                    }
+                    listener.onProgress(ip, completedHosts, hostCount, "Scanned " + ip);
+                }
+            }
+        }
+
+        private static boolean isRefused(Exception e) {
+            return e instanceof ConnectException
+                    && (e.getMessage() == null || !e.getMessage().toLowerCase().contains("timed out"));
+        }
+
+        private static boolean contains(int[] values, int value) {
+            for (int v : values) {
+                if (v == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static int[] toArray(List<Integer> values) {
+            int[] result = new int[values.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = values.get(i);
+            }
+            return result;
+        }
+
+        private long elapsedMs() {
+            return (System.nanoTime() - startNanos) / 1_000_000L;
+        }
+
+        private static void closeQuietly(SocketChannel channel) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+}
@@ -2,14 +2,33 @@ package com.cctv.discovery;
 
 import com.cctv.model.Camera;
 import com.cctv.model.StreamInfo;
+import com.cctv.network.DeviceHttpClient;
+import com.cctv.onvif.OnvifClient;
+import com.cctv.onvif.OnvifServices;
+import com.cctv.onvif.OnvifSession;
+import com.cctv.onvif.ProfileParser;
 import com.cctv.onvif.SoapHelper;
+import com.cctv.probe.StreamProbe;
+import com.cctv.util.ExecutionBudget;
 import com.cctv.util.Logger;
+import com.cctv.util.Scheduler;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class NvrDetector {
+    // Concurrent stream probes against one recorder; GetStreamUri requests are only
+    // limited by AsyncHttpEngine's per-host:port connection cap
+    static final int PROBES_PER_NVR = 4;
+    private static final int HTTP_TIMEOUT_MS = 5000;
     
     public static List<Camera> detectAndExtractChannels(Camera device) {
         List<Camera> channels = new ArrayList<>();
@@ -54,17 +73,12 @@ public class NvrDetector {
                 return 0;
             }
             
-            String profilesBody = SoapHelper.createSoapEnvelope(
-                "<GetProfiles xmlns=\"http://www.onvif.org/ver10/media/wsdl\"/>",
-                device.getUsername(), device.getPassword());
+            OnvifServices.Endpoints services = OnvifServices.resolve(device);
+            String mediaUrl = services.mediaUrl();
+            String response = OnvifSession.forUrl(mediaUrl).getProfiles(mediaUrl, services.usesMedia2(),
+                    device.getUsername(), device.getPassword());
             
-            String mediaUrl = device.getOnvifServiceUrl().replace("/onvif/device_service", "/onvif/media_service");
-            String response = SoapHelper.sendSoapRequest(mediaUrl, "", profilesBody, null, null);
-            
-            String[] profiles = response.split("<trt:Profiles");
-            if (profiles.length == 1) {
-                profiles = response.split("<Profiles");
-            }
+            String[] profiles = OnvifClient.splitProfiles(response);
             
             return Math.max(0, profiles.length - 1);
         } catch (Exception e) {
@@ -77,7 +91,7 @@ public class NvrDetector {
         // Try Hikvision API
         try {
             String url = "http://" + device.getIpAddress() + "/ISAPI/System/deviceInfo";
-            String response = SoapHelper.sendSoapRequest(url, "", "", device.getUsername(), device.getPassword());
+            String response = httpGet(url, device);
             
             Pattern pattern = Pattern.compile("<videoInputPortNums>(\\d+)</videoInputPortNums>");
             Matcher matcher = pattern.matcher(response);
@@ -91,12 +105,12 @@ public class NvrDetector {
         // Try Dahua API
         try {
             String url = "http://" + device.getIpAddress() + "/cgi-bin/magicBox.cgi?action=getDeviceType";
-            String response = SoapHelper.sendSoapRequest(url, "", "", device.getUsername(), device.getPassword());
+            String response = httpGet(url, device);
             
             if (response.contains("NVR") || response.contains("DVR")) {
                 // Try to get channel info
                 url = "http://" + device.getIpAddress() + "/cgi-bin/configManager.cgi?action=getConfig&name=ChannelTitle";
-                response = SoapHelper.sendSoapRequest(url, "", "", device.getUsername(), device.getPassword());
+                response = httpGet(url, device);
                 
                 Pattern pattern = Pattern.compile("table\\.ChannelTitle\\[(\\d+)\\]");
                 Matcher matcher = pattern.matcher(response);
@@ -113,6 +127,19 @@ public class NvrDetector {
         return 0;
     }
     
+    /**
+     * GETs a vendor API URL with the device's credentials; ISAPI and Dahua CGI
+     * usually want Digest, which the shared client answers.
+     */
+    private static String httpGet(String url, Camera device) throws Exception {
+        DeviceHttpClient.Response response = DeviceHttpClient.get(url, device.getUsername(), device.getPassword(),
+                ExecutionBudget.current().clampTimeout(HTTP_TIMEOUT_MS));
+        if (!response.isSuccess()) {
+            throw new Exception("HTTP " + response.statusCode + " from " + url);
+        }
+        return response.bodyText();
+    }
+    
     private static List<Camera> extractOnvifChannels(Camera device, int channelCount) {
         List<Camera> channels = new ArrayList<>();
         
@@ -121,40 +148,50 @@ public class NvrDetector {
                 return channels;
             }
             
-            String profilesBody = SoapHelper.createSoapEnvelope(
-                "<GetProfiles xmlns=\"http://www.onvif.org/ver10/media/wsdl\"/>",
-                device.getUsername(), device.getPassword());
-            
-            String mediaUrl = device.getOnvifServiceUrl().replace("/onvif/device_service", "/onvif/media_service");
-            String response = SoapHelper.sendSoapRequest(mediaUrl, "", profilesBody, null, null);
+            // Same request as detectOnvifChannels; answered from the device's session
+            OnvifServices.Endpoints services = OnvifServices.resolve(device);
+            String mediaUrl = services.mediaUrl();
+            boolean media2 = services.usesMedia2();
+            String response = OnvifSession.forUrl(mediaUrl).getProfiles(mediaUrl, media2,
+                    device.getUsername(), device.getPassword());
             
-            String[] profiles = response.split("<trt:Profiles");
-            if (profiles.length == 1) {
-                profiles = response.split("<Profiles");
-            }
+            String[] profiles = OnvifClient.splitProfiles(response);
             
+            // All GetStreamUri requests at once; the engine queues them behind its per-host:port
+            // connection cap, and results are read back in profile order
+            OnvifSession session = OnvifSession.forUrl(mediaUrl);
+            Map<String, ProfileParser.VideoEncoder> encoders = OnvifClient.videoEncoders(mediaUrl, media2, response,
+                    device.getUsername(), device.getPassword());
+            List<String> tokens = new ArrayList<>();
+            List<CompletableFuture<String>> uris = new ArrayList<>();
             for (int i = 1; i < profiles.length && i <= channelCount; i++) {
                 String profileToken = extractProfileToken(profiles[i]);
-                if (profileToken != null) {
-                    String rtspUrl = getStreamUri(mediaUrl, profileToken, device.getUsername(), device.getPassword());
-                    if (rtspUrl != null) {
-                        Camera channel = new Camera(device.getIpAddress() + "_ch" + i);
-                        channel.setUsername(device.getUsername());
-                        channel.setPassword(device.getPassword());
-                        channel.setManufacturer(device.getManufacturer());
-                        channel.setModel(device.getModel() + " Channel " + i);
-                        
-                        StreamInfo stream = new StreamInfo();
-                        stream.setRtspUrl(rtspUrl);
-                        channel.setMainStream(stream);
-                        
-                        // IMPROVEMENT: Probe stream for metadata
-                        com.cctv.probe.StreamProbe.probe(stream);
-                        
-                        channels.add(channel);
+                tokens.add(profileToken);
+                uris.add(profileToken == null ? CompletableFuture.completedFuture(null)
+                        : session.getStreamUriAsync(mediaUrl, media2, profileToken, device.getUsername(),
+                                device.getPassword()));
+            }
+            for (int i = 0; i < uris.size(); i++) {
+                String rtspUrl = null;
+                try {
+                    String uriResponse = uris.get(i).join();
+                    if (uriResponse != null) {
+                        rtspUrl = streamUriFrom(uriResponse, device.getUsername(), device.getPassword());
+                    }
+                } catch (CompletionException e) {
+                    // Channel without a stream URI
+                }
+                if (rtspUrl != null) {
+                    Camera channel = channel(device, i + 1, rtspUrl);
+                    ProfileParser.VideoEncoder encoder = encoders.get(tokens.get(i));
+                    if (encoder != null) {
+                        encoder.applyTo(channel.getMainStream());
                     }
+                    channels.add(channel);
                 }
             }
+            
+            probeChannels(channels);
         } catch (Exception e) {
             Logger.error("Failed to extract ONVIF channels", e);
         }
@@ -162,6 +199,53 @@ public class NvrDetector {
         return channels;
     }
     
+    private static Camera channel(Camera device, int channelNumber, String rtspUrl) {
+        Camera channel = new Camera(device.getIpAddress() + "_ch" + channelNumber);
+        channel.setUsername(device.getUsername());
+        channel.setPassword(device.getPassword());
+        channel.setManufacturer(device.getManufacturer());
+        channel.setModel(device.getModel() + " Channel " + channelNumber);
+        
+        StreamInfo stream = new StreamInfo();
+        stream.setRtspUrl(rtspUrl);
+        channel.setMainStream(stream);
+        return channel;
+    }
+    
+    /**
+     * Probes the main streams their profile did not describe, with
+     * {@link #PROBES_PER_NVR} workers on the RTSP lane draining one queue, so the
+     * recorder never serves more than that many probe sessions and no lane thread
+     * sits waiting for a permit.
+     */
+    private static void probeChannels(List<Camera> channels) {
+        Queue<Camera> queue = new ConcurrentLinkedQueue<>();
+        for (Camera channel : channels) {
+            if (StreamProbe.needsProbe(channel.getMainStream())) {
+                queue.add(channel);
+            }
+        }
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(PROBES_PER_NVR, queue.size()); i++) {
+            workers.add(Scheduler.submit(Scheduler.Lane.RTSP, () -> {
+                Camera channel;
+                while ((channel = queue.poll()) != null) {
+                    StreamProbe.probe(channel.getMainStream());
+                }
+            }));
+        }
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                Logger.error("Channel probe failed", e);
+            }
+        }
+    }
+    
     private static List<Camera> extractApiChannels(Camera device, int channelCount) {
         List<Camera> channels = new ArrayList<>();
         
@@ -178,7 +262,8 @@ public class NvrDetector {
                 String mainUrl = String.format("rtsp://%s:%s@%s:554" + pattern[0], 
                     device.getUsername(), device.getPassword(), device.getIpAddress(), ch);
                 
-                if (RtspUrlGuesser.testRtspUrl(mainUrl).success) {
+                RtspTester.TestResult mainResult = RtspTester.testUrl(mainUrl);
+                if (mainResult.success) {
                     Camera channel = new Camera(device.getIpAddress() + "_ch" + ch);
                     channel.setUsername(device.getUsername());
                     channel.setPassword(device.getPassword());
@@ -187,14 +272,17 @@ public class NvrDetector {
                     
                     StreamInfo main = new StreamInfo();
                     main.setRtspUrl(mainUrl);
+                    main.setSdp(mainResult.sdp);
                     channel.setMainStream(main);
                     
                     // Try sub stream
                     String subUrl = String.format("rtsp://%s:%s@%s:554" + pattern[1], 
                         device.getUsername(), device.getPassword(), device.getIpAddress(), ch);
-                    if (RtspUrlGuesser.testRtspUrl(subUrl).success) {
+                    RtspTester.TestResult subResult = RtspTester.testUrl(subUrl);
+                    if (subResult.success) {
                         StreamInfo sub = new StreamInfo();
                         sub.setRtspUrl(subUrl);
+                        sub.setSdp(subResult.sdp);
                         channel.setSubStream(sub);
                     }
                     
@@ -225,7 +313,8 @@ public class NvrDetector {
                 String mainUrl = String.format("rtsp://%s:%s@%s:554" + pattern[0], 
                     device.getUsername(), device.getPassword(), device.getIpAddress(), ch);
                 
-                if (RtspUrlGuesser.testRtspUrl(mainUrl).success) {
+                RtspTester.TestResult mainResult = RtspTester.testUrl(mainUrl);
+                if (mainResult.success) {
                     consecutiveFailures = 0; // Reset on success
                     Camera channel = new Camera(device.getIpAddress() + "_ch" + ch);
                     channel.setUsername(device.getUsername());
@@ -234,14 +323,17 @@ public class NvrDetector {
                     
                     StreamInfo main = new StreamInfo();
                     main.setRtspUrl(mainUrl);
+                    main.setSdp(mainResult.sdp);
                     channel.setMainStream(main);
                     
                     // Try sub stream
                     String subUrl = String.format("rtsp://%s:%s@%s:554" + pattern[1], 
                         device.getUsername(), device.getPassword(), device.getIpAddress(), ch);
-                    if (RtspUrlGuesser.testRtspUrl(subUrl).success) {
+                    RtspTester.TestResult subResult = RtspTester.testUrl(subUrl);
+                    if (subResult.success) {
                         StreamInfo sub = new StreamInfo();
                         sub.setRtspUrl(subUrl);
+                        sub.setSdp(subResult.sdp);
                         channel.setSubStream(sub);
                     }
                     
@@ -271,26 +363,12 @@ public class NvrDetector {
         return profileXml.substring(tokenStart, tokenEnd);
     }
     
-    private static String getStreamUri(String mediaUrl, String profileToken, String username, String password) {
-        try {
-            String streamBody = SoapHelper.createSoapEnvelope(
-                "<GetStreamUri xmlns=\"http://www.onvif.org/ver10/media/wsdl\">" +
-                "<ProfileToken>" + profileToken + "</ProfileToken>" +
-                "<StreamSetup><Stream xmlns=\"http://www.onvif.org/ver10/schema\">RTP-Unicast</Stream>" +
-                "<Transport xmlns=\"http://www.onvif.org/ver10/schema\"><Protocol>RTSP</Protocol></Transport>" +
-                "</StreamSetup></GetStreamUri>",
-                username, password);
-            
-            String response = SoapHelper.sendSoapRequest(mediaUrl, "", streamBody, null, null);
-            
-            String uri = SoapHelper.extractValue(response, "Uri");
-            if (uri == null) uri = SoapHelper.extractValue(response, "uri");
-            if (uri != null && !uri.contains("@")) {
-                uri = uri.replace("rtsp://", "rtsp://" + username + ":" + password + "@");
-            }
-            return uri;
-        } catch (Exception e) {
-            return null;
+    private static String streamUriFrom(String response, String username, String password) {
+        Map<String, String> uris = SoapHelper.extractValues(response, "Uri", "uri");
+        String uri = uris.get("Uri") != null ? uris.get("Uri") : uris.get("uri");
+        if (uri != null && !uri.contains("@")) {
+            uri = uri.replace("rtsp://", "rtsp://" + username + ":" + password + "@");
         }
+        return uri;
     }
 }
\ No newline at end of file
@@ -2,99 +2,425 @@ package com.cctv.discovery;
 
 import com.cctv.model.Camera;
 import com.cctv.util.Logger;
-import java.net.*;
-import java.util.*;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * WS-Discovery of ONVIF NetworkVideoTransmitters on every up IPv4 interface at
+ * once. Each interface gets its own DatagramChannel with the multicast interface
+ * pinned, so a multi-homed recorder probes every VLAN rather than only the one
+ * behind the default route. All channels share one Selector. Probes are sent
+ * again after a jittered delay, as SOAP-over-UDP asks for lossy multicast, and a
+ * listener joined to the group on every interface also picks up Hello
+ * announcements made during the window.
+ *
+ * Replies are read with a byte scanner for the few elements needed (Action,
+ * endpoint Address, XAddrs) instead of an XML parse, and a device answering on
+ * several interfaces or retransmissions is reported once, by endpoint UUID.
+ */
 public class OnvifDiscovery {
     private static final String MULTICAST_ADDRESS = "239.255.255.250";
     private static final int MULTICAST_PORT = 3702;
     private static final int TIMEOUT_MS = 3000;
+    // SOAP-over-UDP: first send within UDP_MIN_DELAY, repeats 50-250 ms apart, doubling
+    static final int PROBE_REPEATS = 2;
+    private static final int UDP_MIN_DELAY_MS = 50;
+    private static final int UDP_MAX_DELAY_MS = 250;
+    private static final int UDP_UPPER_DELAY_MS = 500;
+    private static final int MAX_DATAGRAM = 65507;
 
     public static List<Camera> discover() {
-        List<Camera> cameras = new ArrayList<>();
         Logger.info("Starting ONVIF WS-Discovery...");
-        
-        String probe = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
-            "<e:Envelope xmlns:e=\"http://www.w3.org/2003/05/soap-envelope\" " +
-            "xmlns:w=\"http://schemas.xmlsoap.org/ws/2004/08/addressing\" " +
-            "xmlns:d=\"http://schemas.xmlsoap.org/ws/2005/04/discovery\" " +
-            "xmlns:dn=\"http://www.onvif.org/ver10/network/wsdl\">" +
-            "<e:Header><w:MessageID>uuid:" + UUID.randomUUID() + "</w:MessageID>" +
-            "<w:To>urn:schemas-xmlsoap-org:ws:2005:04:discovery</w:To>" +
-            "<w:Action>http://schemas.xmlsoap.org/ws/2005/04/discovery/Probe</w:Action>" +
-            "</e:Header><e:Body><d:Probe><d:Types>dn:NetworkVideoTransmitter</d:Types></d:Probe>" +
-            "</e:Body></e:Envelope>";
+        Collector collector = new Collector();
+        byte[] probe = probe("uuid:" + UUID.randomUUID()).getBytes(StandardCharsets.UTF_8);
+        InetSocketAddress target = new InetSocketAddress(MULTICAST_ADDRESS, MULTICAST_PORT);
 
-        try (DatagramSocket socket = new DatagramSocket()) {
-            socket.setSoTimeout(TIMEOUT_MS);
-            InetAddress group = InetAddress.getByName(MULTICAST_ADDRESS);
-            byte[] probeBytes = probe.getBytes("UTF-8");
-            DatagramPacket packet = new DatagramPacket(probeBytes, probeBytes.length, group, MULTICAST_PORT);
-            socket.send(packet);
-            
-            byte[] buffer = new byte[8192];
-            Set<String> foundIps = new HashSet<>();
-            long endTime = System.currentTimeMillis() + TIMEOUT_MS;
-            
-            while (System.currentTimeMillis() < endTime) {
-                try {
-                    DatagramPacket response = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(response);
-                    String data = new String(response.getData(), 0, response.getLength(), "UTF-8");
-                    
-                    String xAddr = extractXAddr(data);
-                    if (xAddr != null) {
-                        String ip = extractIp(xAddr);
-                        if (ip != null && !foundIps.contains(ip)) {
-                            foundIps.add(ip);
-                            Camera camera = new Camera(ip);
-                            camera.setOnvifServiceUrl(xAddr);
-                            cameras.add(camera);
-                            Logger.info("Discovered camera: " + ip);
-                        }
-                    }
-                } catch (SocketTimeoutException e) {
-                    break;
+        List<DatagramChannel> channels = new ArrayList<>();
+        try (Selector selector = Selector.open()) {
+            List<NetworkInterface> interfaces = interfaces();
+            for (NetworkInterface ni : interfaces) {
+                DatagramChannel channel = open(ni);
+                if (channel != null) {
+                    channels.add(channel);
+                    channel.register(selector, SelectionKey.OP_READ, new Sender(channel));
                 }
             }
+            if (channels.isEmpty()) {
+                // No usable interface found; let the OS route the probe
+                DatagramChannel channel = open(null);
+                if (channel != null) {
+                    channels.add(channel);
+                    channel.register(selector, SelectionKey.OP_READ, new Sender(channel));
+                }
+            }
+            DatagramChannel listener = listen(interfaces);
+            if (listener != null) {
+                channels.add(listener);
+                listener.register(selector, SelectionKey.OP_READ);
+            }
+            Logger.info("WS-Discovery probing on " + interfaces.size() + " interfaces");
+
+            run(selector, probe, target, collector);
         } catch (Exception e) {
             Logger.error("ONVIF discovery failed", e);
+        } finally {
+            for (DatagramChannel channel : channels) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
         }
-        
-        Logger.info("ONVIF discovery completed. Found " + cameras.size() + " cameras");
-        return cameras;
+
+        Logger.info("ONVIF discovery completed. Found " + collector.cameras.size() + " cameras");
+        return collector.cameras;
     }
 
-    private static String extractXAddr(String xml) {
-        if (xml == null || xml.trim().isEmpty()) {
+    private static void run(Selector selector, byte[] probe, InetSocketAddress target, Collector collector)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        long now;
+        while ((now = System.currentTimeMillis()) < deadline) {
+            long wait = deadline - now;
+            for (SelectionKey key : selector.keys()) {
+                Sender sender = (Sender) key.attachment();
+                if (sender != null && sender.remaining > 0) {
+                    if (sender.nextSend <= now) {
+                        sender.send(probe, target, now);
+                    }
+                    if (sender.remaining > 0) {
+                        wait = Math.min(wait, Math.max(1, sender.nextSend - now));
+                    }
+                }
+            }
+            selector.select(wait);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                DatagramChannel channel = (DatagramChannel) key.channel();
+                SocketAddress from;
+                while ((from = receive(channel, buffer)) != null) {
+                    collector.accept(buffer.array(), buffer.position(), ((InetSocketAddress) from).getAddress());
+                }
+            }
+        }
+    }
+
+    private static SocketAddress receive(DatagramChannel channel, ByteBuffer buffer) {
+        buffer.clear();
+        try {
+            return channel.receive(buffer);
+        } catch (IOException e) {
+            Logger.info("WS-Discovery receive failed: " + e.getMessage());
             return null;
         }
-        
+    }
+
+    /**
+     * Up, multicast-capable, non-loopback interfaces with an IPv4 address.
+     */
+    static List<NetworkInterface> interfaces() {
+        List<NetworkInterface> result = new ArrayList<>();
         try {
-            // Try using SoapHelper's DOM-based extraction
-            String xAddr = com.cctv.onvif.SoapHelper.extractValue(xml, "d:XAddrs");
-            if (xAddr == null) {
-                xAddr = com.cctv.onvif.SoapHelper.extractValue(xml, "XAddrs");
-            }
-            
-            if (xAddr != null && !xAddr.trim().isEmpty()) {
-                // Prefer IPv4 if multiple addresses
-                if (xAddr.contains(" ")) {
-                    String[] addrs = xAddr.split("\\s+");
-                    for (String a : addrs) {
-                        if (!a.contains("[")) return a;
-                    }
-                    return addrs[0];
+            Enumeration<NetworkInterface> all = NetworkInterface.getNetworkInterfaces();
+            for (NetworkInterface ni : all != null ? Collections.list(all) : Collections.<NetworkInterface>emptyList()) {
+                if (ni.isUp() && ni.supportsMulticast() && !ni.isLoopback() && ipv4(ni) != null) {
+                    result.add(ni);
                 }
-                return xAddr.contains("[") ? null : xAddr;
             }
-        } catch (Exception e) {
-            Logger.error("Failed to extract XAddr from XML", e);
+        } catch (IOException e) {
+            Logger.info("Cannot list network interfaces: " + e.getMessage());
+        }
+        return result;
+    }
+
+    private static Inet4Address ipv4(NetworkInterface ni) {
+        for (InetAddress address : Collections.list(ni.getInetAddresses())) {
+            if (address instanceof Inet4Address) {
+                return (Inet4Address) address;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Probe channel bound to the interface's address, so replies come back on
+     * it; null interface for the default route.
+     */
+    private static DatagramChannel open(NetworkInterface ni) {
+        DatagramChannel channel = null;
+        try {
+            channel = DatagramChannel.open(StandardProtocolFamily.INET);
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 1);
+            if (ni != null) {
+                channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, ni);
+                channel.bind(new InetSocketAddress(ipv4(ni), 0));
+            } else {
+                channel.bind(null);
+            }
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            Logger.info("WS-Discovery cannot probe on " + (ni != null ? ni.getName() : "default route") + ": "
+                    + e.getMessage());
+            close(channel);
+            return null;
+        }
+    }
+
+    /**
+     * Channel on the WS-Discovery port joined to the group on every interface,
+     * for Hello messages; null if the port cannot be shared.
+     */
+    private static DatagramChannel listen(List<NetworkInterface> interfaces) {
+        if (interfaces.isEmpty()) {
+            return null;
+        }
+        DatagramChannel channel = null;
+        try {
+            channel = DatagramChannel.open(StandardProtocolFamily.INET);
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(MULTICAST_PORT));
+            InetAddress group = InetAddress.getByName(MULTICAST_ADDRESS);
+            int joined = 0;
+            for (NetworkInterface ni : interfaces) {
+                try {
+                    channel.join(group, ni);
+                    joined++;
+                } catch (IOException e) {
+                    Logger.info("WS-Discovery cannot join group on " + ni.getName() + ": " + e.getMessage());
+                }
+            }
+            if (joined > 0) {
+                return channel;
+            }
+        } catch (IOException | RuntimeException e) {
+            Logger.info("WS-Discovery listener unavailable: " + e.getMessage());
+        }
+        close(channel);
+        return null;
+    }
+
+    private static void close(DatagramChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Retransmission schedule of one probe channel. Every copy carries the same
+     * MessageID, so devices answer it once.
+     */
+    private static final class Sender {
+        final DatagramChannel channel;
+        long nextSend = System.currentTimeMillis() + ThreadLocalRandom.current().nextInt(UDP_MIN_DELAY_MS);
+        int remaining = 1 + PROBE_REPEATS;
+        int delay = UDP_MIN_DELAY_MS + ThreadLocalRandom.current().nextInt(UDP_MAX_DELAY_MS - UDP_MIN_DELAY_MS + 1);
+
+        Sender(DatagramChannel channel) {
+            this.channel = channel;
+        }
+
+        void send(byte[] probe, InetSocketAddress target, long now) {
+            remaining--;
+            try {
+                channel.send(ByteBuffer.wrap(probe), target);
+            } catch (IOException e) {
+                Logger.info("WS-Discovery probe failed: " + e.getMessage());
+                remaining = 0;
+                return;
+            }
+            nextSend = now + delay;
+            delay = Math.min(delay * 2, UDP_UPPER_DELAY_MS);
+        }
+    }
+
+    /**
+     * Turns ProbeMatch and Hello messages into cameras, one per endpoint.
+     */
+    static final class Collector {
+        final List<Camera> cameras = new ArrayList<>();
+        private final Set<String> endpoints = new HashSet<>();
+        private final Set<String> ips = new HashSet<>();
+
+        /**
+         * @return true if the message added a camera
+         */
+        boolean accept(byte[] data, int length, InetAddress from) {
+            String action = scanElement(data, 0, length, "Action");
+            // Other clients' probes and Bye messages reach the group listener too
+            if (action != null && !action.endsWith("/ProbeMatches") && !action.endsWith("/Hello")) {
+                return false;
+            }
+            // Probe matches answer our NetworkVideoTransmitter probe; Hellos come from any device type
+            if (action != null && action.endsWith("/Hello")
+                    && !isVideoTransmitter(scanElement(data, 0, length, "Types"))) {
+                return false;
+            }
+            String xAddr = preferredXAddr(scanElement(data, 0, length, "XAddrs"));
+            String ip = xAddr != null ? extractIp(xAddr) : null;
+            if (ip == null) {
+                return false;
+            }
+            // The endpoint's Address, not a header ReplyTo/Address
+            int reference = findElement(data, 0, length, "EndpointReference");
+            String endpoint = reference >= 0 ? scanElement(data, reference, length, "Address") : null;
+            if ((endpoint != null && !endpoints.add(endpoint)) || !ips.add(ip)) {
+                return false;
+            }
+            Camera camera = new Camera(ip);
+            camera.setOnvifServiceUrl(xAddr);
+            cameras.add(camera);
+            Logger.info("Discovered camera: " + ip + (endpoint != null ? " (" + endpoint + ")" : "")
+                    + (from != null ? " via " + from.getHostAddress() : ""));
+            return true;
+        }
+    }
+
+    /**
+     * @param types a WS-Discovery Types list of QNames, e.g. "dn:NetworkVideoTransmitter tds:Device"
+     */
+    static boolean isVideoTransmitter(String types) {
+        if (types == null) {
+            return false;
+        }
+        for (String type : types.trim().split("\\s+")) {
+            if (type.substring(type.indexOf(':') + 1).equals("NetworkVideoTransmitter")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Text of the first element with the given local name, found by scanning
+     * the raw bytes; null if absent. Enough for the flat, machine-written
+     * WS-Discovery messages; the few entities URLs could contain are decoded.
+     */
+    static String scanElement(byte[] data, int from, int length, String localName) {
+        int close = findElement(data, from, length, localName);
+        if (close < 0) {
+            return null;
+        }
+        if (data[close - 1] == '/') {
+            return "";
+        }
+        int textEnd = close + 1;
+        while (textEnd < length && data[textEnd] != '<') {
+            textEnd++;
+        }
+        return unescape(new String(data, close + 1, textEnd - close - 1, StandardCharsets.UTF_8).trim());
+    }
+
+    /**
+     * @return index of the '>' ending the first start tag with the given local
+     *         name at or after {@code from}, or -1
+     */
+    static int findElement(byte[] data, int from, int length, String localName) {
+        byte[] name = localName.getBytes(StandardCharsets.US_ASCII);
+        for (int i = from; i < length - 1; i++) {
+            if (data[i] != '<' || data[i + 1] == '/' || data[i + 1] == '?' || data[i + 1] == '!') {
+                continue;
+            }
+            int start = i + 1;
+            int end = start;
+            while (end < length && data[end] != '>' && data[end] != '/' && data[end] != ' ' && data[end] != '\t'
+                    && data[end] != '\r' && data[end] != '\n') {
+                end++;
+            }
+            int colon = start;
+            for (int j = start; j < end; j++) {
+                if (data[j] == ':') {
+                    colon = j + 1;
+                }
+            }
+            if (end - colon != name.length || !regionMatches(data, colon, name)) {
+                continue;
+            }
+            int close = end;
+            while (close < length && data[close] != '>') {
+                close++;
+            }
+            return close < length ? close : -1;
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(byte[] data, int offset, byte[] name) {
+        for (int k = 0; k < name.length; k++) {
+            if (data[offset + k] != name[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String unescape(String text) {
+        if (text.indexOf('&') < 0) {
+            return text;
+        }
+        return text.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'")
+                .replace("&amp;", "&");
+    }
+
+    /**
+     * The first IPv4 address of a space-separated XAddrs list; null if there is none.
+     */
+    static String preferredXAddr(String xAddrs) {
+        if (xAddrs == null || xAddrs.isEmpty()) {
+            return null;
+        }
+        String[] addrs = xAddrs.split("\\s+");
+        for (String a : addrs) {
+            if (!a.contains("[")) {
+                return a;
+            }
         }
-        
         return null;
     }
 
+    private static String probe(String messageId) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+            "<e:Envelope xmlns:e=\"http://www.w3.org/2003/05/soap-envelope\" " +
+            "xmlns:w=\"http://schemas.xmlsoap.org/ws/2004/08/addressing\" " +
+            "xmlns:d=\"http://schemas.xmlsoap.org/ws/2005/04/discovery\" " +
+            "xmlns:dn=\"http://www.onvif.org/ver10/network/wsdl\">" +
+            "<e:Header><w:MessageID>" + messageId + "</w:MessageID>" +
+            "<w:To>urn:schemas-xmlsoap-org:ws:2005:04:discovery</w:To>" +
+            "<w:Action>http://schemas.xmlsoap.org/ws/2005/04/discovery/Probe</w:Action>" +
+            "</e:Header><e:Body><d:Probe><d:Types>dn:NetworkVideoTransmitter</d:Types></d:Probe>" +
+            "</e:Body></e:Envelope>";
+    }
+
     private static String extractIp(String url) {
         try {
             URL u = new URL(url);
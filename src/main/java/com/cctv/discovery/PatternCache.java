@@ -2,38 +2,291 @@ package com.cctv.discovery;
 
 import com.cctv.model.Camera;
 import com.cctv.util.Logger;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Persistent RTSP pattern knowledge. Keys are device identities
+ * (manufacturer|model|firmware|MAC OUI), not network locations, so a model
+ * learned on one subnet is recognised on every other. Each key keeps hit and
+ * miss counts per pattern; every observation is also recorded under the bare
+ * manufacturer so a new model of a known brand starts from its siblings.
+ *
+ * Bounded by LRU over keys ({@link #MAX_KEYS}) and a TTL per pattern
+ * ({@link #TTL_MS}). Loaded at class init and written by {@link #save()} as a
+ * tab-separated file; the location can be overridden with -Dcctv.patternCache.
+ */
 public class PatternCache {
-    private static final ConcurrentHashMap<String, String[]> cache = new ConcurrentHashMap<>();
+    static final int MAX_KEYS = 1000;
+    static final long TTL_MS = TimeUnit.DAYS.toMillis(90);
+
+    private static final Path DEFAULT_STORE = Paths.get(System.getProperty("cctv.patternCache",
+            Paths.get(System.getProperty("user.home"), ".cctv-discovery", "pattern-cache.tsv").toString()));
+
+    // Access-ordered: the eldest entry is the least recently used key
+    private static final LinkedHashMap<String, Map<String, Stats>> cache =
+            new LinkedHashMap<String, Map<String, Stats>>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<String, Stats>> eldest) {
+                    return size() > MAX_KEYS;
+                }
+            };
+    private static boolean dirty = false;
+
+    static {
+        load(DEFAULT_STORE);
+    }
+
+    /**
+     * Hit/miss counts of one pattern under one key.
+     */
+    static final class Stats {
+        final String[] pattern;
+        int hits;
+        int misses;
+        long lastUsed;
+
+        Stats(String[] pattern) {
+            this.pattern = pattern;
+        }
+
+        /**
+         * Laplace-smoothed, so an untried pattern (0.5) ranks above one that
+         * has only failed and below one that has worked.
+         */
+        double successRate() {
+            return (hits + 1.0) / (hits + misses + 2.0);
+        }
+    }
 
     public static String generateCacheKey(Camera camera, String manufacturer) {
-        String ipPrefix = camera.getIpAddress().substring(0, camera.getIpAddress().lastIndexOf('.'));
-        String model = camera.getModel() != null ? camera.getModel() : "";
-        String macPrefix = camera.getMacAddress() != null ? 
-            camera.getMacAddress().substring(0, 8) : "";
-        
-        return manufacturer + ":" + model + ":" + ipPrefix + ":" + macPrefix;
+        String oui = camera.getMacAddress() != null && camera.getMacAddress().length() >= 8
+                ? camera.getMacAddress().substring(0, 8) : "";
+        return normalize(manufacturer) + "|" + normalize(camera.getModel()) + "|"
+                + normalize(camera.getFirmwareVersion()) + "|" + normalize(oui);
     }
 
-    public static String[] getCachedPattern(String cacheKey) {
-        return cache.get(cacheKey);
+    /**
+     * @return the best pattern that has worked under this key, or null
+     */
+    public static synchronized String[] getCachedPattern(String cacheKey) {
+        Map<String, Stats> patterns = lookup(cacheKey);
+        if (patterns == null) {
+            return null;
+        }
+        Stats best = null;
+        for (Stats stats : patterns.values()) {
+            if (stats.hits > 0 && (best == null || stats.successRate() > best.successRate())) {
+                best = stats;
+            }
+        }
+        return best != null ? best.pattern : null;
     }
 
+    public static boolean hasCachedPattern(String cacheKey) {
+        return getCachedPattern(cacheKey) != null;
+    }
+
+    /**
+     * Records a successful pattern.
+     */
     public static void cachePattern(String cacheKey, String[] pattern) {
-        cache.put(cacheKey, pattern);
+        record(cacheKey, pattern, true);
         Logger.info("Cached successful pattern for " + cacheKey);
     }
 
-    public static boolean hasCachedPattern(String cacheKey) {
-        return cache.containsKey(cacheKey);
+    /**
+     * Records a pattern the device answered but rejected (e.g. 404).
+     */
+    public static void recordMiss(String cacheKey, String[] pattern) {
+        record(cacheKey, pattern, false);
+    }
+
+    /**
+     * Returns the patterns ordered by observed success rate, best first. Rates
+     * come from the exact key, then the manufacturer; ties keep the given order.
+     */
+    public static synchronized List<String[]> orderBySuccess(String cacheKey, List<String[]> patterns) {
+        Map<String, Stats> exact = lookup(cacheKey);
+        Map<String, Stats> family = lookup(manufacturerKey(cacheKey));
+        if (exact == null && family == null) {
+            return patterns;
+        }
+
+        Map<String[], Double> rates = new LinkedHashMap<>();
+        for (String[] pattern : patterns) {
+            String id = patternId(pattern);
+            Stats stats = exact != null ? exact.get(id) : null;
+            if (stats == null && family != null) {
+                stats = family.get(id);
+            }
+            rates.put(pattern, stats != null ? stats.successRate() : 0.5);
+        }
+        List<String[]> ordered = new ArrayList<>(patterns);
+        ordered.sort(Comparator.comparingDouble((String[] p) -> rates.get(p)).reversed());
+        return ordered;
+    }
+
+    /**
+     * Writes the cache to its store if anything changed since the last load or save.
+     */
+    public static void save() {
+        save(DEFAULT_STORE);
     }
 
-    public static void clearCache() {
+    public static synchronized void clearCache() {
         cache.clear();
+        dirty = true;
     }
 
-    public static int getCacheSize() {
+    public static synchronized int getCacheSize() {
         return cache.size();
     }
-}
\ No newline at end of file
+
+    private static synchronized void record(String cacheKey, String[] pattern, boolean hit) {
+        if (cacheKey == null || pattern == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        update(cacheKey, pattern, hit, now);
+        String family = manufacturerKey(cacheKey);
+        if (!family.equals(cacheKey)) {
+            update(family, pattern, hit, now);
+        }
+        dirty = true;
+    }
+
+    private static void update(String key, String[] pattern, boolean hit, long now) {
+        Stats stats = cache.computeIfAbsent(key, k -> new LinkedHashMap<>())
+                .computeIfAbsent(patternId(pattern), k -> new Stats(pattern));
+        if (hit) {
+            stats.hits++;
+        } else {
+            stats.misses++;
+        }
+        stats.lastUsed = now;
+    }
+
+    /**
+     * Returns the live patterns of a key, dropping expired ones (and the key once empty).
+     */
+    private static Map<String, Stats> lookup(String key) {
+        Map<String, Stats> patterns = cache.get(key);
+        if (patterns == null) {
+            return null;
+        }
+        long cutoff = System.currentTimeMillis() - TTL_MS;
+        Iterator<Stats> it = patterns.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().lastUsed < cutoff) {
+                it.remove();
+                dirty = true;
+            }
+        }
+        if (patterns.isEmpty()) {
+            cache.remove(key);
+            return null;
+        }
+        return patterns;
+    }
+
+    static synchronized void load(Path file) {
+        cache.clear();
+        dirty = false;
+        if (!Files.exists(file)) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - TTL_MS;
+        int loaded = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // key, main, sub, hits, misses, lastUsed
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 6 || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    long lastUsed = Long.parseLong(fields[5]);
+                    if (lastUsed < cutoff) {
+                        continue;
+                    }
+                    String[] pattern = { fields[1], fields[2].isEmpty() ? null : fields[2] };
+                    Stats stats = new Stats(pattern);
+                    stats.hits = Integer.parseInt(fields[3]);
+                    stats.misses = Integer.parseInt(fields[4]);
+                    stats.lastUsed = lastUsed;
+                    cache.computeIfAbsent(fields[0], k -> new LinkedHashMap<>()).put(patternId(pattern), stats);
+                    loaded++;
+                } catch (NumberFormatException e) {
+                    // Skip corrupt line
+                }
+            }
+            Logger.info("Loaded " + loaded + " RTSP pattern statistics from " + file);
+        } catch (IOException e) {
+            Logger.error("Error loading pattern cache " + file, e);
+        }
+    }
+
+    static synchronized void save(Path file) {
+        if (!dirty) {
+            return;
+        }
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writer.write("# key\tmain\tsub\thits\tmisses\tlastUsed");
+                writer.newLine();
+                // Least recently used first, so a reload keeps the LRU order
+                for (Map.Entry<String, Map<String, Stats>> entry : cache.entrySet()) {
+                    for (Stats stats : entry.getValue().values()) {
+                        writer.write(entry.getKey() + "\t" + stats.pattern[0] + "\t"
+                                + (stats.pattern.length > 1 && stats.pattern[1] != null ? stats.pattern[1] : "")
+                                + "\t" + stats.hits + "\t" + stats.misses + "\t" + stats.lastUsed);
+                        writer.newLine();
+                    }
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            Logger.error("Error saving pattern cache " + file, e);
+        }
+    }
+
+    private static String manufacturerKey(String cacheKey) {
+        int sep = cacheKey.indexOf('|');
+        return (sep >= 0 ? cacheKey.substring(0, sep) : cacheKey) + "|||";
+    }
+
+    private static String patternId(String[] pattern) {
+        return pattern[0] + "|" + (pattern.length > 1 && pattern[1] != null ? pattern[1] : "");
+    }
+
+    private static String normalize(String value) {
+        // Tabs and '|' are separators in the key and the store
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT).replaceAll("[\\t|]", " ");
+    }
+}
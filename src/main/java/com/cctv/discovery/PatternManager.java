@@ -96,6 +96,10 @@ public class PatternManager {
         return section.split(" ")[0];
     }
 
+    /**
+     * Candidate patterns for a camera, ordered by the success rate recorded in
+     * {@link PatternCache} for its identity (then its manufacturer).
+     */
     public static List<String[]> getPatternsForCamera(Camera camera, String manufacturer) {
         Set<String> uniquePatterns = new LinkedHashSet<>();
         List<String[]> result = new ArrayList<>();
@@ -121,7 +125,7 @@ public class PatternManager {
             addPatterns(result, uniquePatterns, HARDCODED_PATTERNS.get("Generic"));
         }
 
-        return result;
+        return PatternCache.orderBySuccess(PatternCache.generateCacheKey(camera, manufacturer), result);
     }
 
     private static boolean isMacDetected(Camera camera, String manufacturer) {
@@ -1,15 +1,18 @@
 package com.cctv.discovery;
 
 import com.cctv.model.Camera;
+import com.cctv.network.IpRange;
 import com.cctv.util.Logger;
+import com.cctv.util.Scheduler;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PortScanner {
     // Extended port list for better camera discovery
-    private static final int[] PORTS = {
+    static final int[] PORTS = {
             554, 8554, // Standard RTSP
             80, 8080, 8000, // HTTP
             443, 8443, // HTTPS
@@ -18,74 +21,25 @@ public class PortScanner {
             7447, // Reolink
             9000, 9001 // Custom/Generic
     };
-    private static final int TIMEOUT_MS = 500;
+    static final int TIMEOUT_MS = 500;
 
-    // Dynamic thread pool size based on available processors
-    private static final int THREAD_POOL_SIZE = Math.max(4,
-            Math.min(Runtime.getRuntime().availableProcessors() * 2, 50));
+    private static final long SCAN_TIMEOUT_MINUTES = 5;
 
     public static List<Camera> scan(List<String> ipAddresses, ProgressListener listener) {
-        Logger.info("Starting port scan for " + ipAddresses.size() + " IPs with " + THREAD_POOL_SIZE + " threads");
+        Logger.info("Starting port scan for " + ipAddresses.size() + " IPs on " + Scheduler.Lane.SCAN.getThreads()
+                + " scan threads");
         Set<Camera> cameras = Collections.synchronizedSet(new HashSet<>());
-        ExecutorService executor = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
-        final java.util.concurrent.atomic.AtomicInteger completed = new java.util.concurrent.atomic.AtomicInteger(0);
-
-        // Add shutdown hook for graceful cleanup
-        final Thread mainThread = Thread.currentThread();
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            Logger.info("Shutdown detected, stopping port scanner...");
-            executor.shutdownNow();
-        }));
+        AtomicInteger completed = new AtomicInteger(0);
 
         // Total tasks is number of IPs
         int totalTasks = ipAddresses.size();
 
+        List<Future<?>> futures = new ArrayList<>();
         for (String ip : ipAddresses) {
-            executor.submit(() -> {
+            futures.add(Scheduler.submit(Scheduler.Lane.SCAN, () -> {
                 try {
-                    // Update progress at start of IP scan? No, better to update on completion to
-                    // show progress bar moving
-                    Camera camera = null;
-                    List<Integer> rtspPorts = new ArrayList<>();
-                    for (int port : PORTS) {
-                        if (isPortOpen(ip, port)) {
-                            if (camera == null) {
-                                camera = new Camera(ip);
-                            }
-                            if (port == 554 || port == 8554) {
-                                rtspPorts.add(port);
-                                // Early MAC detection for RTSP-enabled devices
-                                if (camera.getMacAddress() == null) {
-                                    String mac = ManufacturerDetector.getMacAddressFromArp(ip);
-                                    if (mac != null) {
-                                        camera.setMacAddress(mac);
-                                        Logger.info("Early MAC detection for " + ip + ": " + mac);
-                                    }
-                                }
-                            } else if (port == 80 || port == 8080) {
-                                camera.setOnvifServiceUrl("http://" + ip + ":" + port + "/onvif/device_service");
-                            }
-                            Logger.info("Port scan found: " + ip + ":" + port);
-                        }
-                    }
+                    Camera camera = scanHost(ip);
                     if (camera != null) {
-                        camera.setOpenRtspPorts(rtspPorts);
-                        // Ensure MAC address is detected for all cameras
-                        if (camera.getMacAddress() == null) {
-                            String mac = ManufacturerDetector.getMacAddressFromArp(ip);
-                            if (mac != null) {
-                                camera.setMacAddress(mac);
-                                Logger.info("MAC detection for " + ip + ": " + mac);
-                                // Set manufacturer from MAC if not already set
-                                if (camera.getManufacturer() == null) {
-                                    String manufacturer = ManufacturerDetector.getManufacturerFromMac(mac);
-                                    if (manufacturer != null) {
-                                        camera.setManufacturer(manufacturer);
-                                        Logger.info("Manufacturer from MAC for " + ip + ": " + manufacturer);
-                                    }
-                                }
-                            }
-                        }
                         cameras.add(camera);
                     }
                 } catch (Exception e) {
@@ -96,23 +50,55 @@ public class PortScanner {
                         listener.onProgress(ip, current, totalTasks, "Scanned " + ip);
                     }
                 }
-            });
+                return null;
+            }));
         }
+        awaitAll(futures);
 
-        executor.shutdown();
-        try {
-            if (!executor.awaitTermination(5, TimeUnit.MINUTES)) {
-                Logger.warn("Port scan timeout reached, forcing shutdown");
-                executor.shutdownNow();
-                if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
-                    Logger.error("Port scanner failed to terminate");
+        if (listener != null) {
+            listener.onComplete();
+        }
+
+        Logger.info("Port scan completed. Found " + cameras.size() + " cameras");
+        return new ArrayList<>(cameras);
+    }
+
+    /**
+     * Scans a range with one worker per chunk. Each worker walks its chunk lazily,
+     * so no per-address String list is built up front.
+     */
+    public static List<Camera> scan(IpRange range, ProgressListener listener) {
+        List<IpRange> chunks = range.split(Scheduler.Lane.SCAN.getThreads());
+        Logger.info("Starting port scan for " + range.size() + " IPs in " + chunks.size() + " chunks");
+        List<Camera> cameras = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger completed = new AtomicInteger(0);
+        int totalTasks = (int) Math.min(Integer.MAX_VALUE, range.size());
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (IpRange chunk : chunks) {
+            futures.add(Scheduler.submit(Scheduler.Lane.SCAN, () -> {
+                for (String ip : chunk) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return null;
+                    }
+                    try {
+                        Camera camera = scanHost(ip);
+                        if (camera != null) {
+                            cameras.add(camera);
+                        }
+                    } catch (Exception e) {
+                        Logger.error("Error scanning " + ip, e);
+                    } finally {
+                        int current = completed.incrementAndGet();
+                        if (listener != null) {
+                            listener.onProgress(ip, current, totalTasks, "Scanned " + ip);
+                        }
+                    }
                 }
-            }
-        } catch (InterruptedException e) {
-            Logger.error("Port scan interrupted", e);
-            executor.shutdownNow();
-            Thread.currentThread().interrupt();
+                return null;
+            }));
         }
+        awaitAll(futures);
 
         if (listener != null) {
             listener.onComplete();
@@ -122,12 +108,105 @@ public class PortScanner {
         return new ArrayList<>(cameras);
     }
 
+    /**
+     * Waits for scan tasks up to the scan timeout, then cancels what is left.
+     */
+    private static void awaitAll(List<Future<?>> futures) {
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(SCAN_TIMEOUT_MINUTES);
+        for (Future<?> future : futures) {
+            try {
+                future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                Logger.warn("Port scan timeout reached, cancelling remaining hosts");
+                for (Future<?> f : futures) {
+                    f.cancel(true);
+                }
+                return;
+            } catch (InterruptedException e) {
+                Logger.error("Port scan interrupted", e);
+                for (Future<?> f : futures) {
+                    f.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException | CancellationException e) {
+                // Already logged by the task
+            }
+        }
+    }
+
+    private static Camera scanHost(String ip) {
+        List<Integer> openPorts = new ArrayList<>();
+        for (int port : PORTS) {
+            if (isPortOpen(ip, port)) {
+                openPorts.add(port);
+            }
+        }
+        return buildCamera(ip, openPorts);
+    }
+
     // Legacy method for backward compatibility if needed, though we should update
     // callers
     public static List<Camera> scan(List<String> ipAddresses) {
         return scan(ipAddresses, null);
     }
 
+    /**
+     * Builds the camera record for a host from its open ports (in {@link #PORTS} order).
+     * Shared by the blocking and NIO scan engines. Returns null if no port was open.
+     */
+    static Camera buildCamera(String ip, List<Integer> openPorts) {
+        Camera camera = createCamera(ip, openPorts);
+        if (camera != null) {
+            identify(camera);
+        }
+        return camera;
+    }
+
+    /**
+     * Creates the camera record from open ports only, without the ARP/MAC lookup.
+     */
+    static Camera createCamera(String ip, List<Integer> openPorts) {
+        if (openPorts.isEmpty()) {
+            return null;
+        }
+        Camera camera = new Camera(ip);
+        List<Integer> rtspPorts = new ArrayList<>();
+        for (int port : openPorts) {
+            if (port == 554 || port == 8554) {
+                rtspPorts.add(port);
+            } else if (port == 80 || port == 8080) {
+                camera.setOnvifServiceUrl("http://" + ip + ":" + port + "/onvif/device_service");
+            }
+            Logger.info("Port scan found: " + ip + ":" + port);
+        }
+        camera.setOpenRtspPorts(rtspPorts);
+        return camera;
+    }
+
+    /**
+     * Fills in the MAC address and, from its OUI, the manufacturer if not already known.
+     */
+    static void identify(Camera camera) {
+        if (camera.getMacAddress() != null) {
+            return;
+        }
+        String ip = camera.getIpAddress();
+        String mac = ManufacturerDetector.getMacAddressFromArp(ip);
+        if (mac != null) {
+            camera.setMacAddress(mac);
+            Logger.info("MAC detection for " + ip + ": " + mac);
+            // Set manufacturer from MAC if not already set
+            if (camera.getManufacturer() == null) {
+                String manufacturer = ManufacturerDetector.getManufacturerFromMac(mac);
+                if (manufacturer != null) {
+                    camera.setManufacturer(manufacturer);
+                    Logger.info("Manufacturer from MAC for " + ip + ": " + manufacturer);
+                }
+            }
+        }
+    }
+
     private static boolean isPortOpen(String ip, int port) {
         try (Socket socket = new Socket()) {
             socket.connect(new InetSocketAddress(ip, port), TIMEOUT_MS);
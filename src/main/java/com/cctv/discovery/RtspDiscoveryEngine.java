@@ -3,29 +3,50 @@ package com.cctv.discovery;
 import com.cctv.model.Camera;
 import com.cctv.model.StreamInfo;
 import com.cctv.probe.StreamProbe;
+import com.cctv.rtsp.RtspClient;
+import com.cctv.rtsp.RtspConnection;
+import com.cctv.util.ExecutionBudget;
 import com.cctv.util.Logger;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.*;
 
 public class RtspDiscoveryEngine {
     private static final int PATTERN_TIMEOUT_MS = 1500;
-    private static final int MAX_CONCURRENT_TESTS = 6;
 
     public static class DiscoveryResult {
         public final boolean success;
         public final String mainUrl;
         public final String subUrl;
         public final String[] pattern;
+        /** SDPs of the DESCRIBEs that found the URLs; null if not kept */
+        public final String mainSdp;
+        public final String subSdp;
 
         public DiscoveryResult(boolean success, String mainUrl, String subUrl, String[] pattern) {
+            this(success, mainUrl, subUrl, pattern, null, null);
+        }
+
+        public DiscoveryResult(boolean success, String mainUrl, String subUrl, String[] pattern, String mainSdp,
+                String subSdp) {
             this.success = success;
             this.mainUrl = mainUrl;
             this.subUrl = subUrl;
             this.pattern = pattern;
+            this.mainSdp = mainSdp;
+            this.subSdp = subSdp;
         }
     }
 
     public static boolean discoverStreams(Camera camera) {
+        return discoverStreams(camera, true);
+    }
+
+    /**
+     * @param probeStreams probe found streams for codec/resolution inline; pass false
+     *                     when a later stage probes them instead
+     */
+    public static boolean discoverStreams(Camera camera, boolean probeStreams) {
         if (!validateCamera(camera)) {
             return false;
         }
@@ -36,7 +57,7 @@ public class RtspDiscoveryEngine {
         Logger.info("RTSP discovery for " + camera.getIpAddress() + " (Manufacturer: " + manufacturer + ")");
 
         // Try cached pattern first
-        if (tryCachedPattern(camera, cacheKey)) {
+        if (tryCachedPattern(camera, cacheKey, probeStreams)) {
             return true;
         }
 
@@ -44,19 +65,20 @@ public class RtspDiscoveryEngine {
         List<String[]> patterns = PatternManager.getPatternsForCamera(camera, manufacturer);
         Logger.info("Testing " + patterns.size() + " patterns on ports: " + camera.getOpenRtspPorts());
 
-        DiscoveryResult result = testPatternsParallel(camera, patterns);
+        DiscoveryResult result = testPatternsPipelined(camera, patterns, cacheKey);
         if (result.success) {
-            applySuccessfulResult(camera, result, cacheKey);
+            applySuccessfulResult(camera, result, cacheKey, probeStreams);
             return true;
         }
 
         // Fallback to generic patterns
         if (!manufacturer.equals("Generic")) {
             Logger.info("Trying generic patterns as fallback");
-            List<String[]> genericPatterns = PatternManager.getPatternsForCamera(camera, "Generic");
-            result = testPatternsParallel(camera, genericPatterns);
+            List<String[]> genericPatterns = PatternCache.orderBySuccess(cacheKey,
+                    PatternManager.getPatternsForCamera(camera, "Generic"));
+            result = testPatternsPipelined(camera, genericPatterns, cacheKey);
             if (result.success) {
-                applySuccessfulResult(camera, result, cacheKey);
+                applySuccessfulResult(camera, result, cacheKey, probeStreams);
                 return true;
             }
         }
@@ -78,50 +100,83 @@ public class RtspDiscoveryEngine {
         return true;
     }
 
-    private static boolean tryCachedPattern(Camera camera, String cacheKey) {
+    private static boolean tryCachedPattern(Camera camera, String cacheKey, boolean probeStreams) {
         if (PatternCache.hasCachedPattern(cacheKey)) {
             Logger.info("Trying cached pattern for " + cacheKey);
             String[] cachedPattern = PatternCache.getCachedPattern(cacheKey);
-            if (testSinglePattern(camera, cachedPattern)) {
+            if (testSinglePattern(camera, cachedPattern, probeStreams)) {
                 Logger.info("SUCCESS: Cached pattern worked!");
+                PatternCache.cachePattern(cacheKey, cachedPattern);
                 return true;
             }
+            if (!camera.isAuthFailed()) {
+                PatternCache.recordMiss(cacheKey, cachedPattern);
+            }
         }
         return false;
     }
 
-    private static DiscoveryResult testPatternsParallel(Camera camera, List<String[]> patterns) {
+    /**
+     * Tests the patterns over one pipelined RTSP connection per open port, so a
+     * device with a small session limit sees one client instead of dozens.
+     * Sending stops after the window that holds the first success, and the first
+     * success in pattern order wins. Paths the device answered and rejected before
+     * it are recorded as misses under {@code cacheKey}.
+     */
+    private static DiscoveryResult testPatternsPipelined(Camera camera, List<String[]> patterns, String cacheKey) {
         if (patterns == null || patterns.isEmpty()) {
             return new DiscoveryResult(false, null, null, null);
         }
 
-        ExecutorService executor = Executors.newFixedThreadPool(MAX_CONCURRENT_TESTS);
-        CompletionService<DiscoveryResult> completionService = new ExecutorCompletionService<>(executor);
-
-        int submitted = 0;
-        for (String[] pattern : patterns) {
-            for (int port : camera.getOpenRtspPorts()) {
-                completionService.submit(() -> testPatternOnPort(camera, pattern, port));
-                submitted++;
-            }
-        }
-
-        try {
-            for (int i = 0; i < submitted; i++) {
-                try {
-                    Future<DiscoveryResult> future = completionService.poll(PATTERN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-                    if (future != null) {
-                        DiscoveryResult result = future.get();
-                        if (result.success) {
-                            return result;
+        for (int port : camera.getOpenRtspPorts()) {
+            try (RtspConnection connection = RtspConnection.open(camera.getIpAddress(), port,
+                    camera.getUsername(), camera.getPassword(),
+                    ExecutionBudget.current().clampTimeout(PATTERN_TIMEOUT_MS))) {
+                List<String> mainPaths = new ArrayList<>();
+                for (String[] pattern : patterns) {
+                    mainPaths.add(pattern[0]);
+                }
+                List<RtspClient.Response> responses = connection.describeAll(mainPaths,
+                        RtspClient.Response::isSuccess);
+
+                boolean authFailed = false;
+                for (int i = 0; i < patterns.size(); i++) {
+                    RtspClient.Response response = responses.get(i);
+                    if (response == null) {
+                        continue;
+                    }
+                    if (response.isSuccess()) {
+                        String[] pattern = patterns.get(i);
+                        String mainUrl = buildRtspUrl(camera, pattern[0], port);
+                        String subUrl = null;
+                        String subSdp = null;
+                        if (pattern.length > 1 && pattern[1] != null) {
+                            try {
+                                RtspClient.Response sub = connection.describe(pattern[1]);
+                                if (sub.isSuccess()) {
+                                    subUrl = buildRtspUrl(camera, pattern[1], port);
+                                    subSdp = sub.body;
+                                }
+                            } catch (IOException e) {
+                                // Main stream is enough
+                            }
                         }
+                        return new DiscoveryResult(true, mainUrl, subUrl, pattern, response.body, subSdp);
                     }
-                } catch (Exception e) {
-                    // Continue with next result
+                    if (response.isAuthFailure()) {
+                        authFailed = true;
+                    } else {
+                        PatternCache.recordMiss(cacheKey, patterns.get(i));
+                    }
+                }
+                if (authFailed) {
+                    camera.setAuthFailed(true);
+                    camera.setErrorMessage("RTSP Auth Failed: Invalid credentials");
                 }
+            } catch (IOException e) {
+                Logger.info("RTSP connection to " + camera.getIpAddress() + ":" + port + " failed: "
+                        + e.getMessage());
             }
-        } finally {
-            executor.shutdownNow();
         }
 
         return new DiscoveryResult(false, null, null, null);
@@ -133,14 +188,17 @@ public class RtspDiscoveryEngine {
 
         if (mainResult.success) {
             String subUrl = null;
+            String subSdp = null;
             if (pattern.length > 1 && pattern[1] != null) {
                 subUrl = buildRtspUrl(camera, pattern[1], port);
                 RtspTester.TestResult subResult = RtspTester.testUrl(subUrl);
-                if (!subResult.success) {
+                if (subResult.success) {
+                    subSdp = subResult.sdp;
+                } else {
                     subUrl = null;
                 }
             }
-            return new DiscoveryResult(true, mainUrl, subUrl, pattern);
+            return new DiscoveryResult(true, mainUrl, subUrl, pattern, mainResult.sdp, subSdp);
         } else if (mainResult.authFailed) {
             camera.setAuthFailed(true);
             camera.setErrorMessage("RTSP Auth Failed: Invalid credentials");
@@ -149,32 +207,39 @@ public class RtspDiscoveryEngine {
         return new DiscoveryResult(false, null, null, null);
     }
 
-    private static boolean testSinglePattern(Camera camera, String[] pattern) {
+    private static boolean testSinglePattern(Camera camera, String[] pattern, boolean probeStreams) {
         for (int port : camera.getOpenRtspPorts()) {
             DiscoveryResult result = testPatternOnPort(camera, pattern, port);
             if (result.success) {
-                applySuccessfulResult(camera, result, null);
+                applySuccessfulResult(camera, result, null, probeStreams);
                 return true;
             }
         }
         return false;
     }
 
-    private static void applySuccessfulResult(Camera camera, DiscoveryResult result, String cacheKey) {
+    private static void applySuccessfulResult(Camera camera, DiscoveryResult result, String cacheKey,
+            boolean probeStreams) {
         Logger.info("SUCCESS: Found working RTSP URLs");
 
         // Set main stream
         StreamInfo main = new StreamInfo();
         main.setRtspUrl(result.mainUrl);
+        main.setSdp(result.mainSdp);
         camera.setMainStream(main);
-        StreamProbe.probe(main);
+        if (probeStreams) {
+            StreamProbe.probe(main);
+        }
 
         // Set sub stream if available
         if (result.subUrl != null) {
             StreamInfo sub = new StreamInfo();
             sub.setRtspUrl(result.subUrl);
+            sub.setSdp(result.subSdp);
             camera.setSubStream(sub);
-            StreamProbe.probe(sub);
+            if (probeStreams) {
+                StreamProbe.probe(sub);
+            }
         }
 
         // Cache successful pattern
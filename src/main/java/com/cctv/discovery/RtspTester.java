@@ -1,11 +1,14 @@
 package com.cctv.discovery;
 
+import com.cctv.rtsp.RtspClient;
+import com.cctv.util.ExecutionBudget;
 import com.cctv.util.Logger;
-import org.bytedeco.javacv.FFmpegFrameGrabber;
-import java.util.concurrent.*;
+import com.cctv.util.Scheduler;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
 
 public class RtspTester {
-    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(8);
     private static final int TEST_TIMEOUT_MS = 2000;
 
     public static class TestResult {
@@ -13,95 +16,94 @@ public class RtspTester {
         public final boolean authFailed;
         public final String errorMessage;
         public final String resolution;
+        public final String sdp;
 
         public TestResult(boolean success, boolean authFailed, String errorMessage, String resolution) {
+            this(success, authFailed, errorMessage, resolution, null);
+        }
+
+        public TestResult(boolean success, boolean authFailed, String errorMessage, String resolution, String sdp) {
             this.success = success;
             this.authFailed = authFailed;
             this.errorMessage = errorMessage;
             this.resolution = resolution;
+            this.sdp = sdp;
         }
     }
 
     public static CompletableFuture<TestResult> testUrlAsync(String url) {
-        return CompletableFuture.supplyAsync(() -> testUrl(url), EXECUTOR);
+        return Scheduler.supplyAsync(Scheduler.Lane.RTSP, () -> testUrl(url));
     }
 
+    /**
+     * Validates an RTSP URL with a single DESCRIBE (plus one auth retry). No
+     * decoder is started; the SDP of a successful test is kept in the result.
+     */
     public static TestResult testUrl(String url) {
-        FFmpegFrameGrabber grabber = null;
+        ExecutionBudget budget = ExecutionBudget.current();
+        if (budget.isExpired()) {
+            return new TestResult(false, false, "Discovery timeout reached", null);
+        }
         try {
             Logger.info("Testing RTSP URL: " + url);
-            grabber = new FFmpegFrameGrabber(url);
-            configureGrabber(grabber);
-            grabber.start();
+            RtspClient.Response response = RtspClient.describe(url, budget.clampTimeout(TEST_TIMEOUT_MS));
 
-            int width = grabber.getImageWidth();
-            int height = grabber.getImageHeight();
-            String resolution = width + "x" + height;
+            if (response.isSuccess()) {
+                String resolution = resolutionFromSdp(response.body);
+                Logger.info("RTSP Success: " + (resolution != null ? resolution : "SDP received") + " for " + url);
+                return new TestResult(true, false, null, resolution, response.body);
+            }
 
-            Logger.info("RTSP Success: " + resolution + " for " + url);
-            return new TestResult(true, false, null, resolution);
+            String msg = response.statusCode + " " + response.reason;
+            boolean authFailed = response.isAuthFailure();
+            Logger.info("RTSP Failed: " + classifyStatus(response.statusCode, authFailed) + " - " + url);
+            return new TestResult(false, authFailed, msg, null);
 
         } catch (Exception e) {
             String msg = e.getMessage();
             Logger.error("RTSP Error: " + (msg != null ? msg : "Unknown") + " for " + url);
-
-            boolean authFailed = isAuthError(msg);
-            String errorType = classifyError(msg, authFailed);
-
-            Logger.info("RTSP Failed: " + errorType + " - " + url);
-            return new TestResult(false, authFailed, msg, null);
-
-        } finally {
-            closeGrabber(grabber);
+            Logger.info("RTSP Failed: " + classifyError(e) + " - " + url);
+            return new TestResult(false, false, msg, null);
         }
     }
 
-    private static void configureGrabber(FFmpegFrameGrabber grabber) {
-        grabber.setOption("rtsp_transport", "tcp");
-        grabber.setOption("stimeout", String.valueOf(TEST_TIMEOUT_MS * 1000));
-        grabber.setOption("timeout", String.valueOf(TEST_TIMEOUT_MS * 1000));
-        grabber.setOption("reconnect", "0");
-        grabber.setOption("loglevel", "error");
-    }
-
-    private static boolean isAuthError(String msg) {
-        return msg != null && (msg.contains("401") || msg.contains("Unauthorized") || 
-                              msg.contains("403") || msg.contains("Authentication failed"));
+    private static String classifyStatus(int status, boolean authFailed) {
+        if (authFailed) return "Authentication Failed";
+        if (status == 404) return "Path Not Found";
+        if (status == 454) return "Session Not Found";
+        if (status == 415) return "Unsupported Media Type";
+        return "RTSP Error " + status;
     }
 
-    private static String classifyError(String msg, boolean authFailed) {
-        if (authFailed) return "Authentication Failed";
-        if (msg == null) return "Unknown Error";
-        
-        if (msg.contains("404")) return "Path Not Found";
-        if (msg.contains("Connection refused")) return "Connection Refused";
-        if (msg.contains("timeout") || msg.contains("timed out")) return "Timeout";
-        if (msg.contains("Could not open input")) return "Invalid Stream Path";
-        if (msg.contains("avformat_open_input")) return "Stream Format Error";
-        
+    private static String classifyError(Exception e) {
+        if (e instanceof ConnectException) return "Connection Refused";
+        if (e instanceof SocketTimeoutException) return "Timeout";
+        if (e instanceof IllegalArgumentException) return "Invalid URL";
         return "Connection Failed";
     }
 
-    private static void closeGrabber(FFmpegFrameGrabber grabber) {
-        if (grabber != null) {
-            try {
-                grabber.stop();
-                grabber.release();
-            } catch (Exception e) {
-                Logger.error("Error closing grabber: " + e.getMessage());
-            }
+    /**
+     * Picks the frame size from the vendor SDP attributes some cameras send
+     * (a=x-dimensions:W,H or a=framesize:PT W-H). Null if not advertised.
+     */
+    static String resolutionFromSdp(String sdp) {
+        if (sdp == null) {
+            return null;
         }
-    }
-
-    public static void shutdown() {
-        EXECUTOR.shutdown();
-        try {
-            if (!EXECUTOR.awaitTermination(5, TimeUnit.SECONDS)) {
-                EXECUTOR.shutdownNow();
+        for (String line : sdp.split("\r?\n")) {
+            String value = null;
+            if (line.startsWith("a=x-dimensions:")) {
+                value = line.substring("a=x-dimensions:".length()).trim().replace(',', 'x');
+            } else if (line.startsWith("a=framesize:")) {
+                String[] parts = line.substring("a=framesize:".length()).trim().split("\\s+");
+                if (parts.length == 2) {
+                    value = parts[1].replace('-', 'x');
+                }
+            }
+            if (value != null && value.matches("\\d+x\\d+")) {
+                return value;
             }
-        } catch (InterruptedException e) {
-            EXECUTOR.shutdownNow();
-            Thread.currentThread().interrupt();
         }
+        return null;
     }
-}
\ No newline at end of file
+}
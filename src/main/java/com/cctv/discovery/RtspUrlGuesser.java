@@ -2,47 +2,21 @@ package com.cctv.discovery;
 
 import com.cctv.model.Camera;
 import com.cctv.util.Logger;
+import com.cctv.util.Scheduler;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.*;
+import java.util.concurrent.Future;
 
 /**
  * Simplified RtspUrlGuesser that delegates to the new architecture
  */
 public class RtspUrlGuesser {
-    private static ExecutorService executor;
-    private static final int THREAD_POOL_SIZE = Runtime.getRuntime().availableProcessors();
-
-    private static synchronized ExecutorService getExecutor() {
-        if (executor == null || executor.isShutdown()) {
-            executor = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
-        }
-        return executor;
-    }
-
-    public static void shutdown() {
-        if (executor != null && !executor.isShutdown()) {
-            executor.shutdown();
-            try {
-                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
-                    executor.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                executor.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
-        }
-        RtspTester.shutdown();
-    }
-
     public static void processDevices(List<Camera> cameras) {
-        List<Future<Void>> futures = new java.util.ArrayList<>();
+        List<Future<Boolean>> futures = new ArrayList<>();
         for (Camera camera : cameras) {
-            futures.add(getExecutor().submit(() -> {
-                tryGuessUrls(camera);
-                return null;
-            }));
+            futures.add(Scheduler.submit(Scheduler.Lane.DEVICE, () -> tryGuessUrls(camera)));
         }
-        for (Future<Void> future : futures) {
+        for (Future<Boolean> future : futures) {
             try {
                 future.get();
             } catch (Exception e) {
@@ -7,6 +7,8 @@ public class StreamInfo {
     private int bitrate;
     private double fps;
     private String error;
+    // SDP of the DESCRIBE that validated the URL, so the probe need not send another
+    private String sdp;
 
     public String getRtspUrl() { return rtspUrl; }
     public void setRtspUrl(String rtspUrl) { this.rtspUrl = rtspUrl; }
@@ -25,4 +27,7 @@ public class StreamInfo {
 
     public String getError() { return error; }
     public void setError(String error) { this.error = error; }
+
+    public String getSdp() { return sdp; }
+    public void setSdp(String sdp) { this.sdp = sdp; }
 }
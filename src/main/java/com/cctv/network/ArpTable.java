@@ -0,0 +1,206 @@
+package com.cctv.network;
+
+import com.cctv.util.Logger;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of the OS neighbour (ARP) table as an int IP -> MAC map. The whole
+ * table is read in one go, from /proc/net/arp on Linux or a single {@code arp -a}
+ * elsewhere, so a lookup is a hash probe instead of a process per host.
+ *
+ * A lookup that misses triggers a refresh, since the scan itself fills the table
+ * as it connects; refreshes are rate-limited to one per {@link #MIN_REFRESH_MS}
+ * and concurrent callers share it.
+ */
+public final class ArpTable {
+    static final long MIN_REFRESH_MS = 1000;
+    private static final Path PROC_NET_ARP = Paths.get("/proc/net/arp");
+    private static final long ARP_TIMEOUT_SECONDS = 10;
+
+    private static volatile Map<Integer, String> entries = Collections.emptyMap();
+    private static volatile long refreshedAt = 0;
+
+    private ArpTable() {
+    }
+
+    /**
+     * @return the MAC address as upper-case "AA:BB:CC:DD:EE:FF", or null if not in the table
+     */
+    public static String lookup(String ip) {
+        long address = parseIp(ip);
+        return address < 0 ? null : lookup((int) address);
+    }
+
+    public static String lookup(int address) {
+        String mac = entries.get(address);
+        if (mac == null && System.currentTimeMillis() - refreshedAt >= MIN_REFRESH_MS) {
+            refreshIfStale();
+            mac = entries.get(address);
+        }
+        return mac;
+    }
+
+    /**
+     * Re-reads the table now.
+     */
+    public static synchronized void refresh() {
+        try {
+            entries = Files.isReadable(PROC_NET_ARP) ? readProcNetArp() : readArpCommand();
+        } catch (IOException e) {
+            Logger.error("ARP table read failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            refreshedAt = System.currentTimeMillis();
+        }
+    }
+
+    public static int size() {
+        return entries.size();
+    }
+
+    private static synchronized void refreshIfStale() {
+        // Another caller may have refreshed while this one waited for the lock
+        if (System.currentTimeMillis() - refreshedAt >= MIN_REFRESH_MS) {
+            refresh();
+        }
+    }
+
+    private static Map<Integer, String> readProcNetArp() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(PROC_NET_ARP, StandardCharsets.US_ASCII)) {
+            return parseProcNetArp(reader);
+        }
+    }
+
+    private static Map<Integer, String> readArpCommand() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder("arp", "-a").redirectErrorStream(true).start();
+        Map<Integer, String> table;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                StandardCharsets.US_ASCII))) {
+            table = parseArpOutput(reader);
+        }
+        if (!process.waitFor(ARP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+        }
+        return table;
+    }
+
+    /**
+     * Parses /proc/net/arp: "IP address  HW type  Flags  HW address  Mask  Device".
+     * Incomplete entries (flags 0x0) are skipped.
+     */
+    static Map<Integer, String> parseProcNetArp(BufferedReader reader) throws IOException {
+        Map<Integer, String> table = new HashMap<>();
+        reader.readLine(); // header
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length < 4 || "0x0".equals(fields[2])) {
+                continue;
+            }
+            put(table, fields[0], fields[3]);
+        }
+        return table;
+    }
+
+    /**
+     * Parses {@code arp -a} output of Windows ("  192.168.1.10  ec-c8-9c-12-34-56  dynamic")
+     * and BSD/macOS ("? (192.168.1.10) at ec:c8:9c:12:34:56 on en0").
+     */
+    static Map<Integer, String> parseArpOutput(BufferedReader reader) throws IOException {
+        Map<Integer, String> table = new HashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String ip = null;
+            for (String token : line.trim().split("\\s+")) {
+                if (ip == null) {
+                    String candidate = token.startsWith("(") && token.endsWith(")")
+                            ? token.substring(1, token.length() - 1) : token;
+                    if (parseIp(candidate) >= 0) {
+                        ip = candidate;
+                    }
+                } else if (normalizeMac(token) != null) {
+                    put(table, ip, token);
+                    break;
+                }
+            }
+        }
+        return table;
+    }
+
+    private static void put(Map<Integer, String> table, String ip, String rawMac) {
+        long address = parseIp(ip);
+        String mac = normalizeMac(rawMac);
+        if (address >= 0 && mac != null && !"00:00:00:00:00:00".equals(mac)
+                && !"FF:FF:FF:FF:FF:FF".equals(mac)) {
+            table.put((int) address, mac);
+        }
+    }
+
+    /**
+     * Accepts ':' or '-' separated MACs with 1 or 2 hex digits per octet (BSD drops
+     * leading zeros) and returns "AA:BB:CC:DD:EE:FF", or null if not a MAC.
+     */
+    static String normalizeMac(String token) {
+        StringBuilder mac = new StringBuilder(17);
+        int octets = 0;
+        int digits = 0;
+        for (int i = 0; i <= token.length(); i++) {
+            char c = i < token.length() ? token.charAt(i) : ':';
+            if (c == ':' || c == '-') {
+                if (digits == 0 || ++octets > 6) {
+                    return null;
+                }
+                if (digits == 1) {
+                    mac.insert(mac.length() - 1, '0');
+                }
+                if (octets < 6) {
+                    mac.append(':');
+                }
+                digits = 0;
+            } else if (Character.digit(c, 16) >= 0 && ++digits <= 2) {
+                mac.append(Character.toUpperCase(c));
+            } else {
+                return null;
+            }
+        }
+        return octets == 6 ? mac.toString() : null;
+    }
+
+    /**
+     * @return the address as an unsigned int in a long, or -1 if not a dotted IPv4 address
+     */
+    private static long parseIp(String ip) {
+        long result = 0;
+        int parts = 0;
+        int value = -1;
+        for (int i = 0; i <= ip.length(); i++) {
+            char c = i < ip.length() ? ip.charAt(i) : '.';
+            if (c == '.') {
+                if (value < 0 || ++parts > 4) {
+                    return -1;
+                }
+                result = (result << 8) | value;
+                value = -1;
+            } else if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return -1;
+                }
+            } else {
+                return -1;
+            }
+        }
+        return parts == 4 ? result : -1;
+    }
+}
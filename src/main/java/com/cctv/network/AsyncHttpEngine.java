@@ -0,0 +1,624 @@
+package com.cctv.network;
+
+import com.cctv.util.ExecutionBudget;
+import com.cctv.util.Logger;
+import com.cctv.util.Scheduler;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Non-blocking HTTP/1.1 client on one selector thread. Requests return a
+ * CompletableFuture instead of holding a thread, so thousands of device
+ * conversations can be in flight at once; the only per-request cost is a
+ * buffer and a parser. Each host:port gets at most
+ * {@link #MAX_CONNECTIONS_PER_HOST} keep-alive connections, and further
+ * requests queue for one, so a small embedded web server is never flooded.
+ * A request's timeout runs from the moment it gets a connection, so time spent
+ * queued behind the same host's other requests does not count against it; a
+ * queued request is only bounded by the run's {@link ExecutionBudget} deadline.
+ *
+ * Cancelling a returned future drops the request: a queued one leaves the queue,
+ * one in flight closes its connection and frees the slot.
+ *
+ * The loop runs on a {@link Scheduler#startLoop} thread and never blocks: host
+ * names are resolved on the SCAN lane (device URLs are almost always IP literals,
+ * which need no lookup), and futures complete on the CPU pool, so callbacks
+ * cannot stall the loop. HTTP auth uses the same per-host challenge cache as
+ * {@link DeviceHttpClient}. https URLs are handed to {@link DeviceHttpClient} on
+ * the SCAN lane.
+ */
+public final class AsyncHttpEngine {
+    public static final int MAX_CONNECTIONS_PER_HOST = 3;
+    static final long IDLE_TIMEOUT_MS = 10000;
+    private static final int BUFFER_SIZE = 8192;
+    private static final String USER_AGENT = "CctvDiscovery";
+
+    private static volatile AsyncHttpEngine shared;
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Loop thread only
+    private final Map<String, Host> hosts = new HashMap<>();
+    private final PriorityQueue<Exchange> deadlines = new PriorityQueue<>(
+            (a, b) -> Long.compare(a.deadline, b.deadline));
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private AsyncHttpEngine() throws IOException {
+        selector = Selector.open();
+        Scheduler.startLoop("cctv-http-loop", this::run);
+    }
+
+    /**
+     * The process-wide engine, started on first use.
+     */
+    public static AsyncHttpEngine shared() {
+        AsyncHttpEngine engine = shared;
+        if (engine == null) {
+            synchronized (AsyncHttpEngine.class) {
+                engine = shared;
+                if (engine == null) {
+                    try {
+                        engine = new AsyncHttpEngine();
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Cannot open selector", e);
+                    }
+                    shared = engine;
+                }
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * Body of a 2xx response. Any other status fails the future with an
+     * IOException worded like HttpURLConnection's ("Server returned HTTP response code: 500 ...").
+     */
+    public CompletableFuture<byte[]> fetch(String method, String url, Map<String, String> headers, byte[] body,
+            String username, String password, int timeoutMs) {
+        CompletableFuture<DeviceHttpClient.Response> request = request(method, url, headers, body, username,
+                password, timeoutMs);
+        return propagateCancel(request.thenApply(response -> {
+            if (!response.isSuccess()) {
+                throw new CompletionException(new IOException("Server returned HTTP response code: "
+                        + response.statusCode + " for URL: " + url));
+            }
+            return response.body;
+        }), request);
+    }
+
+    /**
+     * Cancels {@code source} when {@code result}, a stage derived from it, is
+     * cancelled; CompletableFuture stages do not pass cancellation upstream.
+     *
+     * @return {@code result}
+     */
+    public static <T> CompletableFuture<T> propagateCancel(CompletableFuture<T> result, Future<?> source) {
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                source.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Sends a request; a 401 with a new challenge is answered once, like
+     * {@link DeviceHttpClient#request}.
+     *
+     * @param username credentials for HTTP auth; null sends no Authorization
+     * @param timeoutMs deadline of each attempt, from getting a connection to the last response byte
+     */
+    public CompletableFuture<DeviceHttpClient.Response> request(String method, String url,
+            Map<String, String> headers, byte[] body, String username, String password, int timeoutMs) {
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            return failed(new IOException("Invalid URL: " + url, e));
+        }
+        if (uri.getHost() == null) {
+            return failed(new IOException("Invalid URL: " + url));
+        }
+        if ("https".equalsIgnoreCase(uri.getScheme())) {
+            return Scheduler.supplyAsync(Scheduler.Lane.SCAN, () -> {
+                try {
+                    return DeviceHttpClient.request(method, url, headers, body, username, password, timeoutMs);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+
+        int port = uri.getPort() > 0 ? uri.getPort() : 80;
+        String target = (uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath())
+                + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+        String key = uri.getHost() + ":" + port;
+        HttpAuthState auth = HttpAuthState.forHost(key);
+        boolean credentials = username != null && password != null;
+        String answered = credentials ? auth.challenge() : null;
+        long cap = overallDeadline();
+        CompletableFuture<InetSocketAddress> address = resolve(uri.getHost(), port);
+
+        CompletableFuture<DeviceHttpClient.Response> first = submit(key, address,
+                encode(method, target, uri.getHost(), port, headers, body,
+                        credentials ? auth.authorization(method, target, username, password) : null),
+                "HEAD".equals(method), timeoutMs, cap);
+        if (!credentials) {
+            return first;
+        }
+        AtomicReference<CompletableFuture<DeviceHttpClient.Response>> attempt = new AtomicReference<>(first);
+        CompletableFuture<DeviceHttpClient.Response> result = first.thenCompose(response -> {
+            if (response.statusCode == 401 && response.challenge != null && auth.update(response.challenge, answered)) {
+                CompletableFuture<DeviceHttpClient.Response> retry = submit(key, address,
+                        encode(method, target, uri.getHost(), port, headers, body,
+                                auth.authorization(method, target, username, password)),
+                        "HEAD".equals(method), timeoutMs, cap);
+                attempt.set(retry);
+                return retry;
+            }
+            return CompletableFuture.completedFuture(response);
+        });
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                attempt.get().cancel(false);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The socket address of a host, looked up on the SCAN lane unless it is an
+     * IP literal; a DNS lookup would block the selector thread.
+     */
+    private static CompletableFuture<InetSocketAddress> resolve(String hostName, int port) {
+        if (isIpLiteral(hostName)) {
+            return CompletableFuture.completedFuture(new InetSocketAddress(hostName, port));
+        }
+        return Scheduler.supplyAsync(Scheduler.Lane.SCAN, () -> {
+            InetSocketAddress address = new InetSocketAddress(hostName, port);
+            if (address.isUnresolved()) {
+                throw new CompletionException(new UnknownHostException(hostName));
+            }
+            return address;
+        });
+    }
+
+    static boolean isIpLiteral(String hostName) {
+        if (hostName.startsWith("[")) {
+            return true; // IPv6, as URI reports it
+        }
+        int dots = 0;
+        for (int i = 0; i < hostName.length(); i++) {
+            char c = hostName.charAt(i);
+            if (c == '.') {
+                dots++;
+            } else if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return dots == 3;
+    }
+
+    /**
+     * Closes idle connections of the shared engine, if started; requests in
+     * flight are not affected. Cached auth challenges are dropped by
+     * {@link DeviceHttpClient#reset()}.
+     */
+    public static void reset() {
+        AsyncHttpEngine engine = shared;
+        if (engine != null) {
+            engine.closeIdle();
+        }
+    }
+
+    private void closeIdle() {
+        execute(() -> {
+            for (Host host : hosts.values()) {
+                Connection connection;
+                while ((connection = host.idle.pollFirst()) != null) {
+                    close(connection);
+                }
+            }
+        });
+    }
+
+    /**
+     * Deadline of the caller's run, as an absolute time; Long.MAX_VALUE outside a run.
+     */
+    private static long overallDeadline() {
+        long remaining = ExecutionBudget.current().remainingMillis();
+        return remaining == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + remaining;
+    }
+
+    private CompletableFuture<DeviceHttpClient.Response> submit(String key,
+            CompletableFuture<InetSocketAddress> address, byte[] request, boolean headRequest, int timeoutMs,
+            long cap) {
+        Exchange exchange = new Exchange(key, request, headRequest, timeoutMs, cap);
+        address.whenComplete((resolved, error) -> {
+            if (error != null) {
+                exchange.future.completeExceptionally(error instanceof CompletionException
+                        && error.getCause() != null ? error.getCause() : error);
+                return;
+            }
+            exchange.address = resolved;
+            execute(() -> {
+                if (exchange.future.isDone()) {
+                    return; // Cancelled while resolving
+                }
+                deadlines.add(exchange);
+                Host host = hosts.computeIfAbsent(key, k -> new Host());
+                host.waiting.addLast(exchange);
+                dispatch(host);
+            });
+        });
+        // Hop off the loop thread before any caller callback runs, in the caller's run
+        ExecutionBudget budget = ExecutionBudget.current();
+        CompletableFuture<DeviceHttpClient.Response> result = exchange.future.thenApplyAsync(response -> response,
+                task -> Scheduler.cpu().execute(budget.bind(task)));
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                execute(() -> abandon(exchange));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Drops a cancelled exchange, freeing its queue place or connection.
+     */
+    private void abandon(Exchange exchange) {
+        if (!exchange.future.cancel(false)) {
+            return;
+        }
+        deadlines.remove(exchange);
+        Host host = hosts.get(exchange.key);
+        if (exchange.connection != null) {
+            close(exchange.connection);
+            exchange.connection = null;
+        } else if (host != null) {
+            host.waiting.remove(exchange);
+        }
+        if (host != null) {
+            dispatch(host);
+        }
+    }
+
+    private void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void run() {
+        while (!Scheduler.isShutdown()) {
+            try {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                long wait = expireDeadlines();
+                selector.select(wait);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            } catch (IOException | RuntimeException e) {
+                Logger.error("HTTP engine loop error", e);
+            }
+        }
+    }
+
+    /**
+     * Moves an exchange to a new place in the deadline queue.
+     */
+    private void reschedule(Exchange exchange, long deadline) {
+        deadlines.remove(exchange);
+        exchange.deadline = deadline;
+        deadlines.add(exchange);
+    }
+
+    /**
+     * Fails exchanges past their deadline.
+     *
+     * @return ms until the next deadline, 0 for none
+     */
+    private long expireDeadlines() {
+        long now = System.currentTimeMillis();
+        Exchange exchange;
+        while ((exchange = deadlines.peek()) != null) {
+            if (exchange.future.isDone()) {
+                deadlines.poll();
+                continue;
+            }
+            if (exchange.deadline > now) {
+                return exchange.deadline - now;
+            }
+            deadlines.poll();
+            Host host = hosts.get(exchange.key);
+            if (exchange.connection != null) {
+                close(exchange.connection);
+            } else if (host != null) {
+                host.waiting.remove(exchange);
+            }
+            exchange.future.completeExceptionally(new SocketTimeoutException(
+                    exchange.connection != null && exchange.connection.connected ? "Read timed out"
+                            : "connect timed out"));
+            if (host != null) {
+                dispatch(host);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Starts waiting exchanges on idle or new connections, up to the host's cap.
+     */
+    private void dispatch(Host host) {
+        while (!host.waiting.isEmpty()) {
+            Connection connection = host.idle.pollFirst();
+            if (connection != null && System.currentTimeMillis() - connection.idleSince >= IDLE_TIMEOUT_MS) {
+                close(connection);
+                continue;
+            }
+            Exchange exchange = host.waiting.peekFirst();
+            if (connection == null) {
+                if (host.open >= MAX_CONNECTIONS_PER_HOST) {
+                    return;
+                }
+                try {
+                    connection = open(host, exchange);
+                } catch (IOException e) {
+                    host.waiting.pollFirst();
+                    exchange.future.completeExceptionally(e);
+                    continue;
+                }
+            }
+            host.waiting.pollFirst();
+            start(connection, exchange);
+        }
+    }
+
+    private Connection open(Host host, Exchange exchange) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(host, channel);
+            connection.connected = channel.connect(exchange.address);
+            connection.key = channel.register(selector, connection.connected ? 0 : SelectionKey.OP_CONNECT,
+                    connection);
+            host.open++;
+            return connection;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void start(Connection connection, Exchange exchange) {
+        // The attempt's timer starts now, not when it was queued
+        reschedule(exchange, Math.min(System.currentTimeMillis() + exchange.timeoutMs, exchange.cap));
+        connection.exchange = exchange;
+        connection.answered = false;
+        exchange.connection = connection;
+        exchange.parser = new HttpResponseParser(DeviceHttpClient.MAX_BODY_BYTES, exchange.headRequest);
+        connection.out = ByteBuffer.wrap(exchange.request);
+        if (connection.connected) {
+            connection.key.interestOps(SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        if (!key.isValid()) {
+            return;
+        }
+        try {
+            if (key.isConnectable()) {
+                connection.channel.finishConnect();
+                connection.connected = true;
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else if (key.isWritable()) {
+                connection.channel.write(connection.out);
+                if (!connection.out.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            } else if (key.isReadable()) {
+                read(connection);
+            }
+        } catch (IOException e) {
+            fail(connection, e);
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        Exchange exchange = connection.exchange;
+        readBuffer.clear();
+        int n = connection.channel.read(readBuffer);
+        if (exchange == null) {
+            // Idle connection readable: the device closed it (or sent junk)
+            connection.host.idle.remove(connection);
+            close(connection);
+            return;
+        }
+        if (n < 0) {
+            exchange.parser.endOfStream();
+            complete(connection, false);
+            return;
+        }
+        connection.answered = true;
+        int used = exchange.parser.feed(readBuffer.array(), 0, n);
+        if (exchange.parser.isComplete()) {
+            complete(connection, used == n);
+        }
+    }
+
+    private void complete(Connection connection, boolean clean) {
+        Exchange exchange = connection.exchange;
+        DeviceHttpClient.Response response = exchange.parser.getResponse();
+        connection.exchange = null;
+        exchange.connection = null;
+        Host host = connection.host;
+        if (response.keepAlive && clean && connection.channel.isOpen()) {
+            // Stay registered for reads so a close by the device is noticed
+            connection.key.interestOps(SelectionKey.OP_READ);
+            connection.idleSince = System.currentTimeMillis();
+            connection.reused = true;
+            host.idle.addFirst(connection);
+        } else {
+            close(connection);
+        }
+        exchange.future.complete(response);
+        dispatch(host);
+    }
+
+    private void fail(Connection connection, IOException e) {
+        Exchange exchange = connection.exchange;
+        close(connection);
+        Host host = connection.host;
+        if (exchange != null) {
+            exchange.connection = null;
+            if (connection.reused && !connection.answered && !exchange.retried) {
+                // The device dropped the kept-alive connection; retry once on a fresh one
+                exchange.retried = true;
+                reschedule(exchange, exchange.cap);
+                host.waiting.addFirst(exchange);
+            } else {
+                exchange.future.completeExceptionally(e);
+            }
+        }
+        dispatch(host);
+    }
+
+    private void close(Connection connection) {
+        if (connection.key != null) {
+            connection.key.cancel();
+        }
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        if (!connection.closed) {
+            connection.closed = true;
+            connection.host.open--;
+        }
+        connection.host.idle.remove(connection);
+    }
+
+    private static byte[] encode(String method, String target, String hostName, int port, Map<String, String> headers,
+            byte[] body, String authorization) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+        sb.append("Host: ").append(hostName);
+        if (port != 80) {
+            sb.append(':').append(port);
+        }
+        sb.append("\r\n");
+        sb.append("User-Agent: ").append(USER_AGENT).append("\r\n");
+        sb.append("Connection: keep-alive\r\n");
+        for (Map.Entry<String, String> header : (headers != null ? headers : Collections.<String, String>emptyMap())
+                .entrySet()) {
+            sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (authorization != null) {
+            sb.append("Authorization: ").append(authorization).append("\r\n");
+        }
+        if (body != null) {
+            sb.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        sb.append("\r\n");
+        byte[] head = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        if (body == null || body.length == 0) {
+            return head;
+        }
+        byte[] request = new byte[head.length + body.length];
+        System.arraycopy(head, 0, request, 0, head.length);
+        System.arraycopy(body, 0, request, head.length, body.length);
+        return request;
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /**
+     * Connections and queue of one host:port.
+     */
+    private static final class Host {
+        final Deque<Exchange> waiting = new ArrayDeque<>();
+        final Deque<Connection> idle = new ArrayDeque<>();
+        int open;
+    }
+
+    private static final class Connection {
+        final Host host;
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer out;
+        Exchange exchange;
+        boolean connected;
+        boolean closed;
+        /** Served an earlier exchange, so a silent close may be a keep-alive race */
+        boolean reused;
+        /** Response bytes arrived for the current exchange */
+        boolean answered;
+        long idleSince;
+
+        Connection(Host host, SocketChannel channel) {
+            this.host = host;
+            this.channel = channel;
+        }
+    }
+
+    private static final class Exchange {
+        final String key;
+        final byte[] request;
+        final boolean headRequest;
+        final int timeoutMs;
+        /** Run deadline; bounds the exchange while it waits for a connection */
+        final long cap;
+        /** The cap while queued, then the attempt's timeout from dispatch */
+        long deadline;
+        final CompletableFuture<DeviceHttpClient.Response> future = new CompletableFuture<>();
+        /** Set once resolved, before the exchange reaches the loop */
+        InetSocketAddress address;
+        Connection connection;
+        HttpResponseParser parser;
+        boolean retried;
+
+        Exchange(String key, byte[] request, boolean headRequest, int timeoutMs, long cap) {
+            this.key = key;
+            this.request = request;
+            this.headRequest = headRequest;
+            this.timeoutMs = timeoutMs;
+            this.cap = cap;
+            this.deadline = cap;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.cctv.network;
+
+import com.cctv.util.Logger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Blocking HTTP/1.1 client for device traffic (vendor CGI/ISAPI, banner checks).
+ * Connections are kept alive and pooled per host, so a device's requests share
+ * one TCP handshake. Basic and Digest (RFC 7616) are answered; the last challenge
+ * of each host is cached and answered up front with an increasing nonce count, so
+ * after the first 401 a request costs one round trip. Responses are read as bytes
+ * through {@link HttpResponseParser} with header and body caps.
+ */
+public final class DeviceHttpClient {
+    static final int MAX_BODY_BYTES = 4 * 1024 * 1024;
+    static final int MAX_IDLE_PER_HOST = 4;
+    static final long IDLE_TIMEOUT_MS = 10000;
+    private static final String USER_AGENT = "CctvDiscovery";
+
+    private static final ConcurrentHashMap<String, Host> HOSTS = new ConcurrentHashMap<>();
+
+    private DeviceHttpClient() {
+    }
+
+    public static class Response {
+        public final int statusCode;
+        public final String reason;
+        public final Map<String, String> headers;
+        /** WWW-Authenticate challenge, Digest preferred; null if none */
+        public final String challenge;
+        public final byte[] body;
+        final boolean keepAlive;
+
+        Response(int statusCode, String reason, Map<String, String> headers, String challenge, byte[] body,
+                boolean keepAlive) {
+            this.statusCode = statusCode;
+            this.reason = reason;
+            this.headers = headers;
+            this.challenge = challenge;
+            this.body = body;
+            this.keepAlive = keepAlive;
+        }
+
+        public boolean isSuccess() {
+            return statusCode >= 200 && statusCode < 300;
+        }
+
+        /** Header value by case-insensitive name */
+        public String header(String name) {
+            return headers.get(name.toLowerCase());
+        }
+
+        public String bodyText() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    public static Response get(String url, String username, String password, int timeoutMs) throws IOException {
+        return request("GET", url, Collections.emptyMap(), null, username, password, timeoutMs);
+    }
+
+    public static Response head(String url, int timeoutMs) throws IOException {
+        return request("HEAD", url, Collections.emptyMap(), null, null, null, timeoutMs);
+    }
+
+    /**
+     * @param headers extra request headers, e.g. Content-Type and SOAPAction
+     * @param body request body, or null for none
+     * @param username credentials for HTTP auth; null sends no Authorization
+     */
+    public static Response request(String method, String url, Map<String, String> headers, byte[] body,
+            String username, String password, int timeoutMs) throws IOException {
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL: " + url, e);
+        }
+        if (uri.getHost() == null) {
+            throw new IOException("Invalid URL: " + url);
+        }
+        boolean https = "https".equalsIgnoreCase(uri.getScheme());
+        int port = uri.getPort() > 0 ? uri.getPort() : https ? 443 : 80;
+        String target = (uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath())
+                + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+        String key = (https ? "https://" : "") + uri.getHost() + ":" + port;
+        Host host = HOSTS.computeIfAbsent(key, k -> new Host(uri.getHost(), port, https));
+        HttpAuthState auth = HttpAuthState.forHost(key);
+
+        boolean credentials = username != null && password != null;
+        String answered = credentials ? auth.challenge() : null;
+        Response response = host.exchange(method, target, headers, body,
+                credentials ? auth.authorization(method, target, username, password) : null, timeoutMs);
+
+        if (response.statusCode == 401 && credentials && response.challenge != null
+                && auth.update(response.challenge, answered)) {
+            response = host.exchange(method, target, headers, body,
+                    auth.authorization(method, target, username, password), timeoutMs);
+        }
+        return response;
+    }
+
+    /**
+     * Closes all pooled connections and forgets cached challenges.
+     */
+    public static void reset() {
+        for (Host host : HOSTS.values()) {
+            host.closeIdle();
+        }
+        HOSTS.clear();
+        HttpAuthState.reset();
+    }
+
+    static String selectChallenge(List<String> challenges) {
+        for (String challenge : challenges) {
+            if (DigestAuth.isDigest(challenge)) {
+                return challenge;
+            }
+        }
+        return challenges.isEmpty() ? null : challenges.get(0);
+    }
+
+    /**
+     * Connection pool of one host:port.
+     */
+    private static final class Host {
+        private final String name;
+        private final int port;
+        private final boolean https;
+        private final Deque<Connection> idle = new ArrayDeque<>();
+
+        Host(String name, int port, boolean https) {
+            this.name = name;
+            this.port = port;
+            this.https = https;
+        }
+
+        Response exchange(String method, String target, Map<String, String> headers, byte[] body,
+                String authorization, int timeoutMs) throws IOException {
+            byte[] request = encode(method, target, headers, body, authorization);
+            Connection connection = takeIdle();
+            if (connection != null) {
+                try {
+                    return send(connection, request, method, timeoutMs);
+                } catch (IOException e) {
+                    // The device may have dropped the idle connection; retry once on a fresh one
+                    if (connection.answered) {
+                        throw e;
+                    }
+                }
+            }
+            return send(connect(timeoutMs), request, method, timeoutMs);
+        }
+
+        private Response send(Connection connection, byte[] request, String method, int timeoutMs)
+                throws IOException {
+            boolean reuse = false;
+            try {
+                connection.socket.setSoTimeout(timeoutMs);
+                connection.out.write(request);
+                connection.out.flush();
+                Response response = connection.read("HEAD".equals(method));
+                reuse = response.keepAlive && connection.clean;
+                return response;
+            } finally {
+                if (reuse) {
+                    release(connection);
+                } else {
+                    connection.close();
+                }
+            }
+        }
+
+        private byte[] encode(String method, String target, Map<String, String> headers, byte[] body,
+                String authorization) {
+            StringBuilder sb = new StringBuilder(256);
+            sb.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+            sb.append("Host: ").append(name);
+            if (port != (https ? 443 : 80)) {
+                sb.append(':').append(port);
+            }
+            sb.append("\r\n");
+            sb.append("User-Agent: ").append(USER_AGENT).append("\r\n");
+            sb.append("Connection: keep-alive\r\n");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            if (authorization != null) {
+                sb.append("Authorization: ").append(authorization).append("\r\n");
+            }
+            if (body != null) {
+                sb.append("Content-Length: ").append(body.length).append("\r\n");
+            }
+            sb.append("\r\n");
+            byte[] head = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+            if (body == null || body.length == 0) {
+                return head;
+            }
+            byte[] request = new byte[head.length + body.length];
+            System.arraycopy(head, 0, request, 0, head.length);
+            System.arraycopy(body, 0, request, head.length, body.length);
+            return request;
+        }
+
+        private synchronized Connection takeIdle() {
+            long now = System.currentTimeMillis();
+            Connection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                if (now - connection.idleSince < IDLE_TIMEOUT_MS) {
+                    return connection;
+                }
+                connection.close();
+            }
+            return null;
+        }
+
+        private synchronized void release(Connection connection) {
+            if (idle.size() >= MAX_IDLE_PER_HOST) {
+                connection.close();
+                return;
+            }
+            connection.answered = false;
+            connection.clean = true;
+            connection.idleSince = System.currentTimeMillis();
+            idle.addFirst(connection);
+        }
+
+        synchronized void closeIdle() {
+            Connection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                connection.close();
+            }
+        }
+
+        private Connection connect(int timeoutMs) throws IOException {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(name, port), timeoutMs);
+                socket.setTcpNoDelay(true);
+                if (https) {
+                    socket = ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket, name, port, true);
+                }
+                return new Connection(socket);
+            } catch (IOException e) {
+                socket.close();
+                Logger.info("HTTP connect to " + name + ":" + port + " failed: " + e.getMessage());
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * One pooled socket.
+     */
+    private static final class Connection {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        final byte[] buffer = new byte[8192];
+        long idleSince;
+        /** Some response bytes arrived on this use, so a failure is not a stale keep-alive */
+        boolean answered;
+        /** No bytes beyond the last response were read */
+        boolean clean = true;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = socket.getInputStream();
+            this.out = socket.getOutputStream();
+        }
+
+        Response read(boolean headRequest) throws IOException {
+            HttpResponseParser parser = new HttpResponseParser(MAX_BODY_BYTES, headRequest);
+            while (!parser.isComplete()) {
+                int n = in.read(buffer);
+                if (n < 0) {
+                    parser.endOfStream();
+                    break;
+                }
+                answered = true;
+                int used = parser.feed(buffer, 0, n);
+                clean = used == n;
+            }
+            return parser.getResponse();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
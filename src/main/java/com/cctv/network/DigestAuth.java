@@ -0,0 +1,163 @@
+package com.cctv.network;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds Authorization header values for Basic and Digest (RFC 2617 / RFC 7616)
+ * challenges. Shared by the RTSP and HTTP clients, whose auth schemes are the same.
+ */
+public final class DigestAuth {
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private DigestAuth() {
+    }
+
+    public static String basic(String username, String password) {
+        String auth = username + ":" + password;
+        return "Basic " + Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Answers a WWW-Authenticate challenge. Digest challenges get a Digest response,
+     * anything else falls back to Basic.
+     *
+     * @param nonceCount request number for this nonce, starting at 1
+     */
+    public static String authorize(String challenge, String method, String uri, String username,
+            String password, int nonceCount) {
+        if (challenge == null || !isDigest(challenge)) {
+            return basic(username, password);
+        }
+
+        Map<String, String> params = parseChallenge(challenge);
+        String realm = params.getOrDefault("realm", "");
+        String nonce = params.getOrDefault("nonce", "");
+        String algorithm = params.getOrDefault("algorithm", "MD5");
+        String qop = selectQop(params.get("qop"));
+        boolean session = algorithm.toUpperCase().endsWith("-SESS");
+        String digestName = algorithm.toUpperCase().startsWith("SHA-256") ? "SHA-256" : "MD5";
+
+        String cnonce = qop != null || session ? newCnonce() : null;
+        String nc = String.format("%08x", nonceCount);
+
+        String ha1 = hash(digestName, username + ":" + realm + ":" + password);
+        if (session) {
+            ha1 = hash(digestName, ha1 + ":" + nonce + ":" + cnonce);
+        }
+        String ha2 = hash(digestName, method + ":" + uri);
+        String response = qop != null
+                ? hash(digestName, ha1 + ":" + nonce + ":" + nc + ":" + cnonce + ":" + qop + ":" + ha2)
+                : hash(digestName, ha1 + ":" + nonce + ":" + ha2);
+
+        StringBuilder sb = new StringBuilder("Digest ");
+        sb.append("username=\"").append(username).append("\", ");
+        sb.append("realm=\"").append(realm).append("\", ");
+        sb.append("nonce=\"").append(nonce).append("\", ");
+        sb.append("uri=\"").append(uri).append("\", ");
+        if (params.containsKey("algorithm")) {
+            sb.append("algorithm=").append(algorithm).append(", ");
+        }
+        if (qop != null) {
+            sb.append("qop=").append(qop).append(", nc=").append(nc).append(", cnonce=\"").append(cnonce)
+                    .append("\", ");
+        }
+        if (params.containsKey("opaque")) {
+            sb.append("opaque=\"").append(params.get("opaque")).append("\", ");
+        }
+        sb.append("response=\"").append(response).append("\"");
+        return sb.toString();
+    }
+
+    public static boolean isDigest(String challenge) {
+        return challenge.trim().regionMatches(true, 0, "Digest", 0, 6);
+    }
+
+    /**
+     * Parses the auth-params of a challenge, e.g. {@code Digest realm="x", nonce="y", qop="auth"}.
+     * Keys are lower-cased; quoted values are unquoted.
+     */
+    public static Map<String, String> parseChallenge(String challenge) {
+        Map<String, String> params = new LinkedHashMap<>();
+        String s = challenge.trim();
+        int space = s.indexOf(' ');
+        int i = space < 0 ? s.length() : space + 1;
+
+        while (i < s.length()) {
+            while (i < s.length() && (s.charAt(i) == ' ' || s.charAt(i) == ',')) {
+                i++;
+            }
+            int eq = s.indexOf('=', i);
+            if (eq < 0) {
+                break;
+            }
+            String key = s.substring(i, eq).trim().toLowerCase();
+            i = eq + 1;
+            String value;
+            if (i < s.length() && s.charAt(i) == '"') {
+                StringBuilder sb = new StringBuilder();
+                i++;
+                while (i < s.length() && s.charAt(i) != '"') {
+                    if (s.charAt(i) == '\\' && i + 1 < s.length()) {
+                        i++;
+                    }
+                    sb.append(s.charAt(i++));
+                }
+                i++;
+                value = sb.toString();
+            } else {
+                int end = s.indexOf(',', i);
+                if (end < 0) {
+                    end = s.length();
+                }
+                value = s.substring(i, end).trim();
+                i = end;
+            }
+            params.put(key, value);
+        }
+        return params;
+    }
+
+    private static String selectQop(String qopOptions) {
+        if (qopOptions == null) {
+            return null;
+        }
+        for (String option : qopOptions.split(",")) {
+            if (option.trim().equalsIgnoreCase("auth")) {
+                return "auth";
+            }
+        }
+        // auth-int is not supported; answer as if no qop was offered
+        return null;
+    }
+
+    private static String newCnonce() {
+        byte[] bytes = new byte[8];
+        RANDOM.nextBytes(bytes);
+        return toHex(bytes);
+    }
+
+    static String hash(String algorithm, String value) {
+        try {
+            MessageDigest md = MessageDigest.getInstance(algorithm);
+            return toHex(md.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,71 @@
+package com.cctv.network;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP auth knowledge of one host:port, shared by {@link DeviceHttpClient} and
+ * {@link AsyncHttpEngine}: the last WWW-Authenticate challenge and its nonce
+ * count, so a request can answer Digest up front instead of waiting for a 401.
+ */
+final class HttpAuthState {
+    private static final ConcurrentHashMap<String, HttpAuthState> HOSTS = new ConcurrentHashMap<>();
+
+    private volatile String challenge;
+    private final AtomicInteger nonceCount = new AtomicInteger();
+
+    private HttpAuthState() {
+    }
+
+    /**
+     * @param host "host:port", prefixed with "https://" for TLS
+     */
+    static HttpAuthState forHost(String host) {
+        return HOSTS.computeIfAbsent(host, k -> new HttpAuthState());
+    }
+
+    static void reset() {
+        HOSTS.clear();
+    }
+
+    String challenge() {
+        return challenge;
+    }
+
+    /**
+     * Answers the cached challenge, or sends Basic when none is known yet
+     * (most devices that want HTTP auth at all accept it).
+     */
+    String authorization(String method, String target, String username, String password) {
+        String current = challenge;
+        return current == null ? DigestAuth.basic(username, password)
+                : DigestAuth.authorize(current, method, target, username, password, nonceCount.incrementAndGet());
+    }
+
+    /**
+     * Stores a new challenge from a 401.
+     *
+     * @param answered the challenge the rejected request answered, null if it sent Basic blindly
+     * @return true if retrying with the new challenge can succeed; false if the
+     *         credentials were simply rejected
+     */
+    boolean update(String received, String answered) {
+        boolean stale = "true".equalsIgnoreCase(DigestAuth.parseChallenge(received).get("stale"));
+        boolean retry = stale || (answered == null ? DigestAuth.isDigest(received) : !sameNonce(received, answered));
+        synchronized (this) {
+            if (challenge == null || !sameNonce(received, challenge)) {
+                challenge = received;
+                nonceCount.set(0);
+            }
+        }
+        return retry;
+    }
+
+    private static boolean sameNonce(String a, String b) {
+        if (!DigestAuth.isDigest(a) || !DigestAuth.isDigest(b)) {
+            return DigestAuth.isDigest(a) == DigestAuth.isDigest(b);
+        }
+        String nonce = DigestAuth.parseChallenge(a).get("nonce");
+        return nonce != null && nonce.equals(DigestAuth.parseChallenge(b).get("nonce"));
+    }
+}
@@ -0,0 +1,241 @@
+package com.cctv.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental HTTP/1.x response parser. Bytes are pushed in as they arrive, in
+ * chunks of any size, and the parser says how many it used, so the same code
+ * serves blocking sockets and non-blocking channels. Handles Content-Length,
+ * chunked and close-delimited bodies, skips 1xx interim responses, and caps the
+ * header block and the body.
+ */
+public final class HttpResponseParser {
+    static final int MAX_HEADER_BYTES = 16 * 1024;
+
+    private enum State { STATUS_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, UNTIL_CLOSE, DONE }
+
+    private final int maxBodyBytes;
+    private final boolean headRequest;
+
+    private State state = State.STATUS_LINE;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private int headerBytes;
+    private long remaining;
+
+    private String version;
+    private int statusCode;
+    private String reason;
+    private Map<String, String> headers = new LinkedHashMap<>();
+    private List<String> challenges = new ArrayList<>();
+    private DeviceHttpClient.Response response;
+
+    /**
+     * @param headRequest the request was HEAD, so the response has no body whatever its headers say
+     */
+    public HttpResponseParser(int maxBodyBytes, boolean headRequest) {
+        this.maxBodyBytes = maxBodyBytes;
+        this.headRequest = headRequest;
+    }
+
+    /**
+     * Consumes bytes until the response is complete.
+     *
+     * @return number of bytes used; anything after them belongs to the next response
+     * @throws IOException if the response is malformed or over a size cap
+     */
+    public int feed(byte[] data, int offset, int length) throws IOException {
+        int i = offset;
+        int end = offset + length;
+        while (i < end && state != State.DONE) {
+            switch (state) {
+                case BODY:
+                case CHUNK_DATA: {
+                    int n = (int) Math.min(remaining, end - i);
+                    appendBody(data, i, n);
+                    i += n;
+                    remaining -= n;
+                    if (remaining == 0) {
+                        state = state == State.BODY ? State.DONE : State.CHUNK_END;
+                    }
+                    break;
+                }
+                case UNTIL_CLOSE:
+                    appendBody(data, i, end - i);
+                    i = end;
+                    break;
+                default: {
+                    byte b = data[i++];
+                    if (b == '\n') {
+                        String text = new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+                        line.reset();
+                        onLine(text);
+                    } else if (b != '\r') {
+                        line.write(b);
+                        boolean header = state == State.STATUS_LINE || state == State.HEADERS;
+                        if ((header && ++headerBytes > MAX_HEADER_BYTES) || line.size() > MAX_HEADER_BYTES) {
+                            throw new IOException("HTTP headers too large");
+                        }
+                    }
+                }
+            }
+        }
+        if (state == State.DONE && response == null) {
+            finish();
+        }
+        return i - offset;
+    }
+
+    /**
+     * Tells the parser the peer closed the connection. Completes a close-delimited body.
+     *
+     * @throws IOException if the response was cut short
+     */
+    public void endOfStream() throws IOException {
+        if (state == State.UNTIL_CLOSE) {
+            state = State.DONE;
+            finish();
+        } else if (state != State.DONE) {
+            throw new IOException(state == State.STATUS_LINE && headerBytes == 0
+                    ? "Connection closed before response" : "Connection closed mid-response");
+        }
+    }
+
+    public boolean isComplete() {
+        return response != null;
+    }
+
+    /**
+     * @return the response once {@link #isComplete()}, else null
+     */
+    public DeviceHttpClient.Response getResponse() {
+        return response;
+    }
+
+    private void onLine(String text) throws IOException {
+        switch (state) {
+            case STATUS_LINE:
+                if (text.isEmpty()) {
+                    return; // Stray CRLF between responses
+                }
+                parseStatusLine(text);
+                state = State.HEADERS;
+                break;
+            case HEADERS:
+                if (text.isEmpty()) {
+                    endOfHeaders();
+                } else {
+                    addHeader(text);
+                }
+                break;
+            case CHUNK_SIZE: {
+                int semicolon = text.indexOf(';');
+                String size = (semicolon >= 0 ? text.substring(0, semicolon) : text).trim();
+                try {
+                    remaining = Long.parseLong(size, 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid chunk size: " + text);
+                }
+                if (remaining < 0) {
+                    throw new IOException("Invalid chunk size: " + text);
+                }
+                state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+                break;
+            }
+            case CHUNK_END:
+                state = State.CHUNK_SIZE;
+                break;
+            case TRAILERS:
+                if (text.isEmpty()) {
+                    state = State.DONE;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void parseStatusLine(String text) throws IOException {
+        if (!text.startsWith("HTTP/")) {
+            throw new IOException("Invalid HTTP response: " + text);
+        }
+        String[] parts = text.split(" ", 3);
+        try {
+            statusCode = Integer.parseInt(parts[1].trim());
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid HTTP status line: " + text);
+        }
+        version = parts[0];
+        reason = parts.length > 2 ? parts[2] : "";
+    }
+
+    private void addHeader(String text) {
+        int colon = text.indexOf(':');
+        if (colon <= 0) {
+            return;
+        }
+        String name = text.substring(0, colon).trim().toLowerCase();
+        String value = text.substring(colon + 1).trim();
+        if (name.equals("www-authenticate")) {
+            challenges.add(value);
+        }
+        headers.putIfAbsent(name, value);
+    }
+
+    private void endOfHeaders() throws IOException {
+        if (statusCode >= 100 && statusCode < 200) {
+            // Interim response (100 Continue); the real one follows
+            headers = new LinkedHashMap<>();
+            challenges = new ArrayList<>();
+            state = State.STATUS_LINE;
+            return;
+        }
+        String transferEncoding = headers.get("transfer-encoding");
+        String contentLength = headers.get("content-length");
+        if (headRequest || statusCode == 204 || statusCode == 304) {
+            state = State.DONE;
+        } else if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            state = State.CHUNK_SIZE;
+        } else if (contentLength != null) {
+            try {
+                remaining = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid Content-Length: " + contentLength);
+            }
+            if (remaining < 0 || remaining > maxBodyBytes) {
+                throw new IOException("HTTP body too large: " + remaining);
+            }
+            state = remaining == 0 ? State.DONE : State.BODY;
+        } else {
+            state = State.UNTIL_CLOSE;
+        }
+    }
+
+    private void appendBody(byte[] data, int offset, int length) throws IOException {
+        if (body.size() + length > maxBodyBytes) {
+            throw new IOException("HTTP body too large: over " + maxBodyBytes + " bytes");
+        }
+        body.write(data, offset, length);
+    }
+
+    private void finish() {
+        String connection = headers.get("connection");
+        boolean keepAlive = state == State.DONE && !"close".equalsIgnoreCase(connection)
+                && ("HTTP/1.1".equals(version) || "keep-alive".equalsIgnoreCase(connection))
+                && !closeDelimited();
+        response = new DeviceHttpClient.Response(statusCode, reason, headers,
+                DeviceHttpClient.selectChallenge(challenges), body.toByteArray(), keepAlive);
+    }
+
+    private boolean closeDelimited() {
+        return !headRequest && statusCode != 204 && statusCode != 304 && headers.get("content-length") == null
+                && (headers.get("transfer-encoding") == null
+                        || !headers.get("transfer-encoding").toLowerCase().contains("chunked"));
+    }
+}
@@ -0,0 +1,393 @@
+package com.cctv.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Immutable set of IPv4 addresses stored as sorted, non-overlapping intervals of
+ * unsigned 32-bit values. Supports CIDR blocks, start-end ranges, unions and
+ * exclusions, iterates lazily and splits into chunks for parallel workers.
+ * Memory depends on the number of intervals, never on the number of addresses;
+ * a dotted-quad String is only built when an address is asked for as text.
+ */
+public final class IpRange implements Iterable<String> {
+    private static final IpRange EMPTY = new IpRange(new long[0], new long[0]);
+
+    private final long[] starts;
+    private final long[] ends;
+    private final long size;
+
+    private IpRange(long[] starts, long[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+        long total = 0;
+        for (int i = 0; i < starts.length; i++) {
+            total += ends[i] - starts[i] + 1;
+        }
+        this.size = total;
+    }
+
+    public static IpRange empty() {
+        return EMPTY;
+    }
+
+    public static IpRange single(String ip) {
+        long value = toLong(ip);
+        return new IpRange(new long[] { value }, new long[] { value });
+    }
+
+    /**
+     * Inclusive start-end range. The bounds may be given in either order.
+     */
+    public static IpRange of(String startIp, String endIp) {
+        long start = toLong(startIp);
+        long end = toLong(endIp);
+        return new IpRange(new long[] { Math.min(start, end) }, new long[] { Math.max(start, end) });
+    }
+
+    /**
+     * Every address of a CIDR block such as "192.168.1.0/24", network and broadcast included.
+     */
+    public static IpRange cidr(String cidr) {
+        long[] block = parseCidr(cidr);
+        return new IpRange(new long[] { block[0] }, new long[] { block[1] });
+    }
+
+    /**
+     * Usable host addresses of a CIDR block. Network and broadcast addresses are
+     * left out for /30 and wider, matching what a port scan should visit.
+     */
+    public static IpRange hosts(String cidr) {
+        long[] block = parseCidr(cidr);
+        if (block[1] - block[0] >= 3) {
+            block[0]++;
+            block[1]--;
+        }
+        return new IpRange(new long[] { block[0] }, new long[] { block[1] });
+    }
+
+    /**
+     * Parses a comma-separated list of addresses, "start-end" ranges and CIDR
+     * blocks. Entries prefixed with '!' are excluded from the result, e.g.
+     * "10.0.0.0/22, !10.0.1.0/24, 10.0.9.5". A range end may be shortened to its
+     * trailing octets, so "192.168.1.1-50" means 192.168.1.1 to 192.168.1.50.
+     *
+     * @throws IllegalArgumentException if any entry is not a valid IPv4 spec
+     */
+    public static IpRange parse(String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            throw new IllegalArgumentException("IP range cannot be empty");
+        }
+
+        IpRange included = EMPTY;
+        IpRange excluded = EMPTY;
+        for (String rawEntry : spec.split(",")) {
+            String entry = rawEntry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            boolean exclude = entry.startsWith("!");
+            if (exclude) {
+                entry = entry.substring(1).trim();
+            }
+
+            IpRange range;
+            if (entry.contains("/")) {
+                range = cidr(entry);
+            } else if (entry.contains("-")) {
+                String[] parts = entry.split("-", 2);
+                String start = parts[0].trim();
+                range = of(start, expandShortEnd(start, parts[1].trim()));
+            } else {
+                range = single(entry);
+            }
+
+            if (exclude) {
+                excluded = excluded.union(range);
+            } else {
+                included = included.union(range);
+            }
+        }
+        return included.exclude(excluded);
+    }
+
+    public IpRange union(IpRange other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+
+        long[][] all = new long[starts.length + other.starts.length][];
+        int n = 0;
+        for (int i = 0; i < starts.length; i++) {
+            all[n++] = new long[] { starts[i], ends[i] };
+        }
+        for (int i = 0; i < other.starts.length; i++) {
+            all[n++] = new long[] { other.starts[i], other.ends[i] };
+        }
+        Arrays.sort(all, (a, b) -> Long.compare(a[0], b[0]));
+
+        // Merge overlapping and adjacent intervals
+        long[] newStarts = new long[all.length];
+        long[] newEnds = new long[all.length];
+        int count = 0;
+        for (long[] interval : all) {
+            if (count > 0 && interval[0] <= newEnds[count - 1] + 1) {
+                newEnds[count - 1] = Math.max(newEnds[count - 1], interval[1]);
+            } else {
+                newStarts[count] = interval[0];
+                newEnds[count] = interval[1];
+                count++;
+            }
+        }
+        return new IpRange(Arrays.copyOf(newStarts, count), Arrays.copyOf(newEnds, count));
+    }
+
+    public IpRange exclude(IpRange other) {
+        if (isEmpty() || other.isEmpty()) {
+            return this;
+        }
+
+        List<long[]> result = new ArrayList<>();
+        int j = 0;
+        for (int i = 0; i < starts.length; i++) {
+            long start = starts[i];
+            long end = ends[i];
+            while (j < other.starts.length && other.ends[j] < start) {
+                j++;
+            }
+            int k = j;
+            while (start <= end && k < other.starts.length && other.starts[k] <= end) {
+                if (other.starts[k] > start) {
+                    result.add(new long[] { start, other.starts[k] - 1 });
+                }
+                start = Math.max(start, other.ends[k] + 1);
+                k++;
+            }
+            if (start <= end) {
+                result.add(new long[] { start, end });
+            }
+        }
+        return fromIntervals(result);
+    }
+
+    public boolean contains(String ip) {
+        return contains(toInt(ip));
+    }
+
+    public boolean contains(int address) {
+        long value = address & 0xFFFFFFFFL;
+        int lo = 0;
+        int hi = starts.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (value < starts[mid]) {
+                hi = mid - 1;
+            } else if (value > ends[mid]) {
+                lo = mid + 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Splits the range into at most {@code parts} chunks of near-equal size, in address order.
+     */
+    public List<IpRange> split(int parts) {
+        if (parts < 1) {
+            throw new IllegalArgumentException("Parts must be at least 1");
+        }
+        List<IpRange> chunks = new ArrayList<>();
+        if (isEmpty()) {
+            return chunks;
+        }
+
+        long chunkSize = (size + parts - 1) / parts;
+        List<long[]> current = new ArrayList<>();
+        long currentSize = 0;
+        for (int i = 0; i < starts.length; i++) {
+            long start = starts[i];
+            while (start <= ends[i]) {
+                long take = Math.min(ends[i] - start + 1, chunkSize - currentSize);
+                current.add(new long[] { start, start + take - 1 });
+                currentSize += take;
+                start += take;
+                if (currentSize == chunkSize) {
+                    chunks.add(fromIntervals(current));
+                    current = new ArrayList<>();
+                    currentSize = 0;
+                }
+            }
+        }
+        if (!current.isEmpty()) {
+            chunks.add(fromIntervals(current));
+        }
+        return chunks;
+    }
+
+    /**
+     * Lazy iterator over the addresses as raw ints, in ascending unsigned order.
+     */
+    public PrimitiveIterator.OfInt addresses() {
+        return new PrimitiveIterator.OfInt() {
+            private int interval = 0;
+            private long next = starts.length > 0 ? starts[0] : 0;
+
+            @Override
+            public boolean hasNext() {
+                return interval < starts.length;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                long value = next;
+                if (value == ends[interval]) {
+                    interval++;
+                    if (interval < starts.length) {
+                        next = starts[interval];
+                    }
+                } else {
+                    next++;
+                }
+                return (int) value;
+            }
+        };
+    }
+
+    /**
+     * Lazy iterator over the addresses as dotted-quad Strings.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        PrimitiveIterator.OfInt addresses = addresses();
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return addresses.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return toIp(addresses.nextInt());
+            }
+        };
+    }
+
+    /**
+     * Materializes the range as Strings. Only for small ranges and legacy callers.
+     */
+    public List<String> toList() {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Range too large to materialize: " + size);
+        }
+        List<String> ips = new ArrayList<>((int) size);
+        for (String ip : this) {
+            ips.add(ip);
+        }
+        return ips;
+    }
+
+    public static int toInt(String ip) {
+        return (int) toLong(ip);
+    }
+
+    public static String toIp(int address) {
+        return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "."
+                + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+
+    /**
+     * Network-order address bytes, as taken by InetAddress.getByAddress.
+     */
+    public static byte[] toBytes(int address) {
+        return new byte[] { (byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8),
+                (byte) address };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < starts.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(toIp((int) starts[i]));
+            if (ends[i] != starts[i]) {
+                sb.append('-').append(toIp((int) ends[i]));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static IpRange fromIntervals(List<long[]> intervals) {
+        long[] newStarts = new long[intervals.size()];
+        long[] newEnds = new long[intervals.size()];
+        for (int i = 0; i < intervals.size(); i++) {
+            newStarts[i] = intervals.get(i)[0];
+            newEnds[i] = intervals.get(i)[1];
+        }
+        return new IpRange(newStarts, newEnds);
+    }
+
+    private static String expandShortEnd(String start, String end) {
+        int endOctets = end.split("\\.", -1).length;
+        String[] startParts = start.split("\\.");
+        if (endOctets >= 4 || startParts.length != 4) {
+            return end;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 4 - endOctets; i++) {
+            sb.append(startParts[i]).append('.');
+        }
+        return sb.append(end).toString();
+    }
+
+    private static long[] parseCidr(String cidr) {
+        String[] parts = cidr.trim().split("/");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid CIDR block: " + cidr);
+        }
+        int prefix;
+        try {
+            prefix = Integer.parseInt(parts[1].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid CIDR prefix: " + cidr);
+        }
+        if (prefix < 0 || prefix > 32) {
+            throw new IllegalArgumentException("Invalid CIDR prefix: " + cidr);
+        }
+        long mask = prefix == 0 ? 0 : (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
+        long network = toLong(parts[0].trim()) & mask;
+        return new long[] { network, network | (~mask & 0xFFFFFFFFL) };
+    }
+
+    private static long toLong(String ip) {
+        if (!IpRangeValidator.isValidIp(ip)) {
+            throw new IllegalArgumentException("Invalid IP address: " + ip);
+        }
+        long result = 0;
+        for (String part : ip.split("\\.")) {
+            result = (result << 8) | Integer.parseInt(part);
+        }
+        return result;
+    }
+}
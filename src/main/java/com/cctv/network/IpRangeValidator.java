@@ -1,6 +1,5 @@
 package com.cctv.network;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class IpRangeValidator {
@@ -20,35 +19,11 @@ public class IpRangeValidator {
         }
     }
 
+    /**
+     * Materializes a start-end range as Strings. Prefer {@link IpRange#of(String, String)},
+     * which iterates lazily and stays small for any range size.
+     */
     public static List<String> generateRange(String startIp, String endIp) {
-        List<String> ips = new ArrayList<>();
-        long start = ipToLong(startIp);
-        long end = ipToLong(endIp);
-        
-        if (start > end) {
-            long temp = start;
-            start = end;
-            end = temp;
-        }
-        
-        for (long i = start; i <= end; i++) {
-            ips.add(longToIp(i));
-        }
-        return ips;
-    }
-
-    private static long ipToLong(String ip) {
-        String[] parts = ip.split("\\.");
-        long result = 0;
-        for (String part : parts) {
-            result = (result << 8) | Integer.parseInt(part);
-        }
-        return result;
-    }
-
-    private static String longToIp(long ip) {
-        return String.format("%d.%d.%d.%d",
-            (ip >> 24) & 0xFF, (ip >> 16) & 0xFF,
-            (ip >> 8) & 0xFF, ip & 0xFF);
+        return IpRange.of(startIp, endIp).toList();
     }
 }
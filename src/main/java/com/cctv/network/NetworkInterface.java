@@ -68,28 +68,19 @@ public class NetworkInterface {
         }
     }
 
-    public List<String> getIpRange() {
-        List<String> ips = new ArrayList<>();
+    /**
+     * Host addresses of this interface's subnet as a lazily iterated range.
+     */
+    public IpRange getAddressRange() {
         try {
-            String[] parts = subnet.split("/");
-            String[] octets = parts[0].split("\\.");
-            int prefix = Integer.parseInt(parts[1]);
-            
-            long network = 0;
-            for (String octet : octets) {
-                network = (network << 8) | Integer.parseInt(octet);
-            }
-            
-            int hosts = (1 << (32 - prefix)) - 2;
-            for (int i = 1; i <= hosts; i++) {
-                long ip = network + i;
-                ips.add(String.format("%d.%d.%d.%d",
-                    (ip >> 24) & 0xFF, (ip >> 16) & 0xFF,
-                    (ip >> 8) & 0xFF, ip & 0xFF));
-            }
-        } catch (Exception e) {
+            return IpRange.hosts(subnet);
+        } catch (IllegalArgumentException e) {
             Logger.error("Failed to generate IP range", e);
+            return IpRange.empty();
         }
-        return ips;
+    }
+
+    public List<String> getIpRange() {
+        return getAddressRange().toList();
     }
 }
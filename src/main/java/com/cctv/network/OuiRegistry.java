@@ -0,0 +1,240 @@
+package com.cctv.network;
+
+import com.cctv.util.Logger;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MAC address -> vendor lookup over the IEEE registries: MA-L (24-bit OUI),
+ * MA-M (28-bit) and MA-S (36-bit). Each block size is a sorted primitive array
+ * with a parallel vendor index, searched longest prefix first, so a lookup is at
+ * most three binary searches and the whole registry costs a few hundred KB.
+ *
+ * Built with {@link Builder}, which reads the IEEE CSV exports
+ * ({@code oui.csv}, {@code mam.csv}, {@code oui36.csv}) as published.
+ */
+public final class OuiRegistry {
+    private final int[] prefixes24;
+    private final int[] vendors24;
+    private final int[] prefixes28;
+    private final int[] vendors28;
+    private final long[] prefixes36;
+    private final int[] vendors36;
+    private final String[] vendorNames;
+
+    private OuiRegistry(Builder builder) {
+        Map<String, Integer> vendorIndex = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (Map<Long, String> block : Arrays.asList(builder.block24, builder.block28, builder.block36)) {
+            for (String vendor : block.values()) {
+                if (!vendorIndex.containsKey(vendor)) {
+                    vendorIndex.put(vendor, names.size());
+                    names.add(vendor);
+                }
+            }
+        }
+        this.vendorNames = names.toArray(new String[0]);
+
+        long[] keys = sortedKeys(builder.block24);
+        this.prefixes24 = toInts(keys);
+        this.vendors24 = vendorIds(keys, builder.block24, vendorIndex);
+        keys = sortedKeys(builder.block28);
+        this.prefixes28 = toInts(keys);
+        this.vendors28 = vendorIds(keys, builder.block28, vendorIndex);
+        this.prefixes36 = sortedKeys(builder.block36);
+        this.vendors36 = vendorIds(prefixes36, builder.block36, vendorIndex);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param mac MAC in any common notation ("AA:BB:CC:DD:EE:FF", "aa-bb-...", "aabb.ccdd.eeff")
+     * @return the registered organisation name of the most specific matching block, or null
+     */
+    public String lookup(String mac) {
+        long value = parseHex(mac, 12);
+        if (value < 0) {
+            return null;
+        }
+        int i = Arrays.binarySearch(prefixes36, value >>> 12);
+        if (i >= 0) {
+            return vendorNames[vendors36[i]];
+        }
+        i = Arrays.binarySearch(prefixes28, (int) (value >>> 20));
+        if (i >= 0) {
+            return vendorNames[vendors28[i]];
+        }
+        i = Arrays.binarySearch(prefixes24, (int) (value >>> 24));
+        return i >= 0 ? vendorNames[vendors24[i]] : null;
+    }
+
+    /**
+     * @return number of registered blocks of all sizes
+     */
+    public int size() {
+        return prefixes24.length + prefixes28.length + prefixes36.length;
+    }
+
+    private static long[] sortedKeys(Map<Long, String> block) {
+        long[] keys = new long[block.size()];
+        int n = 0;
+        for (long key : block.keySet()) {
+            keys[n++] = key;
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    private static int[] toInts(long[] keys) {
+        int[] ints = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            ints[i] = (int) keys[i];
+        }
+        return ints;
+    }
+
+    private static int[] vendorIds(long[] keys, Map<Long, String> block, Map<String, Integer> vendorIndex) {
+        int[] ids = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            ids[i] = vendorIndex.get(block.get(keys[i]));
+        }
+        return ids;
+    }
+
+    /**
+     * Reads the first {@code digits} hex digits of a string, skipping ':', '-' and '.'.
+     *
+     * @return the value, or -1 if there are fewer hex digits or another character
+     */
+    static long parseHex(String text, int digits) {
+        if (text == null) {
+            return -1;
+        }
+        long value = 0;
+        int count = 0;
+        for (int i = 0; i < text.length() && count < digits; i++) {
+            char c = text.charAt(i);
+            if (c == ':' || c == '-' || c == '.') {
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+            count++;
+        }
+        return count == digits ? value : -1;
+    }
+
+    /**
+     * Collects assignments; later additions of the same block replace earlier ones,
+     * so a full registry loaded after a built-in seed takes precedence.
+     */
+    public static final class Builder {
+        private final Map<Long, String> block24 = new HashMap<>();
+        private final Map<Long, String> block28 = new HashMap<>();
+        private final Map<Long, String> block36 = new HashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * @param assignment 6, 7 or 9 hex digits (separators allowed), i.e. a 24, 28 or 36-bit block
+         */
+        public Builder add(String assignment, String vendor) {
+            String hex = assignment.replaceAll("[:.-]", "");
+            long prefix = parseHex(hex, hex.length());
+            if (prefix < 0 || vendor == null || vendor.trim().isEmpty()) {
+                throw new IllegalArgumentException("Invalid OUI assignment: " + assignment);
+            }
+            switch (hex.length()) {
+                case 6:
+                    block24.put(prefix, vendor.trim());
+                    break;
+                case 7:
+                    block28.put(prefix, vendor.trim());
+                    break;
+                case 9:
+                    block36.put(prefix, vendor.trim());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Invalid OUI assignment: " + assignment);
+            }
+            return this;
+        }
+
+        /**
+         * Adds an IEEE registry CSV ("Registry,Assignment,Organization Name,Organization Address").
+         */
+        public Builder addCsv(Path file) throws IOException {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                int added = addCsv(reader);
+                Logger.info("Loaded " + added + " OUI assignments from " + file);
+            }
+            return this;
+        }
+
+        int addCsv(BufferedReader reader) throws IOException {
+            int added = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = csvFields(line, 3);
+                if (fields == null || !fields[0].startsWith("MA-")) {
+                    continue; // header or malformed
+                }
+                try {
+                    add(fields[1], fields[2]);
+                    added++;
+                } catch (IllegalArgumentException e) {
+                    // Skip malformed assignment
+                }
+            }
+            return added;
+        }
+
+        public OuiRegistry build() {
+            return new OuiRegistry(this);
+        }
+
+        /**
+         * Splits the first {@code count} fields of a CSV line, honouring quotes.
+         */
+        private static String[] csvFields(String line, int count) {
+            String[] fields = new String[count];
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            int n = 0;
+            for (int i = 0; i < line.length() && n < count; i++) {
+                char c = line.charAt(i);
+                if (c == '"') {
+                    if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = !quoted;
+                    }
+                } else if (c == ',' && !quoted) {
+                    fields[n++] = field.toString();
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            if (n < count) {
+                fields[n++] = field.toString();
+            }
+            return n == count ? fields : null;
+        }
+    }
+}
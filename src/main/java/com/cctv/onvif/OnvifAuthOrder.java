@@ -0,0 +1,81 @@
+package com.cctv.onvif;
+
+import com.cctv.model.Camera;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which WS-Security mode authenticated each manufacturer/model/firmware
+ * (and each manufacturer, and the site as a whole), so the next device of the
+ * same kind tries that mode first. On a site full of one model, the first camera
+ * pays for the wrong guesses and the rest need a single authenticated call per
+ * credential (GetDeviceInformation, or GetProfiles on devices that answer
+ * GetDeviceInformation to anyone).
+ */
+public class OnvifAuthOrder {
+    static final List<String> DEFAULT_ORDER = Arrays.asList("digest", "plaintext");
+
+    private static final String SITE_KEY = "*";
+
+    private static final ConcurrentHashMap<String, String> LEARNED = new ConcurrentHashMap<>();
+
+    /**
+     * Authenticated modes to try for this camera, most likely first. Uses what is
+     * known about it so far: model and firmware when an earlier request (or WS-Discovery)
+     * filled them in, otherwise just the manufacturer.
+     */
+    public static List<String> order(Camera camera) {
+        String learned = LEARNED.get(deviceKey(camera));
+        if (learned == null) {
+            learned = LEARNED.get(manufacturerKey(camera));
+        }
+        if (learned == null) {
+            learned = LEARNED.get(SITE_KEY);
+        }
+        if (learned == null || !DEFAULT_ORDER.contains(learned)) {
+            return DEFAULT_ORDER;
+        }
+        List<String> order = new ArrayList<>();
+        order.add(learned);
+        for (String method : DEFAULT_ORDER) {
+            if (!method.equals(learned)) {
+                order.add(method);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Records a successful mode; call after GetDeviceInformation filled in the identity.
+     */
+    public static void record(Camera camera, String method) {
+        if (!DEFAULT_ORDER.contains(method)) {
+            return;
+        }
+        LEARNED.put(deviceKey(camera), method);
+        if (camera.getManufacturer() != null) {
+            LEARNED.put(manufacturerKey(camera), method);
+        }
+        LEARNED.put(SITE_KEY, method);
+    }
+
+    public static void clear() {
+        LEARNED.clear();
+    }
+
+    private static String deviceKey(Camera camera) {
+        return normalize(camera.getManufacturer()) + "|" + normalize(camera.getModel()) + "|"
+                + normalize(camera.getFirmwareVersion());
+    }
+
+    private static String manufacturerKey(Camera camera) {
+        return normalize(camera.getManufacturer()) + "||";
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -3,30 +3,44 @@ package com.cctv.onvif;
 import com.cctv.model.Camera;
 import com.cctv.model.StreamInfo;
 import com.cctv.util.Logger;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.TimeZone;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class OnvifClient {
+    // null stands for the port of the advertised service URL
+    private static final String[] ONVIF_PORTS = {null, "80", "8000", "8080", "8899"};
     
     public static boolean authenticate(Camera camera) {
         Logger.info("Authenticating " + camera.getIpAddress() + " with username: " + camera.getUsername());
         camera.setAuthFailed(false);
         camera.setErrorMessage(null);
         
-        // Try different authentication methods
-        String[] authMethods = {"digest", "plaintext", "none"};
+        // Cheap check first (memoized per device, so later credentials do not repeat it).
+        // Many devices answer GetDeviceInformation to anyone, so an answer here does not
+        // vouch for the credential; it only tells that media calls must confirm it instead
+        boolean openDeviceInformation = false;
+        try {
+            fetchDeviceInformation(camera, null, null, "none");
+            openDeviceInformation = true;
+            Logger.info("GetDeviceInformation needs no auth on " + camera.getIpAddress()
+                    + "; confirming credential with GetProfiles");
+        } catch (Exception e) {
+            Logger.info("Unauthenticated GetDeviceInformation refused: " + e.getMessage());
+        }
         
-        for (String authMethod : authMethods) {
+        // Authenticated modes, the one that worked on similar devices first
+        for (String authMethod : OnvifAuthOrder.order(camera)) {
             try {
                 Logger.info("Trying " + authMethod + " authentication");
-                if ("none".equals(authMethod)) {
-                    fetchDeviceInformation(camera, null, null);
+                if (openDeviceInformation) {
+                    fetchProfiles(camera, camera.getUsername(), camera.getPassword(), authMethod);
                 } else {
                     fetchDeviceInformation(camera, camera.getUsername(), camera.getPassword(), authMethod);
                 }
                 Logger.info("Authentication SUCCESS for " + camera.getIpAddress() + " using " + authMethod);
                 camera.setAuthenticationMethod(authMethod);
+                OnvifAuthOrder.record(camera, authMethod);
                 return true;
             } catch (Exception e) {
                 Logger.info(authMethod + " authentication failed: " + e.getMessage());
@@ -42,12 +56,35 @@ public class OnvifClient {
             }
         }
         
+        // Only a device that serves its media without any auth needs none
+        if (openDeviceInformation) {
+            try {
+                fetchProfiles(camera, null, null, "none");
+                Logger.info("Authentication SUCCESS for " + camera.getIpAddress() + " using none");
+                camera.setAuthenticationMethod("none");
+                return true;
+            } catch (Exception e) {
+                Logger.info("Unauthenticated GetProfiles refused: " + e.getMessage());
+            }
+        }
+        
         Logger.error("Authentication FAILED for " + camera.getIpAddress() + " - all methods failed");
         camera.setAuthFailed(true);
         camera.setErrorMessage("ONVIF Auth Failed: Invalid credentials");
         return false;
     }
     
+    /**
+     * GetProfiles on the device's media service; the answer stays in the session
+     * for the stream lookup that follows.
+     */
+    private static void fetchProfiles(Camera camera, String username, String password, String authType)
+            throws Exception {
+        OnvifServices.Endpoints services = OnvifServices.resolve(camera);
+        String mediaUrl = services.mediaUrl();
+        OnvifSession.forUrl(mediaUrl).getProfiles(mediaUrl, services.usesMedia2(), username, password, authType);
+    }
+    
     private static void fetchDeviceInformation(Camera camera) throws Exception {
         fetchDeviceInformation(camera, camera.getUsername(), camera.getPassword(), "digest");
     }
@@ -57,125 +94,87 @@ public class OnvifClient {
     }
     
     private static void fetchDeviceInformation(Camera camera, String username, String password, String authType) throws Exception {
-        String soapBody;
-        if (username != null && password != null) {
-            soapBody = SoapHelper.createSoapEnvelope(
-                "<GetDeviceInformation xmlns=\"http://www.onvif.org/ver10/device/wsdl\"/>",
-                username, password, authType);
-        } else {
-            soapBody = SoapHelper.createSoapEnvelope(
-                "<GetDeviceInformation xmlns=\"http://www.onvif.org/ver10/device/wsdl\"/>",
-                null, null);
-        }
-        
-        String response = null;
-        Exception lastException = null;
-        String[] ports = {extractPort(camera.getOnvifServiceUrl()), "80", "8000", "8080", "8899"};
+        String soapBody = "<GetDeviceInformation xmlns=\"http://www.onvif.org/ver10/device/wsdl\"/>";
         
-        for (String port : ports) {
-            if (port == null) continue;
-            String testUrl = "http://" + camera.getIpAddress() + ":" + port + "/onvif/device_service";
-            
-            try {
-                Logger.info("Trying ONVIF on port " + port + ": " + testUrl);
-                response = SoapHelper.sendSoapRequest(testUrl, "", soapBody, username, password);
-                camera.setOnvifServiceUrl(testUrl);
-                Logger.info("GetDeviceInformation SUCCESS on port " + port);
-                break;
-            } catch (Exception e) {
-                Logger.info("Port " + port + " failed: " + e.getMessage());
-                lastException = e;
-            }
+        // Resolved once per device and run; later auth methods reuse the endpoint
+        OnvifSession session = OnvifSession.forDevice(camera.getIpAddress());
+        String serviceUrl = session.resolveDeviceService(candidateServiceUrls(camera));
+        if (serviceUrl == null) {
+            throw new Exception("All ONVIF ports failed");
         }
         
-        if (response == null) {
-            throw lastException != null ? lastException : new Exception("All ONVIF ports failed");
-        }
+        String response = session.send(serviceUrl, soapBody, username, password, authType, true);
+        camera.setOnvifServiceUrl(serviceUrl);
+        Logger.info("GetDeviceInformation SUCCESS on " + serviceUrl);
         
         Logger.info(response);
         
-        String manufacturer = SoapHelper.extractValue(response, "Manufacturer");
-        if (manufacturer == null) manufacturer = SoapHelper.extractValue(response, "tds:Manufacturer");
-        camera.setManufacturer(manufacturer);
-        
-        String model = SoapHelper.extractValue(response, "Model");
-        if (model == null) model = SoapHelper.extractValue(response, "tds:Model");
-        camera.setModel(model);
+        Map<String, String> info = SoapHelper.extractValues(response,
+                "Manufacturer", "Model", "SerialNumber", "FirmwareVersion");
+        camera.setManufacturer(info.get("Manufacturer"));
+        camera.setModel(info.get("Model"));
+        camera.setSerialNumber(info.get("SerialNumber"));
+        camera.setFirmwareVersion(info.get("FirmwareVersion"));
         
-        String serial = SoapHelper.extractValue(response, "SerialNumber");
-        if (serial == null) serial = SoapHelper.extractValue(response, "tds:SerialNumber");
-        camera.setSerialNumber(serial);
-        
-        String firmware = SoapHelper.extractValue(response, "FirmwareVersion");
-        if (firmware == null) firmware = SoapHelper.extractValue(response, "tds:FirmwareVersion");
-        camera.setFirmwareVersion(firmware);
-        
-        // Try to get camera name
-        fetchCameraName(camera);
-        
-        fetchSystemDateTime(camera);
+        fetchIdentity(camera);
     }
     
-    private static void fetchSystemDateTime(Camera camera) {
-        try {
-            String soapBody = SoapHelper.createSoapEnvelope(
-                "<GetSystemDateAndTime xmlns=\"http://www.onvif.org/ver10/device/wsdl\"/>",
+    /**
+     * Sends GetHostname and GetScopes at the same time and merges the answers, so
+     * enrichment takes as long as the slowest call. GetScopes is only used when the
+     * hostname is empty, but sending it up front costs one small request and saves
+     * a round trip on devices without a hostname. The clock offset usually comes
+     * from the session's unauthenticated GetSystemDateAndTime; it is only asked for
+     * again, with credentials, when that one was refused.
+     */
+    private static void fetchIdentity(Camera camera) {
+        String serviceUrl = camera.getOnvifServiceUrl();
+        OnvifSession session = OnvifSession.forUrl(serviceUrl);
+        CompletableFuture<String> hostname = session.deviceAsync(serviceUrl, "GetHostname",
                 camera.getUsername(), camera.getPassword());
-            
-            String response = SoapHelper.sendSoapRequest(camera.getOnvifServiceUrl(), "", soapBody, null, null);
-            
-            String year = SoapHelper.extractValue(response, "Year");
-            String month = SoapHelper.extractValue(response, "Month");
-            String day = SoapHelper.extractValue(response, "Day");
-            String hour = SoapHelper.extractValue(response, "Hour");
-            String minute = SoapHelper.extractValue(response, "Minute");
-            String second = SoapHelper.extractValue(response, "Second");
-            
-            if (year != null && month != null && day != null) {
-                SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-                String cameraTime = String.format("%s-%02d-%02d %02d:%02d:%02d",
-                    year, Integer.parseInt(month), Integer.parseInt(day),
-                    Integer.parseInt(hour != null ? hour : "0"),
-                    Integer.parseInt(minute != null ? minute : "0"),
-                    Integer.parseInt(second != null ? second : "0"));
-                
-                Date cameraDate = sdf.parse(cameraTime);
-                Date systemDate = new Date();
-                camera.setTimeDifferenceMs(systemDate.getTime() - cameraDate.getTime());
+        CompletableFuture<String> scopes = session.deviceAsync(serviceUrl, "GetScopes",
+                camera.getUsername(), camera.getPassword());
+        Long known = session.getTimeDifferenceMs();
+        // Offset is taken when the answer arrives, not when this thread gets to it
+        CompletableFuture<Long> timeDifference = known != null ? CompletableFuture.completedFuture(known)
+                : session.deviceAsync(serviceUrl, "GetSystemDateAndTime", camera.getUsername(),
+                        camera.getPassword()).thenApply(response ->
+                                OnvifSession.timeDifference(response, System.currentTimeMillis()));
+        
+        String name = hostnameFrom(hostname);
+        if (name == null) {
+            name = nameFromScopes(scopes);
+        }
+        if (name != null) {
+            camera.setCameraName(name);
+        }
+        
+        try {
+            Long difference = timeDifference.join();
+            if (difference != null) {
+                camera.setTimeDifferenceMs(difference);
             }
-        } catch (Exception e) {
+        } catch (CompletionException e) {
             Logger.error("Failed to fetch system date/time for " + camera.getIpAddress(), e);
         }
     }
     
-    private static void fetchCameraName(Camera camera) {
-        // Try GetHostname first
+    private static String hostnameFrom(CompletableFuture<String> request) {
         try {
-            String soapBody = SoapHelper.createSoapEnvelope(
-                "<GetHostname xmlns=\"http://www.onvif.org/ver10/device/wsdl\"/>",
-                camera.getUsername(), camera.getPassword());
-            
-            String response = SoapHelper.sendSoapRequest(camera.getOnvifServiceUrl(), "", soapBody, null, null);
-            String hostname = SoapHelper.extractValue(response, "Name");
-            if (hostname == null) hostname = SoapHelper.extractValue(response, "tds:Name");
-            
+            String hostname = SoapHelper.extractValue(request.join(), "Name");
             if (hostname != null && !hostname.trim().isEmpty()) {
-                camera.setCameraName(hostname);
                 Logger.info("Found camera hostname: " + hostname);
-                return;
+                return hostname;
             }
-        } catch (Exception e) {
-            Logger.info("GetHostname failed: " + e.getMessage());
+        } catch (CompletionException e) {
+            Logger.info("GetHostname failed: " + e.getCause().getMessage());
         }
-        
-        // Try GetScopes for location/name info
+        return null;
+    }
+    
+    private static String nameFromScopes(CompletableFuture<String> request) {
         try {
-            String soapBody = SoapHelper.createSoapEnvelope(
-                "<GetScopes xmlns=\"http://www.onvif.org/ver10/device/wsdl\"/>",
-                camera.getUsername(), camera.getPassword());
-            
-            String response = SoapHelper.sendSoapRequest(camera.getOnvifServiceUrl(), "", soapBody, null, null);
+            String response = request.join();
             
             // Look for location or name scopes
             String[] scopeTypes = {"location/name", "location/city", "location/building", "name"};
@@ -186,43 +185,48 @@ public class OnvifClient {
                     if (end > start) {
                         String scopeValue = response.substring(start + scopeType.length() + 1, end).trim();
                         if (!scopeValue.isEmpty()) {
-                            camera.setCameraName(scopeValue);
                             Logger.info("Found camera name from scopes: " + scopeValue);
-                            return;
+                            return scopeValue;
                         }
                     }
                 }
             }
-        } catch (Exception e) {
-            Logger.info("GetScopes failed: " + e.getMessage());
+        } catch (CompletionException e) {
+            Logger.info("GetScopes failed: " + e.getCause().getMessage());
         }
+        return null;
     }
 
     public static java.util.List<Camera> fetchStreamUrlsMultiChannel(Camera baseCamera) {
         java.util.List<Camera> cameras = new java.util.ArrayList<>();
         
         try {
-            String profilesBody = SoapHelper.createSoapEnvelope(
-                "<GetProfiles xmlns=\"http://www.onvif.org/ver10/media/wsdl\"/>",
-                baseCamera.getUsername(), baseCamera.getPassword());
-            
-            String mediaUrl = baseCamera.getOnvifServiceUrl().replace("/onvif/device_service", "/onvif/media_service");
-            if (!mediaUrl.contains("/onvif/")) {
-                mediaUrl = "http://" + baseCamera.getIpAddress() + "/onvif/media_service";
-            }
+            OnvifServices.Endpoints services = OnvifServices.resolve(baseCamera);
+            String mediaUrl = services.mediaUrl();
+            boolean media2 = services.usesMedia2();
             
-            Logger.info("GetProfiles Request for " + baseCamera.getIpAddress());
-            String response = SoapHelper.sendSoapRequest(mediaUrl, "", profilesBody, null, null);
+            Logger.info("GetProfiles Request for " + baseCamera.getIpAddress() + " on " + mediaUrl);
+            String response = OnvifSession.forUrl(mediaUrl).getProfiles(mediaUrl, media2,
+                    baseCamera.getUsername(), baseCamera.getPassword(), wsSecurityType(baseCamera));
             Logger.info("GetProfiles Response for " + baseCamera.getIpAddress());
             Logger.info(response);
             
             // Extract all profiles
-            String[] profiles = response.split("<trt:Profiles");
-            if (profiles.length == 1) {
-                profiles = response.split("<Profiles");
-            }
+            String[] profiles = splitProfiles(response);
+            
+            // Codec, resolution, fps and bitrate come with the profiles; no stream has to be opened
+            Map<String, ProfileParser.VideoEncoder> encoders = videoEncoders(mediaUrl, media2, response,
+                    baseCamera.getUsername(), baseCamera.getPassword());
             
             if (profiles.length > 1) {
+                // Ask for every profile's stream URI at once (queued by the engine's per-host:port connection cap)
+                java.util.List<CompletableFuture<String>> uris = new java.util.ArrayList<>();
+                for (int i = 0; i < profiles.length; i++) {
+                    String token = i > 0 ? extractProfileToken(profiles[i]) : null;
+                    uris.add(token == null ? null : OnvifSession.forUrl(mediaUrl).getStreamUriAsync(mediaUrl,
+                            media2, token, baseCamera.getUsername(), baseCamera.getPassword()));
+                }
+                
                 // Process profiles in pairs (main/sub)
                 for (int i = 1; i < profiles.length; i += 2) {
                     String mainProfileToken = extractProfileToken(profiles[i]);
@@ -232,15 +236,14 @@ public class OnvifClient {
                         // Create new camera for this channel
                         Camera channelCamera = new Camera(baseCamera);
                         
-                        String mainUrl = getStreamUri(mediaUrl, mainProfileToken, baseCamera.getUsername(), baseCamera.getPassword());
+                        String mainUrl = streamUri(uris.get(i), mainProfileToken, baseCamera.getUsername(), baseCamera.getPassword());
                         
                         // Look for sub stream (next profile)
                         String subUrl = null;
-                        if (i + 1 < profiles.length) {
-                            String subProfileToken = extractProfileToken(profiles[i + 1]);
-                            if (subProfileToken != null) {
-                                subUrl = getStreamUri(mediaUrl, subProfileToken, baseCamera.getUsername(), baseCamera.getPassword());
-                            }
+                        String subProfileToken = i + 1 < profiles.length ? extractProfileToken(profiles[i + 1]) : null;
+                        if (subProfileToken != null) {
+                            subUrl = streamUri(uris.get(i + 1), subProfileToken,
+                                    baseCamera.getUsername(), baseCamera.getPassword());
                         }
                         
                         // Create camera name with channel info
@@ -258,12 +261,14 @@ public class OnvifClient {
                         if (mainUrl != null) {
                             StreamInfo main = new StreamInfo();
                             main.setRtspUrl(mainUrl);
+                            describe(main, encoders.get(mainProfileToken));
                             channelCamera.setMainStream(main);
                         }
                         
                         if (subUrl != null) {
                             StreamInfo sub = new StreamInfo();
                             sub.setRtspUrl(subUrl);
+                            describe(sub, encoders.get(subProfileToken));
                             channelCamera.setSubStream(sub);
                         }
                         
@@ -286,6 +291,21 @@ public class OnvifClient {
         return cameras;
     }
 
+    /**
+     * The advertised service URL first, then the standard path on the usual ONVIF ports.
+     */
+    private static java.util.List<String> candidateServiceUrls(Camera camera) {
+        java.util.Set<String> urls = new java.util.LinkedHashSet<>();
+        if (camera.getOnvifServiceUrl() != null) {
+            urls.add(camera.getOnvifServiceUrl());
+        }
+        for (String port : ONVIF_PORTS) {
+            String candidate = port != null ? port : extractPort(camera.getOnvifServiceUrl());
+            urls.add("http://" + camera.getIpAddress() + ":" + candidate + "/onvif/device_service");
+        }
+        return new java.util.ArrayList<>(urls);
+    }
+
     private static String extractPort(String url) {
         if (url == null) return "80";
         try {
@@ -297,6 +317,71 @@ public class OnvifClient {
         }
     }
     
+    private static void describe(StreamInfo stream, ProfileParser.VideoEncoder encoder) {
+        if (encoder != null) {
+            encoder.applyTo(stream);
+            Logger.info("Stream described by ONVIF profile: " + stream.getCodec() + " " + stream.getResolution()
+                    + " @ " + stream.getFps() + " fps, " + stream.getBitrate() + " kbps");
+        }
+    }
+    
+    /**
+     * WS-Security type that authenticated the camera; digest when none was needed.
+     */
+    private static String wsSecurityType(Camera camera) {
+        return "plaintext".equals(camera.getAuthenticationMethod()) ? "plaintext" : "digest";
+    }
+
+    /**
+     * Video encoder of each profile of a GetProfiles response, by profile token.
+     * Media2 devices that list a profile without its VideoEncoder are asked for it
+     * with GetVideoEncoderConfigurations, for all such profiles at once.
+     */
+    public static Map<String, ProfileParser.VideoEncoder> videoEncoders(String mediaUrl, boolean media2,
+            String profilesResponse, String username, String password) {
+        Map<String, ProfileParser.VideoEncoder> encoders = new java.util.HashMap<>();
+        Map<String, CompletableFuture<String>> missing = new java.util.LinkedHashMap<>();
+        for (ProfileParser.Profile profile : ProfileParser.parseProfiles(profilesResponse)) {
+            if (profile.token == null) {
+                continue;
+            }
+            if (profile.encoder != null) {
+                encoders.put(profile.token, profile.encoder);
+            } else if (media2) {
+                missing.put(profile.token, OnvifSession.forUrl(mediaUrl)
+                        .getVideoEncoderConfigurationsAsync(mediaUrl, profile.token, username, password));
+            }
+        }
+        for (Map.Entry<String, CompletableFuture<String>> entry : missing.entrySet()) {
+            try {
+                // The profile's own configuration; a profile has at most one video encoder
+                for (ProfileParser.VideoEncoder encoder
+                        : ProfileParser.parseEncoderConfigurations(entry.getValue().join()).values()) {
+                    encoders.put(entry.getKey(), encoder);
+                    break;
+                }
+            } catch (CompletionException e) {
+                Logger.info("GetVideoEncoderConfigurations failed for profile " + entry.getKey() + ": "
+                        + e.getCause().getMessage());
+            }
+        }
+        return encoders;
+    }
+
+    /**
+     * Splits a Media or Media2 GetProfiles response at each profile; element 0 is
+     * what precedes the first one.
+     */
+    public static String[] splitProfiles(String response) {
+        for (String tag : new String[] {"<trt:Profiles", "<tr2:Profiles", "<Profiles"}) {
+            String[] profiles = response.split(tag);
+            if (profiles.length > 1) {
+                return profiles;
+            }
+        }
+        return new String[] {response};
+    }
+    
     private static String extractProfileToken(String profileXml) {
         int tokenStart = profileXml.indexOf("token=\"");
         if (tokenStart == -1) return null;
@@ -308,9 +393,7 @@ public class OnvifClient {
     
     private static String extractProfileName(String profileXml) {
         // Try to extract profile name from <tt:Name> or <Name>
-        String name = SoapHelper.extractValue(profileXml, "tt:Name");
-        if (name == null) name = SoapHelper.extractValue(profileXml, "Name");
-        return name;
+        return SoapHelper.extractValue(profileXml, "Name");
     }
     
     private static String extractChannelFromProfile(String profileName) {
@@ -336,28 +419,15 @@ public class OnvifClient {
         return profileName; // Fallback to full profile name
     }
 
-    private static String getStreamUri(String mediaUrl, String profileToken, String username, String password) {
+    private static String streamUri(CompletableFuture<String> request, String profileToken, String username,
+            String password) {
         try {
-            String streamBody = SoapHelper.createSoapEnvelope(
-                "<GetStreamUri xmlns=\"http://www.onvif.org/ver10/media/wsdl\">" +
-                "<ProfileToken>" + profileToken + "</ProfileToken>" +
-                "<StreamSetup><Stream xmlns=\"http://www.onvif.org/ver10/schema\">RTP-Unicast</Stream>" +
-                "<Transport xmlns=\"http://www.onvif.org/ver10/schema\"><Protocol>RTSP</Protocol></Transport>" +
-                "</StreamSetup></GetStreamUri>",
-                username, password);
-            
-            Logger.info("GetStreamUri Request (Profile: " + profileToken + ")");
-            Logger.info("URL: " + mediaUrl);
-            Logger.info("Request Body: " + streamBody);
-            
-            String response = SoapHelper.sendSoapRequest(mediaUrl, "", streamBody, null, null);
-            Logger.info("GetStreamUri Response");
+            String response = request.join();
+            Logger.info("GetStreamUri Response (Profile: " + profileToken + ")");
             Logger.info(response);
             
-            String uri = SoapHelper.extractValue(response, "Uri");
-            if (uri == null) uri = SoapHelper.extractValue(response, "uri");
-            if (uri == null) uri = SoapHelper.extractValue(response, "tt:Uri");
-            if (uri == null) uri = SoapHelper.extractValue(response, "trt:Uri");
+            Map<String, String> uris = SoapHelper.extractValues(response, "Uri", "uri");
+            String uri = uris.get("Uri") != null ? uris.get("Uri") : uris.get("uri");
             if (uri == null) {
                 int uriStart = response.indexOf("<Uri>");
                 if (uriStart == -1) uriStart = response.indexOf("<uri>");
@@ -0,0 +1,280 @@
+package com.cctv.onvif;
+
+import com.cctv.model.Camera;
+import com.cctv.util.Logger;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Finds a device's Media, Media2 and Events service addresses. Asks GetServices
+ * first and GetCapabilities on devices too old for it, once per device and run
+ * (kept in the device's {@link OnvifSession}). The paths are also remembered per
+ * manufacturer and model, so the next device of the same kind needs no request at
+ * all. Only when the device answers neither is the media address guessed from
+ * the device_service URL.
+ */
+public class OnvifServices {
+    static final String MEDIA_NS = "http://www.onvif.org/ver10/media/wsdl";
+    static final String MEDIA2_NS = "http://www.onvif.org/ver20/media/wsdl";
+    static final String EVENTS_NS = "http://www.onvif.org/ver10/events/wsdl";
+    private static final String DEVICE_NS = "http://www.onvif.org/ver10/device/wsdl";
+
+    private static final ConcurrentHashMap<String, Endpoints> BY_MODEL = new ConcurrentHashMap<>();
+
+    public static class Endpoints {
+        /** Service addresses; null if the device does not offer the service */
+        public final String media;
+        public final String media2;
+        public final String events;
+
+        Endpoints(String media, String media2, String events) {
+            this.media = media;
+            this.media2 = media2;
+            this.events = events;
+        }
+
+        /**
+         * Media2 when offered: its GetProfiles returns every profile with all its
+         * configurations in one response.
+         */
+        public String mediaUrl() {
+            return media2 != null ? media2 : media;
+        }
+
+        public boolean usesMedia2() {
+            return media2 != null;
+        }
+
+        boolean hasMedia() {
+            return media != null || media2 != null;
+        }
+
+        /**
+         * The same paths on the device serving {@code deviceUrl}.
+         */
+        Endpoints rebase(String deviceUrl) {
+            return new Endpoints(OnvifServices.rebase(media, deviceUrl), OnvifServices.rebase(media2, deviceUrl),
+                    OnvifServices.rebase(events, deviceUrl));
+        }
+    }
+
+    /**
+     * Service addresses of an ONVIF-authenticated camera; never null once
+     * {@link Camera#getOnvifServiceUrl()} is set.
+     */
+    public static Endpoints resolve(Camera camera) {
+        String deviceUrl = camera.getOnvifServiceUrl();
+        OnvifSession session = OnvifSession.forDevice(camera.getIpAddress());
+        Endpoints endpoints = session.getEndpoints();
+        if (endpoints != null) {
+            return endpoints;
+        }
+
+        String modelKey = modelKey(camera);
+        Endpoints learned = modelKey != null ? BY_MODEL.get(modelKey) : null;
+        if (learned != null) {
+            endpoints = learned.rebase(deviceUrl);
+            Logger.info("ONVIF services of " + camera.getIpAddress() + " taken from " + modelKey);
+        } else {
+            endpoints = query(camera, session, deviceUrl);
+            if (endpoints != null && modelKey != null) {
+                BY_MODEL.put(modelKey, endpoints.rebase(null));
+            }
+        }
+        if (endpoints == null) {
+            endpoints = new Endpoints(guessMediaUrl(camera), null, null);
+        }
+        session.setEndpoints(endpoints);
+        return endpoints;
+    }
+
+    public static void clear() {
+        BY_MODEL.clear();
+    }
+
+    private static Endpoints query(Camera camera, OnvifSession session, String deviceUrl) {
+        boolean anonymous = "none".equals(camera.getAuthenticationMethod());
+        String username = anonymous ? null : camera.getUsername();
+        String password = anonymous ? null : camera.getPassword();
+        String authType = anonymous || camera.getAuthenticationMethod() == null ? "digest"
+                : camera.getAuthenticationMethod();
+        try {
+            Endpoints endpoints = parseServices(session.send(deviceUrl,
+                    "<GetServices xmlns=\"" + DEVICE_NS + "\"><IncludeCapability>false</IncludeCapability></GetServices>",
+                    username, password, authType, !anonymous));
+            if (endpoints.hasMedia()) {
+                return endpoints.rebase(deviceUrl);
+            }
+        } catch (Exception e) {
+            Logger.info("GetServices failed on " + camera.getIpAddress() + ": " + e.getMessage());
+        }
+        try {
+            Endpoints endpoints = parseCapabilities(session.send(deviceUrl,
+                    "<GetCapabilities xmlns=\"" + DEVICE_NS + "\"><Category>All</Category></GetCapabilities>",
+                    username, password, authType, !anonymous));
+            if (endpoints.hasMedia()) {
+                return endpoints.rebase(deviceUrl);
+            }
+        } catch (Exception e) {
+            Logger.info("GetCapabilities failed on " + camera.getIpAddress() + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Reads the Media, Media2 and Events XAddrs of a GetServices response.
+     */
+    static Endpoints parseServices(String xml) {
+        String media = null;
+        String media2 = null;
+        String events = null;
+        XMLStreamReader reader = open(xml);
+        if (reader == null) {
+            return new Endpoints(null, null, null);
+        }
+        try {
+            String namespace = null;
+            String xaddr = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if ("Service".equals(name)) {
+                        namespace = null;
+                        xaddr = null;
+                    } else if ("Namespace".equals(name)) {
+                        namespace = reader.getElementText().trim();
+                    } else if ("XAddr".equals(name)) {
+                        xaddr = reader.getElementText().trim();
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && "Service".equals(reader.getLocalName())
+                        && namespace != null && xaddr != null && !xaddr.isEmpty()) {
+                    if (MEDIA_NS.equals(namespace)) {
+                        media = xaddr;
+                    } else if (MEDIA2_NS.equals(namespace)) {
+                        media2 = xaddr;
+                    } else if (EVENTS_NS.equals(namespace)) {
+                        events = xaddr;
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            Logger.info("GetServices parse failed: " + e.getMessage());
+        } finally {
+            close(reader);
+        }
+        return new Endpoints(media, media2, events);
+    }
+
+    /**
+     * Reads the Media and Events XAddrs of a GetCapabilities response; Media2
+     * is only advertised through GetServices.
+     */
+    static Endpoints parseCapabilities(String xml) {
+        String media = null;
+        String events = null;
+        XMLStreamReader reader = open(xml);
+        if (reader == null) {
+            return new Endpoints(null, null, null);
+        }
+        try {
+            Deque<String> path = new ArrayDeque<>();
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if ("XAddr".equals(name)) {
+                        String xaddr = reader.getElementText().trim();
+                        if ("Media".equals(path.peek()) && media == null) {
+                            media = xaddr;
+                        } else if ("Events".equals(path.peek()) && events == null) {
+                            events = xaddr;
+                        }
+                    } else {
+                        path.push(name);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    path.poll();
+                }
+            }
+        } catch (XMLStreamException e) {
+            Logger.info("GetCapabilities parse failed: " + e.getMessage());
+        } finally {
+            close(reader);
+        }
+        return new Endpoints(empty(media), null, empty(events));
+    }
+
+    /**
+     * Keeps the XAddr's path but takes scheme, host and port from the URL the
+     * device answered on; devices behind NAT or with a stale address advertise
+     * hosts the scanner cannot reach. With a null {@code deviceUrl} only the path is kept.
+     */
+    static String rebase(String xaddr, String deviceUrl) {
+        if (xaddr == null) {
+            return null;
+        }
+        try {
+            URI service = new URI(xaddr);
+            String path = (service.getRawPath() != null ? service.getRawPath() : "")
+                    + (service.getRawQuery() != null ? "?" + service.getRawQuery() : "");
+            if (deviceUrl == null) {
+                return path;
+            }
+            URI device = new URI(deviceUrl);
+            return device.getScheme() + "://" + device.getRawAuthority() + path;
+        } catch (Exception e) {
+            return xaddr;
+        }
+    }
+
+    /**
+     * The conventional media path next to the device service.
+     */
+    private static String guessMediaUrl(Camera camera) {
+        String mediaUrl = camera.getOnvifServiceUrl() != null
+                ? camera.getOnvifServiceUrl().replace("/onvif/device_service", "/onvif/media_service") : "";
+        if (!mediaUrl.contains("/onvif/")) {
+            mediaUrl = "http://" + camera.getIpAddress() + "/onvif/media_service";
+        }
+        return mediaUrl;
+    }
+
+    private static String modelKey(Camera camera) {
+        if (camera.getManufacturer() == null || camera.getModel() == null) {
+            return null;
+        }
+        return camera.getManufacturer().trim().toLowerCase(Locale.ROOT) + "|"
+                + camera.getModel().trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String empty(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static XMLStreamReader open(String xml) {
+        if (xml == null || xml.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return SoapHelper.xmlInputFactory.createXMLStreamReader(new StringReader(xml));
+        } catch (XMLStreamException e) {
+            return null;
+        }
+    }
+
+    private static void close(XMLStreamReader reader) {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            // Ignore
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package com.cctv.onvif;
+
+import com.cctv.network.AsyncHttpEngine;
+import com.cctv.network.DeviceHttpClient;
+import com.cctv.util.ExecutionBudget;
+import com.cctv.util.Logger;
+import java.io.StringReader;
+import java.net.URL;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Per-device ONVIF response memo for one discovery run. Responses are keyed by
+ * service URL, request body (operation and arguments), auth type and credential,
+ * so GetProfiles or GetStreamUri for the same profile is sent to a device at most
+ * once however many callers ask for it. Concurrent identical requests share one
+ * round trip, and failures are remembered too, so a dead endpoint is not retried.
+ *
+ * The WS-Security envelope is built only when a request actually goes out, since
+ * its nonce and timestamp differ on every call. Sessions belong to the run of the
+ * calling thread (its {@link ExecutionBudget}), so overlapping runs keep separate
+ * memos; {@link #reset()} drops the current run's sessions when it ends.
+ *
+ * The session also remembers which device_service URL the device answers on
+ * ({@link #resolveDeviceService(List)}), so later auth attempts skip the port walk,
+ * and the device's clock offset from the same unauthenticated GetSystemDateAndTime.
+ * WS-Security timestamps for the device are shifted by that offset, so a camera
+ * with a skewed clock accepts PasswordDigest on the first try.
+ * Requests go out on the non-blocking {@link AsyncHttpEngine}, so
+ * {@link #deviceAsync} and {@link #getStreamUriAsync} hold no thread while a
+ * device answers; the engine's per-host connection cap keeps small embedded web
+ * servers from being flooded. The blocking {@link #send} variants wait on the
+ * same futures; {@link OnvifClient}'s authentication and profile steps still use
+ * them, so those steps hold the calling DEVICE lane thread.
+ */
+public class OnvifSession {
+    private static final String DEVICE_NS = "http://www.onvif.org/ver10/device/wsdl";
+
+    // Sessions by run, then by host
+    private static final ConcurrentHashMap<ExecutionBudget, ConcurrentHashMap<String, OnvifSession>> RUNS =
+            new ConcurrentHashMap<>();
+
+    private final String host;
+    private final ConcurrentHashMap<String, CompletableFuture<String>> responses = new ConcurrentHashMap<>();
+    private final CompletableFuture<String> deviceService = new CompletableFuture<>();
+    private final AtomicInteger deviceServiceOwner = new AtomicInteger();
+    /** Local time minus device time in ms; null until the device told its time */
+    private volatile Long timeDifferenceMs;
+    private volatile OnvifServices.Endpoints endpoints;
+
+    private OnvifSession(String host) {
+        this.host = host;
+    }
+
+    /**
+     * Session of the device serving {@code serviceUrl}.
+     */
+    public static OnvifSession forUrl(String serviceUrl) {
+        String host;
+        try {
+            host = new URL(serviceUrl).getHost();
+        } catch (Exception e) {
+            host = serviceUrl;
+        }
+        return forDevice(host);
+    }
+
+    public static OnvifSession forDevice(String host) {
+        return RUNS.computeIfAbsent(ExecutionBudget.current(), run -> new ConcurrentHashMap<>())
+                .computeIfAbsent(host, OnvifSession::new);
+    }
+
+    /**
+     * Finds the device_service URL the device answers on by sending an
+     * unauthenticated GetSystemDateAndTime to every candidate at once. Only a SOAP
+     * envelope carrying a GetSystemDateAndTimeResponse or a Fault counts as an
+     * answer, so a web UI or another service on the port cannot win. The first
+     * candidate (the advertised XAddr, when known) wins whenever it answers;
+     * another candidate wins only once it has failed. The losers are cancelled.
+     * The outcome, including "none", is kept for the rest of the run; concurrent
+     * callers share one race.
+     *
+     * @param candidates device_service URLs, preferred first
+     * @return the winning URL, or null if no candidate is an ONVIF service
+     */
+    public String resolveDeviceService(List<String> candidates) throws InterruptedException {
+        if (deviceServiceOwner.compareAndSet(0, 1)) {
+            try {
+                deviceService.complete(race(candidates));
+            } catch (InterruptedException | RuntimeException e) {
+                deviceService.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return deviceService.get();
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    private String race(List<String> candidates) throws InterruptedException {
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        // Outside the response memo, so cancelled losers are not remembered as failures
+        byte[] envelope = SoapEnvelope.build("<GetSystemDateAndTime xmlns=\"" + DEVICE_NS + "\"/>", null, null,
+                "digest");
+        Race race = new Race(candidates);
+        List<CompletableFuture<DeviceHttpClient.Response>> attempts = new ArrayList<>();
+        try {
+            for (int i = 0; i < candidates.size(); i++) {
+                int index = i;
+                CompletableFuture<DeviceHttpClient.Response> attempt;
+                try {
+                    attempt = SoapHelper.postAsync(candidates.get(i), "", envelope, null, null);
+                } catch (RuntimeException e) {
+                    race.answered(index, null, System.currentTimeMillis());
+                    continue;
+                }
+                attempts.add(attempt);
+                attempt.whenComplete((response, error) -> race.answered(index,
+                        error == null ? response.bodyText() : null, System.currentTimeMillis()));
+            }
+            String url = race.winner.get();
+            Logger.info(url != null ? "ONVIF device service for " + host + ": " + url
+                    : "No ONVIF device service on " + host + " (tried " + candidates.size() + " endpoints)");
+            return url;
+        } catch (ExecutionException e) {
+            return null;
+        } finally {
+            for (CompletableFuture<DeviceHttpClient.Response> attempt : attempts) {
+                attempt.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Outcome of one device_service race; answers arrive on the CPU pool.
+     */
+    private final class Race {
+        final CompletableFuture<String> winner = new CompletableFuture<>();
+        private final List<String> candidates;
+        private final Long[] differences;
+        private int remaining;
+        private boolean preferredFailed;
+        private int fallback = -1;
+
+        Race(List<String> candidates) {
+            this.candidates = candidates;
+            this.differences = new Long[candidates.size()];
+            this.remaining = candidates.size();
+        }
+
+        /**
+         * @param body response body, or null if the request failed
+         */
+        synchronized void answered(int index, String body, long receivedAt) {
+            String reply = body != null ? soapReply(body) : null;
+            if (reply != null) {
+                differences[index] = "GetSystemDateAndTimeResponse".equals(reply)
+                        ? timeDifference(body, receivedAt) : null;
+                if (index == 0) {
+                    win(0);
+                } else if (fallback < 0) {
+                    fallback = index;
+                    if (preferredFailed) {
+                        win(index);
+                    }
+                }
+            } else if (index == 0) {
+                preferredFailed = true;
+                if (fallback >= 0) {
+                    win(fallback);
+                }
+            }
+            if (--remaining == 0 && !winner.isDone()) {
+                if (fallback >= 0) {
+                    win(fallback);
+                } else {
+                    winner.complete(null);
+                }
+            }
+        }
+
+        private void win(int index) {
+            if (winner.isDone()) {
+                return;
+            }
+            if (differences[index] != null && timeDifferenceMs == null) {
+                // Before the winner is known, so authenticated requests already see it
+                timeDifferenceMs = differences[index];
+            }
+            winner.complete(candidates.get(index));
+        }
+    }
+
+    /**
+     * Local name of the reply element if {@code body} is a SOAP envelope carrying
+     * a GetSystemDateAndTimeResponse or a Fault; null otherwise.
+     */
+    static String soapReply(String body) {
+        if (body.trim().isEmpty()) {
+            return null;
+        }
+        XMLStreamReader reader = null;
+        try {
+            reader = SoapHelper.xmlInputFactory.createXMLStreamReader(new StringReader(body));
+            boolean envelope = false;
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+                if (!envelope) {
+                    if (!"Envelope".equals(name)) {
+                        return null;
+                    }
+                    envelope = true;
+                } else if ("GetSystemDateAndTimeResponse".equals(name) || "Fault".equals(name)) {
+                    return name;
+                }
+            }
+        } catch (XMLStreamException e) {
+            // Not XML: a web page or another service on the port
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // Ignore
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Local time minus device time in ms, from the device_service race; null if
+     * the device has not answered GetSystemDateAndTime without auth.
+     */
+    public Long getTimeDifferenceMs() {
+        return timeDifferenceMs;
+    }
+
+    /**
+     * @param receivedAt local time the response arrived
+     * @return local time minus the response's UTC time in ms, or null if it has no usable date
+     */
+    static Long timeDifference(String response, long receivedAt) {
+        // First occurrence of each is the UTCDateTime block
+        Map<String, String> time = SoapHelper.extractValues(response,
+                "Year", "Month", "Day", "Hour", "Minute", "Second");
+        if (time.get("Year") == null || time.get("Month") == null || time.get("Day") == null) {
+            return null;
+        }
+        try {
+            LocalDateTime deviceTime = LocalDateTime.of(
+                    Integer.parseInt(time.get("Year").trim()),
+                    Integer.parseInt(time.get("Month").trim()),
+                    Integer.parseInt(time.get("Day").trim()),
+                    parseOrZero(time.get("Hour")), parseOrZero(time.get("Minute")), parseOrZero(time.get("Second")));
+            return receivedAt - deviceTime.toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (RuntimeException e) {
+            Logger.info("Unusable device date/time: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static int parseOrZero(String value) {
+        return value != null ? Integer.parseInt(value.trim()) : 0;
+    }
+
+    /**
+     * Forgets every device's responses in the current run; other runs keep theirs.
+     */
+    public static void reset() {
+        RUNS.remove(ExecutionBudget.current());
+    }
+
+    /**
+     * Sends {@code body} with a WS-Security digest header and no HTTP auth.
+     */
+    public String send(String serviceUrl, String body, String username, String password) throws Exception {
+        return send(serviceUrl, body, username, password, "digest", false);
+    }
+
+    /**
+     * @param authType WS-Security type ("digest" or "plaintext"); ignored without credentials
+     * @param httpAuth also send the credentials as HTTP Basic auth
+     */
+    public String send(String serviceUrl, String body, String username, String password, String authType,
+            boolean httpAuth) throws Exception {
+        try {
+            return sendAsync(serviceUrl, body, username, password, authType, httpAuth).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    /**
+     * Non-blocking {@link #send}; the future fails with the request's exception.
+     */
+    public CompletableFuture<String> sendAsync(String serviceUrl, String body, String username, String password,
+            String authType, boolean httpAuth) {
+        String key = serviceUrl + '\n' + body + '\n' + authType + '\n' + httpAuth + '\n' + username + '\n'
+                + password;
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> existing = responses.putIfAbsent(key, mine);
+        if (existing != null) {
+            Logger.info("ONVIF response for " + host + " served from session");
+            return existing;
+        }
+        try {
+            Long difference = timeDifferenceMs;
+            byte[] envelope = SoapEnvelope.build(body, username, password, authType,
+                    difference != null ? difference : 0);
+            SoapHelper.sendSoapRequestAsync(serviceUrl, "", envelope, httpAuth ? username : null,
+                    httpAuth ? password : null).whenComplete((response, error) -> {
+                        if (error != null) {
+                            mine.completeExceptionally(error instanceof CompletionException
+                                    && error.getCause() != null ? error.getCause() : error);
+                        } else {
+                            mine.complete(response);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+        }
+        return mine;
+    }
+
+    /**
+     * Service addresses found by {@link OnvifServices#resolve}; null until then.
+     */
+    OnvifServices.Endpoints getEndpoints() {
+        return endpoints;
+    }
+
+    void setEndpoints(OnvifServices.Endpoints endpoints) {
+        this.endpoints = endpoints;
+    }
+
+    public String getProfiles(String mediaUrl, String username, String password) throws Exception {
+        return getProfiles(mediaUrl, false, username, password);
+    }
+
+    /**
+     * @param media2 {@code mediaUrl} is a Media2 service; asks for every configuration of every profile
+     */
+    public String getProfiles(String mediaUrl, boolean media2, String username, String password) throws Exception {
+        return getProfiles(mediaUrl, media2, username, password, "digest");
+    }
+
+    /**
+     * @param authType WS-Security type ("digest" or "plaintext"); ignored without credentials
+     */
+    public String getProfiles(String mediaUrl, boolean media2, String username, String password, String authType)
+            throws Exception {
+        return send(mediaUrl, media2
+                ? "<GetProfiles xmlns=\"" + OnvifServices.MEDIA2_NS + "\"><Type>All</Type></GetProfiles>"
+                : "<GetProfiles xmlns=\"" + OnvifServices.MEDIA_NS + "\"/>", username, password, authType, false);
+    }
+
+    public String getStreamUri(String mediaUrl, String profileToken, String username, String password)
+            throws Exception {
+        return send(mediaUrl, streamUriBody(profileToken, false), username, password);
+    }
+
+    /**
+     * Non-blocking {@link #getStreamUri}; used to expand every profile of an NVR at once.
+     */
+    public CompletableFuture<String> getStreamUriAsync(String mediaUrl, String profileToken, String username,
+            String password) {
+        return getStreamUriAsync(mediaUrl, false, profileToken, username, password);
+    }
+
+    public CompletableFuture<String> getStreamUriAsync(String mediaUrl, boolean media2, String profileToken,
+            String username, String password) {
+        return sendAsync(mediaUrl, streamUriBody(profileToken, media2), username, password, "digest", false);
+    }
+
+    /**
+     * Media2 video encoder configurations of one profile; for devices whose
+     * GetProfiles lists a profile without its VideoEncoder.
+     */
+    public CompletableFuture<String> getVideoEncoderConfigurationsAsync(String media2Url, String profileToken,
+            String username, String password) {
+        return sendAsync(media2Url, "<GetVideoEncoderConfigurations xmlns=\"" + OnvifServices.MEDIA2_NS + "\">"
+                + "<ProfileToken>" + profileToken + "</ProfileToken></GetVideoEncoderConfigurations>",
+                username, password, "digest", false);
+    }
+
+    private static String streamUriBody(String profileToken, boolean media2) {
+        if (media2) {
+            return "<GetStreamUri xmlns=\"" + OnvifServices.MEDIA2_NS + "\">" +
+                    "<Protocol>RTSP</Protocol><ProfileToken>" + profileToken + "</ProfileToken></GetStreamUri>";
+        }
+        return "<GetStreamUri xmlns=\"" + OnvifServices.MEDIA_NS + "\">" +
+                "<ProfileToken>" + profileToken + "</ProfileToken>" +
+                "<StreamSetup><Stream xmlns=\"http://www.onvif.org/ver10/schema\">RTP-Unicast</Stream>" +
+                "<Transport xmlns=\"http://www.onvif.org/ver10/schema\"><Protocol>RTSP</Protocol></Transport>" +
+                "</StreamSetup></GetStreamUri>";
+    }
+
+    /**
+     * Sends a parameterless device-service operation, e.g. "GetHostname".
+     */
+    public String device(String deviceUrl, String operation, String username, String password) throws Exception {
+        return send(deviceUrl, "<" + operation + " xmlns=\"" + DEVICE_NS + "\"/>", username, password);
+    }
+
+    /**
+     * Non-blocking {@link #device}; the future fails with the request's exception.
+     */
+    public CompletableFuture<String> deviceAsync(String deviceUrl, String operation, String username,
+            String password) {
+        return sendAsync(deviceUrl, "<" + operation + " xmlns=\"" + DEVICE_NS + "\"/>", username, password,
+                "digest", false);
+    }
+
+    public int size() {
+        return responses.size();
+    }
+}
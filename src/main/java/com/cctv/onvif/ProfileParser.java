@@ -0,0 +1,221 @@
+package com.cctv.onvif;
+
+import com.cctv.model.StreamInfo;
+import com.cctv.util.Logger;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads stream metadata from ONVIF profiles. Each profile's video encoder
+ * configuration gives codec, resolution, frame rate limit and bitrate limit, so a
+ * stream can be described from the GetProfiles response already downloaded
+ * instead of opening it. Understands Media (VideoEncoderConfiguration) and Media2
+ * (Configurations/VideoEncoder) profiles, and Media2 GetVideoEncoderConfigurations.
+ */
+public class ProfileParser {
+
+    public static class Profile {
+        public String token;
+        public String name;
+        /** null if the profile has no video encoder configuration */
+        public VideoEncoder encoder;
+    }
+
+    public static class VideoEncoder {
+        public String token;
+        /** FFmpeg-style codec name as in SdpParser: h264, hevc, mjpeg, mpeg4; null if unknown */
+        public String codec;
+        public int width;
+        public int height;
+        public double fps;
+        /** BitrateLimit in kbps, 0 if not given */
+        public int bitrateKbps;
+
+        /**
+         * Fills the stream's codec, resolution, fps and bitrate with what is known.
+         */
+        public void applyTo(StreamInfo stream) {
+            if (codec != null) {
+                stream.setCodec(codec);
+            }
+            if (width > 0 && height > 0) {
+                stream.setResolution(width + "x" + height);
+            }
+            if (fps > 0) {
+                stream.setFps(fps);
+            }
+            if (bitrateKbps > 0) {
+                stream.setBitrate(bitrateKbps);
+            }
+        }
+    }
+
+    /**
+     * @return the profiles of a Media or Media2 GetProfiles response in document
+     *         order; empty if there are none or the XML is malformed
+     */
+    public static List<Profile> parseProfiles(String xml) {
+        List<Profile> profiles = new ArrayList<>();
+        XMLStreamReader reader = open(xml);
+        if (reader == null) {
+            return profiles;
+        }
+        try {
+            Profile profile = null;
+            int depth = 0;
+            int profileDepth = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (profile == null && "Profiles".equals(name)) {
+                        profile = new Profile();
+                        profile.token = reader.getAttributeValue(null, "token");
+                        profileDepth = ++depth;
+                    } else if (profile != null && depth == profileDepth && "Name".equals(name)) {
+                        profile.name = reader.getElementText().trim();
+                    } else if (profile != null && profile.encoder == null
+                            && ("VideoEncoderConfiguration".equals(name) || "VideoEncoder".equals(name))) {
+                        profile.encoder = readEncoder(reader);
+                    } else {
+                        depth++;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (profile != null && depth == profileDepth) {
+                        profiles.add(profile);
+                        profile = null;
+                    }
+                    depth--;
+                }
+            }
+        } catch (XMLStreamException e) {
+            Logger.info("GetProfiles parse failed: " + e.getMessage());
+        } finally {
+            close(reader);
+        }
+        return profiles;
+    }
+
+    /**
+     * @return the encoders of a Media2 GetVideoEncoderConfigurations response by
+     *         configuration token
+     */
+    public static Map<String, VideoEncoder> parseEncoderConfigurations(String xml) {
+        Map<String, VideoEncoder> encoders = new LinkedHashMap<>();
+        XMLStreamReader reader = open(xml);
+        if (reader == null) {
+            return encoders;
+        }
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "Configurations".equals(reader.getLocalName())) {
+                    VideoEncoder encoder = readEncoder(reader);
+                    if (encoder.token != null) {
+                        encoders.put(encoder.token, encoder);
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            Logger.info("GetVideoEncoderConfigurations parse failed: " + e.getMessage());
+        } finally {
+            close(reader);
+        }
+        return encoders;
+    }
+
+    /**
+     * Reads an encoder configuration element; the reader is on its start tag and
+     * is left on its end tag.
+     */
+    private static VideoEncoder readEncoder(XMLStreamReader reader) throws XMLStreamException {
+        VideoEncoder encoder = new VideoEncoder();
+        encoder.token = reader.getAttributeValue(null, "token");
+        int encodingInterval = 1;
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                switch (reader.getLocalName()) {
+                    case "Encoding":
+                        encoder.codec = codecName(reader.getElementText());
+                        break;
+                    case "Width":
+                        encoder.width = (int) number(reader.getElementText());
+                        break;
+                    case "Height":
+                        encoder.height = (int) number(reader.getElementText());
+                        break;
+                    case "FrameRateLimit":
+                        encoder.fps = number(reader.getElementText());
+                        break;
+                    case "EncodingInterval":
+                        encodingInterval = Math.max(1, (int) number(reader.getElementText()));
+                        break;
+                    case "BitrateLimit":
+                        encoder.bitrateKbps = (int) number(reader.getElementText());
+                        break;
+                    default:
+                        depth++;
+                }
+            }
+        }
+        // Media: every EncodingInterval-th frame of FrameRateLimit is encoded
+        encoder.fps /= encodingInterval;
+        return encoder;
+    }
+
+    static String codecName(String encoding) {
+        String value = encoding.trim().toUpperCase(Locale.ROOT);
+        switch (value) {
+            case "H264":
+                return "h264";
+            case "H265":
+            case "HEVC":
+                return "hevc";
+            case "JPEG":
+            case "MJPEG":
+                return "mjpeg";
+            case "MPEG4":
+            case "MPV4-ES":
+                return "mpeg4";
+            default:
+                return value.isEmpty() ? null : value.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static double number(String text) {
+        try {
+            return Double.parseDouble(text.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static XMLStreamReader open(String xml) {
+        if (xml == null || xml.isEmpty()) {
+            return null;
+        }
+        try {
+            return SoapHelper.xmlInputFactory.createXMLStreamReader(new StringReader(xml));
+        } catch (XMLStreamException e) {
+            return null;
+        }
+    }
+
+    private static void close(XMLStreamReader reader) {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            // Ignore
+        }
+    }
+}
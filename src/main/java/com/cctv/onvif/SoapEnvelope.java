@@ -0,0 +1,247 @@
+package com.cctv.onvif;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds SOAP 1.2 envelopes as UTF-8 bytes. The fixed parts of the envelope and
+ * the WS-Security header are encoded once; a request copies them into a
+ * per-thread buffer, escapes the credentials straight into it, and allocates only
+ * the result array. Encoded operation bodies are cached, since a run sends the
+ * same few operations to every device. SHA-1 digests and nonce bytes are
+ * per-thread, and nonces are drawn from the shared SecureRandom in batches.
+ */
+final class SoapEnvelope {
+    static final int NONCE_BYTES = 16;
+    private static final int NONCE_BATCH = 64;
+    private static final int MAX_CACHED_BODIES = 512;
+
+    private static final byte[] OPEN = ascii("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" "
+            + "xmlns:wsse=\"http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-secext-1.0.xsd\" "
+            + "xmlns:wsu=\"http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd\">");
+    private static final byte[] USERNAME = ascii("<s:Header>"
+            + "<wsse:Security s:mustUnderstand=\"1\">"
+            + "<wsse:UsernameToken>"
+            + "<wsse:Username>");
+    private static final byte[] DIGEST_PASSWORD = ascii("</wsse:Username>"
+            + "<wsse:Password Type=\"http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-username-token-profile-1.0#PasswordDigest\">");
+    private static final byte[] TEXT_PASSWORD = ascii("</wsse:Username>"
+            + "<wsse:Password Type=\"http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-username-token-profile-1.0#PasswordText\">");
+    private static final byte[] NONCE = ascii("</wsse:Password>"
+            + "<wsse:Nonce EncodingType=\"http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-soap-message-security-1.0#Base64Binary\">");
+    private static final byte[] NONCE_CREATED = ascii("</wsse:Nonce><wsu:Created>");
+    private static final byte[] PASSWORD_CREATED = ascii("</wsse:Password><wsu:Created>");
+    private static final byte[] HEADER_CLOSE = ascii("</wsu:Created>"
+            + "</wsse:UsernameToken>"
+            + "</wsse:Security>"
+            + "</s:Header>");
+    private static final byte[] BODY = ascii("<s:Body>");
+    private static final byte[] CLOSE = ascii("</s:Body></s:Envelope>");
+
+    private static final DateTimeFormatter CREATED = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+            .withZone(ZoneOffset.UTC);
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ConcurrentHashMap<String, byte[]> BODIES = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Builder> BUILDERS = ThreadLocal.withInitial(Builder::new);
+
+    private SoapEnvelope() {
+    }
+
+    static byte[] build(String body, String username, String password, String authType) {
+        return build(body, username, password, authType, 0);
+    }
+
+    /**
+     * @param body operation element, copied into the SOAP body as XML; callers escape the values they put in it
+     * @param authType "plaintext" for PasswordText; anything else sends PasswordDigest
+     * @param timeDifferenceMs local time minus device time; wsu:Created is stamped in device time
+     */
+    static byte[] build(String body, String username, String password, String authType, long timeDifferenceMs) {
+        return BUILDERS.get().build(body, username, password, authType,
+                Instant.ofEpochMilli(System.currentTimeMillis() - timeDifferenceMs));
+    }
+
+    private static byte[] encodedBody(String body) {
+        byte[] encoded = BODIES.get(body);
+        if (encoded == null) {
+            encoded = body.getBytes(StandardCharsets.UTF_8);
+            if (BODIES.size() < MAX_CACHED_BODIES) {
+                BODIES.putIfAbsent(body, encoded);
+            }
+        }
+        return encoded;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Per-thread buffer, digest and nonce batch.
+     */
+    private static final class Builder {
+        private final MessageDigest sha1;
+        private final StringBuilder created = new StringBuilder(24);
+        private final byte[] nonces = new byte[NONCE_BYTES * NONCE_BATCH];
+        private int nextNonce = nonces.length;
+        private final byte[] nonce = new byte[NONCE_BYTES];
+        private final byte[] digest = new byte[20];
+        private final byte[] base64 = new byte[32];
+        private byte[] buffer = new byte[2048];
+        private int length;
+
+        Builder() {
+            try {
+                sha1 = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-1 not available", e);
+            }
+        }
+
+        byte[] build(String body, String username, String password, String authType, Instant now) {
+            byte[] encodedBody = encodedBody(body);
+            length = 0;
+            raw(OPEN, 0, OPEN.length);
+            if (username != null && password != null) {
+                raw(USERNAME, 0, USERNAME.length);
+                escaped(username);
+                created.setLength(0);
+                CREATED.formatTo(now, created);
+                if ("plaintext".equals(authType)) {
+                    raw(TEXT_PASSWORD, 0, TEXT_PASSWORD.length);
+                    escaped(password);
+                    raw(PASSWORD_CREATED, 0, PASSWORD_CREATED.length);
+                } else {
+                    nextNonce();
+                    raw(DIGEST_PASSWORD, 0, DIGEST_PASSWORD.length);
+                    passwordDigest(password);
+                    raw(NONCE, 0, NONCE.length);
+                    raw(base64, 0, Base64.getEncoder().encode(nonce, base64));
+                    raw(NONCE_CREATED, 0, NONCE_CREATED.length);
+                }
+                ascii(created);
+                raw(HEADER_CLOSE, 0, HEADER_CLOSE.length);
+            }
+            raw(BODY, 0, BODY.length);
+            raw(encodedBody, 0, encodedBody.length);
+            raw(CLOSE, 0, CLOSE.length);
+            return Arrays.copyOf(buffer, length);
+        }
+
+        /**
+         * Base64(SHA-1(nonce + created + password)), written at the end of the buffer.
+         */
+        private void passwordDigest(String password) {
+            sha1.update(nonce);
+            int mark = length;
+            ascii(created);
+            utf8(password);
+            sha1.update(buffer, mark, length - mark);
+            length = mark;
+            try {
+                sha1.digest(digest, 0, digest.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+            raw(base64, 0, Base64.getEncoder().encode(digest, base64));
+        }
+
+        /**
+         * Takes the next nonce from the batch, refilling it when spent.
+         */
+        private void nextNonce() {
+            if (nextNonce == nonces.length) {
+                RANDOM.nextBytes(nonces);
+                nextNonce = 0;
+            }
+            System.arraycopy(nonces, nextNonce, nonce, 0, NONCE_BYTES);
+            nextNonce += NONCE_BYTES;
+        }
+
+        private void escaped(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '&': ascii("&amp;"); break;
+                    case '<': ascii("&lt;"); break;
+                    case '>': ascii("&gt;"); break;
+                    case '"': ascii("&quot;"); break;
+                    case '\'': ascii("&apos;"); break;
+                    default: i = utf8(text, i);
+                }
+            }
+        }
+
+        private void utf8(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                i = utf8(text, i);
+            }
+        }
+
+        /**
+         * Encodes the character (or surrogate pair) at {@code i}.
+         *
+         * @return index of its last char
+         */
+        private int utf8(String text, int i) {
+            int c = text.charAt(i);
+            ensure(4);
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+                return i;
+            }
+            if (c < 0x800) {
+                buffer[length++] = (byte) (0xC0 | c >> 6);
+                buffer[length++] = (byte) (0x80 | c & 0x3F);
+                return i;
+            }
+            if (Character.isHighSurrogate((char) c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int cp = Character.toCodePoint((char) c, text.charAt(++i));
+                buffer[length++] = (byte) (0xF0 | cp >> 18);
+                buffer[length++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                buffer[length++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                buffer[length++] = (byte) (0x80 | cp & 0x3F);
+                return i;
+            }
+            if (Character.isSurrogate((char) c)) {
+                c = '?'; // Unpaired surrogate, as String.getBytes would encode it
+                buffer[length++] = (byte) c;
+                return i;
+            }
+            buffer[length++] = (byte) (0xE0 | c >> 12);
+            buffer[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+            buffer[length++] = (byte) (0x80 | c & 0x3F);
+            return i;
+        }
+
+        private void ascii(CharSequence text) {
+            ensure(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                buffer[length++] = (byte) text.charAt(i);
+            }
+        }
+
+        private void raw(byte[] bytes, int offset, int count) {
+            ensure(count);
+            System.arraycopy(bytes, offset, buffer, length, count);
+            length += count;
+        }
+
+        private void ensure(int count) {
+            if (length + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+            }
+        }
+    }
+}
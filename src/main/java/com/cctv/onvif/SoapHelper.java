@@ -1,81 +1,100 @@
 package com.cctv.onvif;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
+import com.cctv.network.AsyncHttpEngine;
+import com.cctv.network.DeviceHttpClient;
+import com.cctv.util.ExecutionBudget;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
 import java.io.StringReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.text.SimpleDateFormat;
-import java.util.Base64;
-import java.util.Date;
-import java.util.TimeZone;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class SoapHelper {
+    private static final int TIMEOUT_MS = 5000;
     
-    private static final DocumentBuilderFactory documentBuilderFactory;
+    static final XMLInputFactory xmlInputFactory;
     
     static {
-        documentBuilderFactory = DocumentBuilderFactory.newInstance();
-        documentBuilderFactory.setNamespaceAware(true);
-        try {
-            // Security: Disable external entities to prevent XXE attacks
-            documentBuilderFactory.setFeature("http://xml.org/sax/features/external-general-entities", false);
-            documentBuilderFactory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
-            documentBuilderFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-        } catch (Exception e) {
-            // If features not supported, continue with defaults
-        }
+        xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        // Security: no DTDs or external entities (XXE)
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
     }
     
     public static String sendSoapRequest(String serviceUrl, String soapAction, String soapBody, String username, String password) throws Exception {
+        try {
+            return sendSoapRequestAsync(serviceUrl, soapAction, soapBody, username, password).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Non-blocking {@link #sendSoapRequest}: the request goes out on the shared
+     * {@link AsyncHttpEngine} and the future fails with the same exceptions.
+     * Cancelling the future drops the request.
+     */
+    public static CompletableFuture<String> sendSoapRequestAsync(String serviceUrl, String soapAction, String soapBody,
+            String username, String password) {
+        return sendSoapRequestAsync(serviceUrl, soapAction, soapBody.getBytes(StandardCharsets.UTF_8), username,
+                password);
+    }
+
+    /**
+     * @param envelope the UTF-8 encoded envelope, as sent
+     */
+    public static CompletableFuture<String> sendSoapRequestAsync(String serviceUrl, String soapAction, byte[] envelope,
+            String username, String password) {
+        CompletableFuture<DeviceHttpClient.Response> request = postAsync(serviceUrl, soapAction, envelope, username,
+                password);
+        return AsyncHttpEngine.propagateCancel(request.thenApply(response -> {
+                    if (response.statusCode == 401) {
+                        throw new CompletionException(new Exception("Authentication failed"));
+                    }
+                    if (response.statusCode >= 400) {
+                        // Same wording as HttpURLConnection; callers match on "response code: NNN"
+                        throw new CompletionException(new IOException("Server returned HTTP response code: "
+                                + response.statusCode + " for URL: " + serviceUrl));
+                    }
+                    return response.bodyText();
+                }), request);
+    }
+
+    /**
+     * Posts an envelope and hands back the raw response, whatever its status.
+     */
+    static CompletableFuture<DeviceHttpClient.Response> postAsync(String serviceUrl, String soapAction,
+            byte[] envelope, String username, String password) {
         if (serviceUrl == null || serviceUrl.trim().isEmpty()) {
             throw new IllegalArgumentException("Service URL cannot be null or empty");
         }
-        
-        URL url = new URL(serviceUrl);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/soap+xml; charset=utf-8");
-        conn.setRequestProperty("SOAPAction", soapAction);
-        conn.setConnectTimeout(5000);
-        conn.setReadTimeout(5000);
-        conn.setDoOutput(true);
-        
-        if (username != null && password != null) {
-            String auth = username + ":" + password;
-            String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
-            conn.setRequestProperty("Authorization", "Basic " + encodedAuth);
+        ExecutionBudget budget = ExecutionBudget.current();
+        if (budget.isExpired()) {
+            CompletableFuture<DeviceHttpClient.Response> expired = new CompletableFuture<>();
+            expired.completeExceptionally(new Exception("Discovery timeout reached"));
+            return expired;
         }
-        
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(soapBody.getBytes(StandardCharsets.UTF_8));
-        }
-        
-        int responseCode = conn.getResponseCode();
-        if (responseCode == 401) {
-            throw new Exception("Authentication failed");
-        }
-        
-        StringBuilder response = new StringBuilder();
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                response.append(line);
-            }
-        }
-        return response.toString();
+
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "application/soap+xml; charset=utf-8");
+        headers.put("SOAPAction", soapAction);
+        return AsyncHttpEngine.shared().request("POST", serviceUrl, headers, envelope, username, password,
+                budget.clampTimeout(TIMEOUT_MS));
     }
 
     public static String createSoapEnvelope(String body, String username, String password) {
@@ -86,190 +105,147 @@ public class SoapHelper {
         if (body == null) {
             throw new IllegalArgumentException("SOAP body cannot be null");
         }
-        
-        String securityHeader = "";
-        if (username != null && password != null) {
-            if ("plaintext".equals(authType)) {
-                securityHeader = createWsSecurityHeaderPlainText(username, password);
-            } else {
-                securityHeader = createWsSecurityHeader(username, password);
-            }
-        }
-        
-        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
-            "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" " +
-            "xmlns:wsse=\"http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-secext-1.0.xsd\" " +
-            "xmlns:wsu=\"http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd\">" +
-            securityHeader +
-            "<s:Body>" + escapeXml(body) + "</s:Body>" +
-            "</s:Envelope>";
-    }
-    
-    private static String createWsSecurityHeader(String username, String password) {
-        try {
-            String nonce = UUID.randomUUID().toString();
-            byte[] nonceBytes = nonce.getBytes(StandardCharsets.UTF_8);
-            String nonceBase64 = Base64.getEncoder().encodeToString(nonceBytes);
-            
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-            sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-            String created = sdf.format(new Date());
-            
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            md.update(nonceBytes);
-            md.update(created.getBytes(StandardCharsets.UTF_8));
-            md.update(password.getBytes(StandardCharsets.UTF_8));
-            String passwordDigest = Base64.getEncoder().encodeToString(md.digest());
-            
-            return "<s:Header>" +
-                "<wsse:Security s:mustUnderstand=\"1\">" +
-                "<wsse:UsernameToken>" +
-                "<wsse:Username>" + escapeXml(username) + "</wsse:Username>" +
-                "<wsse:Password Type=\"http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-username-token-profile-1.0#PasswordDigest\">" + passwordDigest + "</wsse:Password>" +
-                "<wsse:Nonce EncodingType=\"http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-soap-message-security-1.0#Base64Binary\">" + nonceBase64 + "</wsse:Nonce>" +
-                "<wsu:Created>" + created + "</wsu:Created>" +
-                "</wsse:UsernameToken>" +
-                "</wsse:Security>" +
-                "</s:Header>";
-        } catch (Exception e) {
-            return "";
-        }
-    }
-    
-    private static String createWsSecurityHeaderPlainText(String username, String password) {
-        try {
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-            sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-            String created = sdf.format(new Date());
-            
-            return "<s:Header>" +
-                "<wsse:Security s:mustUnderstand=\"1\">" +
-                "<wsse:UsernameToken>" +
-                "<wsse:Username>" + escapeXml(username) + "</wsse:Username>" +
-                "<wsse:Password Type=\"http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-username-token-profile-1.0#PasswordText\">" + escapeXml(password) + "</wsse:Password>" +
-                "<wsu:Created>" + created + "</wsu:Created>" +
-                "</wsse:UsernameToken>" +
-                "</wsse:Security>" +
-                "</s:Header>";
-        } catch (Exception e) {
-            return "";
-        }
+        return new String(SoapEnvelope.build(body, username, password, authType), StandardCharsets.UTF_8);
     }
     
     /**
-     * Extracts a value from XML using proper DOM parsing instead of string manipulation.
-     * Handles various namespace prefixes and formats.
+     * Extracts the text of the first element with the given name, ignoring
+     * namespace prefixes. See {@link #extractValues(String, String...)}.
      * 
      * @param xml The XML string to parse
      * @param tagName The tag name to search for (with or without namespace prefix)
      * @return The text content of the tag, or null if not found
      */
     public static String extractValue(String xml, String tagName) {
-        if (xml == null || xml.trim().isEmpty() || tagName == null) {
+        if (tagName == null) {
             return null;
         }
-        
-        try {
-            DocumentBuilder builder = documentBuilderFactory.newDocumentBuilder();
-            Document doc = builder.parse(new InputSource(new StringReader(xml)));
-            
-            // Try with namespace prefix first
-            NodeList nodes = doc.getElementsByTagName(tagName);
-            if (nodes.getLength() > 0) {
-                return getTextContent(nodes.item(0));
-            }
-            
-            // Try without namespace prefix (local name)
-            String localName = tagName.contains(":") ? tagName.substring(tagName.indexOf(":") + 1) : tagName;
-            nodes = doc.getElementsByTagNameNS("*", localName);
-            if (nodes.getLength() > 0) {
-                return getTextContent(nodes.item(0));
-            }
-            
-            // Fallback: search all elements
-            return searchElementByLocalName(doc.getDocumentElement(), localName);
-            
-        } catch (Exception e) {
-            // If DOM parsing fails, fall back to simple string search for backward compatibility
-            return extractValueFallback(xml, tagName);
-        }
+        return extractValues(xml, tagName).get(tagName);
     }
     
-    private static String getTextContent(Node node) {
-        if (node == null) {
-            return null;
+    /**
+     * Extracts several values from one response in a single streaming pass.
+     * Names match on local name, so "tds:Model" and "Model" both find
+     * {@code <tt:Model>}; each gets the trimmed text of its first occurrence,
+     * including nested text. The pass stops once every name is found. Names still
+     * missing when the XML turns out to be malformed go through a plain string search.
+     * 
+     * @return a map from each requested name (as given) to its value; missing names map to null
+     */
+    public static Map<String, String> extractValues(String xml, String... tagNames) {
+        Map<String, String> values = new HashMap<>();
+        if (xml == null || xml.trim().isEmpty()) {
+            return values;
         }
-        String text = node.getTextContent();
-        return text != null ? text.trim() : null;
-    }
-    
-    private static String searchElementByLocalName(Element element, String localName) {
-        if (element.getLocalName() != null && element.getLocalName().equals(localName)) {
-            return getTextContent(element);
+        
+        // Local name -> requested names still waiting for a value
+        Map<String, List<String>> wanted = new HashMap<>();
+        for (String tagName : tagNames) {
+            if (tagName != null) {
+                String localName = tagName.contains(":") ? tagName.substring(tagName.indexOf(':') + 1) : tagName;
+                wanted.computeIfAbsent(localName, k -> new ArrayList<>()).add(tagName);
+            }
         }
         
-        NodeList children = element.getChildNodes();
-        for (int i = 0; i < children.getLength(); i++) {
-            Node child = children.item(i);
-            if (child instanceof Element) {
-                String result = searchElementByLocalName((Element) child, localName);
-                if (result != null) {
-                    return result;
+        XMLStreamReader reader = null;
+        try {
+            reader = xmlInputFactory.createXMLStreamReader(new StringReader(xml));
+            // Elements being captured; text goes to every open capture
+            List<String> openNames = new ArrayList<>();
+            List<StringBuilder> openText = new ArrayList<>();
+            List<Integer> openDepth = new ArrayList<>();
+            int depth = 0;
+            while (reader.hasNext() && !(wanted.isEmpty() && openNames.isEmpty())) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        String localName = reader.getLocalName();
+                        // A nested element of the same name belongs to the outer, first occurrence
+                        if (wanted.containsKey(localName) && !openNames.contains(localName)) {
+                            openNames.add(localName);
+                            openText.add(new StringBuilder());
+                            openDepth.add(depth);
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        for (StringBuilder text : openText) {
+                            text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        int last = openDepth.size() - 1;
+                        if (last >= 0 && openDepth.get(last) == depth) {
+                            String value = openText.get(last).toString().trim();
+                            for (String tagName : wanted.remove(openNames.get(last))) {
+                                values.put(tagName, value);
+                            }
+                            openNames.remove(last);
+                            openText.remove(last);
+                            openDepth.remove(last);
+                        }
+                        depth--;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (XMLStreamException e) {
+            // Malformed XML: fall back to simple string search for what is still missing
+            for (List<String> names : wanted.values()) {
+                for (String tagName : names) {
+                    values.put(tagName, extractValueFallback(xml, tagName));
+                }
+            }
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // Nothing to release for a string source
                 }
             }
         }
-        return null;
+        return values;
     }
     
     /**
      * Fallback method using string manipulation for cases where DOM parsing fails.
-     * Kept for backward compatibility with malformed XML.
+     * Kept for backward compatibility with malformed XML. Matches on local name
+     * like the streaming pass, so "Name" finds {@code <tt:Name>} too.
      */
     private static String extractValueFallback(String xml, String tagName) {
-        String[] variations = {tagName, tagName.replace(":", "")};
-        
-        for (String tag : variations) {
-            String startTag = "<" + tag + ">";
-            String endTag = "</" + tag + ">";
-            int start = xml.indexOf(startTag);
-            
+        String localName = tagName.contains(":") ? tagName.substring(tagName.indexOf(':') + 1) : tagName;
+        int from = 0;
+        int open;
+        while ((open = xml.indexOf('<', from)) != -1) {
+            from = open + 1;
+            int nameEnd = open + 1;
+            while (nameEnd < xml.length() && " \t\r\n/>".indexOf(xml.charAt(nameEnd)) == -1) {
+                nameEnd++;
+            }
+            String qName = xml.substring(open + 1, nameEnd);
+            String local = qName.substring(qName.indexOf(':') + 1);
+            if (qName.isEmpty() || "/?!".indexOf(qName.charAt(0)) != -1 || !local.equals(localName)) {
+                continue;
+            }
+            int start = xml.indexOf('>', nameEnd);
             if (start == -1) {
-                startTag = "<" + tag + " ";
-                start = xml.indexOf(startTag);
-                if (start != -1) {
-                    start = xml.indexOf(">", start) + 1;
-                }
-            } else {
-                start += startTag.length();
+                return null;
             }
-            
-            if (start != -1) {
-                int end = xml.indexOf(endTag, start);
-                if (end == -1) {
-                    end = xml.indexOf("</", start);
-                }
-                if (end != -1) {
-                    return xml.substring(start, end).trim();
-                }
+            if (xml.charAt(start - 1) == '/') {
+                return "";
             }
+            start++;
+            int end = xml.indexOf("</" + qName + ">", start);
+            if (end == -1) {
+                end = xml.indexOf("</", start);
+            }
+            if (end != -1) {
+                return xml.substring(start, end).trim();
+            }
+            return null;
         }
         return null;
     }
-    
-    /**
-     * Escapes special XML characters to prevent injection attacks.
-     * 
-     * @param text The text to escape
-     * @return The escaped text safe for XML
-     */
-    private static String escapeXml(String text) {
-        if (text == null) {
-            return "";
-        }
-        return text.replace("&", "&amp;")
-                   .replace("<", "&lt;")
-                   .replace(">", "&gt;")
-                   .replace("\"", "&quot;")
-                   .replace("'", "&apos;");
-    }
 }
@@ -0,0 +1,198 @@
+package com.cctv.probe;
+
+import java.util.Base64;
+
+/**
+ * Extracts the first video track of an SDP description (RFC 4566): codec from
+ * rtpmap, H.264/H.265 parameter sets from fmtp, frame rate and b=AS bandwidth.
+ */
+public class SdpParser {
+
+    public static class VideoTrack {
+        /** FFmpeg-style codec name: h264, hevc, mjpeg, mpeg4; null if unknown */
+        public String codec;
+        public int payloadType = -1;
+        public int clockRate;
+        public String control;
+        public byte[] sps;
+        public byte[] pps;
+        public byte[] vps;
+        public double framerate;
+        /** b=AS bandwidth in kbps, 0 if not given */
+        public int bitrateKbps;
+        public int width;
+        public int height;
+
+        public boolean hasParameterSets() {
+            return sps != null && sps.length > 0;
+        }
+    }
+
+    /**
+     * @return the first m=video section, or null if there is none
+     */
+    public static VideoTrack parse(String sdp) {
+        if (sdp == null || sdp.isEmpty()) {
+            return null;
+        }
+
+        VideoTrack track = null;
+        int sessionBitrate = 0;
+        boolean inVideo = false;
+
+        for (String rawLine : sdp.split("\r?\n")) {
+            String line = rawLine.trim();
+            if (line.length() < 2 || line.charAt(1) != '=') {
+                continue;
+            }
+
+            if (line.startsWith("m=")) {
+                if (track != null) {
+                    break; // Only the first video track matters
+                }
+                inVideo = line.startsWith("m=video");
+                if (inVideo) {
+                    track = new VideoTrack();
+                    String[] parts = line.substring(2).split("\\s+");
+                    if (parts.length > 3) {
+                        track.payloadType = parseInt(parts[3], -1);
+                        if (track.payloadType == 26) {
+                            track.codec = "mjpeg"; // Static payload type, usually without rtpmap
+                            track.clockRate = 90000;
+                        }
+                    }
+                }
+                continue;
+            }
+
+            if (line.startsWith("b=AS:")) {
+                int kbps = parseInt(line.substring(5).trim(), 0);
+                if (inVideo) {
+                    track.bitrateKbps = kbps;
+                } else if (track == null) {
+                    sessionBitrate = kbps;
+                }
+                continue;
+            }
+
+            if (!inVideo || !line.startsWith("a=")) {
+                continue;
+            }
+
+            String attribute = line.substring(2);
+            if (attribute.startsWith("rtpmap:")) {
+                parseRtpmap(track, attribute.substring(7));
+            } else if (attribute.startsWith("fmtp:")) {
+                parseFmtp(track, attribute.substring(5));
+            } else if (attribute.startsWith("framerate:")) {
+                track.framerate = parseDouble(attribute.substring(10).trim());
+            } else if (attribute.startsWith("x-framerate:")) {
+                track.framerate = parseDouble(attribute.substring(12).trim());
+            } else if (attribute.startsWith("control:")) {
+                track.control = attribute.substring(8).trim();
+            } else if (attribute.startsWith("x-dimensions:")) {
+                String[] dims = attribute.substring(13).trim().split(",");
+                if (dims.length == 2) {
+                    track.width = parseInt(dims[0].trim(), 0);
+                    track.height = parseInt(dims[1].trim(), 0);
+                }
+            }
+        }
+
+        if (track != null && track.bitrateKbps == 0) {
+            track.bitrateKbps = sessionBitrate;
+        }
+        return track;
+    }
+
+    private static void parseRtpmap(VideoTrack track, String value) {
+        // "96 H264/90000"
+        String[] parts = value.trim().split("\\s+", 2);
+        if (parts.length < 2 || parseInt(parts[0], -2) != track.payloadType) {
+            return;
+        }
+        String[] encoding = parts[1].split("/");
+        track.codec = codecName(encoding[0]);
+        if (encoding.length > 1) {
+            track.clockRate = parseInt(encoding[1], 0);
+        }
+    }
+
+    private static void parseFmtp(VideoTrack track, String value) {
+        // "96 packetization-mode=1;profile-level-id=4d001f;sprop-parameter-sets=Z00AH5Y1...,aO48gA=="
+        String[] parts = value.trim().split("\\s+", 2);
+        if (parts.length < 2 || parseInt(parts[0], -2) != track.payloadType) {
+            return;
+        }
+        for (String param : parts[1].split(";")) {
+            int eq = param.indexOf('=');
+            if (eq < 0) {
+                continue;
+            }
+            String key = param.substring(0, eq).trim().toLowerCase();
+            String val = param.substring(eq + 1).trim();
+            switch (key) {
+                case "sprop-parameter-sets":
+                    String[] sets = val.split(",");
+                    track.sps = decode(sets[0]);
+                    if (sets.length > 1) {
+                        track.pps = decode(sets[1]);
+                    }
+                    break;
+                case "sprop-vps":
+                    track.vps = decode(val);
+                    break;
+                case "sprop-sps":
+                    track.sps = decode(val);
+                    break;
+                case "sprop-pps":
+                    track.pps = decode(val);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static String codecName(String encoding) {
+        switch (encoding.trim().toUpperCase()) {
+            case "H264":
+                return "h264";
+            case "H265":
+            case "HEVC":
+                return "hevc";
+            case "JPEG":
+                return "mjpeg";
+            case "MP4V-ES":
+                return "mpeg4";
+            default:
+                return encoding.trim().toLowerCase();
+        }
+    }
+
+    private static byte[] decode(String base64) {
+        try {
+            // Some cameras send several parameter sets in one attribute; take the first
+            String first = base64.split(",")[0].trim();
+            return first.isEmpty() ? null : Base64.getDecoder().decode(first);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static int parseInt(String value, int fallback) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package com.cctv.probe;
+
+import java.util.Arrays;
+
+/**
+ * Decodes H.264 (ITU-T H.264 7.3.2.1) and H.265 (ITU-T H.265 7.3.2.2) sequence
+ * parameter sets far enough to get the coded frame size, profile/level and the
+ * VUI timing info. Input is one NAL unit including its header, as carried in
+ * SDP sprop parameters.
+ */
+public class SpsParser {
+
+    public static class Result {
+        public int width;
+        public int height;
+        public int profileIdc;
+        public String profile;
+        /** Level as a decimal, e.g. 4.1 */
+        public double level;
+        /** Frame rate from VUI timing info; 0 if the stream does not signal it */
+        public double fps;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the NAL unit is not a parseable H.264 SPS
+     */
+    public static Result parseH264(byte[] nal) {
+        if (nal == null || nal.length < 4 || (nal[0] & 0x1F) != 7) {
+            throw new IllegalArgumentException("Not an H.264 SPS NAL unit");
+        }
+        BitReader r = new BitReader(unescape(nal, 1));
+        Result result = new Result();
+
+        result.profileIdc = r.bits(8);
+        r.skip(8); // constraint_set flags + reserved
+        result.level = r.bits(8) / 10.0;
+        result.profile = h264ProfileName(result.profileIdc);
+        r.ue(); // seq_parameter_set_id
+
+        int chromaFormatIdc = 1;
+        if (isH264HighProfile(result.profileIdc)) {
+            chromaFormatIdc = r.ue();
+            if (chromaFormatIdc == 3) {
+                r.skip(1); // separate_colour_plane_flag
+            }
+            r.ue(); // bit_depth_luma_minus8
+            r.ue(); // bit_depth_chroma_minus8
+            r.skip(1); // qpprime_y_zero_transform_bypass_flag
+            if (r.flag()) { // seq_scaling_matrix_present_flag
+                int lists = chromaFormatIdc != 3 ? 8 : 12;
+                for (int i = 0; i < lists; i++) {
+                    if (r.flag()) {
+                        skipH264ScalingList(r, i < 6 ? 16 : 64);
+                    }
+                }
+            }
+        }
+
+        r.ue(); // log2_max_frame_num_minus4
+        int picOrderCntType = r.ue();
+        if (picOrderCntType == 0) {
+            r.ue(); // log2_max_pic_order_cnt_lsb_minus4
+        } else if (picOrderCntType == 1) {
+            r.skip(1); // delta_pic_order_always_zero_flag
+            r.se(); // offset_for_non_ref_pic
+            r.se(); // offset_for_top_to_bottom_field
+            int cycle = r.ue();
+            for (int i = 0; i < cycle; i++) {
+                r.se();
+            }
+        }
+        r.ue(); // max_num_ref_frames
+        r.skip(1); // gaps_in_frame_num_value_allowed_flag
+
+        int widthInMbs = r.ue() + 1;
+        int heightInMapUnits = r.ue() + 1;
+        boolean frameMbsOnly = r.flag();
+        if (!frameMbsOnly) {
+            r.skip(1); // mb_adaptive_frame_field_flag
+        }
+        r.skip(1); // direct_8x8_inference_flag
+
+        int cropLeft = 0, cropRight = 0, cropTop = 0, cropBottom = 0;
+        if (r.flag()) { // frame_cropping_flag
+            cropLeft = r.ue();
+            cropRight = r.ue();
+            cropTop = r.ue();
+            cropBottom = r.ue();
+        }
+
+        int subWidthC = chromaFormatIdc == 1 || chromaFormatIdc == 2 ? 2 : 1;
+        int subHeightC = chromaFormatIdc == 1 ? 2 : 1;
+        int cropUnitX = chromaFormatIdc == 0 ? 1 : subWidthC;
+        int cropUnitY = (chromaFormatIdc == 0 ? 1 : subHeightC) * (frameMbsOnly ? 1 : 2);
+        result.width = widthInMbs * 16 - cropUnitX * (cropLeft + cropRight);
+        result.height = (frameMbsOnly ? 1 : 2) * heightInMapUnits * 16 - cropUnitY * (cropTop + cropBottom);
+
+        try {
+            if (r.flag()) { // vui_parameters_present_flag
+                parseVuiTiming(r, result, false);
+            }
+        } catch (IllegalArgumentException e) {
+            // Truncated VUI; size and profile are still valid
+        }
+        return result;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the NAL unit is not a parseable H.265 SPS
+     */
+    public static Result parseH265(byte[] nal) {
+        if (nal == null || nal.length < 5 || ((nal[0] >> 1) & 0x3F) != 33) {
+            throw new IllegalArgumentException("Not an H.265 SPS NAL unit");
+        }
+        BitReader r = new BitReader(unescape(nal, 2));
+        Result result = new Result();
+
+        r.skip(4); // sps_video_parameter_set_id
+        int maxSubLayersMinus1 = r.bits(3);
+        r.skip(1); // sps_temporal_id_nesting_flag
+        parseProfileTierLevel(r, maxSubLayersMinus1, result);
+
+        r.ue(); // sps_seq_parameter_set_id
+        int chromaFormatIdc = r.ue();
+        if (chromaFormatIdc == 3) {
+            r.skip(1); // separate_colour_plane_flag
+        }
+        int width = r.ue();
+        int height = r.ue();
+        if (r.flag()) { // conformance_window_flag
+            int subWidthC = chromaFormatIdc == 1 || chromaFormatIdc == 2 ? 2 : 1;
+            int subHeightC = chromaFormatIdc == 1 ? 2 : 1;
+            width -= subWidthC * (r.ue() + r.ue());
+            height -= subHeightC * (r.ue() + r.ue());
+        }
+        result.width = width;
+        result.height = height;
+
+        try {
+            skipH265ToVui(r, maxSubLayersMinus1);
+            if (r.flag()) { // vui_parameters_present_flag
+                parseVuiTiming(r, result, true);
+            }
+        } catch (IllegalArgumentException e) {
+            // Truncated or unusual SPS tail; size and profile are still valid
+        }
+        return result;
+    }
+
+    /**
+     * Frame rate from the timing info of an H.265 VPS, used when the SPS has no VUI timing.
+     *
+     * @return frames per second, or 0 if the VPS does not signal timing
+     */
+    public static double parseH265VpsFps(byte[] nal) {
+        if (nal == null || nal.length < 5 || ((nal[0] >> 1) & 0x3F) != 32) {
+            return 0;
+        }
+        try {
+            BitReader r = new BitReader(unescape(nal, 2));
+            r.skip(4 + 1 + 1 + 6); // vps id, base layer flags, vps_max_layers_minus1
+            int maxSubLayersMinus1 = r.bits(3);
+            r.skip(1 + 16); // temporal_id_nesting, reserved 0xffff
+            parseProfileTierLevel(r, maxSubLayersMinus1, new Result());
+            boolean orderingInfo = r.flag();
+            for (int i = orderingInfo ? 0 : maxSubLayersMinus1; i <= maxSubLayersMinus1; i++) {
+                r.ue();
+                r.ue();
+                r.ue();
+            }
+            int maxLayerId = r.bits(6);
+            int numLayerSets = r.ue() + 1;
+            r.skip((numLayerSets - 1) * (maxLayerId + 1));
+            if (r.flag()) { // vps_timing_info_present_flag
+                long unitsInTick = r.bitsLong(32);
+                long timeScale = r.bitsLong(32);
+                return unitsInTick > 0 ? (double) timeScale / unitsInTick : 0;
+            }
+        } catch (IllegalArgumentException e) {
+            // Fall through
+        }
+        return 0;
+    }
+
+    private static void parseProfileTierLevel(BitReader r, int maxSubLayersMinus1, Result result) {
+        r.skip(2); // general_profile_space
+        r.skip(1); // general_tier_flag
+        result.profileIdc = r.bits(5);
+        result.profile = h265ProfileName(result.profileIdc);
+        r.skip(32); // general_profile_compatibility_flags
+        r.skip(48); // progressive/interlaced/non-packed/frame-only + 44 reserved bits
+        result.level = r.bits(8) / 30.0;
+
+        boolean[] profilePresent = new boolean[maxSubLayersMinus1];
+        boolean[] levelPresent = new boolean[maxSubLayersMinus1];
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            profilePresent[i] = r.flag();
+            levelPresent[i] = r.flag();
+        }
+        if (maxSubLayersMinus1 > 0) {
+            r.skip(2 * (8 - maxSubLayersMinus1));
+        }
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            if (profilePresent[i]) {
+                r.skip(88);
+            }
+            if (levelPresent[i]) {
+                r.skip(8);
+            }
+        }
+    }
+
+    private static void skipH265ToVui(BitReader r, int maxSubLayersMinus1) {
+        r.ue(); // bit_depth_luma_minus8
+        r.ue(); // bit_depth_chroma_minus8
+        int log2MaxPocLsb = r.ue() + 4;
+        boolean orderingInfo = r.flag();
+        for (int i = orderingInfo ? 0 : maxSubLayersMinus1; i <= maxSubLayersMinus1; i++) {
+            r.ue(); // sps_max_dec_pic_buffering_minus1
+            r.ue(); // sps_max_num_reorder_pics
+            r.ue(); // sps_max_latency_increase_plus1
+        }
+        r.ue(); // log2_min_luma_coding_block_size_minus3
+        r.ue(); // log2_diff_max_min_luma_coding_block_size
+        r.ue(); // log2_min_luma_transform_block_size_minus2
+        r.ue(); // log2_diff_max_min_luma_transform_block_size
+        r.ue(); // max_transform_hierarchy_depth_inter
+        r.ue(); // max_transform_hierarchy_depth_intra
+        if (r.flag() && r.flag()) { // scaling_list_enabled_flag, sps_scaling_list_data_present_flag
+            skipH265ScalingListData(r);
+        }
+        r.skip(1); // amp_enabled_flag
+        r.skip(1); // sample_adaptive_offset_enabled_flag
+        if (r.flag()) { // pcm_enabled_flag
+            r.skip(4 + 4);
+            r.ue();
+            r.ue();
+            r.skip(1);
+        }
+
+        int numShortTermRefPicSets = r.ue();
+        int[] numDeltaPocs = new int[numShortTermRefPicSets];
+        for (int i = 0; i < numShortTermRefPicSets; i++) {
+            numDeltaPocs[i] = skipShortTermRefPicSet(r, i, numDeltaPocs);
+        }
+        if (r.flag()) { // long_term_ref_pics_present_flag
+            int count = r.ue();
+            for (int i = 0; i < count; i++) {
+                r.skip(log2MaxPocLsb + 1);
+            }
+        }
+        r.skip(1); // sps_temporal_mvp_enabled_flag
+        r.skip(1); // strong_intra_smoothing_enabled_flag
+    }
+
+    private static int skipShortTermRefPicSet(BitReader r, int index, int[] numDeltaPocs) {
+        if (index != 0 && r.flag()) { // inter_ref_pic_set_prediction_flag
+            r.skip(1); // delta_rps_sign
+            r.ue(); // abs_delta_rps_minus1
+            int count = 0;
+            for (int j = 0; j <= numDeltaPocs[index - 1]; j++) {
+                boolean usedByCurrPic = r.flag();
+                boolean useDelta = usedByCurrPic || r.flag();
+                if (useDelta) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        int negative = r.ue();
+        int positive = r.ue();
+        for (int i = 0; i < negative + positive; i++) {
+            r.ue(); // delta_poc_minus1
+            r.skip(1); // used_by_curr_pic_flag
+        }
+        return negative + positive;
+    }
+
+    private static void skipH265ScalingListData(BitReader r) {
+        for (int sizeId = 0; sizeId < 4; sizeId++) {
+            for (int matrixId = 0; matrixId < 6; matrixId += sizeId == 3 ? 3 : 1) {
+                if (!r.flag()) { // scaling_list_pred_mode_flag
+                    r.ue(); // scaling_list_pred_matrix_id_delta
+                } else {
+                    int coefNum = Math.min(64, 1 << (4 + (sizeId << 1)));
+                    if (sizeId > 1) {
+                        r.se(); // scaling_list_dc_coef_minus8
+                    }
+                    for (int i = 0; i < coefNum; i++) {
+                        r.se();
+                    }
+                }
+            }
+        }
+    }
+
+    private static void skipH264ScalingList(BitReader r, int size) {
+        int lastScale = 8;
+        int nextScale = 8;
+        for (int j = 0; j < size; j++) {
+            if (nextScale != 0) {
+                nextScale = (lastScale + r.se() + 256) % 256;
+            }
+            lastScale = nextScale == 0 ? lastScale : nextScale;
+        }
+    }
+
+    /**
+     * Walks the VUI up to timing_info. H.264 ticks count fields, so fps is
+     * time_scale / (2 * num_units_in_tick); H.265 ticks count frames.
+     */
+    private static void parseVuiTiming(BitReader r, Result result, boolean hevc) {
+        if (r.flag()) { // aspect_ratio_info_present_flag
+            if (r.bits(8) == 255) { // Extended_SAR
+                r.skip(32);
+            }
+        }
+        if (r.flag()) { // overscan_info_present_flag
+            r.skip(1);
+        }
+        if (r.flag()) { // video_signal_type_present_flag
+            r.skip(4);
+            if (r.flag()) { // colour_description_present_flag
+                r.skip(24);
+            }
+        }
+        if (r.flag()) { // chroma_loc_info_present_flag
+            r.ue();
+            r.ue();
+        }
+        if (hevc) {
+            r.skip(3); // neutral_chroma, field_seq, frame_field_info_present
+            if (r.flag()) { // default_display_window_flag
+                r.ue();
+                r.ue();
+                r.ue();
+                r.ue();
+            }
+        }
+        if (r.flag()) { // timing_info_present_flag
+            long unitsInTick = r.bitsLong(32);
+            long timeScale = r.bitsLong(32);
+            if (unitsInTick > 0 && timeScale > 0) {
+                result.fps = hevc ? (double) timeScale / unitsInTick : timeScale / (2.0 * unitsInTick);
+            }
+        }
+    }
+
+    private static boolean isH264HighProfile(int profileIdc) {
+        switch (profileIdc) {
+            case 100: case 110: case 122: case 244: case 44:
+            case 83: case 86: case 118: case 128: case 138: case 139: case 134: case 135:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static String h264ProfileName(int profileIdc) {
+        switch (profileIdc) {
+            case 66: return "Baseline";
+            case 77: return "Main";
+            case 88: return "Extended";
+            case 100: return "High";
+            case 110: return "High 10";
+            case 122: return "High 4:2:2";
+            case 244: return "High 4:4:4";
+            default: return "Profile " + profileIdc;
+        }
+    }
+
+    private static String h265ProfileName(int profileIdc) {
+        switch (profileIdc) {
+            case 1: return "Main";
+            case 2: return "Main 10";
+            case 3: return "Main Still Picture";
+            case 4: return "Range Extensions";
+            default: return "Profile " + profileIdc;
+        }
+    }
+
+    /**
+     * Drops the NAL header and removes emulation prevention bytes (00 00 03 -> 00 00).
+     */
+    static byte[] unescape(byte[] nal, int headerLength) {
+        byte[] out = new byte[nal.length - headerLength];
+        int n = 0;
+        int zeros = 0;
+        for (int i = headerLength; i < nal.length; i++) {
+            int b = nal[i] & 0xFF;
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = b == 0 ? zeros + 1 : 0;
+            out[n++] = (byte) b;
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /**
+     * MSB-first bit reader with Exp-Golomb decoding.
+     */
+    static class BitReader {
+        private final byte[] data;
+        private int position;
+
+        BitReader(byte[] data) {
+            this.data = data;
+        }
+
+        boolean flag() {
+            return bits(1) == 1;
+        }
+
+        int bits(int count) {
+            return (int) bitsLong(count);
+        }
+
+        long bitsLong(int count) {
+            long value = 0;
+            for (int i = 0; i < count; i++) {
+                int index = position >> 3;
+                if (index >= data.length) {
+                    throw new IllegalArgumentException("SPS truncated");
+                }
+                value = (value << 1) | ((data[index] >> (7 - (position & 7))) & 1);
+                position++;
+            }
+            return value;
+        }
+
+        void skip(int count) {
+            if (position + count > data.length * 8) {
+                throw new IllegalArgumentException("SPS truncated");
+            }
+            position += count;
+        }
+
+        int ue() {
+            int leadingZeros = 0;
+            while (!flag()) {
+                if (++leadingZeros > 31) {
+                    throw new IllegalArgumentException("Invalid Exp-Golomb code");
+                }
+            }
+            return (int) ((1L << leadingZeros) - 1 + bitsLong(leadingZeros));
+        }
+
+        int se() {
+            int k = ue();
+            return (k & 1) == 1 ? (k + 1) / 2 : -(k / 2);
+        }
+    }
+}
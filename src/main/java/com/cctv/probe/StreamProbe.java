@@ -1,28 +1,143 @@
 package com.cctv.probe;
 
 import com.cctv.model.StreamInfo;
+import com.cctv.rtsp.RtspClient;
+import com.cctv.util.ExecutionBudget;
 import com.cctv.util.Logger;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
 
 public class StreamProbe {
     private static final int TIMEOUT_MS = 10000;
+    private static final int DESCRIBE_TIMEOUT_MS = 3000;
+    // -Dcctv.verifyStreams=true probes streams that ONVIF profiles already described
+    static final boolean VERIFY_DESCRIBED = Boolean.getBoolean("cctv.verifyStreams");
 
+    /**
+     * @return true if the stream has a URL and is not yet described (codec and
+     *         resolution from its ONVIF profile), or verification is enabled
+     */
+    public static boolean needsProbe(StreamInfo stream) {
+        return stream != null && stream.getRtspUrl() != null
+                && (VERIFY_DESCRIBED || stream.getCodec() == null || stream.getResolution() == null);
+    }
+
+    /**
+     * Fills codec, resolution, fps and bitrate. Streams already described by their
+     * ONVIF profile are skipped unless -Dcctv.verifyStreams=true. The SDP is decoded
+     * directly: the one kept from the DESCRIBE that validated the URL, or else
+     * a fresh DESCRIBE. FFmpeg is only started when an SDP arrived but carries no
+     * usable SPS; a failed DESCRIBE sets the stream's error instead, since FFmpeg
+     * would fail the same way.
+     */
     public static void probe(StreamInfo stream) {
         if (stream == null || stream.getRtspUrl() == null) {
             Logger.info("Skipping probe - stream or URL is null");
             return;
         }
-        
+        if (!needsProbe(stream)) {
+            Logger.info("Skipping probe - described by ONVIF profile: " + stream.getRtspUrl());
+            return;
+        }
+        if (ExecutionBudget.current().isExpired()) {
+            Logger.info("Skipping probe - discovery timeout reached: " + stream.getRtspUrl());
+            return;
+        }
+
         Logger.info("Starting Stream Probe");
         Logger.info("RTSP URL: " + stream.getRtspUrl());
+        String sdp = stream.getSdp();
+        if (sdp == null) {
+            try {
+                RtspClient.Response response = RtspClient.describe(stream.getRtspUrl(),
+                        ExecutionBudget.current().clampTimeout(DESCRIBE_TIMEOUT_MS));
+                if (!response.isSuccess()) {
+                    stream.setError(response.isAuthFailure() ? "RTSP Auth Failed: Invalid credentials"
+                            : errorFor(response.statusCode + " " + response.reason));
+                    return;
+                }
+                sdp = response.body != null ? response.body : "";
+            } catch (Exception e) {
+                Logger.info("DESCRIBE failed for " + stream.getRtspUrl() + ": " + e.getMessage());
+                stream.setError(errorFor(e.getMessage()));
+                return;
+            }
+        }
+        if (probeFromSdp(stream, sdp)) {
+            return;
+        }
+        probeWithFfmpeg(stream);
+    }
+
+    /**
+     * Fills the stream from an SDP description without touching the network.
+     *
+     * @return true if the SDP had a decodable SPS; the stream is left unchanged otherwise
+     */
+    public static boolean probeFromSdp(StreamInfo stream, String sdp) {
+        SdpParser.VideoTrack track = SdpParser.parse(sdp);
+        if (track == null || !track.hasParameterSets()) {
+            return false;
+        }
+
+        SpsParser.Result sps;
+        try {
+            sps = "hevc".equals(track.codec) ? SpsParser.parseH265(track.sps) : SpsParser.parseH264(track.sps);
+        } catch (IllegalArgumentException e) {
+            Logger.info("SPS parse failed for " + stream.getRtspUrl() + ": " + e.getMessage());
+            return false;
+        }
+
+        double fps = sps.fps;
+        if (fps <= 0 && "hevc".equals(track.codec)) {
+            fps = SpsParser.parseH265VpsFps(track.vps);
+        }
+        if (fps <= 0) {
+            fps = track.framerate;
+        }
+
+        stream.setCodec(track.codec != null ? track.codec : "h264");
+        stream.setResolution(sps.width + "x" + sps.height);
+        stream.setFps(fps > 0 ? fps : 0);
+        stream.setBitrate(track.bitrateKbps);
+
+        Logger.info("Stream Probe Success (SDP)");
+        Logger.info("Resolution: " + stream.getResolution() + ", Codec: " + stream.getCodec() + " " + sps.profile
+                + "@" + sps.level + ", FPS: " + stream.getFps() + ", Bitrate: " + stream.getBitrate());
+        return true;
+    }
+
+    /**
+     * The stream error for a failed DESCRIBE or FFmpeg open, from its message
+     * or "status reason" line.
+     */
+    static String errorFor(String errorMsg) {
+        if (errorMsg == null) {
+            return "RTSP Error: Unknown error";
+        }
+        if (errorMsg.contains("401") || errorMsg.contains("Unauthorized")) {
+            return "RTSP Auth Failed: Invalid credentials";
+        } else if (errorMsg.contains("403") || errorMsg.contains("Forbidden")) {
+            return "RTSP Auth Failed: Access forbidden";
+        } else if (errorMsg.contains("404") || errorMsg.contains("Not Found")) {
+            return "RTSP Error: Stream not found";
+        } else if (errorMsg.contains("Connection refused")) {
+            return "RTSP Error: Connection refused";
+        } else if (errorMsg.contains("timed out") || errorMsg.contains("timeout")) {
+            return "RTSP Error: Connection timeout";
+        }
+        return "RTSP Error: " + errorMsg.substring(0, Math.min(100, errorMsg.length()));
+    }
+
+    private static void probeWithFfmpeg(StreamInfo stream) {
         FFmpegFrameGrabber grabber = null;
+        int timeoutMs = ExecutionBudget.current().clampTimeout(TIMEOUT_MS);
         try {
             grabber = new FFmpegFrameGrabber(stream.getRtspUrl());
             grabber.setOption("rtsp_transport", "tcp");
-            grabber.setOption("stimeout", String.valueOf(TIMEOUT_MS * 1000)); // 10 seconds in microseconds
-            grabber.setOption("timeout", String.valueOf(TIMEOUT_MS * 1000));
-            grabber.setTimeout(TIMEOUT_MS);
-            Logger.info("Starting FFmpeg grabber with 10s timeout...");
+            grabber.setOption("stimeout", String.valueOf(timeoutMs * 1000L)); // microseconds
+            grabber.setOption("timeout", String.valueOf(timeoutMs * 1000L));
+            grabber.setTimeout(timeoutMs);
+            Logger.info("Starting FFmpeg grabber with " + timeoutMs + "ms timeout...");
             grabber.start();
             Logger.info("FFmpeg grabber started successfully");
             
@@ -54,24 +169,7 @@ public class StreamProbe {
             Logger.error("Stream Probe Failed");
             Logger.error("URL: " + stream.getRtspUrl());
             Logger.error("Error: " + errorMsg, e);
-            
-            if (errorMsg != null) {
-                if (errorMsg.contains("401") || errorMsg.contains("Unauthorized")) {
-                    stream.setError("RTSP Auth Failed: Invalid credentials");
-                } else if (errorMsg.contains("403") || errorMsg.contains("Forbidden")) {
-                    stream.setError("RTSP Auth Failed: Access forbidden");
-                } else if (errorMsg.contains("404") || errorMsg.contains("Not Found")) {
-                    stream.setError("RTSP Error: Stream not found");
-                } else if (errorMsg.contains("Connection refused")) {
-                    stream.setError("RTSP Error: Connection refused");
-                } else if (errorMsg.contains("timed out") || errorMsg.contains("timeout")) {
-                    stream.setError("RTSP Error: Connection timeout");
-                } else {
-                    stream.setError("RTSP Error: " + errorMsg.substring(0, Math.min(100, errorMsg.length())));
-                }
-            } else {
-                stream.setError("RTSP Error: Unknown error");
-            }
+            stream.setError(errorFor(errorMsg));
         } finally {
             if (grabber != null) {
                 try {
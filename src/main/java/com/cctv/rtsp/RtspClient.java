@@ -0,0 +1,306 @@
+package com.cctv.rtsp;
+
+import com.cctv.network.DigestAuth;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal pure-Java RTSP client for URL validation. Sends OPTIONS or DESCRIBE
+ * over a plain TCP socket, answers one Basic or Digest challenge with the
+ * credentials embedded in the URL, and returns status, challenge and SDP.
+ * No media is set up, so a test costs one or two round trips.
+ */
+public class RtspClient {
+    public static final int DEFAULT_PORT = 554;
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final String USER_AGENT = "CctvDiscovery";
+
+    public static class Response {
+        public final int statusCode;
+        public final String reason;
+        public final Map<String, String> headers;
+        /** WWW-Authenticate challenge of the last response, Digest preferred; null if none */
+        public final String challenge;
+        /** Response body, the SDP for a successful DESCRIBE */
+        public final String body;
+
+        public Response(int statusCode, String reason, Map<String, String> headers, String challenge, String body) {
+            this.statusCode = statusCode;
+            this.reason = reason;
+            this.headers = headers;
+            this.challenge = challenge;
+            this.body = body;
+        }
+
+        public boolean isSuccess() {
+            return statusCode >= 200 && statusCode < 300;
+        }
+
+        public boolean isAuthFailure() {
+            return statusCode == 401 || statusCode == 403;
+        }
+
+        /** Header value by case-insensitive name */
+        public String header(String name) {
+            return headers.get(name.toLowerCase());
+        }
+    }
+
+    /**
+     * Parsed rtsp:// URL. {@link #requestUri} is the URL without user info, as
+     * sent on the request line and used for Digest.
+     */
+    public static class Target {
+        public final String host;
+        public final int port;
+        public final String username;
+        public final String password;
+        public final String requestUri;
+
+        Target(String host, int port, String username, String password, String requestUri) {
+            this.host = host;
+            this.port = port;
+            this.username = username;
+            this.password = password;
+            this.requestUri = requestUri;
+        }
+
+        public static Target parse(String url) {
+            if (url == null || !url.regionMatches(true, 0, "rtsp://", 0, 7)) {
+                throw new IllegalArgumentException("Not an RTSP URL: " + url);
+            }
+            String rest = url.substring(7);
+            String username = null;
+            String password = null;
+
+            // Passwords may contain '/' or '@', so user info ends at the last '@'
+            int at = rest.lastIndexOf('@');
+            if (at >= 0) {
+                String userInfo = rest.substring(0, at);
+                rest = rest.substring(at + 1);
+                int colon = userInfo.indexOf(':');
+                username = percentDecode(colon >= 0 ? userInfo.substring(0, colon) : userInfo);
+                password = colon >= 0 ? percentDecode(userInfo.substring(colon + 1)) : "";
+            }
+
+            int slash = rest.indexOf('/');
+            String authority = slash >= 0 ? rest.substring(0, slash) : rest;
+            String path = slash >= 0 ? rest.substring(slash) : "/";
+
+            String host = authority;
+            int port = DEFAULT_PORT;
+            int colon = authority.lastIndexOf(':');
+            if (colon >= 0 && !authority.endsWith("]")) {
+                host = authority.substring(0, colon);
+                try {
+                    port = Integer.parseInt(authority.substring(colon + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid port in RTSP URL: " + url);
+                }
+            }
+            if (host.isEmpty()) {
+                throw new IllegalArgumentException("Missing host in RTSP URL: " + url);
+            }
+            return new Target(host, port, username, password, "rtsp://" + authority + path);
+        }
+    }
+
+    public static Response options(String url, int timeoutMs) throws IOException {
+        return execute("OPTIONS", url, timeoutMs);
+    }
+
+    /**
+     * DESCRIBE the URL; a 200 means the path exists and the credentials work.
+     */
+    public static Response describe(String url, int timeoutMs) throws IOException {
+        return execute("DESCRIBE", url, timeoutMs);
+    }
+
+    static Response execute(String method, String url, int timeoutMs) throws IOException {
+        Target target = Target.parse(url);
+        Socket socket = connect(target, timeoutMs);
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            int cseq = 1;
+            Response response = send(socket, in, method, target, cseq++, null);
+            if (response.statusCode != 401 || response.challenge == null || target.username == null) {
+                return response;
+            }
+
+            String authorization = DigestAuth.authorize(response.challenge, method, target.requestUri,
+                    target.username, target.password, 1);
+            if ("close".equalsIgnoreCase(response.header("Connection"))) {
+                socket.close();
+                socket = connect(target, timeoutMs);
+                in = new BufferedInputStream(socket.getInputStream());
+            }
+            return send(socket, in, method, target, cseq, authorization);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private static Socket connect(Target target, int timeoutMs) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(target.host, target.port), timeoutMs);
+            socket.setSoTimeout(timeoutMs);
+            socket.setTcpNoDelay(true);
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static Response send(Socket socket, InputStream in, String method, Target target, int cseq,
+            String authorization) throws IOException {
+        StringBuilder request = new StringBuilder();
+        request.append(method).append(' ').append(target.requestUri).append(" RTSP/1.0\r\n");
+        request.append("CSeq: ").append(cseq).append("\r\n");
+        request.append("User-Agent: ").append(USER_AGENT).append("\r\n");
+        if ("DESCRIBE".equals(method)) {
+            request.append("Accept: application/sdp\r\n");
+        }
+        if (authorization != null) {
+            request.append("Authorization: ").append(authorization).append("\r\n");
+        }
+        request.append("\r\n");
+
+        OutputStream out = socket.getOutputStream();
+        out.write(request.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        return readResponse(in);
+    }
+
+    /**
+     * Reads one RTSP response: status line, headers and a Content-Length body.
+     */
+    static Response readResponse(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        if (statusLine == null || !statusLine.startsWith("RTSP/")) {
+            throw new IOException("Invalid RTSP response: " + statusLine);
+        }
+        String[] parts = statusLine.split(" ", 3);
+        int statusCode;
+        try {
+            statusCode = Integer.parseInt(parts[1].trim());
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid RTSP status line: " + statusLine);
+        }
+        String reason = parts.length > 2 ? parts[2] : "";
+
+        Map<String, String> headers = new LinkedHashMap<>();
+        List<String> challenges = new ArrayList<>();
+        int headerBytes = 0;
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            headerBytes += line.length();
+            if (headerBytes > MAX_HEADER_BYTES) {
+                throw new IOException("RTSP headers too large");
+            }
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim().toLowerCase();
+            String value = line.substring(colon + 1).trim();
+            if (name.equals("www-authenticate")) {
+                challenges.add(value);
+            }
+            headers.putIfAbsent(name, value);
+        }
+
+        String body = "";
+        String contentLength = headers.get("content-length");
+        if (contentLength != null) {
+            int length;
+            try {
+                length = Integer.parseInt(contentLength);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid Content-Length: " + contentLength);
+            }
+            if (length < 0 || length > MAX_BODY_BYTES) {
+                throw new IOException("RTSP body too large: " + length);
+            }
+            byte[] data = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = in.read(data, read, length - read);
+                if (n < 0) {
+                    throw new IOException("Connection closed while reading RTSP body");
+                }
+                read += n;
+            }
+            body = new String(data, StandardCharsets.UTF_8);
+        }
+
+        return new Response(statusCode, reason, headers, selectChallenge(challenges), body);
+    }
+
+    private static String selectChallenge(List<String> challenges) {
+        for (String challenge : challenges) {
+            if (DigestAuth.isDigest(challenge)) {
+                return challenge;
+            }
+        }
+        return challenges.isEmpty() ? null : challenges.get(0);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+            if (line.size() > MAX_HEADER_BYTES) {
+                throw new IOException("RTSP line too long");
+            }
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String percentDecode(String s) {
+        if (s.indexOf('%') < 0) {
+            return s;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '%' && i + 2 < s.length()) {
+                try {
+                    out.write(Integer.parseInt(s.substring(i + 1, i + 3), 16));
+                    i += 2;
+                    continue;
+                } catch (NumberFormatException e) {
+                    // Literal '%'
+                }
+            }
+            byte[] bytes = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,322 @@
+package com.cctv.rtsp;
+
+import com.cctv.network.DigestAuth;
+import com.cctv.util.Logger;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * One RTSP control connection to a device, used to test many candidate paths.
+ * DESCRIBE requests are pipelined in small windows and replies are matched by
+ * CSeq. The first 401 challenge is remembered and answered for every later
+ * request, so a whole pattern list costs one TCP connection and one nonce. With a
+ * stop condition, no further window is sent once a reply meets it.
+ * Servers that do not pipeline (close or reset mid-window) are retried one
+ * request at a time on a fresh connection.
+ */
+public class RtspConnection implements AutoCloseable {
+    private static final int WINDOW = 8;
+    private static final int MAX_RECONNECTS = 3;
+    private static final int MAX_ROUNDS = 4;
+    private static final String USER_AGENT = "CctvDiscovery";
+
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
+    private final int timeoutMs;
+
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private int cseq = 1;
+    private String challenge;
+    private int nonceCount;
+    private int window = WINDOW;
+    private int reconnects;
+    private boolean answered;
+
+    private RtspConnection(String host, int port, String username, String password, int timeoutMs) {
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * @throws IOException if the device does not accept a TCP connection on the port
+     */
+    public static RtspConnection open(String host, int port, String username, String password, int timeoutMs)
+            throws IOException {
+        RtspConnection connection = new RtspConnection(host, port, username, password, timeoutMs);
+        connection.connect();
+        return connection;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String requestUri(String path) {
+        return "rtsp://" + host + ":" + port + (path.startsWith("/") ? path : "/" + path);
+    }
+
+    public RtspClient.Response describe(String path) throws IOException {
+        List<String> paths = new ArrayList<>(1);
+        paths.add(path);
+        RtspClient.Response response = describeAll(paths).get(0);
+        if (response == null) {
+            throw new IOException("No RTSP response for " + requestUri(path));
+        }
+        return response;
+    }
+
+    /**
+     * DESCRIBEs every path and returns the replies in the same order. An entry is
+     * null when the device never answered that request.
+     */
+    public List<RtspClient.Response> describeAll(List<String> paths) {
+        return describeAll(paths, null);
+    }
+
+    /**
+     * DESCRIBEs the paths in order, window by window, until a reply meets
+     * {@code stop}; only paths before that one are still resolved (e.g. retried
+     * with the challenge). Replies are returned in path order; an entry is null
+     * when that request was never sent or never answered.
+     *
+     * @param stop condition ending the run, e.g. a successful DESCRIBE; null to describe every path
+     */
+    public List<RtspClient.Response> describeAll(List<String> paths, Predicate<RtspClient.Response> stop) {
+        RtspClient.Response[] responses = new RtspClient.Response[paths.size()];
+        String[] answeredChallenge = new String[paths.size()];
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            pending.add(i);
+        }
+
+        int rounds = 0;
+        while (!pending.isEmpty() && rounds++ < MAX_ROUNDS) {
+            boolean progressed = sendAll(paths, pending, responses, answeredChallenge, stop);
+            int hit = firstMatch(responses, stop);
+
+            // Requests rejected before we had (or with an older) challenge get one more go;
+            // past a hit, nothing more is needed
+            List<Integer> retry = new ArrayList<>();
+            for (int i : pending) {
+                if (hit >= 0 && i > hit) {
+                    continue;
+                }
+                RtspClient.Response response = responses[i];
+                if (response == null) {
+                    if (socket != null) {
+                        retry.add(i);
+                    }
+                } else if (needsRetry(response, answeredChallenge[i])) {
+                    retry.add(i);
+                }
+            }
+            if (!progressed && retry.size() == pending.size()) {
+                break;
+            }
+            pending = retry;
+        }
+
+        List<RtspClient.Response> result = new ArrayList<>(responses.length);
+        for (RtspClient.Response response : responses) {
+            result.add(response);
+        }
+        return result;
+    }
+
+    /**
+     * Sends the pending requests window by window, stopping after a window that
+     * holds a reply meeting {@code stop}.
+     *
+     * @return true if at least one response was read
+     */
+    private boolean sendAll(List<String> paths, List<Integer> pending, RtspClient.Response[] responses,
+            String[] answeredChallenge, Predicate<RtspClient.Response> stop) {
+        boolean progressed = false;
+        int next = 0;
+        while (next < pending.size() && socket != null) {
+            // The first request goes alone so the rest of the window can carry its challenge
+            boolean alone = !answered;
+            int end = Math.min(pending.size(), next + (answered ? window : 1));
+            Map<Integer, Integer> bySeq = new HashMap<>();
+            List<Integer> order = new ArrayList<>();
+            boolean stopped = false;
+            try {
+                StringBuilder batch = new StringBuilder();
+                for (int k = next; k < end; k++) {
+                    int index = pending.get(k);
+                    int seq = cseq++;
+                    bySeq.put(seq, index);
+                    order.add(seq);
+                    answeredChallenge[index] = challenge;
+                    appendRequest(batch, "DESCRIBE", requestUri(paths.get(index)), seq);
+                }
+                out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+
+                boolean closed = false;
+                for (int k = 0; k < order.size(); k++) {
+                    RtspClient.Response response = RtspClient.readResponse(in);
+                    Integer index = bySeq.get(parseSeq(response, order.get(k)));
+                    if (index == null) {
+                        index = bySeq.get(order.get(k));
+                    }
+                    responses[index] = response;
+                    progressed = true;
+                    answered = true;
+                    updateChallenge(response);
+                    if (stop != null && stop.test(response)) {
+                        stopped = true;
+                    }
+                    if ("close".equalsIgnoreCase(response.header("Connection"))) {
+                        closed = true;
+                        break;
+                    }
+                }
+                if (closed) {
+                    reconnectOrGiveUp(false);
+                }
+            } catch (IOException e) {
+                Logger.info("RTSP connection to " + host + ":" + port + " dropped: " + e.getMessage());
+                reconnectOrGiveUp(true);
+            }
+            if (stopped) {
+                break;
+            }
+            int first = pending.get(next);
+            if (alone && responses[first] != null && needsRetry(responses[first], answeredChallenge[first])) {
+                // Answer the challenge for the first path right away, at the head of the next window
+                continue;
+            }
+            // Unanswered requests of this window are picked up by the caller's retry pass
+            next = end;
+        }
+        return progressed;
+    }
+
+    /**
+     * A 401 sent without the current challenge; answering it may still succeed.
+     */
+    private boolean needsRetry(RtspClient.Response response, String answeredWith) {
+        return response.statusCode == 401 && username != null && challenge != null
+                && !challenge.equals(answeredWith);
+    }
+
+    private static int firstMatch(RtspClient.Response[] responses, Predicate<RtspClient.Response> stop) {
+        if (stop == null) {
+            return -1;
+        }
+        for (int i = 0; i < responses.length; i++) {
+            if (responses[i] != null && stop.test(responses[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void appendRequest(StringBuilder sb, String method, String uri, int seq) {
+        sb.append(method).append(' ').append(uri).append(" RTSP/1.0\r\n");
+        sb.append("CSeq: ").append(seq).append("\r\n");
+        sb.append("User-Agent: ").append(USER_AGENT).append("\r\n");
+        if ("DESCRIBE".equals(method)) {
+            sb.append("Accept: application/sdp\r\n");
+        }
+        if (challenge != null && username != null) {
+            // Same nonce for every request; only the nonce count moves
+            sb.append("Authorization: ")
+                    .append(DigestAuth.authorize(challenge, method, uri, username, password, ++nonceCount))
+                    .append("\r\n");
+        }
+        sb.append("\r\n");
+    }
+
+    private void updateChallenge(RtspClient.Response response) {
+        if (response.statusCode != 401 || response.challenge == null) {
+            return;
+        }
+        boolean stale = "true".equalsIgnoreCase(DigestAuth.parseChallenge(response.challenge).get("stale"));
+        if (challenge == null || stale) {
+            challenge = response.challenge;
+            nonceCount = 0;
+        }
+    }
+
+    private static int parseSeq(RtspClient.Response response, int fallback) {
+        String value = response.header("CSeq");
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private void reconnectOrGiveUp(boolean failed) {
+        closeSocket();
+        if (failed) {
+            // Probably no pipelining support; go one request at a time
+            window = 1;
+        }
+        if (reconnects++ >= MAX_RECONNECTS) {
+            return;
+        }
+        try {
+            connect();
+        } catch (IOException e) {
+            Logger.info("RTSP reconnect to " + host + ":" + port + " failed: " + e.getMessage());
+        }
+    }
+
+    private void connect() throws IOException {
+        Socket s = new Socket();
+        try {
+            s.connect(new InetSocketAddress(host, port), timeoutMs);
+            s.setSoTimeout(timeoutMs);
+            s.setTcpNoDelay(true);
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+        socket = s;
+        in = new BufferedInputStream(s.getInputStream());
+        out = s.getOutputStream();
+    }
+
+    private void closeSocket() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            socket = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        closeSocket();
+    }
+}
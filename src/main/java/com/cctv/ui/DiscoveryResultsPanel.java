@@ -1,14 +1,15 @@
 package com.cctv.ui;
 
-import com.cctv.discovery.PortScanner;
+import com.cctv.discovery.NioPortScanner;
 import com.cctv.model.Camera;
+import com.cctv.network.IpRange;
 import javax.swing.*;
 import java.awt.*;
 import java.util.List;
 
 public class DiscoveryResultsPanel extends JPanel {
 
-    public DiscoveryResultsPanel(WizardFrame frame, List<Camera> cameras, List<String> ipRange) {
+    public DiscoveryResultsPanel(WizardFrame frame, List<Camera> cameras, IpRange ipRange) {
         setLayout(new BorderLayout());
 
         JPanel contentPanel = new JPanel(new GridBagLayout());
@@ -100,7 +101,7 @@ public class DiscoveryResultsPanel extends JPanel {
         return button;
     }
 
-    private void startPortScan(WizardFrame frame, List<Camera> existingCameras, List<String> ipRange) {
+    private void startPortScan(WizardFrame frame, List<Camera> existingCameras, IpRange ipRange) {
         ProgressPanel progressPanel = new ProgressPanel("Performing port scan...");
         // Port scan usually scans many IPs, so updating "cameras processed" label might
         // be confusing if we just pass index.
@@ -111,7 +112,7 @@ public class DiscoveryResultsPanel extends JPanel {
         new SwingWorker<List<Camera>, Void>() {
             @Override
             protected List<Camera> doInBackground() {
-                List<Camera> scanned = PortScanner.scan(ipRange, new com.cctv.discovery.ProgressListener() {
+                List<Camera> scanned = NioPortScanner.scan(ipRange, new com.cctv.discovery.ProgressListener() {
                     @Override
                     public void onProgress(String ip, int current, int total, String status) {
                         SwingUtilities.invokeLater(() -> {
@@ -2,6 +2,7 @@ package com.cctv.ui;
 
 import com.cctv.discovery.OnvifDiscovery;
 import com.cctv.model.Camera;
+import com.cctv.network.IpRange;
 import com.cctv.network.IpRangeValidator;
 import com.cctv.network.NetworkInterface;
 import com.cctv.util.Logger;
@@ -202,15 +203,15 @@ public class NetworkSelectionPanel extends JPanel {
             protected void done() {
                 try {
                     List<Camera> cameras = get();
-                    List<String> ipRange = null;
+                    IpRange ipRange = null;
 
                     String startIp = startIpField.getText().trim();
                     String endIp = endIpField.getText().trim();
                     if (!startIp.isEmpty() && !endIp.isEmpty()) {
-                        ipRange = IpRangeValidator.generateRange(startIp, endIp);
+                        ipRange = IpRange.of(startIp, endIp);
                     } else if (networkCombo.getSelectedItem() != null) {
                         NetworkInterface ni = (NetworkInterface) networkCombo.getSelectedItem();
-                        ipRange = ni.getIpRange();
+                        ipRange = ni.getAddressRange();
                     }
 
                     DiscoveryResultsPanel resultsPanel = new DiscoveryResultsPanel(frame, cameras, ipRange);
@@ -0,0 +1,179 @@
+package com.cctv.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Concurrency and wall-clock budget of one discovery run. {@link #start(int, int)}
+ * splits the caller's thread count across the {@link Scheduler} lanes and, when
+ * asked to, sets an overall deadline; blocking calls clamp their own timeouts with
+ * {@link #clampTimeout(int)} and skip work once the deadline has passed, so a
+ * run that is out of time returns what it has found so far.
+ *
+ * Each run has its own budget. It is current on the thread that started it and
+ * travels with every task that thread, or a task of the run, submits to the
+ * Scheduler, so concurrent runs keep their own deadlines, and per-run caches such
+ * as the ONVIF sessions are keyed by it. The lanes, HTTP connection pools and
+ * cached auth challenges are shared by the process: while runs overlap the lanes
+ * are sized for the largest of their budgets, and the pools are only dropped once
+ * the last run has ended.
+ */
+public final class ExecutionBudget {
+    /** No thread cap and no deadline; in effect outside a run. */
+    public static final ExecutionBudget UNLIMITED = new ExecutionBudget(0, false, 0);
+
+    // Keeps single RTSP tests from crowding out device work on large budgets
+    private static final int MAX_RTSP_THREADS = 8;
+
+    private static final ThreadLocal<ExecutionBudget> CURRENT = ThreadLocal.withInitial(() -> UNLIMITED);
+    // Guarded by the class lock
+    private static final List<ExecutionBudget> ACTIVE = new ArrayList<>();
+
+    private final int threads;
+    private final boolean hasDeadline;
+    private final long deadlineNanos;
+
+    private ExecutionBudget(int threads, boolean hasDeadline, long deadlineNanos) {
+        this.threads = threads;
+        this.hasDeadline = hasDeadline;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Starts a run's budget on the calling thread and sizes the lanes for it.
+     *
+     * @param threads        total threads of the run across the scan, device and
+     *                       RTSP lanes, at least 1; each lane gets at least one
+     * @param timeoutSeconds overall deadline from now; 0 for none
+     */
+    public static synchronized ExecutionBudget start(int threads, int timeoutSeconds) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1");
+        }
+        if (timeoutSeconds < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative");
+        }
+        ExecutionBudget budget = new ExecutionBudget(threads, timeoutSeconds > 0,
+                System.nanoTime() + timeoutSeconds * 1_000_000_000L);
+        ACTIVE.add(budget);
+        resizeLanes();
+        CURRENT.set(budget);
+        Logger.info("Execution budget: " + threads + " threads (scan " + scanThreads(threads) + ", device "
+                + deviceThreads(threads) + ", RTSP " + rtspThreads(threads) + "), "
+                + (timeoutSeconds > 0 ? timeoutSeconds + "s deadline" : "no deadline"));
+        return budget;
+    }
+
+    /**
+     * Ends the calling thread's budget. The lanes go back to their default sizes
+     * unless another run is still going.
+     *
+     * @return true if no run is going any more, so process-wide per-device state
+     *         (connection pools, auth challenges) can be dropped
+     */
+    public static synchronized boolean end() {
+        ExecutionBudget budget = CURRENT.get();
+        CURRENT.remove();
+        if (ACTIVE.remove(budget)) {
+            resizeLanes();
+        }
+        return ACTIVE.isEmpty();
+    }
+
+    /**
+     * Lanes for the largest active budget, or the defaults when no run is going.
+     */
+    private static void resizeLanes() {
+        int largest = 0;
+        for (ExecutionBudget budget : ACTIVE) {
+            largest = Math.max(largest, budget.threads);
+        }
+        if (largest == 0) {
+            for (Scheduler.Lane lane : Scheduler.Lane.values()) {
+                Scheduler.resize(lane, lane.getThreads());
+            }
+            return;
+        }
+        Scheduler.resize(Scheduler.Lane.SCAN, scanThreads(largest));
+        Scheduler.resize(Scheduler.Lane.DEVICE, deviceThreads(largest));
+        Scheduler.resize(Scheduler.Lane.RTSP, rtspThreads(largest));
+    }
+
+    // A quarter each for the scan and RTSP lanes, the rest for per-device work
+    static int scanThreads(int threads) {
+        return Math.max(1, threads / 4);
+    }
+
+    static int rtspThreads(int threads) {
+        return Math.max(1, Math.min(MAX_RTSP_THREADS, threads / 4));
+    }
+
+    static int deviceThreads(int threads) {
+        return Math.max(1, threads - scanThreads(threads) - rtspThreads(threads));
+    }
+
+    /**
+     * Budget of the run the calling thread works for; {@link #UNLIMITED} outside a run.
+     */
+    public static ExecutionBudget current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Wraps a task so it runs with this budget current, on whatever thread runs it.
+     */
+    public Runnable bind(Runnable task) {
+        if (isUnlimited()) {
+            return task;
+        }
+        return () -> {
+            ExecutionBudget previous = CURRENT.get();
+            CURRENT.set(this);
+            try {
+                task.run();
+            } finally {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    public boolean isUnlimited() {
+        return this == UNLIMITED;
+    }
+
+    public boolean isExpired() {
+        return hasDeadline && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    /**
+     * @return milliseconds until the deadline, 0 once expired, Long.MAX_VALUE without a deadline
+     */
+    public long remainingMillis() {
+        if (!hasDeadline) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, (deadlineNanos - System.nanoTime()) / 1_000_000);
+    }
+
+    /**
+     * Caps a per-call timeout at the time left. Never returns 0, which sockets
+     * treat as "wait forever".
+     */
+    public int clampTimeout(int timeoutMs) {
+        return (int) Math.max(1, Math.min(timeoutMs, remainingMillis()));
+    }
+
+    /**
+     * Caps a per-phase concurrency limit at the budget's thread count.
+     */
+    public int limit(int workers) {
+        return isUnlimited() ? workers : Math.min(workers, threads);
+    }
+
+    /**
+     * @return the thread count, or 0 when unlimited
+     */
+    public int getThreads() {
+        return threads;
+    }
+}
@@ -0,0 +1,210 @@
+package com.cctv.util;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Engine-wide scheduler: a work-stealing pool for CPU work plus bounded I/O
+ * lanes that every discovery phase submits to. Threads are daemons, idle lane
+ * threads time out, and there is one shutdown path ({@link #shutdown()}) with a
+ * single JVM shutdown hook, so repeated scans do not create pools or hooks.
+ * Long-running event loops ({@link #startLoop(String, Runnable)}) get their own
+ * daemon thread, which the same shutdown interrupts.
+ *
+ * A task that submits to its own lane and waits for the result would deadlock
+ * a saturated lane, so {@link #submit(Lane, Callable)} runs such tasks inline.
+ * Queued tasks run with the submitter's {@link ExecutionBudget} current.
+ */
+public final class Scheduler {
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Bounded I/O lanes. Each lane caps how many threads may block on one kind of I/O.
+     */
+    public enum Lane {
+        /** Blocking TCP connect scans */
+        SCAN(Math.max(4, Math.min(Runtime.getRuntime().availableProcessors() * 2, 50))),
+        /** Per-device work: credentials, ONVIF, stream discovery */
+        DEVICE(Math.max(4, Math.min(Runtime.getRuntime().availableProcessors() * 2, 20))),
+        /** Single RTSP URL tests */
+        RTSP(8);
+
+        private final int threads;
+
+        Lane(int threads) {
+            this.threads = threads;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+    }
+
+    private static final ThreadLocal<Lane> CURRENT_LANE = new ThreadLocal<>();
+    private static final ForkJoinPool CPU_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("cctv-cpu-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
+    private static final Map<Lane, ThreadPoolExecutor> LANES = new EnumMap<>(Lane.class);
+    private static final List<Thread> LOOPS = new CopyOnWriteArrayList<>();
+    private static volatile boolean shutdown = false;
+
+    static {
+        for (Lane lane : Lane.values()) {
+            LANES.put(lane, createLane(lane, lane.threads));
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(Scheduler::shutdown, "cctv-scheduler-shutdown"));
+    }
+
+    private Scheduler() {
+    }
+
+    /**
+     * Work-stealing pool for CPU-bound work (parsing, result conversion).
+     */
+    public static ForkJoinPool cpu() {
+        return CPU_POOL;
+    }
+
+    /**
+     * Submits a task whose result the caller will wait for. Runs inline when
+     * called from a thread of the same lane.
+     */
+    public static <T> Future<T> submit(Lane lane, Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        if (CURRENT_LANE.get() == lane) {
+            future.run();
+        } else {
+            LANES.get(lane).execute(ExecutionBudget.current().bind(future));
+        }
+        return future;
+    }
+
+    public static Future<?> submit(Lane lane, Runnable task) {
+        return submit(lane, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Queues a fire-and-forget task on the lane, even from a thread of that lane.
+     */
+    public static void execute(Lane lane, Runnable task) {
+        LANES.get(lane).execute(ExecutionBudget.current().bind(task));
+    }
+
+    public static <T> CompletableFuture<T> supplyAsync(Lane lane, Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, executor(lane));
+    }
+
+    /**
+     * Lane as an Executor; inline on the same lane, like {@link #submit(Lane, Callable)}.
+     */
+    public static Executor executor(Lane lane) {
+        return task -> {
+            if (CURRENT_LANE.get() == lane) {
+                task.run();
+            } else {
+                LANES.get(lane).execute(ExecutionBudget.current().bind(task));
+            }
+        };
+    }
+
+    /**
+     * Starts an event loop (e.g. a selector) on a dedicated daemon thread. The
+     * loop should exit once {@link #isShutdown()} is true; {@link #shutdown()}
+     * interrupts it, which also wakes a thread blocked in a selector.
+     */
+    public static Thread startLoop(String name, Runnable loop) {
+        Thread thread = new Thread(loop, name);
+        thread.setDaemon(true);
+        LOOPS.add(thread);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Current thread cap of a lane; {@link Lane#getThreads()} is the default.
+     */
+    public static int getThreads(Lane lane) {
+        return LANES.get(lane).getMaximumPoolSize();
+    }
+
+    /**
+     * Resizes a lane. Running tasks are not interrupted; surplus threads exit
+     * once they go idle.
+     */
+    static synchronized void resize(Lane lane, int threads) {
+        ThreadPoolExecutor executor = LANES.get(lane);
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    public static boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Stops all lanes, loops and the CPU pool. Queued tasks are dropped and running ones
+     * interrupted. Idempotent; also run by the JVM shutdown hook.
+     */
+    public static synchronized void shutdown() {
+        if (shutdown) {
+            return;
+        }
+        shutdown = true;
+        Logger.info("Shutting down scheduler");
+        for (ThreadPoolExecutor executor : LANES.values()) {
+            executor.shutdownNow();
+        }
+        CPU_POOL.shutdownNow();
+        for (Thread loop : LOOPS) {
+            loop.interrupt();
+        }
+        try {
+            for (ThreadPoolExecutor executor : LANES.values()) {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadPoolExecutor createLane(Lane lane, int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        String prefix = "cctv-" + lane.name().toLowerCase() + "-";
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(() -> {
+                        CURRENT_LANE.set(lane);
+                        runnable.run();
+                    }, prefix + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
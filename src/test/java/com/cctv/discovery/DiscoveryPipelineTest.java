@@ -0,0 +1,83 @@
+package com.cctv.discovery;
+
+import com.cctv.model.Camera;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiscoveryPipelineTest {
+
+    private static Camera camera(String ip) {
+        Camera camera = new Camera(ip);
+        camera.setMacAddress("00:00:00:00:00:01"); // skip ARP lookup
+        return camera;
+    }
+
+    @Test
+    void testFinish_EmptyPipeline() {
+        DiscoveryPipeline pipeline = new DiscoveryPipeline(new ArrayList<>(), false, null);
+        assertTrue(pipeline.finish().isEmpty());
+    }
+
+    @Test
+    void testSubmit_MoreCamerasThanQueueCapacity() {
+        DiscoveryPipeline pipeline = new DiscoveryPipeline(new ArrayList<>(), false, null);
+        for (int i = 1; i <= 200; i++) {
+            pipeline.submit(camera("10.0." + (i / 250) + "." + (i % 250)));
+        }
+        List<Camera> cameras = pipeline.finish();
+
+        assertEquals(200, cameras.size());
+        assertEquals("No credentials provided", cameras.get(0).getErrorMessage());
+    }
+
+    @Test
+    void testHold_AdmittedOnceWithScanData() {
+        DiscoveryPipeline pipeline = new DiscoveryPipeline(new ArrayList<>(), false, null);
+
+        Camera onvif = camera("10.0.0.1");
+        Camera scanned = camera("10.0.0.1");
+        scanned.setModel("DS-2CD2143");
+        scanned.setOpenRtspPorts(new ArrayList<>(Arrays.asList(554)));
+        pipeline.hold(onvif);
+        pipeline.submit(scanned);
+        List<Camera> cameras = pipeline.finish();
+
+        assertEquals(1, cameras.size());
+        assertSame(onvif, cameras.get(0));
+        assertEquals("DS-2CD2143", onvif.getModel());
+        assertEquals(Arrays.asList(554), onvif.getOpenRtspPorts());
+    }
+
+    @Test
+    void testHold_ReleasedWhenScanNeverReportsIt() {
+        DiscoveryPipeline pipeline = new DiscoveryPipeline(new ArrayList<>(), false, null);
+
+        Camera onvif = camera("10.0.0.2");
+        pipeline.hold(onvif);
+        pipeline.releaseHeld();
+        List<Camera> cameras = pipeline.finish();
+
+        assertEquals(1, cameras.size());
+        assertSame(onvif, cameras.get(0));
+        assertEquals("No credentials provided", onvif.getErrorMessage());
+    }
+
+    @Test
+    void testSubmit_RepeatOfAdmittedIpIsDropped() {
+        DiscoveryPipeline pipeline = new DiscoveryPipeline(new ArrayList<>(), false, null);
+
+        Camera first = camera("10.0.0.3");
+        Camera repeat = camera("10.0.0.3");
+        repeat.setModel("DS-2CD2143");
+        pipeline.submit(first);
+        pipeline.submit(repeat);
+        List<Camera> cameras = pipeline.finish();
+
+        assertEquals(1, cameras.size());
+        assertSame(first, cameras.get(0));
+        assertNull(first.getModel());
+    }
+}
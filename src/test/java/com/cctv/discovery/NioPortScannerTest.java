@@ -0,0 +1,107 @@
+package com.cctv.discovery;
+
+import com.cctv.model.Camera;
+import org.junit.jupiter.api.Test;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+class NioPortScannerTest {
+
+    @Test
+    void testScan_EmptyList() {
+        List<Camera> cameras = NioPortScanner.scan(new ArrayList<>());
+        assertNotNull(cameras);
+        assertTrue(cameras.isEmpty());
+    }
+
+    @Test
+    void testScan_UnreachableHostsTimeOut() {
+        List<String> ips = Arrays.asList("192.0.2.1", "192.0.2.2", "192.0.2.3"); // TEST-NET-1 (RFC 5737)
+        long start = System.currentTimeMillis();
+        List<Camera> cameras = NioPortScanner.scan(ips);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue(cameras.isEmpty());
+        // All connects are in flight together, so this costs about one timeout, not 42
+        assertTrue(elapsed < 5000, "Scan took " + elapsed + " ms");
+    }
+
+    @Test
+    void testScan_FindsOpenPort() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            int openPort = server.getLocalPort();
+            int closedPort;
+            try (ServerSocket probe = new ServerSocket(0)) {
+                closedPort = probe.getLocalPort();
+            }
+
+            List<Camera> cameras = NioPortScanner.scan(Arrays.asList("127.0.0.1"),
+                    new int[] { closedPort, openPort }, null, 500, null);
+
+            assertEquals(1, cameras.size());
+            assertEquals("127.0.0.1", cameras.get(0).getIpAddress());
+        }
+    }
+
+    @Test
+    void testScan_RefusedLivenessPortReleasesRemainingPorts() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            int openPort = server.getLocalPort();
+            int closedPort;
+            try (ServerSocket probe = new ServerSocket(0)) {
+                closedPort = probe.getLocalPort();
+            }
+
+            // The liveness port is refused (RST), which proves the host alive,
+            // so the second wave still reaches the open port
+            List<Camera> cameras = NioPortScanner.scan(Arrays.asList("127.0.0.1"),
+                    new int[] { closedPort, openPort }, new int[] { closedPort }, 500, null);
+
+            assertEquals(1, cameras.size());
+        }
+    }
+
+    @Test
+    void testScan_DeadHostCostsOneTimeout() {
+        List<String> ips = Arrays.asList("192.0.2.1");
+        long start = System.currentTimeMillis();
+        List<Camera> cameras = NioPortScanner.scan(ips, PortScanner.PORTS, NioPortScanner.LIVENESS_PORTS, 500,
+                null);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue(cameras.isEmpty());
+        assertTrue(elapsed < 1500, "Dead host took " + elapsed + " ms");
+    }
+
+    @Test
+    void testScan_ReportsProgressPerHost() {
+        List<String> ips = Arrays.asList("127.0.0.1", "192.0.2.1");
+        AtomicInteger progress = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+
+        NioPortScanner.scan(ips, new int[] { 1 }, null, 300, new ProgressListener() {
+            @Override
+            public void onProgress(String camera, int current, int total, String status) {
+                progress.incrementAndGet();
+                assertEquals(2, total);
+            }
+
+            @Override
+            public void onComplete() {
+                completed.incrementAndGet();
+            }
+
+            @Override
+            public void onCancelled() {
+                fail("Scan should not be cancelled");
+            }
+        });
+
+        assertEquals(2, progress.get());
+        assertEquals(1, completed.get());
+    }
+}
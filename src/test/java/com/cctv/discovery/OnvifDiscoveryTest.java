@@ -2,6 +2,7 @@ package com.cctv.discovery;
 
 import com.cctv.model.Camera;
 import org.junit.jupiter.api.Test;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -42,6 +43,85 @@ class OnvifDiscoveryTest {
         assertTrue(cameras instanceof List);
     }
 
+    private static byte[] probeMatch(String uuid, String xAddrs) {
+        return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://www.w3.org/2003/05/soap-envelope\" "
+                + "xmlns:wsa=\"http://schemas.xmlsoap.org/ws/2004/08/addressing\" "
+                + "xmlns:d=\"http://schemas.xmlsoap.org/ws/2005/04/discovery\">"
+                + "<SOAP-ENV:Header><wsa:MessageID>urn:uuid:1</wsa:MessageID>"
+                + "<wsa:ReplyTo><wsa:Address>http://schemas.xmlsoap.org/ws/2004/08/addressing/role/anonymous</wsa:Address></wsa:ReplyTo>"
+                + "<wsa:Action>http://schemas.xmlsoap.org/ws/2005/04/discovery/ProbeMatches</wsa:Action>"
+                + "</SOAP-ENV:Header><SOAP-ENV:Body><d:ProbeMatches><d:ProbeMatch>"
+                + "<wsa:EndpointReference><wsa:Address>" + uuid + "</wsa:Address></wsa:EndpointReference>"
+                + "<d:Types>dn:NetworkVideoTransmitter</d:Types>"
+                + "<d:XAddrs>" + xAddrs + "</d:XAddrs><d:MetadataVersion>1</d:MetadataVersion>"
+                + "</d:ProbeMatch></d:ProbeMatches></SOAP-ENV:Body></SOAP-ENV:Envelope>")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testScanElement_FindsLocalNameAcrossPrefixes() {
+        byte[] data = probeMatch("urn:uuid:abc", "http://[fe80::1]/onvif/device_service http://10.0.0.5/onvif/device_service");
+        String xAddrs = OnvifDiscovery.scanElement(data, 0, data.length, "XAddrs");
+
+        assertEquals("http://10.0.0.5/onvif/device_service", OnvifDiscovery.preferredXAddr(xAddrs));
+        assertTrue(OnvifDiscovery.scanElement(data, 0, data.length, "Action").endsWith("/ProbeMatches"));
+        assertNull(OnvifDiscovery.scanElement(data, 0, data.length, "Scopes"));
+        int reference = OnvifDiscovery.findElement(data, 0, data.length, "EndpointReference");
+        assertEquals("urn:uuid:abc", OnvifDiscovery.scanElement(data, reference, data.length, "Address"));
+    }
+
+    @Test
+    void testCollector_DeduplicatesByEndpoint() {
+        OnvifDiscovery.Collector collector = new OnvifDiscovery.Collector();
+        byte[] first = probeMatch("urn:uuid:abc", "http://10.0.0.5/onvif/device_service");
+        // Same device answering on its second VLAN address
+        byte[] otherVlan = probeMatch("urn:uuid:abc", "http://10.1.0.5/onvif/device_service");
+        byte[] other = probeMatch("urn:uuid:def", "http://10.0.0.6:8080/onvif/device_service");
+        byte[] probe = ("<e:Envelope><e:Header><w:Action>http://schemas.xmlsoap.org/ws/2005/04/discovery/Probe"
+                + "</w:Action></e:Header></e:Envelope>").getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(collector.accept(first, first.length, null));
+        assertFalse(collector.accept(first, first.length, null));
+        assertFalse(collector.accept(otherVlan, otherVlan.length, null));
+        assertFalse(collector.accept(probe, probe.length, null));
+        assertTrue(collector.accept(other, other.length, null));
+
+        assertEquals(2, collector.cameras.size());
+        assertEquals("10.0.0.6", collector.cameras.get(1).getIpAddress());
+        assertEquals("http://10.0.0.6:8080/onvif/device_service", collector.cameras.get(1).getOnvifServiceUrl());
+    }
+
+    private static byte[] hello(String uuid, String types, String xAddrs) {
+        return ("<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" "
+                + "xmlns:a=\"http://schemas.xmlsoap.org/ws/2004/08/addressing\" "
+                + "xmlns:d=\"http://schemas.xmlsoap.org/ws/2005/04/discovery\">"
+                + "<s:Header><a:Action>http://schemas.xmlsoap.org/ws/2005/04/discovery/Hello</a:Action>"
+                + "<a:MessageID>urn:uuid:2</a:MessageID></s:Header><s:Body><d:Hello>"
+                + "<a:EndpointReference><a:Address>" + uuid + "</a:Address></a:EndpointReference>"
+                + (types != null ? "<d:Types>" + types + "</d:Types>" : "")
+                + "<d:XAddrs>" + xAddrs + "</d:XAddrs><d:MetadataVersion>1</d:MetadataVersion>"
+                + "</d:Hello></s:Body></s:Envelope>").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testCollector_AcceptsOnlyVideoTransmitterHellos() {
+        OnvifDiscovery.Collector collector = new OnvifDiscovery.Collector();
+        byte[] printer = hello("urn:uuid:p1", "wprt:PrintDeviceType wsdp:Device", "http://10.0.0.20:3911/");
+        byte[] untyped = hello("urn:uuid:u1", null, "http://10.0.0.21/onvif/device_service");
+        byte[] camera = hello("urn:uuid:c1", "tds:Device dn:NetworkVideoTransmitter",
+                "http://10.0.0.22/onvif/device_service");
+
+        assertFalse(collector.accept(printer, printer.length, null));
+        assertFalse(collector.accept(untyped, untyped.length, null));
+        assertTrue(collector.accept(camera, camera.length, null));
+
+        assertEquals(1, collector.cameras.size());
+        assertEquals("10.0.0.22", collector.cameras.get(0).getIpAddress());
+        assertTrue(OnvifDiscovery.isVideoTransmitter("NetworkVideoTransmitter"));
+        assertFalse(OnvifDiscovery.isVideoTransmitter("dn:NetworkVideoDisplay"));
+    }
+
     // Note: Testing actual ONVIF discovery requires a network with cameras
     // These tests verify the code doesn't crash and returns expected types
 }
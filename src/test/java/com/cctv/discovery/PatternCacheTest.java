@@ -0,0 +1,65 @@
+package com.cctv.discovery;
+
+import com.cctv.model.Camera;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PatternCacheTest {
+    private static final String[] MAIN = { "/Streaming/Channels/101", "/Streaming/Channels/102" };
+    private static final String[] ALT = { "/h264/ch1/main/av_stream", null };
+
+    @BeforeEach
+    void setUp() {
+        PatternCache.clearCache();
+    }
+
+    private static Camera camera(String ip, String model) {
+        Camera camera = new Camera(ip);
+        camera.setModel(model);
+        camera.setMacAddress("BC:AD:28:11:22:33");
+        return camera;
+    }
+
+    @Test
+    void testGenerateCacheKey_IgnoresSubnet() {
+        assertEquals(PatternCache.generateCacheKey(camera("192.168.1.10", "DS-2CD2143"), "Hikvision"),
+                PatternCache.generateCacheKey(camera("10.20.30.40", "DS-2CD2143"), "Hikvision"));
+    }
+
+    @Test
+    void testOrderBySuccess_BestFirstAndFallsBackToManufacturer() {
+        String key = PatternCache.generateCacheKey(camera("10.0.0.1", "DS-2CD2143"), "Hikvision");
+        PatternCache.recordMiss(key, MAIN);
+        PatternCache.cachePattern(key, ALT);
+
+        List<String[]> ordered = PatternCache.orderBySuccess(key, Arrays.asList(MAIN, ALT));
+        assertSame(ALT, ordered.get(0));
+        assertArrayEquals(ALT, PatternCache.getCachedPattern(key));
+
+        // Another model of the same brand learns from its siblings
+        String otherKey = PatternCache.generateCacheKey(camera("10.0.0.2", "DS-2CD2387"), "Hikvision");
+        assertFalse(PatternCache.hasCachedPattern(otherKey));
+        assertSame(ALT, PatternCache.orderBySuccess(otherKey, Arrays.asList(MAIN, ALT)).get(0));
+    }
+
+    @Test
+    void testSaveAndLoad_RoundTrip(@TempDir Path dir) {
+        Path store = dir.resolve("patterns.tsv");
+        String key = PatternCache.generateCacheKey(camera("10.0.0.1", "DS-2CD2143"), "Hikvision");
+        PatternCache.cachePattern(key, ALT);
+        PatternCache.save(store);
+
+        PatternCache.clearCache();
+        PatternCache.load(store);
+
+        String[] restored = PatternCache.getCachedPattern(key);
+        assertEquals(ALT[0], restored[0]);
+        assertNull(restored[1]);
+        assertEquals(2, PatternCache.getCacheSize());
+    }
+}
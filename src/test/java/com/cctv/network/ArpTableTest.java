@@ -0,0 +1,47 @@
+package com.cctv.network;
+
+import org.junit.jupiter.api.Test;
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArpTableTest {
+
+    private static BufferedReader reader(String text) {
+        return new BufferedReader(new StringReader(text));
+    }
+
+    @Test
+    void testParseProcNetArp_SkipsIncompleteEntries() throws Exception {
+        Map<Integer, String> table = ArpTable.parseProcNetArp(reader(
+                "IP address       HW type     Flags       HW address            Mask     Device\n"
+                        + "192.168.1.64     0x1         0x2         bc:ad:28:11:22:33     *        eth0\n"
+                        + "192.168.1.65     0x1         0x0         00:00:00:00:00:00     *        eth0\n"));
+
+        assertEquals(1, table.size());
+        assertEquals("BC:AD:28:11:22:33", table.get(IpRange.toInt("192.168.1.64")));
+    }
+
+    @Test
+    void testParseArpOutput_WindowsAndBsd() throws Exception {
+        Map<Integer, String> table = ArpTable.parseArpOutput(reader(
+                "Interface: 192.168.1.5 --- 0xb\n"
+                        + "  Internet Address      Physical Address      Type\n"
+                        + "  192.168.1.108         ec-c8-9c-12-34-56     dynamic\n"
+                        + "  192.168.1.255         ff-ff-ff-ff-ff-ff     static\n"
+                        + "? (10.0.0.7) at 0:12:16:a:b:c on en0 ifscope [ethernet]\n"));
+
+        assertEquals(2, table.size());
+        assertEquals("EC:C8:9C:12:34:56", table.get(IpRange.toInt("192.168.1.108")));
+        assertEquals("00:12:16:0A:0B:0C", table.get(IpRange.toInt("10.0.0.7")));
+    }
+
+    @Test
+    void testNormalizeMac_RejectsNonMacTokens() {
+        assertNull(ArpTable.normalizeMac("dynamic"));
+        assertNull(ArpTable.normalizeMac("---"));
+        assertNull(ArpTable.normalizeMac("11:22:33:44:55"));
+        assertNull(ArpTable.normalizeMac("111:22:33:44:55:66"));
+    }
+}
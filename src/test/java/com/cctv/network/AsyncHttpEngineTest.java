@@ -0,0 +1,185 @@
+package com.cctv.network;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncHttpEngineTest {
+    private HttpServer server;
+
+    @AfterEach
+    void tearDown() {
+        AsyncHttpEngine.reset();
+        DeviceHttpClient.reset();
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void testFetch_ConcurrentRequestsShareCappedConnections() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        Set<String> clients = ConcurrentHashMap.newKeySet();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            clients.add(exchange.getRemoteAddress().toString());
+            peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = exchange.getRequestURI().getPath().getBytes(StandardCharsets.UTF_8);
+            active.decrementAndGet();
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            futures.add(AsyncHttpEngine.shared().fetch("GET", base + "/item" + i, null, null, null, null, 5000));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals("/item" + i, new String(futures.get(i).get(), StandardCharsets.UTF_8));
+        }
+
+        assertTrue(peak.get() > 1, "peak " + peak.get());
+        assertTrue(peak.get() <= AsyncHttpEngine.MAX_CONNECTIONS_PER_HOST, "peak " + peak.get());
+        assertTrue(clients.size() <= AsyncHttpEngine.MAX_CONNECTIONS_PER_HOST, "connections " + clients.size());
+    }
+
+    @Test
+    void testFetch_TimeoutStartsWhenRequestGetsConnection() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(120);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, 2);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("ok".getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        // 30 requests over 3 connections take ~1.2s, well past each request's own 500ms timeout
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            futures.add(AsyncHttpEngine.shared().fetch("GET", base + "/item" + i, null, null, null, null, 500));
+        }
+        for (CompletableFuture<byte[]> future : futures) {
+            assertEquals("ok", new String(future.get(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void testRequest_CancelledRequestsFreeTheirConnections() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            if (exchange.getRequestURI().getPath().startsWith("/hang")) {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.sendResponseHeaders(200, 2);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("ok".getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        List<CompletableFuture<byte[]>> hanging = new ArrayList<>();
+        for (int i = 0; i < AsyncHttpEngine.MAX_CONNECTIONS_PER_HOST; i++) {
+            hanging.add(AsyncHttpEngine.shared().fetch("GET", base + "/hang" + i, null, null, null, null, 10000));
+        }
+        CompletableFuture<byte[]> queued = AsyncHttpEngine.shared().fetch("GET", base + "/fast", null, null, null,
+                null, 10000);
+        Thread.sleep(200);
+        for (CompletableFuture<byte[]> future : hanging) {
+            future.cancel(false);
+        }
+
+        assertEquals("ok", new String(queued.get(2, TimeUnit.SECONDS), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testFetch_ResolvesHostNames() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, 2);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("ok".getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        server.start();
+
+        assertEquals("ok", new String(AsyncHttpEngine.shared().fetch("GET",
+                "http://localhost:" + server.getAddress().getPort() + "/", null, null, null, null, 5000).get(),
+                StandardCharsets.UTF_8));
+        assertTrue(AsyncHttpEngine.isIpLiteral("192.168.1.64"));
+        assertTrue(AsyncHttpEngine.isIpLiteral("[fe80::1]"));
+        assertFalse(AsyncHttpEngine.isIpLiteral("camera.local"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> AsyncHttpEngine.shared().fetch("GET",
+                "http://no-such-host.invalid/", null, null, null, null, 5000).get());
+        assertTrue(e.getCause() instanceof UnknownHostException, String.valueOf(e.getCause()));
+    }
+
+    @Test
+    void testFetch_FailsAtDeadlineWhenDeviceIsSilent() throws Exception {
+        try (ServerSocket silent = new ServerSocket(0)) {
+            List<Socket> accepted = Collections.synchronizedList(new ArrayList<>());
+            Thread acceptor = new Thread(() -> {
+                try {
+                    accepted.add(silent.accept());
+                } catch (Exception e) {
+                    // Closed
+                }
+            });
+            acceptor.start();
+
+            long start = System.currentTimeMillis();
+            CompletableFuture<byte[]> future = AsyncHttpEngine.shared().fetch("GET",
+                    "http://127.0.0.1:" + silent.getLocalPort() + "/", null, null, null, null, 300);
+            ExecutionException e = assertThrows(ExecutionException.class, future::get);
+
+            assertTrue(e.getCause() instanceof SocketTimeoutException, String.valueOf(e.getCause()));
+            assertTrue(System.currentTimeMillis() - start < 3000);
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+    }
+}
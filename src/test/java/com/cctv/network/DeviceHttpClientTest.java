@@ -0,0 +1,114 @@
+package com.cctv.network;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceHttpClientTest {
+
+    @AfterEach
+    void tearDown() {
+        DeviceHttpClient.reset();
+    }
+
+    @Test
+    void testGet_DigestOnOneKeptAliveConnection() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            AtomicInteger connections = new AtomicInteger();
+            List<String> authorizations = Collections.synchronizedList(new ArrayList<>());
+            Thread thread = serve(server, connections, authorizations);
+            String base = "http://127.0.0.1:" + server.getLocalPort();
+
+            DeviceHttpClient.Response first = DeviceHttpClient.get(base + "/ISAPI/System/deviceInfo", "admin",
+                    "secret", 2000);
+            DeviceHttpClient.Response second = DeviceHttpClient.get(base + "/ISAPI/System/time", "admin",
+                    "secret", 2000);
+
+            assertEquals(200, first.statusCode);
+            assertEquals("/ISAPI/System/deviceInfo", first.bodyText());
+            assertEquals(200, second.statusCode);
+            assertEquals(1, connections.get());
+
+            // Blind Basic, then Digest for the challenge; the second request answers the cached nonce up front
+            assertEquals(3, authorizations.size());
+            assertTrue(authorizations.get(0).startsWith("Basic "));
+            assertEquals("00000001", DigestAuth.parseChallenge(authorizations.get(1)).get("nc"));
+            assertEquals("00000002", DigestAuth.parseChallenge(authorizations.get(2)).get("nc"));
+            assertEquals("/ISAPI/System/time", DigestAuth.parseChallenge(authorizations.get(2)).get("uri"));
+
+            DeviceHttpClient.reset();
+            thread.join(2000);
+        }
+    }
+
+    @Test
+    void testGet_WrongPasswordIsNotRetriedForever() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            List<String> authorizations = Collections.synchronizedList(new ArrayList<>());
+            serve(server, new AtomicInteger(), authorizations);
+            String url = "http://127.0.0.1:" + server.getLocalPort() + "/cgi-bin/magicBox.cgi";
+
+            assertEquals(401, DeviceHttpClient.get(url, "admin", "wrong", 2000).statusCode);
+            assertEquals(2, authorizations.size());
+        }
+    }
+
+    private static boolean validDigest(Map<String, String> params, String path) {
+        String ha1 = DigestAuth.hash("MD5", "admin:cams:secret");
+        String ha2 = DigestAuth.hash("MD5", "GET:" + path);
+        return DigestAuth.hash("MD5", ha1 + ":n1:" + params.get("nc") + ":" + params.get("cnonce") + ":auth:" + ha2)
+                .equals(params.get("response"));
+    }
+
+    /**
+     * HTTP/1.1 server: 401 with a Digest challenge unless the request carries a
+     * Digest answer for password "secret"; echoes the path otherwise.
+     */
+    private static Thread serve(ServerSocket server, AtomicInteger connections, List<String> authorizations) {
+        Thread thread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                connections.incrementAndGet();
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+                OutputStream out = socket.getOutputStream();
+                String requestLine;
+                while ((requestLine = in.readLine()) != null) {
+                    String path = requestLine.split(" ")[1];
+                    String authorization = null;
+                    String line;
+                    while ((line = in.readLine()) != null && !line.isEmpty()) {
+                        if (line.startsWith("Authorization:")) {
+                            authorization = line.substring(14).trim();
+                            authorizations.add(authorization);
+                        }
+                    }
+                    String response;
+                    if (authorization != null && DigestAuth.isDigest(authorization)
+                            && validDigest(DigestAuth.parseChallenge(authorization), path)) {
+                        response = "HTTP/1.1 200 OK\r\nContent-Length: " + path.length() + "\r\n\r\n" + path;
+                    } else {
+                        response = "HTTP/1.1 401 Unauthorized\r\nWWW-Authenticate: Digest realm=\"cams\", nonce=\"n1\", qop=\"auth\""
+                                + "\r\nContent-Length: 0\r\n\r\n";
+                    }
+                    out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+                    out.flush();
+                }
+            } catch (Exception e) {
+                // Client closed the connection
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,64 @@
+package com.cctv.network;
+
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpResponseParserTest {
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    void testFeed_ChunkedBodyOneByteAtATime() throws IOException {
+        byte[] data = bytes("HTTP/1.1 100 Continue\r\n\r\n"
+                + "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nServer: App-webs/\r\n\r\n"
+                + "5\r\nhello\r\n7;ext=1\r\n, world\r\n0\r\n\r\nNEXT");
+        HttpResponseParser parser = new HttpResponseParser(1024, false);
+        int used = 0;
+        while (!parser.isComplete()) {
+            used += parser.feed(data, used, 1);
+        }
+
+        DeviceHttpClient.Response response = parser.getResponse();
+        assertEquals(200, response.statusCode);
+        assertEquals("hello, world", response.bodyText());
+        assertEquals("App-webs/", response.header("Server"));
+        assertTrue(response.keepAlive);
+        assertEquals("NEXT", new String(data, used, data.length - used, StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    void testFeed_ContentLengthAndCloseDelimited() throws IOException {
+        HttpResponseParser parser = new HttpResponseParser(1024, false);
+        byte[] data = bytes("HTTP/1.1 401 Unauthorized\r\nWWW-Authenticate: Basic realm=\"x\"\r\n"
+                + "WWW-Authenticate: Digest realm=\"x\", nonce=\"n1\"\r\nContent-Length: 2\r\n\r\nno");
+        assertEquals(data.length, parser.feed(data, 0, data.length));
+        assertTrue(parser.isComplete());
+        assertTrue(DigestAuth.isDigest(parser.getResponse().challenge));
+
+        parser = new HttpResponseParser(1024, false);
+        data = bytes("HTTP/1.0 200 OK\r\n\r\nuntil close");
+        parser.feed(data, 0, data.length);
+        assertFalse(parser.isComplete());
+        parser.endOfStream();
+        assertEquals("until close", parser.getResponse().bodyText());
+        assertFalse(parser.getResponse().keepAlive);
+    }
+
+    @Test
+    void testFeed_BodyOverCapFails() {
+        HttpResponseParser parser = new HttpResponseParser(4, false);
+        byte[] data = bytes("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello");
+        assertThrows(IOException.class, () -> parser.feed(data, 0, data.length));
+
+        HttpResponseParser truncated = new HttpResponseParser(1024, false);
+        byte[] partial = bytes("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhe");
+        assertThrows(IOException.class, () -> {
+            truncated.feed(partial, 0, partial.length);
+            truncated.endOfStream();
+        });
+    }
+}
@@ -0,0 +1,116 @@
+package com.cctv.network;
+
+import org.junit.jupiter.api.Test;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import static org.junit.jupiter.api.Assertions.*;
+
+class IpRangeTest {
+
+    @Test
+    void testOf_StartEndRange() {
+        IpRange range = IpRange.of("192.168.1.10", "192.168.1.12");
+        assertEquals(3, range.size());
+        assertEquals(Arrays.asList("192.168.1.10", "192.168.1.11", "192.168.1.12"), range.toList());
+    }
+
+    @Test
+    void testOf_ReversedBounds() {
+        IpRange range = IpRange.of("10.0.0.5", "10.0.0.1");
+        assertEquals(5, range.size());
+        assertEquals("10.0.0.1", range.iterator().next());
+    }
+
+    @Test
+    void testCidr_IncludesNetworkAndBroadcast() {
+        IpRange range = IpRange.cidr("192.168.1.77/24");
+        assertEquals(256, range.size());
+        assertTrue(range.contains("192.168.1.0"));
+        assertTrue(range.contains("192.168.1.255"));
+    }
+
+    @Test
+    void testHosts_ExcludesNetworkAndBroadcast() {
+        IpRange range = IpRange.hosts("192.168.1.0/24");
+        assertEquals(254, range.size());
+        assertFalse(range.contains("192.168.1.0"));
+        assertFalse(range.contains("192.168.1.255"));
+    }
+
+    @Test
+    void testParse_UnionAndExclusion() {
+        IpRange range = IpRange.parse("10.0.0.0/22, !10.0.1.0/24, 10.0.9.5");
+        assertEquals(1024 - 256 + 1, range.size());
+        assertTrue(range.contains("10.0.0.1"));
+        assertFalse(range.contains("10.0.1.1"));
+        assertTrue(range.contains("10.0.2.1"));
+        assertTrue(range.contains("10.0.9.5"));
+    }
+
+    @Test
+    void testParse_MergesOverlappingEntries() {
+        IpRange range = IpRange.parse("10.0.0.1-10.0.0.10, 10.0.0.5-10.0.0.20, 10.0.0.21");
+        assertEquals(21, range.size());
+        assertEquals("10.0.0.1-10.0.0.21", range.toString());
+    }
+
+    @Test
+    void testParse_ShortRangeEnd() {
+        IpRange range = IpRange.parse("192.168.1.1-50");
+        assertEquals(50, range.size());
+        assertTrue(range.contains("192.168.1.50"));
+    }
+
+    @Test
+    void testParse_SingleIp() {
+        IpRange range = IpRange.parse(" 192.168.1.1 ");
+        assertEquals(1, range.size());
+    }
+
+    @Test
+    void testParse_Invalid() {
+        assertThrows(IllegalArgumentException.class, () -> IpRange.parse("192.168.1"));
+        assertThrows(IllegalArgumentException.class, () -> IpRange.parse("10.0.0.0/33"));
+        assertThrows(IllegalArgumentException.class, () -> IpRange.parse(""));
+    }
+
+    @Test
+    void testLargeRange_IsLazy() {
+        IpRange range = IpRange.cidr("10.0.0.0/8");
+        assertEquals(16777216L, range.size());
+
+        PrimitiveIterator.OfInt it = range.addresses();
+        assertEquals("10.0.0.0", IpRange.toIp(it.nextInt()));
+        assertEquals("10.0.0.1", IpRange.toIp(it.nextInt()));
+    }
+
+    @Test
+    void testHighAddressesStayUnsigned() {
+        IpRange range = IpRange.of("255.255.255.254", "255.255.255.255");
+        assertEquals(Arrays.asList("255.255.255.254", "255.255.255.255"), range.toList());
+        assertTrue(range.contains(IpRange.toInt("255.255.255.255")));
+    }
+
+    @Test
+    void testSplit_CoversRangeWithoutOverlap() {
+        IpRange range = IpRange.parse("10.0.0.1-10.0.0.10, 10.0.1.1-10.0.1.5");
+        List<IpRange> chunks = range.split(4);
+
+        assertEquals(4, chunks.size());
+        long total = 0;
+        IpRange merged = IpRange.empty();
+        for (IpRange chunk : chunks) {
+            total += chunk.size();
+            merged = merged.union(chunk);
+        }
+        assertEquals(range.size(), total);
+        assertEquals(range.toString(), merged.toString());
+    }
+
+    @Test
+    void testSplit_MorePartsThanAddresses() {
+        List<IpRange> chunks = IpRange.of("10.0.0.1", "10.0.0.2").split(8);
+        assertEquals(2, chunks.size());
+    }
+}
@@ -0,0 +1,40 @@
+package com.cctv.network;
+
+import org.junit.jupiter.api.Test;
+import java.io.BufferedReader;
+import java.io.StringReader;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OuiRegistryTest {
+
+    @Test
+    void testLookup_LongestPrefixWins() {
+        OuiRegistry registry = OuiRegistry.builder()
+                .add("70B3D5", "IEEE Registration Authority")
+                .add("70B3D5A", "Block Vendor")
+                .add("70B3D5A12", "Small Vendor")
+                .build();
+
+        assertEquals("Small Vendor", registry.lookup("70:B3:D5:A1:23:45"));
+        assertEquals("Block Vendor", registry.lookup("70-b3-d5-af-00-01"));
+        assertEquals("IEEE Registration Authority", registry.lookup("70b3.d500.0001"));
+        assertNull(registry.lookup("00:11:22:33:44:55"));
+        assertNull(registry.lookup("not-a-mac"));
+        assertEquals(3, registry.size());
+    }
+
+    @Test
+    void testAddCsv_ParsesQuotedOrganisationNames() throws Exception {
+        OuiRegistry.Builder builder = OuiRegistry.builder();
+        int added = builder.addCsv(new BufferedReader(new StringReader(
+                "Registry,Assignment,Organization Name,Organization Address\n"
+                        + "MA-L,BCAD28,\"Hangzhou Hikvision Digital Technology Co.,Ltd.\",\"No.555 Qianmo Road\"\n"
+                        + "MA-M,E0A1291,\"Some \"\"Quoted\"\" Vendor\",Address\n"
+                        + "MA-L,ZZZZZZ,Broken,Address\n")));
+        OuiRegistry registry = builder.build();
+
+        assertEquals(2, added);
+        assertEquals("Hangzhou Hikvision Digital Technology Co.,Ltd.", registry.lookup("BC:AD:28:11:22:33"));
+        assertEquals("Some \"Quoted\" Vendor", registry.lookup("E0:A1:29:1F:00:00"));
+    }
+}
@@ -0,0 +1,46 @@
+package com.cctv.onvif;
+
+import com.cctv.model.Camera;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import java.util.Arrays;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OnvifAuthOrderTest {
+
+    @AfterEach
+    void tearDown() {
+        OnvifAuthOrder.clear();
+    }
+
+    private Camera camera(String ip, String manufacturer, String model) {
+        Camera camera = new Camera(ip);
+        camera.setManufacturer(manufacturer);
+        camera.setModel(model);
+        return camera;
+    }
+
+    @Test
+    void testOrder_DefaultsToDigestFirst() {
+        assertEquals(Arrays.asList("digest", "plaintext"),
+                OnvifAuthOrder.order(camera("192.168.1.10", "Hikvision", null)));
+    }
+
+    @Test
+    void testOrder_LearnedMethodFirstForSameManufacturer() {
+        OnvifAuthOrder.record(camera("192.168.1.10", "Dahua", "IPC-HDW2431"), "plaintext");
+
+        // Same brand, model not known yet (identity comes from GetDeviceInformation)
+        assertEquals(Arrays.asList("plaintext", "digest"),
+                OnvifAuthOrder.order(camera("192.168.1.11", "DAHUA", null)));
+    }
+
+    @Test
+    void testOrder_ModelOverridesManufacturer() {
+        OnvifAuthOrder.record(camera("192.168.1.10", "Axis", "P3245"), "plaintext");
+        OnvifAuthOrder.record(camera("192.168.1.11", "Axis", "M3106"), "digest");
+
+        assertEquals("plaintext", OnvifAuthOrder.order(camera("192.168.1.12", "Axis", "P3245")).get(0));
+        assertEquals("digest", OnvifAuthOrder.order(camera("192.168.1.13", "Axis", null)).get(0));
+    }
+}
@@ -0,0 +1,107 @@
+package com.cctv.onvif;
+
+import com.cctv.model.Camera;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OnvifClientTest {
+    private static final String PASSWORD_TEXT = "#PasswordText\">right</wsse:Password>";
+
+    private HttpServer server;
+
+    @AfterEach
+    void tearDown() {
+        OnvifSession.reset();
+        OnvifServices.clear();
+        OnvifAuthOrder.clear();
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void testAuthenticate_OpenDeviceInformationDoesNotVouchForCredential() throws Exception {
+        AtomicInteger profileRequests = new AtomicInteger();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        // Device information and services are open to anyone; media needs PasswordText "right"
+        server.createContext("/onvif/device_service", exchange -> {
+            String operation = OnvifSessionTest.operation(read(exchange));
+            String reply;
+            if ("GetSystemDateAndTime".equals(operation)) {
+                LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+                reply = "<GetSystemDateAndTimeResponse><UTCDateTime><Date><Year>" + now.getYear() + "</Year><Month>"
+                        + now.getMonthValue() + "</Month><Day>" + now.getDayOfMonth() + "</Day></Date><Time><Hour>"
+                        + now.getHour() + "</Hour><Minute>" + now.getMinute() + "</Minute><Second>"
+                        + now.getSecond() + "</Second></Time></UTCDateTime></GetSystemDateAndTimeResponse>";
+            } else if ("GetDeviceInformation".equals(operation)) {
+                reply = "<GetDeviceInformationResponse><Manufacturer>Acme</Manufacturer><Model>X1</Model>"
+                        + "<FirmwareVersion>1.0</FirmwareVersion></GetDeviceInformationResponse>";
+            } else if ("GetServices".equals(operation)) {
+                reply = "<GetServicesResponse><Service><Namespace>" + OnvifServices.MEDIA_NS + "</Namespace>"
+                        + "<XAddr>" + base + "/onvif/Media</XAddr></Service></GetServicesResponse>";
+            } else {
+                reply = "<" + operation + "Response/>";
+            }
+            answer(exchange, 200, reply);
+        });
+        server.createContext("/onvif/Media", exchange -> {
+            String request = read(exchange);
+            assertEquals("GetProfiles", OnvifSessionTest.operation(request));
+            profileRequests.incrementAndGet();
+            if (request.contains(PASSWORD_TEXT)) {
+                answer(exchange, 200, "<GetProfilesResponse><Profiles token=\"p1\"/></GetProfilesResponse>");
+            } else {
+                answer(exchange, 400, "<s:Fault><s:Code><s:Value>s:Sender</s:Value><s:Subcode>"
+                        + "<s:Value>ter:NotAuthorized</s:Value></s:Subcode></s:Code></s:Fault>");
+            }
+        });
+        server.start();
+
+        Camera camera = new Camera("127.0.0.1");
+        camera.setOnvifServiceUrl(base + "/onvif/device_service");
+        camera.setUsername("admin");
+        camera.setPassword("wrong");
+        assertFalse(OnvifClient.authenticate(camera));
+        assertTrue(camera.isAuthFailed());
+
+        camera.setPassword("right");
+        assertTrue(OnvifClient.authenticate(camera));
+        assertEquals("plaintext", camera.getAuthenticationMethod());
+        assertEquals("Acme", camera.getManufacturer());
+        // digest and plaintext for the wrong password, no-auth once, digest then plaintext for the right one
+        assertEquals(5, profileRequests.get());
+
+        // The next device of the model tries the method that worked first
+        Camera sibling = new Camera("127.0.0.2");
+        sibling.setManufacturer("Acme");
+        sibling.setModel("X1");
+        sibling.setFirmwareVersion("1.0");
+        assertEquals("plaintext", OnvifAuthOrder.order(sibling).get(0));
+    }
+
+    private static String read(HttpExchange exchange) {
+        return new Scanner(exchange.getRequestBody(), "UTF-8").useDelimiter("\\A").next();
+    }
+
+    private static void answer(HttpExchange exchange, int status, String operationReply)
+            throws IOException {
+        byte[] body = ("<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\"><s:Body>" + operationReply
+                + "</s:Body></s:Envelope>").getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}
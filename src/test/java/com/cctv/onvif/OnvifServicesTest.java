@@ -0,0 +1,59 @@
+package com.cctv.onvif;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OnvifServicesTest {
+
+    @Test
+    void testParseServices_MediaMedia2AndEvents() {
+        String xml = "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\"><s:Body>"
+                + "<tds:GetServicesResponse xmlns:tds=\"http://www.onvif.org/ver10/device/wsdl\" xmlns:tt=\"http://www.onvif.org/ver10/schema\">"
+                + "<tds:Service><tds:Namespace>http://www.onvif.org/ver10/device/wsdl</tds:Namespace>"
+                + "<tds:XAddr>http://10.0.0.5/onvif/device_service</tds:XAddr>"
+                + "<tds:Version><tt:Major>2</tt:Major><tt:Minor>60</tt:Minor></tds:Version></tds:Service>"
+                + "<tds:Service><tds:Namespace>http://www.onvif.org/ver10/media/wsdl</tds:Namespace>"
+                + "<tds:XAddr>http://10.0.0.5/onvif/Media</tds:XAddr></tds:Service>"
+                + "<tds:Service><tds:Namespace>http://www.onvif.org/ver20/media/wsdl</tds:Namespace>"
+                + "<tds:XAddr>http://10.0.0.5/onvif/Media2</tds:XAddr></tds:Service>"
+                + "<tds:Service><tds:Namespace>http://www.onvif.org/ver10/events/wsdl</tds:Namespace>"
+                + "<tds:XAddr>http://10.0.0.5/onvif/Events</tds:XAddr></tds:Service>"
+                + "</tds:GetServicesResponse></s:Body></s:Envelope>";
+
+        OnvifServices.Endpoints endpoints = OnvifServices.parseServices(xml);
+
+        assertEquals("http://10.0.0.5/onvif/Media", endpoints.media);
+        assertEquals("http://10.0.0.5/onvif/Media2", endpoints.media2);
+        assertEquals("http://10.0.0.5/onvif/Events", endpoints.events);
+        assertTrue(endpoints.usesMedia2());
+        assertEquals(endpoints.media2, endpoints.mediaUrl());
+    }
+
+    @Test
+    void testParseCapabilities_OlderDevice() {
+        String xml = "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\"><s:Body>"
+                + "<tds:GetCapabilitiesResponse xmlns:tds=\"http://www.onvif.org/ver10/device/wsdl\" xmlns:tt=\"http://www.onvif.org/ver10/schema\">"
+                + "<tds:Capabilities>"
+                + "<tt:Device><tt:XAddr>http://10.0.0.9:8899/onvif/device_service</tt:XAddr></tt:Device>"
+                + "<tt:Events><tt:XAddr>http://10.0.0.9:8899/onvif/event_service</tt:XAddr></tt:Events>"
+                + "<tt:Media><tt:XAddr>http://10.0.0.9:8899/onvif/Media</tt:XAddr>"
+                + "<tt:StreamingCapabilities><tt:RTP_TCP>true</tt:RTP_TCP></tt:StreamingCapabilities></tt:Media>"
+                + "</tds:Capabilities></tds:GetCapabilitiesResponse></s:Body></s:Envelope>";
+
+        OnvifServices.Endpoints endpoints = OnvifServices.parseCapabilities(xml);
+
+        assertEquals("http://10.0.0.9:8899/onvif/Media", endpoints.media);
+        assertNull(endpoints.media2);
+        assertEquals("http://10.0.0.9:8899/onvif/event_service", endpoints.events);
+        assertEquals(endpoints.media, endpoints.mediaUrl());
+    }
+
+    @Test
+    void testRebase_KeepsPathOnReachableAddress() {
+        // Device behind NAT advertises its internal address
+        assertEquals("http://203.0.113.7:8080/onvif/Media",
+                OnvifServices.rebase("http://192.168.1.64/onvif/Media", "http://203.0.113.7:8080/onvif/device_service"));
+        assertEquals("/onvif/Media2", OnvifServices.rebase("http://192.168.1.64/onvif/Media2", null));
+        assertNull(OnvifServices.rebase(null, "http://203.0.113.7/onvif/device_service"));
+    }
+}
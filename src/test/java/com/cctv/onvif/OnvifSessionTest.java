@@ -0,0 +1,369 @@
+package com.cctv.onvif;
+
+import com.cctv.network.AsyncHttpEngine;
+import com.cctv.util.ExecutionBudget;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OnvifSessionTest {
+    private static final String SOAP_NS = "http://www.w3.org/2003/05/soap-envelope";
+
+    private HttpServer server;
+
+    @AfterEach
+    void tearDown() {
+        OnvifSession.reset();
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    private String startServer(AtomicInteger requests) throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/onvif/media_service", exchange -> {
+            if (readRequest(exchange) == null) {
+                return;
+            }
+            requests.incrementAndGet();
+            byte[] body = "<Envelope><Profiles token=\"p1\"/></Envelope>".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/onvif/media_service";
+    }
+
+    @Test
+    void testGetProfiles_SentOncePerCredential() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        String mediaUrl = startServer(requests);
+
+        String first = OnvifSession.forUrl(mediaUrl).getProfiles(mediaUrl, "admin", "12345");
+        String second = OnvifSession.forUrl(mediaUrl).getProfiles(mediaUrl, "admin", "12345");
+        assertEquals(first, second);
+        assertEquals(1, requests.get());
+
+        OnvifSession.forUrl(mediaUrl).getProfiles(mediaUrl, "admin", "other");
+        assertEquals(2, requests.get());
+
+        OnvifSession.reset();
+        OnvifSession.forUrl(mediaUrl).getProfiles(mediaUrl, "admin", "12345");
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    void testReset_OnlyForgetsTheCurrentRun() throws Exception {
+        String url = "http://127.0.0.1:1/onvif/device_service";
+        OnvifSession outside = OnvifSession.forUrl(url);
+        OnvifSession[] inRun = new OnvifSession[2];
+        Thread run = new Thread(() -> {
+            ExecutionBudget.start(4, 0);
+            try {
+                inRun[0] = OnvifSession.forUrl(url);
+                OnvifSession.reset();
+                inRun[1] = OnvifSession.forUrl(url);
+            } finally {
+                ExecutionBudget.end();
+            }
+        });
+        run.start();
+        run.join();
+
+        assertNotSame(outside, inRun[0]);
+        assertNotSame(inRun[0], inRun[1]);
+        assertSame(outside, OnvifSession.forUrl(url));
+    }
+
+    @Test
+    void testSend_FailureIsRemembered() {
+        String url = "http://127.0.0.1:1/onvif/device_service";
+        OnvifSession session = OnvifSession.forUrl(url);
+        assertThrows(Exception.class, () -> session.device(url, "GetHostname", null, null));
+        assertThrows(Exception.class, () -> session.device(url, "GetHostname", null, null));
+        assertEquals(1, session.size());
+    }
+
+    @Test
+    void testResolveDeviceService_FirstAnsweringEndpointIsCached() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/onvif/device_service", exchange -> {
+            if (readRequest(exchange) == null) {
+                return;
+            }
+            requests.incrementAndGet();
+            // Auth-protected device: a SOAP fault still identifies the endpoint
+            byte[] body = fault("ter:NotAuthorized").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(401, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        String live = "http://127.0.0.1:" + server.getAddress().getPort() + "/onvif/device_service";
+        String dead = "http://127.0.0.1:1/onvif/device_service";
+
+        OnvifSession session = OnvifSession.forDevice("127.0.0.1");
+        assertEquals(live, session.resolveDeviceService(Arrays.asList(dead, live)));
+        assertEquals(live, session.resolveDeviceService(Arrays.asList(dead, live)));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void testResolveDeviceService_IgnoresNonSoapAnswersAndPrefersAdvertisedUrl() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            String request = readRequest(exchange);
+            if (request == null) {
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String reply;
+            if (path.startsWith("/web") || !"GetSystemDateAndTime".equals(operation(request))) {
+                reply = "<html><body>Login</body></html>";
+            } else {
+                if (path.startsWith("/advertised")) {
+                    try {
+                        Thread.sleep(300);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                reply = "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\"><s:Body>"
+                        + "<tds:GetSystemDateAndTimeResponse xmlns:tds=\"http://www.onvif.org/ver10/device/wsdl\"/>"
+                        + "</s:Body></s:Envelope>";
+            }
+            byte[] body = reply.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        // A web UI answering 200 is not an ONVIF service
+        assertNull(OnvifSession.forDevice("127.0.0.1").resolveDeviceService(
+                Collections.singletonList(base + "/web/device_service")));
+
+        // The advertised XAddr wins over a faster conventional port
+        OnvifSession.reset();
+        assertEquals(base + "/advertised/device_service", OnvifSession.forDevice("127.0.0.1").resolveDeviceService(
+                Arrays.asList(base + "/advertised/device_service", base + "/web/device_service",
+                        base + "/onvif/device_service")));
+
+        // Without an answer from the first candidate, the next valid one wins
+        OnvifSession.reset();
+        assertEquals(base + "/onvif/device_service", OnvifSession.forDevice("127.0.0.1").resolveDeviceService(
+                Arrays.asList("http://127.0.0.1:1/onvif/device_service", base + "/web/device_service",
+                        base + "/onvif/device_service")));
+    }
+
+    @Test
+    void testSoapReply() {
+        assertEquals("Fault", OnvifSession.soapReply(fault("ter:NotAuthorized")));
+        assertNull(OnvifSession.soapReply("<Envelope><Body><GetHostnameResponse/></Body></Envelope>"));
+        assertNull(OnvifSession.soapReply("<html><body><Fault/></body></html>"));
+        assertNull(OnvifSession.soapReply("Unauthorized"));
+    }
+
+    private static String fault(String subcode) {
+        return "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" "
+                + "xmlns:ter=\"http://www.onvif.org/ver10/error\"><s:Body><s:Fault>"
+                + "<s:Code><s:Value>s:Sender</s:Value><s:Subcode><s:Value>" + subcode + "</s:Value></s:Subcode></s:Code>"
+                + "<s:Reason><s:Text xml:lang=\"en\">Sender not authorized</s:Text></s:Reason>"
+                + "</s:Fault></s:Body></s:Envelope>";
+    }
+
+    /**
+     * Local name of the operation element in a request's SOAP body; null if the
+     * body holds no element, e.g. when the operation was sent as escaped text.
+     */
+    static String operation(String request) {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            Document document = factory.newDocumentBuilder().parse(new InputSource(new StringReader(request)));
+            NodeList bodies = document.getElementsByTagNameNS(SOAP_NS, "Body");
+            if (bodies.getLength() == 0) {
+                return null;
+            }
+            for (Node node = bodies.item(0).getFirstChild(); node != null; node = node.getNextSibling()) {
+                if (node.getNodeType() == Node.ELEMENT_NODE) {
+                    return node.getLocalName();
+                }
+            }
+            return null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a request the way a device parses it: one without an operation
+     * element is answered 400 and null is returned.
+     */
+    private static String readRequest(HttpExchange exchange) throws IOException {
+        String request = new Scanner(exchange.getRequestBody(), "UTF-8").useDelimiter("\\A").next();
+        if (operation(request) != null) {
+            return request;
+        }
+        byte[] body = "Malformed SOAP request".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(400, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+        return null;
+    }
+
+    @Test
+    void testResolveDeviceService_SkewedClockShiftsCreated() throws Exception {
+        LocalDateTime deviceTime = LocalDateTime.now(ZoneOffset.UTC).minusHours(1);
+        List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/onvif/device_service", exchange -> {
+            String request = readRequest(exchange);
+            if (request == null) {
+                return;
+            }
+            requests.add(request);
+            byte[] body = ("<Envelope><Body><GetSystemDateAndTimeResponse><UTCDateTime><Date><Year>" + deviceTime.getYear() + "</Year><Month>"
+                    + deviceTime.getMonthValue() + "</Month><Day>" + deviceTime.getDayOfMonth() + "</Day></Date>"
+                    + "<Time><Hour>" + deviceTime.getHour() + "</Hour><Minute>" + deviceTime.getMinute()
+                    + "</Minute><Second>" + deviceTime.getSecond() + "</Second></Time></UTCDateTime>"
+                    + "</GetSystemDateAndTimeResponse></Body></Envelope>")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/onvif/device_service";
+
+        OnvifSession session = OnvifSession.forDevice("127.0.0.1");
+        assertEquals(url, session.resolveDeviceService(Collections.singletonList(url)));
+        assertEquals(3600000, session.getTimeDifferenceMs(), 5000);
+
+        session.device(url, "GetHostname", "admin", "12345");
+        assertEquals("GetSystemDateAndTime", operation(requests.get(0)));
+        assertEquals("GetHostname", operation(requests.get(1)));
+        String created = SoapHelper.extractValue(requests.get(1), "Created");
+        long skew = System.currentTimeMillis() - Instant.parse(created).toEpochMilli();
+        assertEquals(3600000, skew, 5000);
+    }
+
+    @Test
+    void testDeviceAsync_ConcurrentUpToPerDeviceCap() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/onvif/device_service", exchange -> {
+            if (readRequest(exchange) == null) {
+                return;
+            }
+            peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+            byte[] body = "<Envelope><Name>cam</Name></Envelope>".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/onvif/device_service";
+
+        OnvifSession session = OnvifSession.forUrl(url);
+        List<CompletableFuture<String>> requests = new ArrayList<>();
+        for (String operation : Arrays.asList("GetHostname", "GetScopes", "GetSystemDateAndTime",
+                "GetNetworkInterfaces", "GetUsers")) {
+            requests.add(session.deviceAsync(url, operation, null, null));
+        }
+        for (CompletableFuture<String> request : requests) {
+            assertTrue(request.join().contains("cam"));
+        }
+        assertTrue(peak.get() > 1, "requests should overlap");
+        assertTrue(peak.get() <= AsyncHttpEngine.MAX_CONNECTIONS_PER_HOST, "peak " + peak.get());
+    }
+
+    @Test
+    void testVideoEncoders_AsksMedia2ForProfilesWithoutVideoEncoder() throws Exception {
+        List<String> asked = Collections.synchronizedList(new ArrayList<>());
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/onvif/Media2", exchange -> {
+            String request = readRequest(exchange);
+            if (request == null) {
+                return;
+            }
+            asked.add(request);
+            byte[] body = ("<Envelope><Body><GetVideoEncoderConfigurationsResponse>"
+                    + "<Configurations token=\"ve2\"><Encoding>H265</Encoding>"
+                    + "<Resolution><Width>640</Width><Height>360</Height></Resolution>"
+                    + "<RateControl><FrameRateLimit>15</FrameRateLimit><BitrateLimit>512</BitrateLimit></RateControl>"
+                    + "</Configurations></GetVideoEncoderConfigurationsResponse></Body></Envelope>")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        String mediaUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/onvif/Media2";
+        String profiles = "<Envelope><Body><GetProfilesResponse>"
+                + "<Profiles token=\"p1\"><Name>main</Name><Configurations><VideoEncoder token=\"ve1\">"
+                + "<Encoding>H264</Encoding><Resolution><Width>1920</Width><Height>1080</Height></Resolution>"
+                + "</VideoEncoder></Configurations></Profiles>"
+                + "<Profiles token=\"p2\"><Name>sub</Name></Profiles>"
+                + "</GetProfilesResponse></Body></Envelope>";
+
+        Map<String, ProfileParser.VideoEncoder> encoders = OnvifClient.videoEncoders(mediaUrl, true, profiles,
+                null, null);
+
+        assertEquals(1, asked.size(), "only the profile without an encoder is asked for");
+        assertEquals("GetVideoEncoderConfigurations", operation(asked.get(0)));
+        assertEquals("p2", SoapHelper.extractValue(asked.get(0), "ProfileToken"));
+        assertEquals("h264", encoders.get("p1").codec);
+        assertEquals("hevc", encoders.get("p2").codec);
+        assertEquals(640, encoders.get("p2").width);
+        assertEquals(512, encoders.get("p2").bitrateKbps);
+
+        // Media profiles carry their encoder or have none; nothing more to ask
+        asked.clear();
+        assertNull(OnvifClient.videoEncoders(mediaUrl, false, profiles, null, null).get("p2"));
+        assertTrue(asked.isEmpty());
+    }
+}
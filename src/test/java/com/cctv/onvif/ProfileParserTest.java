@@ -0,0 +1,89 @@
+package com.cctv.onvif;
+
+import com.cctv.model.StreamInfo;
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProfileParserTest {
+
+    @Test
+    void testParseProfiles_Media() {
+        String xml = "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\""
+                + " xmlns:trt=\"http://www.onvif.org/ver10/media/wsdl\" xmlns:tt=\"http://www.onvif.org/ver10/schema\">"
+                + "<s:Body><trt:GetProfilesResponse>"
+                + "<trt:Profiles token=\"Profile_1\" fixed=\"true\"><tt:Name>mainStream</tt:Name>"
+                + "<tt:VideoSourceConfiguration token=\"VS1\"><tt:Name>VideoSource_1</tt:Name>"
+                + "<tt:Bounds x=\"0\" y=\"0\" width=\"2560\" height=\"1440\"/></tt:VideoSourceConfiguration>"
+                + "<tt:VideoEncoderConfiguration token=\"VE1\"><tt:Name>VideoEncoder_1</tt:Name>"
+                + "<tt:Encoding>H264</tt:Encoding><tt:Resolution><tt:Width>2560</tt:Width>"
+                + "<tt:Height>1440</tt:Height></tt:Resolution><tt:Quality>5</tt:Quality>"
+                + "<tt:RateControl><tt:FrameRateLimit>25</tt:FrameRateLimit><tt:EncodingInterval>1</tt:EncodingInterval>"
+                + "<tt:BitrateLimit>4096</tt:BitrateLimit></tt:RateControl>"
+                + "<tt:H264><tt:GovLength>50</tt:GovLength><tt:H264Profile>Main</tt:H264Profile></tt:H264>"
+                + "</tt:VideoEncoderConfiguration></trt:Profiles>"
+                + "<trt:Profiles token=\"Profile_2\" fixed=\"true\"><tt:Name>subStream</tt:Name>"
+                + "<tt:VideoEncoderConfiguration token=\"VE2\"><tt:Encoding>JPEG</tt:Encoding>"
+                + "<tt:Resolution><tt:Width>640</tt:Width><tt:Height>360</tt:Height></tt:Resolution>"
+                + "<tt:RateControl><tt:FrameRateLimit>30</tt:FrameRateLimit><tt:EncodingInterval>2</tt:EncodingInterval>"
+                + "<tt:BitrateLimit>512</tt:BitrateLimit></tt:RateControl></tt:VideoEncoderConfiguration>"
+                + "</trt:Profiles>"
+                + "<trt:Profiles token=\"Audio\"><tt:Name>audioOnly</tt:Name></trt:Profiles>"
+                + "</trt:GetProfilesResponse></s:Body></s:Envelope>";
+
+        List<ProfileParser.Profile> profiles = ProfileParser.parseProfiles(xml);
+        assertEquals(3, profiles.size());
+        assertEquals("Profile_1", profiles.get(0).token);
+        assertEquals("mainStream", profiles.get(0).name);
+        assertNull(profiles.get(2).encoder);
+
+        StreamInfo main = new StreamInfo();
+        profiles.get(0).encoder.applyTo(main);
+        assertEquals("h264", main.getCodec());
+        assertEquals("2560x1440", main.getResolution());
+        assertEquals(25.0, main.getFps(), 0.001);
+        assertEquals(4096, main.getBitrate());
+
+        ProfileParser.VideoEncoder sub = profiles.get(1).encoder;
+        assertEquals("mjpeg", sub.codec);
+        assertEquals(15.0, sub.fps, 0.001);
+    }
+
+    @Test
+    void testParseProfiles_Media2() {
+        String xml = "<Envelope><Body><GetProfilesResponse>"
+                + "<Profiles token=\"p0\"><Name>Main</Name><Configurations>"
+                + "<VideoSource token=\"vs\"><Name>src</Name></VideoSource>"
+                + "<VideoEncoder token=\"ve0\" GovLength=\"50\"><Name>enc</Name><Encoding>H265</Encoding>"
+                + "<Resolution><Width>3840</Width><Height>2160</Height></Resolution>"
+                + "<RateControl ConstantBitRate=\"false\"><FrameRateLimit>20.0</FrameRateLimit>"
+                + "<BitrateLimit>8192</BitrateLimit></RateControl></VideoEncoder>"
+                + "</Configurations></Profiles></GetProfilesResponse></Body></Envelope>";
+
+        List<ProfileParser.Profile> profiles = ProfileParser.parseProfiles(xml);
+        assertEquals(1, profiles.size());
+        assertEquals("Main", profiles.get(0).name);
+        ProfileParser.VideoEncoder encoder = profiles.get(0).encoder;
+        assertEquals("ve0", encoder.token);
+        assertEquals("hevc", encoder.codec);
+        assertEquals(3840, encoder.width);
+        assertEquals(20.0, encoder.fps, 0.001);
+        assertEquals(8192, encoder.bitrateKbps);
+    }
+
+    @Test
+    void testParseEncoderConfigurations() {
+        String xml = "<Envelope><Body><GetVideoEncoderConfigurationsResponse>"
+                + "<Configurations token=\"ve0\"><Encoding>H264</Encoding><Resolution><Width>1920</Width>"
+                + "<Height>1080</Height></Resolution></Configurations>"
+                + "<Configurations token=\"ve1\"><Encoding>H264</Encoding><Resolution><Width>704</Width>"
+                + "<Height>576</Height></Resolution></Configurations>"
+                + "</GetVideoEncoderConfigurationsResponse></Body></Envelope>";
+
+        Map<String, ProfileParser.VideoEncoder> encoders = ProfileParser.parseEncoderConfigurations(xml);
+        assertEquals(2, encoders.size());
+        assertEquals(704, encoders.get("ve1").width);
+        assertTrue(ProfileParser.parseProfiles("<not xml").isEmpty());
+    }
+}
@@ -1,6 +1,10 @@
 package com.cctv.onvif;
 
 import org.junit.jupiter.api.Test;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Map;
 import static org.junit.jupiter.api.Assertions.*;
 
 class SoapHelperTest {
@@ -145,12 +149,50 @@ class SoapHelperTest {
     }
 
     @Test
-    void testCreateSoapEnvelope_XmlEscaping() {
-        String body = "<Test>Value with <special> & \"characters\"</Test>";
-        String envelope = SoapHelper.createSoapEnvelope(body, null, null);
+    void testCreateSoapEnvelope_BodyIsSentAsXml() {
+        String body = "<GetProfiles xmlns=\"http://www.onvif.org/ver10/media/wsdl\"/>";
+        String envelope = SoapHelper.createSoapEnvelope(body, "admin<1>", "12345");
         
-        // Body should be escaped
-        assertTrue(envelope.contains("&lt;") || envelope.contains("&amp;"));
+        // The operation element goes in as is; only the credentials are escaped
+        assertTrue(envelope.contains("<s:Body>" + body + "</s:Body>"));
+        assertTrue(envelope.contains("<wsse:Username>admin&lt;1&gt;</wsse:Username>"));
+        assertEquals("GetProfiles", OnvifSessionTest.operation(envelope));
+    }
+
+    @Test
+    void testCreateSoapEnvelope_DigestMatchesNonceAndCreated() throws Exception {
+        String body = "<GetDeviceInformation xmlns=\"http://www.onvif.org/ver10/device/wsdl\"/>";
+        String first = SoapHelper.createSoapEnvelope(body, "b\u00fcro<1>", "p\u00e4ss&word", "digest");
+        String second = SoapHelper.createSoapEnvelope(body, "admin", "12345", "digest");
+
+        assertTrue(first.contains("<wsse:Username>b\u00fcro&lt;1&gt;</wsse:Username>"));
+        Map<String, String> values = SoapHelper.extractValues(first, "Nonce", "Created", "Password");
+        byte[] nonce = Base64.getDecoder().decode(values.get("Nonce"));
+        assertEquals(SoapEnvelope.NONCE_BYTES, nonce.length);
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        sha1.update(nonce);
+        sha1.update(values.get("Created").getBytes(StandardCharsets.UTF_8));
+        sha1.update("p\u00e4ss&word".getBytes(StandardCharsets.UTF_8));
+        assertEquals(Base64.getEncoder().encodeToString(sha1.digest()), values.get("Password"));
+        assertNotEquals(values.get("Nonce"), SoapHelper.extractValue(second, "Nonce"));
+    }
+
+    @Test
+    void testExtractValue_PrefixedMultiProfileFragments() {
+        String response = "<s:Envelope><s:Body><trt:GetProfilesResponse>"
+                + "<trt:Profiles token=\"P1\" fixed=\"true\"><tt:Name>Channel_03</tt:Name>"
+                + "<tt:VideoSourceConfiguration token=\"V1\"><tt:Name>VideoSource_3</tt:Name></tt:VideoSourceConfiguration>"
+                + "</trt:Profiles>"
+                + "<trt:Profiles token=\"P2\"><tt:Name>Channel_03_sub</tt:Name></trt:Profiles>"
+                + "</trt:GetProfilesResponse></s:Body></s:Envelope>";
+
+        // Split fragments are not well-formed, so this goes through the string fallback
+        String[] profiles = OnvifClient.splitProfiles(response);
+        assertEquals(3, profiles.length);
+        assertEquals("Channel_03", SoapHelper.extractValue(profiles[1], "Name"));
+        assertEquals("Channel_03", SoapHelper.extractValue(profiles[1], "tt:Name"));
+        assertEquals("Channel_03_sub", SoapHelper.extractValue(profiles[2], "Name"));
+        assertNull(SoapHelper.extractValue(profiles[2], "Manufacturer"));
     }
 
     @Test
@@ -195,4 +237,32 @@ class SoapHelperTest {
         assertEquals("V5.5.0", SoapHelper.extractValue(xml, "tds:FirmwareVersion"));
         assertEquals("DS-2CD2142FWD-I20170101AAWRJ12345678", SoapHelper.extractValue(xml, "tds:SerialNumber"));
     }
+
+    @Test
+    void testExtractValues_SinglePassOverDateTime() {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+            "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\" xmlns:tt=\"http://www.onvif.org/ver10/schema\">" +
+            "<s:Body><tds:GetSystemDateAndTimeResponse xmlns:tds=\"http://www.onvif.org/ver10/device/wsdl\">" +
+            "<tds:SystemDateAndTime>" +
+            "<tt:UTCDateTime><tt:Time><tt:Hour>8</tt:Hour><tt:Minute>5</tt:Minute></tt:Time>" +
+            "<tt:Date><tt:Year>2024</tt:Year><tt:Month>3</tt:Month></tt:Date></tt:UTCDateTime>" +
+            "<tt:LocalDateTime><tt:Time><tt:Hour>13</tt:Hour></tt:Time></tt:LocalDateTime>" +
+            "</tds:SystemDateAndTime></tds:GetSystemDateAndTimeResponse></s:Body></s:Envelope>";
+
+        java.util.Map<String, String> values = SoapHelper.extractValues(xml, "Year", "tt:Month", "Hour", "Minute", "Day");
+        assertEquals("2024", values.get("Year"));
+        assertEquals("3", values.get("tt:Month"));
+        assertEquals("8", values.get("Hour")); // first occurrence: UTC, not local
+        assertEquals("5", values.get("Minute"));
+        assertNull(values.get("Day"));
+    }
+
+    @Test
+    void testExtractValues_NestedTextAndMalformedTail() {
+        String xml = "<root><Time><Hour>1</Hour><Minute>2</Minute></Time><Model>IPC</Model><Broken>";
+        java.util.Map<String, String> values = SoapHelper.extractValues(xml, "Time", "Model", "Name");
+        assertEquals("12", values.get("Time"));
+        assertEquals("IPC", values.get("Model"));
+        assertNull(values.get("Name"));
+    }
 }
@@ -0,0 +1,72 @@
+package com.cctv.probe;
+
+import com.cctv.model.StreamInfo;
+import org.junit.jupiter.api.Test;
+import java.util.Base64;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SdpParserTest {
+
+    private static String h264Sdp() {
+        String sps = Base64.getEncoder().encodeToString(SpsParserTest.h264Sps());
+        return "v=0\r\n"
+                + "o=- 1 1 IN IP4 10.0.0.5\r\n"
+                + "s=Media Presentation\r\n"
+                + "b=AS:5000\r\n"
+                + "m=audio 0 RTP/AVP 0\r\n"
+                + "b=AS:64\r\n"
+                + "m=video 0 RTP/AVP 96\r\n"
+                + "b=AS:4096\r\n"
+                + "a=control:trackID=1\r\n"
+                + "a=rtpmap:96 H264/90000\r\n"
+                + "a=fmtp:96 profile-level-id=42001f;packetization-mode=1;sprop-parameter-sets=" + sps + ",aM48gA==\r\n";
+    }
+
+    @Test
+    void testParse_VideoTrack() {
+        SdpParser.VideoTrack track = SdpParser.parse(h264Sdp());
+        assertNotNull(track);
+        assertEquals("h264", track.codec);
+        assertEquals(96, track.payloadType);
+        assertEquals(90000, track.clockRate);
+        assertEquals(4096, track.bitrateKbps);
+        assertEquals("trackID=1", track.control);
+        assertTrue(track.hasParameterSets());
+        assertNotNull(track.pps);
+    }
+
+    @Test
+    void testParse_NoVideo() {
+        assertNull(SdpParser.parse("v=0\r\nm=audio 0 RTP/AVP 0\r\n"));
+        assertNull(SdpParser.parse(null));
+    }
+
+    @Test
+    void testParse_H265ParameterSets() {
+        String sps = Base64.getEncoder().encodeToString(SpsParserTest.h265Sps());
+        SdpParser.VideoTrack track = SdpParser.parse("v=0\nm=video 0 RTP/AVP 98\na=rtpmap:98 H265/90000\n"
+                + "a=fmtp:98 sprop-vps=QAEMAf//;sprop-sps=" + sps + ";sprop-pps=RAHA8vA8kAA=\na=framerate:15\n");
+        assertEquals("hevc", track.codec);
+        assertTrue(track.hasParameterSets());
+        assertEquals(15.0, track.framerate, 0.001);
+    }
+
+    @Test
+    void testProbeFromSdp_FillsStreamInfo() {
+        StreamInfo stream = new StreamInfo();
+        stream.setRtspUrl("rtsp://10.0.0.5/live");
+
+        assertTrue(StreamProbe.probeFromSdp(stream, h264Sdp()));
+        assertEquals("h264", stream.getCodec());
+        assertEquals("1920x1080", stream.getResolution());
+        assertEquals(25.0, stream.getFps(), 0.001);
+        assertEquals(4096, stream.getBitrate());
+    }
+
+    @Test
+    void testProbeFromSdp_WithoutParameterSets() {
+        StreamInfo stream = new StreamInfo();
+        assertFalse(StreamProbe.probeFromSdp(stream, "v=0\r\nm=video 0 RTP/AVP 96\r\na=rtpmap:96 H264/90000\r\n"));
+        assertNull(stream.getCodec());
+    }
+}
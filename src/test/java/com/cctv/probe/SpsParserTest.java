@@ -0,0 +1,128 @@
+package com.cctv.probe;
+
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpsParserTest {
+
+    /** 1920x1080 Baseline@3.1 SPS, 1088 coded lines cropped by 8, VUI timing for 25 fps */
+    static byte[] h264Sps() {
+        BitWriter w = new BitWriter();
+        w.bits(66, 8).bits(0, 8).bits(31, 8); // profile, constraints, level
+        w.ue(0); // sps id
+        w.ue(0); // log2_max_frame_num_minus4
+        w.ue(2); // pic_order_cnt_type
+        w.ue(1); // max_num_ref_frames
+        w.bits(0, 1); // gaps
+        w.ue(119).ue(67); // 120 x 68 macroblocks
+        w.bits(1, 1).bits(1, 1); // frame_mbs_only, direct_8x8
+        w.bits(1, 1).ue(0).ue(0).ue(0).ue(4); // crop 8 lines at the bottom
+        w.bits(1, 1); // vui present
+        w.bits(0, 4); // no aspect, overscan, signal type, chroma loc
+        w.bits(1, 1).bits(1, 32).bits(50, 32).bits(1, 1); // timing: 50 / (2 * 1) = 25 fps
+        w.bits(0, 5); // remaining VUI flags
+        return w.nal(0x67);
+    }
+
+    /** 1920x1080 Main@4 HEVC SPS with one short-term RPS and VUI timing for 30 fps */
+    static byte[] h265Sps() {
+        BitWriter w = new BitWriter();
+        w.bits(0, 4).bits(0, 3).bits(1, 1); // vps id, max_sub_layers_minus1, nesting
+        w.bits(0, 2).bits(0, 1).bits(1, 5); // profile space, tier, Main
+        w.bits(0x60000000L, 32).bits(0, 48).bits(120, 8); // compat flags, constraints, level 4
+        w.ue(0).ue(1); // sps id, 4:2:0
+        w.ue(1920).ue(1080).bits(0, 1); // size, no conformance window
+        w.ue(0).ue(0).ue(4); // bit depths, log2_max_poc_lsb_minus4
+        w.bits(1, 1).ue(1).ue(0).ue(0); // sub-layer ordering info
+        w.ue(0).ue(3).ue(0).ue(3).ue(0).ue(0); // block sizes, hierarchy depths
+        w.bits(0, 1).bits(0, 1).bits(1, 1).bits(0, 1); // scaling list, amp, sao, pcm
+        w.ue(1).ue(1).ue(0).ue(0).bits(1, 1); // one RPS: one negative picture
+        w.bits(0, 1).bits(1, 1).bits(1, 1); // long term, tmvp, strong intra smoothing
+        w.bits(1, 1); // vui present
+        w.bits(0, 4).bits(0, 3).bits(0, 1); // no aspect/overscan/signal/chroma loc, flags, no window
+        w.bits(1, 1).bits(1, 32).bits(30, 32); // timing: 30 / 1 = 30 fps
+        w.bits(0, 3);
+        return w.nal(0x42, 0x01);
+    }
+
+    @Test
+    void testParseH264_SizeProfileAndTiming() {
+        SpsParser.Result result = SpsParser.parseH264(h264Sps());
+        assertEquals(1920, result.width);
+        assertEquals(1080, result.height);
+        assertEquals("Baseline", result.profile);
+        assertEquals(3.1, result.level, 0.001);
+        assertEquals(25.0, result.fps, 0.001);
+    }
+
+    @Test
+    void testParseH265_SizeProfileAndTiming() {
+        SpsParser.Result result = SpsParser.parseH265(h265Sps());
+        assertEquals(1920, result.width);
+        assertEquals(1080, result.height);
+        assertEquals("Main", result.profile);
+        assertEquals(4.0, result.level, 0.001);
+        assertEquals(30.0, result.fps, 0.001);
+    }
+
+    @Test
+    void testParseH264_RejectsOtherNalTypes() {
+        assertThrows(IllegalArgumentException.class, () -> SpsParser.parseH264(new byte[] { 0x68, 1, 2, 3 }));
+    }
+
+    @Test
+    void testUnescape_RemovesEmulationPrevention() {
+        byte[] nal = { 0x67, 0, 0, 3, 1, 0, 0, 3, 0 };
+        assertArrayEquals(new byte[] { 0, 0, 1, 0, 0, 0 }, SpsParser.unescape(nal, 1));
+    }
+
+    /**
+     * Test helper writing an RBSP, then adding the stop bit, emulation prevention and NAL header.
+     */
+    static class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int current;
+        private int count;
+
+        BitWriter bits(long value, int n) {
+            for (int i = n - 1; i >= 0; i--) {
+                current = (current << 1) | (int) ((value >> i) & 1);
+                if (++count == 8) {
+                    out.write(current);
+                    current = 0;
+                    count = 0;
+                }
+            }
+            return this;
+        }
+
+        BitWriter ue(int value) {
+            int v = value + 1;
+            int len = 32 - Integer.numberOfLeadingZeros(v);
+            bits(0, len - 1);
+            return bits(v, len);
+        }
+
+        byte[] nal(int... header) {
+            bits(1, 1);
+            while (count != 0) {
+                bits(0, 1);
+            }
+            ByteArrayOutputStream nal = new ByteArrayOutputStream();
+            for (int b : header) {
+                nal.write(b);
+            }
+            int zeros = 0;
+            for (byte b : out.toByteArray()) {
+                if (zeros >= 2 && (b & 0xFF) <= 3) {
+                    nal.write(3);
+                    zeros = 0;
+                }
+                nal.write(b);
+                zeros = b == 0 ? zeros + 1 : 0;
+            }
+            return nal.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.cctv.probe;
+
+import com.cctv.model.StreamInfo;
+import org.junit.jupiter.api.Test;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamProbeTest {
+
+    @Test
+    void testProbe_UsesSdpKeptFromValidation() {
+        StreamInfo stream = new StreamInfo();
+        // Nothing listens on port 1; a second DESCRIBE would fail
+        stream.setRtspUrl("rtsp://127.0.0.1:1/live");
+        stream.setSdp("v=0\r\nm=video 0 RTP/AVP 96\r\na=rtpmap:96 H264/90000\r\n"
+                + "a=fmtp:96 packetization-mode=1;sprop-parameter-sets="
+                + Base64.getEncoder().encodeToString(SpsParserTest.h264Sps()) + ",aM48gA==\r\n");
+
+        StreamProbe.probe(stream);
+
+        assertEquals("1920x1080", stream.getResolution());
+        assertEquals("h264", stream.getCodec());
+        assertNull(stream.getError());
+    }
+
+    @Test
+    void testProbe_FailedDescribeDoesNotFallBackToFfmpeg() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        try (ServerSocket server = new ServerSocket(0)) {
+            Thread thread = new Thread(() -> {
+                while (!server.isClosed()) {
+                    try (Socket socket = server.accept()) {
+                        connections.incrementAndGet();
+                        BufferedReader in = new BufferedReader(
+                                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                        String cseq = null;
+                        String line;
+                        while ((line = in.readLine()) != null && !line.isEmpty()) {
+                            if (line.startsWith("CSeq:")) {
+                                cseq = line.substring(5).trim();
+                            }
+                        }
+                        OutputStream out = socket.getOutputStream();
+                        out.write(("RTSP/1.0 404 Not Found\r\nCSeq: " + cseq + "\r\n\r\n")
+                                .getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    } catch (Exception e) {
+                        // Closed
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+
+            StreamInfo stream = new StreamInfo();
+            stream.setRtspUrl("rtsp://127.0.0.1:" + server.getLocalPort() + "/missing");
+            StreamProbe.probe(stream);
+
+            assertEquals("RTSP Error: Stream not found", stream.getError());
+            assertNull(stream.getCodec());
+            assertEquals(1, connections.get());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.cctv.rtsp;
+
+import com.cctv.network.DigestAuth;
+import org.junit.jupiter.api.Test;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RtspConnectionTest {
+
+    @Test
+    void testDescribeAll_OneConnectionForManyPaths() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            AtomicInteger connections = new AtomicInteger();
+            List<String> authorizations = Collections.synchronizedList(new ArrayList<>());
+            Thread thread = serve(server, connections, authorizations);
+
+            List<String> paths = Arrays.asList("/a", "/b", "/c", "/d", "/e", "/f", "/g", "/h", "/i", "/live", "/k");
+            List<RtspClient.Response> responses;
+            try (RtspConnection connection = RtspConnection.open("127.0.0.1", server.getLocalPort(), "admin",
+                    "secret", 2000)) {
+                responses = connection.describeAll(paths);
+            }
+            thread.join(2000);
+
+            assertEquals(1, connections.get());
+            assertEquals(paths.size(), responses.size());
+            for (int i = 0; i < paths.size(); i++) {
+                int expected = paths.get(i).equals("/live") ? 200 : 404;
+                assertEquals(expected, responses.get(i).statusCode, paths.get(i));
+            }
+
+            // Every authorized request reuses the nonce of the single challenge
+            assertEquals(paths.size(), authorizations.size());
+            for (String authorization : authorizations) {
+                assertEquals("n1", DigestAuth.parseChallenge(authorization).get("nonce"));
+            }
+        }
+    }
+
+    @Test
+    void testDescribeAll_StopsAfterTheWindowWithASuccess() throws Exception {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            paths.add(i == 3 ? "/live" : "/p" + i);
+        }
+        try (ServerSocket server = new ServerSocket(0)) {
+            List<String> authorizations = Collections.synchronizedList(new ArrayList<>());
+            Thread thread = serve(server, new AtomicInteger(), authorizations);
+
+            List<RtspClient.Response> responses;
+            try (RtspConnection connection = RtspConnection.open("127.0.0.1", server.getLocalPort(), "admin",
+                    "secret", 2000)) {
+                responses = connection.describeAll(paths, RtspClient.Response::isSuccess);
+            }
+            thread.join(2000);
+
+            // The lone first request, then one authorized window of 8 starting with it
+            assertEquals(8, authorizations.size());
+            assertEquals(404, responses.get(0).statusCode);
+            assertEquals(200, responses.get(3).statusCode);
+            assertEquals(404, responses.get(7).statusCode);
+            for (int i = 8; i < paths.size(); i++) {
+                assertNull(responses.get(i), paths.get(i));
+            }
+        }
+    }
+
+    @Test
+    void testOpen_RefusedPortThrows() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        assertThrows(IOException.class, () -> RtspConnection.open("127.0.0.1", port, null, null, 500));
+    }
+
+    /**
+     * Answers requests in arrival order: 401 without Authorization, 200 for /live, 404 otherwise.
+     */
+    private static Thread serve(ServerSocket server, AtomicInteger connections, List<String> authorizations) {
+        Thread thread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                connections.incrementAndGet();
+                server.setSoTimeout(300);
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                OutputStream out = socket.getOutputStream();
+                String requestLine;
+                while ((requestLine = in.readLine()) != null) {
+                    if (requestLine.isEmpty()) {
+                        continue;
+                    }
+                    String cseq = null;
+                    String authorization = null;
+                    String line;
+                    while ((line = in.readLine()) != null && !line.isEmpty()) {
+                        if (line.startsWith("CSeq:")) {
+                            cseq = line.substring(5).trim();
+                        } else if (line.startsWith("Authorization:")) {
+                            authorization = line.substring(14).trim();
+                        }
+                    }
+                    String response;
+                    if (authorization == null) {
+                        response = "RTSP/1.0 401 Unauthorized\r\nCSeq: " + cseq
+                                + "\r\nWWW-Authenticate: Digest realm=\"cams\", nonce=\"n1\"\r\n\r\n";
+                    } else {
+                        authorizations.add(authorization);
+                        response = requestLine.contains("/live ")
+                                ? "RTSP/1.0 200 OK\r\nCSeq: " + cseq + "\r\nContent-Length: 3\r\n\r\nv=0"
+                                : "RTSP/1.0 404 Not Found\r\nCSeq: " + cseq + "\r\n\r\n";
+                    }
+                    out.write(response.getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+                // Count any further connection attempts
+                while (true) {
+                    try (Socket extra = server.accept()) {
+                        connections.incrementAndGet();
+                    }
+                }
+            } catch (Exception e) {
+                // Client closed the connection or no further connections
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,94 @@
+package com.cctv.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExecutionBudgetTest {
+
+    @AfterEach
+    void tearDown() {
+        ExecutionBudget.end();
+    }
+
+    @Test
+    void testUnlimited_LeavesTimeoutsAlone() {
+        ExecutionBudget budget = ExecutionBudget.current();
+        assertTrue(budget.isUnlimited());
+        assertFalse(budget.isExpired());
+        assertEquals(5000, budget.clampTimeout(5000));
+        assertEquals(8, budget.limit(8));
+    }
+
+    @Test
+    void testStart_SplitsThreadsAcrossLanesAndCapsLimits() {
+        ExecutionBudget budget = ExecutionBudget.start(16, 60);
+        assertSame(budget, ExecutionBudget.current());
+        assertEquals(4, Scheduler.getThreads(Scheduler.Lane.SCAN));
+        assertEquals(8, Scheduler.getThreads(Scheduler.Lane.DEVICE));
+        assertEquals(4, Scheduler.getThreads(Scheduler.Lane.RTSP));
+        assertEquals(8, budget.limit(8));
+        assertEquals(16, budget.limit(32));
+        assertTrue(budget.clampTimeout(5000) <= 5000);
+
+        ExecutionBudget.end();
+        assertTrue(ExecutionBudget.current().isUnlimited());
+        assertEquals(Scheduler.Lane.DEVICE.getThreads(), Scheduler.getThreads(Scheduler.Lane.DEVICE));
+        assertEquals(Scheduler.Lane.RTSP.getThreads(), Scheduler.getThreads(Scheduler.Lane.RTSP));
+    }
+
+    @Test
+    void testSplit_TotalIsTheThreadCountWithOneThreadPerLaneMinimum() {
+        for (int threads = 3; threads <= 64; threads++) {
+            assertEquals(threads, ExecutionBudget.scanThreads(threads) + ExecutionBudget.deviceThreads(threads)
+                    + ExecutionBudget.rtspThreads(threads), "threads " + threads);
+        }
+        assertEquals(1, ExecutionBudget.deviceThreads(1));
+        assertEquals(8, ExecutionBudget.rtspThreads(100));
+    }
+
+    @Test
+    void testConcurrentRuns_KeepTheirOwnBudgets() throws Exception {
+        ExecutionBudget mine = ExecutionBudget.start(4, 60);
+        ExecutionBudget[] other = new ExecutionBudget[1];
+        boolean[] lastRun = new boolean[1];
+        Thread run = new Thread(() -> {
+            other[0] = ExecutionBudget.start(12, 1);
+            lastRun[0] = ExecutionBudget.end();
+        });
+        run.start();
+        run.join();
+
+        assertNotSame(mine, other[0]);
+        assertFalse(lastRun[0], "this run is still going");
+        assertSame(mine, ExecutionBudget.current());
+        // Tasks of this run see its budget on lane threads
+        assertSame(mine, Scheduler.supplyAsync(Scheduler.Lane.SCAN, ExecutionBudget::current).get());
+        assertSame(mine, Scheduler.submit(Scheduler.Lane.DEVICE, ExecutionBudget::current).get());
+        // The other run's end left this run's lane sizes in place
+        assertEquals(2, Scheduler.getThreads(Scheduler.Lane.DEVICE));
+
+        assertTrue(ExecutionBudget.end());
+        assertTrue(Scheduler.supplyAsync(Scheduler.Lane.SCAN, ExecutionBudget::current).get().isUnlimited());
+    }
+
+    @Test
+    void testStart_WithoutTimeoutHasNoDeadline() {
+        ExecutionBudget budget = ExecutionBudget.start(4, 0);
+        assertFalse(budget.isUnlimited());
+        assertFalse(budget.isExpired());
+        assertEquals(Long.MAX_VALUE, budget.remainingMillis());
+        assertEquals(5000, budget.clampTimeout(5000));
+        assertEquals(4, budget.limit(8));
+        assertThrows(IllegalArgumentException.class, () -> ExecutionBudget.start(4, -1));
+    }
+
+    @Test
+    void testExpired_ClampsToOneMillisecond() throws Exception {
+        ExecutionBudget budget = ExecutionBudget.start(2, 1);
+        Thread.sleep(1100);
+        assertTrue(budget.isExpired());
+        assertEquals(0, budget.remainingMillis());
+        assertEquals(1, budget.clampTimeout(2000));
+    }
+}
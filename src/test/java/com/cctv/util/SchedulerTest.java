@@ -0,0 +1,38 @@
+package com.cctv.util;
+
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SchedulerTest {
+
+    @Test
+    void testSubmit_RunsOnLaneThread() throws Exception {
+        String name = Scheduler.submit(Scheduler.Lane.RTSP, () -> Thread.currentThread().getName())
+                .get(5, TimeUnit.SECONDS);
+        assertTrue(name.startsWith("cctv-rtsp-"), name);
+    }
+
+    @Test
+    void testSubmit_NestedOnSaturatedLaneDoesNotDeadlock() throws Exception {
+        int threads = Scheduler.Lane.RTSP.getThreads();
+        List<Future<Integer>> outer = new ArrayList<>();
+        // Every lane thread waits on a nested task of the same lane
+        for (int i = 0; i < threads * 2; i++) {
+            int value = i;
+            outer.add(Scheduler.submit(Scheduler.Lane.RTSP,
+                    () -> Scheduler.submit(Scheduler.Lane.RTSP, () -> value * 2).get()));
+        }
+        for (int i = 0; i < outer.size(); i++) {
+            assertEquals(i * 2, outer.get(i).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void testSupplyAsync() throws Exception {
+        assertEquals("ok", Scheduler.supplyAsync(Scheduler.Lane.DEVICE, () -> "ok").get(5, TimeUnit.SECONDS));
+    }
+}